@@ -0,0 +1,51 @@
+package kent.dja33.iot.a1.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import kent.dja33.iot.a1.util.alert.AlertEngine;
+
+/**
+ * Cost of checking one sample against the default alert rules, with no
+ * listeners so only the rule evaluation itself is measured
+ * 
+ * @author Dante
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlertBenchmark {
+
+	private AlertEngine engine;
+
+	private long time;
+
+	@Setup
+	public void setup() {
+		engine = new AlertEngine(AlertEngine.defaultRules());
+		time = System.currentTimeMillis();
+	}
+
+	@Benchmark
+	public void evaluate() {
+		time += 250;
+		/* Cross the thresholds every so often so the raise/clear path runs */
+		float temperature = (time & 0x3000) == 0 ? 45f : 21.5f;
+		engine.evaluate(time, temperature, 0.01f, -0.02f, 1.01f);
+	}
+
+}
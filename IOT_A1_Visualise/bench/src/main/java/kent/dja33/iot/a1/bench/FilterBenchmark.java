@@ -0,0 +1,76 @@
+package kent.dja33.iot.a1.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import kent.dja33.iot.a1.util.filter.ExponentialFilter;
+import kent.dja33.iot.a1.util.filter.LowPassFilter;
+import kent.dja33.iot.a1.util.filter.MedianFilter;
+import kent.dja33.iot.a1.util.filter.MovingAverageFilter;
+
+/**
+ * Cost of a single sample through each SampleFilter, the input wanders so the
+ * median filter cannot take a shortcut
+ * 
+ * @author Dante
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+
+	private MovingAverageFilter sma;
+	private ExponentialFilter ema;
+	private MedianFilter median;
+	private LowPassFilter lowPass;
+
+	private float sample;
+
+	@Setup
+	public void setup() {
+		sma = new MovingAverageFilter(8);
+		ema = new ExponentialFilter(0.25f);
+		median = new MedianFilter(5);
+		lowPass = new LowPassFilter(0.5f, 4f, LowPassFilter.BUTTERWORTH_Q);
+	}
+
+	private float next() {
+		sample = sample * 0.9f + 2.5f + (sample > 25 ? -1.3f : 1.7f);
+		return sample;
+	}
+
+	@Benchmark
+	public float movingAverage() {
+		return sma.filter(next());
+	}
+
+	@Benchmark
+	public float exponential() {
+		return ema.filter(next());
+	}
+
+	@Benchmark
+	public float median() {
+		return median.filter(next());
+	}
+
+	@Benchmark
+	public float lowPass() {
+		return lowPass.filter(next());
+	}
+
+}
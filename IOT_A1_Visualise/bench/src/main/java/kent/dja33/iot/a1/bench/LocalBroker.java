@@ -0,0 +1,171 @@
+package kent.dja33.iot.a1.bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * Stands in for an MQTT broker so the SamplePublisher can be tried without
+ * installing one. Answers CONNECT, PUBLISH at QoS 0 and 1 and PINGREQ, and
+ * hands every message published to a listener rather than on to
+ * subscribers, which there are none of.
+ *
+ * It can be taken down, closing every connection and refusing new ones, and
+ * brought back up on the same port, to see the publisher spool through an
+ * outage.
+ *
+ * @author Dante
+ *
+ */
+public class LocalBroker {
+
+	private final BiConsumer<String, byte[]> published;
+	private final List<Socket> clients = new CopyOnWriteArrayList<>();
+	private volatile ServerSocket server;
+	private int port;
+
+	/**
+	 * Create a broker, it listens once started
+	 *
+	 * @param published
+	 *            told the topic and payload of every message published
+	 */
+	public LocalBroker(BiConsumer<String, byte[]> published) {
+		this.published = published;
+	}
+
+	/**
+	 * Listen on the loopback address, on a free port the first time and the
+	 * same one after being taken down
+	 *
+	 * @throws IOException
+	 *             if the port could not be listened on
+	 */
+	public synchronized void start() throws IOException {
+		ServerSocket server = new ServerSocket();
+		server.setReuseAddress(true);
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		port = server.getLocalPort();
+		this.server = server;
+
+		Thread accept = new Thread(() -> accept(server), "Broker-Accept");
+		accept.setDaemon(true);
+		accept.start();
+	}
+
+	/**
+	 * Close every connection and stop listening
+	 */
+	public synchronized void stop() {
+		try {
+			if (server != null) {
+				server.close();
+			}
+		} catch (IOException e) {
+			/* Closing anyway */
+		}
+		for (Socket client : clients) {
+			try {
+				client.close();
+			} catch (IOException e) {
+				/* Closing anyway */
+			}
+		}
+		clients.clear();
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	private void accept(ServerSocket server) {
+		while (!server.isClosed()) {
+			try {
+				Socket client = server.accept();
+				clients.add(client);
+				Thread thread = new Thread(() -> serve(client), "Broker-Client");
+				thread.setDaemon(true);
+				thread.start();
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Answer a client's packets until it disconnects
+	 */
+	private void serve(Socket client) {
+		try (Socket socket = client) {
+
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+			while (true) {
+
+				int header = in.readUnsignedByte();
+				int length = readLength(in);
+				byte[] body = new byte[length];
+				in.readFully(body);
+
+				switch (header >> 4) {
+				case 1: // CONNECT, accepted whatever it asks for
+					out.write(new byte[] { 0x20, 2, 0, 0 });
+					break;
+				case 3: // PUBLISH
+					int qos = header >> 1 & 3;
+					int topicLength = (body[0] & 0xFF) << 8 | body[1] & 0xFF;
+					String topic = new String(body, 2, topicLength, StandardCharsets.UTF_8);
+					int p = 2 + topicLength;
+					if (qos > 0) {
+						out.write(new byte[] { 0x40, 2, body[p], body[p + 1] });
+						p += 2;
+					}
+					byte[] payload = new byte[length - p];
+					System.arraycopy(body, p, payload, 0, payload.length);
+					published.accept(topic, payload);
+					break;
+				case 12: // PINGREQ
+					out.write(new byte[] { (byte) 0xD0, 0 });
+					break;
+				case 14: // DISCONNECT
+					return;
+				default:
+					break;
+				}
+
+				if (in.available() == 0) {
+					out.flush();
+				}
+			}
+
+		} catch (IOException e) {
+			/* Client gone, or the broker taken down */
+		} finally {
+			clients.remove(client);
+		}
+	}
+
+	private static int readLength(DataInputStream in) throws IOException {
+		int length = 0;
+		for (int shift = 0; shift < 28; shift += 7) {
+			int digit = in.readUnsignedByte();
+			length |= (digit & 0x7F) << shift;
+			if ((digit & 0x80) == 0) {
+				return length;
+			}
+		}
+		throw new IOException("Malformed remaining length");
+	}
+
+}
@@ -0,0 +1,50 @@
+package kent.dja33.iot.a1.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import kent.dja33.iot.a1.util.message.Message;
+import kent.dja33.iot.a1.util.message.MessageHandler;
+
+/**
+ * How long it takes to turn a frame read in over serial into a Message, this
+ * is paid once for every frame the MBED sends
+ * 
+ * @author Dante
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+
+	private final MessageHandler handler = MessageHandler.getHandler();
+
+	@Benchmark
+	public Message dataFrame() {
+		return handler.createMessage("#D21.5:0.01:-0.02:1.01#");
+	}
+
+	@Benchmark
+	public Message settingFrame() {
+		return handler.createMessage("#STick rate: 0.5#");
+	}
+
+	@Benchmark
+	public Message errorFrame() {
+		return handler.createMessage("#Q?#");
+	}
+
+}
@@ -0,0 +1,245 @@
+package kent.dja33.iot.a1.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.BitSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import kent.dja33.iot.a1.util.Out;
+import kent.dja33.iot.a1.util.message.DataMessage;
+import kent.dja33.iot.a1.util.message.DataMessageListener;
+import kent.dja33.iot.a1.util.message.MessageHandler;
+import kent.dja33.iot.a1.util.metrics.Histogram;
+import kent.dja33.iot.a1.util.metrics.Metrics;
+import kent.dja33.iot.a1.util.publish.SampleBatch;
+import kent.dja33.iot.a1.util.publish.SamplePublisher;
+
+/**
+ * Pushes samples through a SamplePublisher into a LocalBroker at a steady
+ * rate, taking the broker down for a while in the middle, and checks every
+ * sample came out the other side without ingest ever being held up.
+ *
+ * Samples are handed to the publisher as the SensorPipeline would, in a run
+ * every PIPELINE_RATE followed by endOfBatch. Each carries its sequence
+ * number in place of its anomalies, so the broker can tell which arrived,
+ * which arrived twice and which never did. Time spent handing each sample
+ * over is measured, as that is all the pipeline ever waits on.
+ *
+ * Reports the samples offered, delivered, duplicated and missing, how long
+ * after the last was offered delivery caught up, batches spooled and
+ * retried, and the ingest and PUBACK latencies. At QoS 1 the harness fails
+ * if any sample is missing or the p99 ingest time is over MAX_INGEST_P99.
+ *
+ * java -cp target/benchmarks.jar kent.dja33.iot.a1.bench.PublishHarness
+ * --rate 5000 --seconds 30 --outage 10 --qos 1
+ *
+ * @author Dante
+ *
+ */
+public class PublishHarness {
+
+	/* How often the pipeline runs, as in SensorDisplay */
+	private static final long PIPELINE_RATE = 250;
+
+	/*
+	 * Longest to wait for delivery to catch up once everything is offered,
+	 * and to wait without anything more arriving, as at QoS 0 some may never
+	 */
+	private static final long CATCH_UP_TIMEOUT = 60000;
+	private static final long STALL_TIMEOUT = 3000;
+
+	/* Limit for handing over a sample */
+	private static final long MAX_INGEST_P99 = 1_000_000L;
+
+	private static final String DEVICE = "HARNESS";
+
+	/* Sequence numbers seen by the broker */
+	private final BitSet delivered = new BitSet();
+	private long received;
+	private long duplicates;
+
+	private final Histogram ingest = new Histogram("Ingest");
+
+	public static void main(String[] args) {
+
+		int rate = 5000;
+		long seconds = 30;
+		long outage = 10;
+		int qos = 1;
+
+		try {
+			for (int i = 0; i < args.length; i += 2) {
+				String value = args[i + 1];
+				switch (args[i]) {
+				case "--rate":
+					rate = Integer.parseInt(value);
+					break;
+				case "--seconds":
+					seconds = Long.parseLong(value);
+					break;
+				case "--outage":
+					outage = Long.parseLong(value);
+					break;
+				case "--qos":
+					qos = Integer.parseInt(value);
+					break;
+				default:
+					throw new IllegalArgumentException(args[i]);
+				}
+			}
+			if (rate <= 0 || seconds <= 0 || outage < 0 || outage >= seconds || qos < 0 || qos > 1) {
+				throw new IllegalArgumentException();
+			}
+		} catch (RuntimeException e) {
+			System.err.println("Usage: PublishHarness [--rate 5000] [--seconds 30] [--outage 10] [--qos 0|1]");
+			System.exit(2);
+		}
+
+		boolean passed;
+		try {
+			passed = new PublishHarness().run(rate, seconds, outage, qos);
+		} catch (IOException | InterruptedException e) {
+			System.err.println("Harness failed: " + e);
+			passed = false;
+		}
+		Out.close();
+		System.exit(passed ? 0 : 1);
+	}
+
+	/**
+	 * Publish at a rate for a number of seconds, with the broker down for the
+	 * outage in the middle
+	 *
+	 * @return true if everything arrived and ingest was never held up
+	 */
+	private boolean run(int rate, long seconds, long outage, int qos) throws IOException, InterruptedException {
+
+		LocalBroker broker = new LocalBroker(this::published);
+		broker.start();
+
+		String spool = Files.createTempDirectory("publish-spool").toString();
+		SamplePublisher publisher = new SamplePublisher(InetAddress.getLoopbackAddress().getHostAddress(),
+				broker.getPort(), qos, spool);
+		DataMessageListener listener = publisher.forDevice(DEVICE);
+		publisher.start();
+
+		int perRun = (int) Math.max(1, rate * PIPELINE_RATE / 1000);
+		long runs = seconds * 1000 / PIPELINE_RATE;
+		long downAt = (seconds - outage) / 2 * 1000 / PIPELINE_RATE;
+		long upAt = downAt + outage * 1000 / PIPELINE_RATE;
+		int[] sequence = { 0 };
+
+		System.out.printf("Publishing %d samples/s for %ds at QoS %d, broker down from %.1fs to %.1fs%n",
+				perRun * 1000 / PIPELINE_RATE, seconds, qos, downAt * PIPELINE_RATE / 1000.0,
+				upAt * PIPELINE_RATE / 1000.0);
+
+		ScheduledExecutorService pipeline = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "SensorPipeline");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		long[] run = { 0 };
+		pipeline.scheduleAtFixedRate(() -> {
+			if (run[0] == downAt && outage > 0) {
+				broker.stop();
+			} else if (run[0] == upAt && outage > 0) {
+				try {
+					broker.start();
+				} catch (IOException e) {
+					System.err.println("Could not bring the broker back: " + e.getMessage());
+				}
+			}
+			for (int i = 0; i < perRun; i++) {
+				DataMessage msg = new DataMessage(MessageHandler.DATA, null, "21.50:0.012:-0.023:1.000", 0);
+				msg.setAnomalies(sequence[0]++);
+				long start = System.nanoTime();
+				listener.dataReceived(msg);
+				ingest.recordSince(start);
+			}
+			long start = System.nanoTime();
+			listener.endOfBatch();
+			ingest.recordSince(start);
+			run[0]++;
+		}, 0, PIPELINE_RATE, TimeUnit.MILLISECONDS);
+
+		Thread.sleep(runs * PIPELINE_RATE);
+		pipeline.shutdown();
+		pipeline.awaitTermination(PIPELINE_RATE * 4, TimeUnit.MILLISECONDS);
+		long offered = sequence[0];
+
+		/* The publisher seals the last partial batch once it has lingered */
+		long finished = System.nanoTime();
+		long deadline = System.currentTimeMillis() + CATCH_UP_TIMEOUT;
+		long progress = System.currentTimeMillis();
+		long last = countDelivered();
+		while (last < offered && System.currentTimeMillis() < deadline
+				&& System.currentTimeMillis() - progress < STALL_TIMEOUT) {
+			Thread.sleep(10);
+			if (countDelivered() != last) {
+				last = countDelivered();
+				progress = System.currentTimeMillis();
+			}
+		}
+		long catchUp = (System.nanoTime() - finished) / 1_000_000;
+		publisher.close();
+		broker.stop();
+		new File(spool).delete();
+
+		long got = countDelivered();
+		long missing = offered - got;
+		Histogram acks = Metrics.metrics.publishLatency;
+
+		System.out.printf("Offered %d, delivered %d, duplicates %d, missing %d, settled %dms after the last%n",
+				offered, got, duplicates(), missing, catchUp);
+		System.out.printf("Batches published %d, spooled %d, dropped %d, retried %d%n",
+				Metrics.metrics.batchesPublished.get(), Metrics.metrics.batchesSpooled.get(),
+				Metrics.metrics.batchesDropped.get(), Metrics.metrics.publishRetries.get());
+		System.out.printf("Ingest p50 %.1fus p99 %.1fus max %.1fus, PUBACK p50 %.2fms p99 %.2fms%n",
+				ingest.percentile(0.5) / 1000.0, ingest.percentile(0.99) / 1000.0, ingest.getMax() / 1000.0,
+				acks.percentile(0.5) / 1e6, acks.percentile(0.99) / 1e6);
+
+		boolean passed = true;
+		if (qos > 0 && missing > 0) {
+			System.out.println("FAIL: " + missing + " samples never arrived");
+			passed = false;
+		}
+		if (ingest.percentile(0.99) > MAX_INGEST_P99) {
+			System.out.println("FAIL: handing samples over held up the pipeline");
+			passed = false;
+		}
+		if (passed) {
+			System.out.println("PASS");
+		}
+		return passed;
+	}
+
+	/**
+	 * Mark the samples of a batch the broker received
+	 */
+	private synchronized void published(String topic, byte[] payload) {
+		SampleBatch batch = SampleBatch.fromBytes(payload);
+		for (int i = 0; i < batch.size(); i++) {
+			int sequence = batch.getAnomalies(i);
+			if (delivered.get(sequence)) {
+				duplicates++;
+			} else {
+				delivered.set(sequence);
+				received++;
+			}
+		}
+	}
+
+	private synchronized long countDelivered() {
+		return received;
+	}
+
+	private synchronized long duplicates() {
+		return duplicates;
+	}
+
+}
@@ -0,0 +1,418 @@
+package kent.dja33.iot.a1.bench;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import kent.dja33.iot.a1.util.Out;
+import kent.dja33.iot.a1.util.SensorPipeline;
+import kent.dja33.iot.a1.util.SerialReader;
+import kent.dja33.iot.a1.util.emulator.MbedEmulator;
+import kent.dja33.iot.a1.util.emulator.MbedEmulator.Profile;
+import kent.dja33.iot.a1.util.filter.FilterStage;
+import kent.dja33.iot.a1.util.message.DataMessage;
+import kent.dja33.iot.a1.util.message.DataMessageListener;
+import kent.dja33.iot.a1.util.metrics.Histogram;
+
+/**
+ * Soaks the whole path a sample takes, from the bytes on the wire through
+ * the SerialReader, MessageHandler and SensorPipeline to the chart, at a
+ * series of rising input rates for as long as asked. Microbenchmarks only
+ * time each piece alone, this finds what the pieces do to each other over
+ * hours, such as the native out of memory seen after a minute of running.
+ *
+ * Samples come from a sequenced MbedEmulator so the time each frame was
+ * written is known, and end-to-end latency is measured from then until the
+ * sample is taken off the queue for the chart. JavaFX can not run here so
+ * the SensorHandler is stood in for by the same queue drained the same way,
+ * at most DRAIN_PER_PULSE samples every PULSE.
+ *
+ * Each step reports the rate offered and delivered, samples lost going by
+ * gaps in the sequence numbers, the p50/p99/p999 latency, collections and
+ * their longest, heap in use, resident memory and buffers outside the heap.
+ * A step is sustained if few enough samples were lost, p99 stayed under
+ * MAX_P99 and less than a second of samples were left waiting.
+ *
+ * After the steps the first is run again as a cool down, letting queues
+ * drain, and the heap is collected before it is measured. The steps repeat
+ * until the time is up, at least twice. Memory after the last cool down is
+ * compared with the first, once everything has warmed up, and the harness
+ * fails if it has grown.
+ *
+ * java -Xmx64m -cp target/benchmarks.jar kent.dja33.iot.a1.bench.SoakHarness
+ * --steps 20,100,1000,5000 --step-seconds 60 --hours 4 --profile typical
+ *
+ * @author Dante
+ *
+ */
+public class SoakHarness {
+
+	/* Input rates stepped through, frames per second */
+	private static final int[] DEFAULT_STEPS = { 20, 100, 500, 1000, 2000, 5000, 10000 };
+	private static final long DEFAULT_STEP_SECONDS = 60;
+
+	/* Time at the start of each step before anything is measured */
+	private static final double SETTLE_FRACTION = 0.1;
+
+	/* How the chart takes samples, as in SensorHandler */
+	private static final long PULSE = 16;
+	private static final int DRAIN_PER_PULSE = 50;
+
+	/* How often the pipeline runs, as in SensorDisplay */
+	private static final long PIPELINE_RATE = 250;
+
+	/* Limits for a step to be sustained */
+	private static final double MAX_LOSS = 0.01;
+	private static final long MAX_P99 = 500_000_000L;
+
+	/* Growth in memory allowed between the first step and the last cool down */
+	private static final double MAX_HEAP_GROWTH = 1.5;
+	private static final long HEAP_ALLOWANCE = 8L << 20;
+	private static final double MAX_RESIDENT_GROWTH = 1.25;
+	private static final long RESIDENT_ALLOWANCE = 32L << 20;
+
+	private static final String PORT = "SOAK";
+
+	private final MbedEmulator emulator;
+
+	/* Samples waiting for the chart */
+	private final ConcurrentLinkedQueue<DataMessage> chart = new ConcurrentLinkedQueue<>();
+
+	/* Replaced at the start of each step */
+	private volatile Histogram latency = new Histogram("Latency");
+	private volatile Histogram collections = new Histogram("Collections");
+	private volatile boolean measuring;
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong lost = new AtomicLong();
+
+	/* Sequence number of the last sample taken, only used by the pulse */
+	private int lastSequence = -1;
+
+	private SoakHarness(Profile profile, int baudRate) {
+		this.emulator = new MbedEmulator(PORT).setProfile(profile).setBaudRate(baudRate).setSequenced(true)
+				.setMotion(0).attach();
+	}
+
+	public static void main(String[] args) {
+
+		int[] steps = DEFAULT_STEPS;
+		long stepSeconds = DEFAULT_STEP_SECONDS;
+		double hours = 0;
+		Profile profile = Profile.CLEAN;
+		int baudRate = 0;
+
+		try {
+			for (int i = 0; i < args.length; i += 2) {
+				String value = args[i + 1];
+				switch (args[i]) {
+				case "--steps":
+					steps = parseSteps(value);
+					break;
+				case "--step-seconds":
+					stepSeconds = Long.parseLong(value);
+					break;
+				case "--hours":
+					hours = Double.parseDouble(value);
+					break;
+				case "--profile":
+					profile = Profile.valueOf(value.toUpperCase(Locale.ROOT));
+					break;
+				case "--baud":
+					baudRate = Integer.parseInt(value);
+					break;
+				default:
+					throw new IllegalArgumentException(args[i]);
+				}
+			}
+		} catch (RuntimeException e) {
+			System.err.println("Usage: SoakHarness [--steps 20,100,1000] [--step-seconds 60] [--hours 0]"
+					+ " [--profile clean|typical|hostile] [--baud 0]");
+			System.exit(2);
+		}
+
+		boolean passed = new SoakHarness(profile, baudRate).run(steps, stepSeconds, hours);
+		Out.close();
+		System.exit(passed ? 0 : 1);
+	}
+
+	private static int[] parseSteps(String value) {
+		String[] parts = value.split(",");
+		int[] steps = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			steps[i] = Integer.parseInt(parts[i].trim());
+			if (steps[i] <= 0) {
+				throw new IllegalArgumentException(parts[i]);
+			}
+		}
+		return steps;
+	}
+
+	/**
+	 * Run every step until the time is up
+	 *
+	 * @return true if memory did not grow
+	 */
+	private boolean run(int[] steps, long stepSeconds, double hours) {
+
+		watchCollections();
+
+		SensorPipeline.getPipeline().setFilterStage(FilterStage.defaultStage());
+		SensorPipeline.getPipeline().addListener(new DataMessageListener() {
+			@Override
+			public void dataReceived(DataMessage msg) {
+				chart.add(msg);
+			}
+		});
+
+		ScheduledExecutorService executor = Executors.newScheduledThreadPool(2, r -> {
+			Thread thread = new Thread(r, "Soak");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleAtFixedRate(SensorPipeline.getPipeline(), 0, PIPELINE_RATE, TimeUnit.MILLISECONDS);
+		executor.scheduleAtFixedRate(this::pulse, 0, PULSE, TimeUnit.MILLISECONDS);
+
+		emulator.setTickRate(1f / steps[0]);
+		if (!SerialReader.in.openPort(PORT)) {
+			System.err.println("Could not connect to the emulator.");
+			return false;
+		}
+
+		System.out.printf("%-6s %8s %8s %7s %8s %8s %8s %8s %5s %7s %8s %8s %8s %8s %s%n", "Cycle", "Offered",
+				"Got/s", "Lost%", "p50 ms", "p99 ms", "p999 ms", "max ms", "GCs", "GC max", "Heap MB", "RSS MB",
+				"Off MB", "Backlog", "Sustained");
+
+		long end = System.currentTimeMillis() + (long) (hours * 3_600_000);
+		Step baseline = null;
+		Step cooldown = null;
+		int maxSustained = 0;
+		int cycle = 0;
+
+		do {
+
+			cycle++;
+
+			for (int rate : steps) {
+				Step step = runStep(cycle, rate, stepSeconds, false);
+				if (step.sustained()) {
+					maxSustained = Math.max(maxSustained, rate);
+				}
+			}
+
+			cooldown = runStep(cycle, steps[0], stepSeconds, true);
+			if (baseline == null) {
+				baseline = cooldown;
+			}
+
+		} while (cycle < 2 || System.currentTimeMillis() < end);
+
+		executor.shutdownNow();
+		SerialReader.in.closePort();
+
+		System.out.println();
+		System.out.println("Maximum sustained rate: " + (maxSustained > 0 ? maxSustained + " samples/s" : "none"));
+		System.out.printf("Frames split %d, corrupted %d, garbage bursts %d, bytes lost in the driver %d%n",
+				emulator.getFramesSplit(), emulator.getFramesCorrupted(), emulator.getGarbageBursts(),
+				emulator.getBytesLost());
+
+		boolean passed = true;
+
+		if (cooldown.heap > baseline.heap * MAX_HEAP_GROWTH + HEAP_ALLOWANCE) {
+			System.out.printf("FAIL: heap grew from %.1f MB to %.1f MB%n", mb(baseline.heap),
+					mb(cooldown.heap));
+			passed = false;
+		}
+		if (baseline.resident > 0 && cooldown.resident > baseline.resident * MAX_RESIDENT_GROWTH + RESIDENT_ALLOWANCE) {
+			System.out.printf("FAIL: resident memory grew from %.1f MB to %.1f MB%n", mb(baseline.resident),
+					mb(cooldown.resident));
+			passed = false;
+		}
+		if (passed) {
+			System.out.println("PASS: memory did not grow");
+		}
+
+		return passed;
+	}
+
+	/**
+	 * Run at a rate for a step, measuring everything after it has settled
+	 *
+	 * @param cooldown
+	 *            whether to collect the heap before measuring it
+	 */
+	private Step runStep(int cycle, int rate, long seconds, boolean cooldown) {
+
+		emulator.setTickRate(1f / rate);
+
+		long settle = (long) (seconds * 1000 * SETTLE_FRACTION);
+		sleep(settle);
+
+		latency = new Histogram("Latency");
+		collections = new Histogram("Collections");
+		long receivedBefore = received.get();
+		long lostBefore = lost.get();
+		long start = System.nanoTime();
+		measuring = true;
+
+		sleep(seconds * 1000 - settle);
+
+		measuring = false;
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		Step step = new Step();
+		step.rate = rate;
+		step.received = received.get() - receivedBefore;
+		step.lost = lost.get() - lostBefore;
+		step.p99 = latency.percentile(0.99);
+		step.backlog = chart.size() + SerialReader.in.getAllMessages().size();
+		if (cooldown) {
+			System.gc();
+		}
+		step.heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+		step.resident = residentMemory();
+
+		System.out.printf("%-6s %8d %8.0f %7.2f %8.2f %8.2f %8.2f %8.2f %5d %7.1f %8.1f %8.1f %8.1f %8d %s%n", cycle
+				+ (cooldown ? "*" : ""), rate, step.received / elapsed, step.lostFraction() * 100, ms(latency.percentile(0.5)), ms(step.p99),
+				ms(latency.percentile(0.999)), ms(latency.getMax()), collections.getCount(),
+				ms(collections.getMax()), mb(step.heap), mb(step.resident), mb(offHeap()), step.backlog,
+				step.sustained() ? "yes" : "no");
+
+		return step;
+	}
+
+	/**
+	 * Take samples off the queue as the chart does every pulse
+	 */
+	private void pulse() {
+		long now = System.nanoTime();
+		for (int i = 0; i < DRAIN_PER_PULSE; i++) {
+			DataMessage msg = chart.poll();
+			if (msg == null) {
+				break;
+			}
+			received.incrementAndGet();
+
+			/*
+			 * A corrupted frame may have lost part of its sequence number,
+			 * which can only make it smaller, so is seen as going backwards
+			 */
+			float x = msg.getX();
+			int sequence = (int) x;
+			if (sequence != x || sequence < 0 || sequence >= MbedEmulator.SEQUENCES) {
+				continue;
+			}
+			int gap = lastSequence < 0 ? 0 : (sequence - lastSequence - 1) & (MbedEmulator.SEQUENCES - 1);
+			if (gap >= MbedEmulator.SEQUENCES / 2) {
+				continue;
+			}
+
+			if (measuring) {
+				lost.addAndGet(gap);
+				latency.record(now - emulator.getSendTime(sequence));
+			}
+			lastSequence = sequence;
+		}
+	}
+
+	/**
+	 * Record the length of every collection into the current step
+	 */
+	private void watchCollections() {
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (!(collector instanceof NotificationEmitter)) {
+				continue;
+			}
+			((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+				if (measuring && GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION
+						.equals(notification.getType())) {
+					GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+							.from((CompositeData) notification.getUserData());
+					collections.record(info.getGcInfo().getDuration() * 1_000_000);
+				}
+			}, null, null);
+		}
+	}
+
+	/**
+	 * Memory used by direct and mapped buffers
+	 */
+	private static long offHeap() {
+		long used = 0;
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			used += Math.max(0, pool.getMemoryUsed());
+		}
+		return used;
+	}
+
+	/**
+	 * Resident memory of the whole process, including everything native
+	 *
+	 * @return bytes, -1 where it can not be read
+	 */
+	private static long residentMemory() {
+		try {
+			for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+				if (line.startsWith("VmRSS:")) {
+					return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			/* Not Linux */
+		}
+		return -1;
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static double ms(long nanos) {
+		return nanos / 1e6;
+	}
+
+	private static double mb(long bytes) {
+		return bytes / (double) (1 << 20);
+	}
+
+	/**
+	 * What was measured over a step
+	 */
+	private static class Step {
+
+		int rate;
+		long received;
+		long lost;
+		long p99;
+		long backlog;
+		long heap;
+		long resident;
+
+		double lostFraction() {
+			return received + lost == 0 ? 0 : (double) lost / (received + lost);
+		}
+
+		boolean sustained() {
+			return received > 0 && lostFraction() <= MAX_LOSS && p99 <= MAX_P99 && backlog < rate;
+		}
+
+	}
+
+}
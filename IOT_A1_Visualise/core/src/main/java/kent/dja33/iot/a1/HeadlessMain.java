@@ -0,0 +1,300 @@
+package kent.dja33.iot.a1;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import kent.dja33.iot.a1.util.Out;
+import kent.dja33.iot.a1.util.SensorPipeline;
+import kent.dja33.iot.a1.util.SerialReader;
+import kent.dja33.iot.a1.util.alert.AlertEngine;
+import kent.dja33.iot.a1.util.anomaly.AnomalyDetector;
+import kent.dja33.iot.a1.util.device.ConnectionSupervisor;
+import kent.dja33.iot.a1.util.emulator.MbedEmulator;
+import kent.dja33.iot.a1.util.event.Event;
+import kent.dja33.iot.a1.util.event.EventLog;
+import kent.dja33.iot.a1.util.event.EventType;
+import kent.dja33.iot.a1.util.emulator.MbedEmulator.Profile;
+import kent.dja33.iot.a1.util.filter.FilterStage;
+import kent.dja33.iot.a1.util.publish.SamplePublisher;
+import kent.dja33.iot.a1.util.query.Query;
+import kent.dja33.iot.a1.util.query.QueryResult;
+import kent.dja33.iot.a1.util.server.SampleServer;
+import kent.dja33.iot.a1.util.store.SampleRecorder;
+import kent.dja33.iot.a1.util.store.SampleStore;
+
+/**
+ * Starting point for collecting samples without the GUI, never touches
+ * JavaFX so can run on machines without a display. Connects to the port given
+ * or, if none is given or it is "auto", keeps trying every available port
+ * until a sensor responds. Every sample received is recorded and served over
+ * HTTP by a SampleServer, and checked against the default alerts. If the
+ * sensor is lost it is reconnected by a ConnectionSupervisor.
+ *
+ * Can be started directly or through Main with the --headless argument, as
+ * it holds very little it is happy to run with a small heap, for example:
+ *
+ * java -Xmx16m -XX:+UseSerialGC kent.dja33.iot.a1.HeadlessMain COM11 8090
+ *
+ * Given --query followed by a query it instead answers the query over
+ * everything recorded so far and exits, for example:
+ *
+ * java kent.dja33.iot.a1.HeadlessMain --query "SELECT EVENTS(*) WHERE ABS(z) &lt; 0.9 GROUP BY DAY"
+ *
+ * Given --events, optionally followed by the types of event to look for and
+ * how many hours back to look, it instead lists the events recorded and
+ * exits, for example:
+ *
+ * java kent.dja33.iot.a1.HeadlessMain --events DISCONNECTED,RECONNECTED 168
+ *
+ * Given "emulator" as the port, optionally followed by the name of a Profile
+ * such as "emulator:hostile", it collects from an MbedEmulator instead of a
+ * board.
+ *
+ * Given --exit-after followed by a number of seconds, anywhere after the port,
+ * it stops itself after collecting for that long. The cds build profile uses
+ * it for the training run that records the classes a collector loads.
+ *
+ * Given --publish followed by a broker, anywhere after the port, samples are
+ * also published to it in batches by a SamplePublisher at QoS 1, for example:
+ *
+ * java kent.dja33.iot.a1.HeadlessMain COM11 8090 --publish localhost:1883
+ *
+ * @author Dante
+ *
+ */
+public class HeadlessMain {
+
+	/* Time to wait between attempts at finding a sensor */
+	private static final long CONNECT_RETRY_DELAY = 5000;
+
+	/* How often the pipeline checks for new samples, matches the GUI */
+	private static final long PIPELINE_RATE = 250;
+
+	/* QoS samples are published to a broker at */
+	private static final int PUBLISH_QOS = 1;
+
+	/* Port to collect from an emulator, and the profile it uses by default */
+	private static final String EMULATOR = "emulator";
+	private static final String EMULATOR_PROFILE = "typical";
+
+	public static void main(String[] args) {
+
+		HeadlessOptions options;
+		try {
+			options = HeadlessOptions.parse(args);
+		} catch (IllegalArgumentException e) {
+			Out.out.loglnErr(e.getMessage());
+			Out.close();
+			return;
+		}
+
+		if (options.mode == HeadlessOptions.Mode.QUERY) {
+			query(options.query);
+			return;
+		}
+
+		if (options.mode == HeadlessOptions.Mode.EVENTS) {
+			events(options.eventTypes, options.eventsFrom);
+			return;
+		}
+
+		Out.out.logln("Starting headless collector...");
+
+		SamplePublisher publisher = null;
+		if (options.brokerHost != null) {
+			publisher = new SamplePublisher(options.brokerHost, options.brokerPort, PUBLISH_QOS,
+					Out.SPOOL_DIRECTORY);
+		}
+
+		String portName = options.portName;
+		if (portName != null && portName.startsWith(EMULATOR)) {
+			portName = attachEmulator(portName);
+			if (portName == null) {
+				return;
+			}
+		}
+		int httpPort = options.httpPort;
+
+		SensorPipeline.getPipeline().setAnomalyDetector(AnomalyDetector.defaultDetector());
+		SensorPipeline.getPipeline().setFilterStage(FilterStage.defaultStage());
+
+		SampleRecorder recorder = new SampleRecorder(Out.SAMPLES_DIRECTORY);
+		SensorPipeline.getPipeline().addListener(recorder);
+
+		AlertEngine alerts = new AlertEngine(AlertEngine.defaultRules());
+		alerts.addListener(AlertEngine::log);
+		alerts.addListener(EventLog.events);
+		SensorPipeline.getPipeline().addListener(alerts);
+
+		EventLog.events.watch(SerialReader.in);
+		EventLog.events.record(EventType.START, null, "collector", "headless");
+
+		SampleServer server;
+		try {
+			server = new SampleServer(new InetSocketAddress(httpPort), SerialReader.in.getDeviceState());
+		} catch (IOException ioe) {
+			Out.out.loglnErr("Could not serve samples on port " + httpPort + ": " + ioe.getMessage());
+			return;
+		}
+		SensorPipeline.getPipeline().addListener(server);
+		server.start();
+
+		/*
+		 * Schedule Message Parser to run every 250ms, this thread keeps the
+		 * process alive once main returns
+		 */
+		ScheduledExecutorService executor = Executors
+				.newSingleThreadScheduledExecutor(r -> new Thread(r, "SensorPipeline"));
+
+		ConnectionSupervisor supervisor = new ConnectionSupervisor(SerialReader.in);
+		SamplePublisher published = publisher;
+
+		/* Close connections and the logger when the process is stopped */
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			supervisor.stop();
+			executor.shutdown();
+			server.stop();
+			SerialReader.in.closePort();
+			recorder.close();
+			if (published != null) {
+				published.close();
+			}
+			EventLog.events.close();
+			Out.close();
+		}));
+
+		try {
+			while (!connect(portName)) {
+				Thread.sleep(CONNECT_RETRY_DELAY);
+			}
+		} catch (InterruptedException e) {
+			Out.out.loglnErr("Interrupted while trying to connect.");
+			return;
+		}
+
+		/* Auto-detected sensors may come back on another port after a reset */
+		supervisor.watch(portName);
+
+		/* Published under the port first connected to, even if it later changes */
+		if (publisher != null) {
+			SensorPipeline.getPipeline().addListener(publisher.forDevice(SerialReader.in.getActivePort()));
+			publisher.start();
+		}
+
+		executor.scheduleAtFixedRate(SensorPipeline.getPipeline(), 0, PIPELINE_RATE, TimeUnit.MILLISECONDS);
+
+		if (options.exitAfter > 0) {
+			long seconds = options.exitAfter;
+			executor.schedule(() -> {
+				Out.out.logln("Collected for " + seconds + "s, exiting.");
+				System.exit(0);
+			}, seconds, TimeUnit.SECONDS);
+		}
+
+	}
+
+	/**
+	 * Answer the query given after --query over the recorded samples
+	 *
+	 * @param text
+	 *            the query
+	 */
+	private static void query(String text) {
+
+		SampleStore store = new SampleStore(Out.SAMPLES_DIRECTORY);
+
+		try {
+			long start = System.nanoTime();
+			QueryResult result = Query.parse(text).run(store);
+			long time = (System.nanoTime() - start) / 1_000_000;
+			Out.out.log(result);
+			Out.out.logln("Answered in " + time + "ms.");
+		} catch (IllegalArgumentException e) {
+			Out.out.loglnErr(e.getMessage());
+		} finally {
+			store.close();
+			Out.close();
+		}
+
+	}
+
+	/**
+	 * List the events recorded, of the types given after --events if any and
+	 * within the number of hours given after those
+	 *
+	 * @param types
+	 *            the types of event to list, all of them if empty
+	 * @param from
+	 *            earliest time to list events from
+	 */
+	private static void events(List<EventType> types, long from) {
+
+		try {
+			long start = System.nanoTime();
+			List<Event> events = EventLog.events.find(from, Long.MAX_VALUE, types);
+			long time = (System.nanoTime() - start) / 1_000_000;
+			for (Event event : events) {
+				Out.out.logln(event);
+			}
+			Out.out.logln(events.size() + " event(s) found in " + time + "ms.");
+		} catch (IOException ioe) {
+			Out.out.loglnErr("Could not read events: " + ioe.getMessage());
+		} finally {
+			Out.close();
+		}
+
+	}
+
+	/**
+	 * Attach an emulator under the name given, such as "emulator:hostile"
+	 *
+	 * @param portName
+	 *            "emulator" optionally followed by ':' and a profile
+	 * @return the port to connect to, or null if the profile is unknown
+	 */
+	private static String attachEmulator(String portName) {
+
+		int colon = portName.indexOf(':');
+		String profile = colon >= 0 ? portName.substring(colon + 1) : EMULATOR_PROFILE;
+
+		try {
+			new MbedEmulator(EMULATOR).setProfile(Profile.valueOf(profile.toUpperCase(Locale.ROOT))).attach();
+		} catch (IllegalArgumentException e) {
+			Out.out.loglnErr("Unknown emulator profile \"" + profile + "\", expected one of "
+					+ Arrays.toString(Profile.values()) + ".");
+			return null;
+		}
+
+		Out.out.logln("Collecting from an emulator with the " + profile + " profile.");
+		return EMULATOR;
+	}
+
+	/**
+	 * Try to connect to the port given, if no port was given then attempt to
+	 * connect to any and all open serial ports
+	 *
+	 * @param portName
+	 *            the port to connect to, null to try all
+	 * @return true if connected
+	 */
+	private static boolean connect(String portName) {
+
+		if (portName != null) {
+			return SerialReader.in.openPort(portName);
+		}
+
+		if (SerialReader.in.autoConnect() != null) {
+			return true;
+		}
+
+		Out.out.loglnErr("Could not automatically connect to any sensor devices.");
+		return false;
+	}
+
+}
@@ -0,0 +1,176 @@
+package kent.dja33.iot.a1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import kent.dja33.iot.a1.util.event.EventType;
+import kent.dja33.iot.a1.util.publish.SamplePublisher;
+
+/**
+ * The arguments HeadlessMain was started with, worked out before anything is
+ * started so a mistake is reported without touching the sensor, the store or
+ * the network. See HeadlessMain for what each of them does.
+ *
+ * @author Dante
+ *
+ */
+final class HeadlessOptions {
+
+	/**
+	 * What the headless process was asked to do
+	 */
+	enum Mode {
+		COLLECT, QUERY, EVENTS
+	}
+
+	/* Argument to try every port, and the default port to serve on */
+	private static final String AUTO_DETECT = "auto";
+	private static final int DEFAULT_HTTP_PORT = 8090;
+
+	/* Argument to answer a query instead of collecting */
+	private static final String QUERY = "--query";
+	/* Argument to list events instead of collecting */
+	private static final String EVENTS = "--events";
+	/* Argument to stop collecting after a number of seconds */
+	private static final String EXIT_AFTER = "--exit-after";
+	/* Argument to publish samples to a broker */
+	private static final String PUBLISH = "--publish";
+
+	Mode mode = Mode.COLLECT;
+
+	/* Port to collect from, null to try every port */
+	String portName;
+	int httpPort = DEFAULT_HTTP_PORT;
+	/* Seconds to collect for, 0 to collect until stopped */
+	long exitAfter;
+	/* Broker to publish to, null if samples are not published */
+	String brokerHost;
+	int brokerPort = SamplePublisher.DEFAULT_PORT;
+
+	/* Query to answer */
+	String query;
+
+	/* Events to list, all of them if empty, and from when */
+	final List<EventType> eventTypes = new ArrayList<>();
+	long eventsFrom;
+
+	private HeadlessOptions() {
+	}
+
+	/**
+	 * Work out the options from the arguments given
+	 *
+	 * @param args
+	 *            the arguments HeadlessMain was started with
+	 * @return the options
+	 * @throws IllegalArgumentException
+	 *             if the arguments do not make sense, with a message saying
+	 *             what was expected
+	 */
+	static HeadlessOptions parse(String[] args) {
+
+		HeadlessOptions options = new HeadlessOptions();
+
+		if (args.length > 0 && args[0].equals(QUERY)) {
+			options.mode = Mode.QUERY;
+			options.query = String.join(" ", Arrays.copyOfRange(args, 1, args.length));
+		} else if (args.length > 0 && args[0].equals(EVENTS)) {
+			options.mode = Mode.EVENTS;
+			options.parseEvents(Arrays.copyOfRange(args, 1, args.length));
+		} else {
+			options.parseCollect(new ArrayList<>(Arrays.asList(args)));
+		}
+
+		return options;
+	}
+
+	/**
+	 * The port, HTTP port and options for collecting
+	 */
+	private void parseCollect(List<String> args) {
+
+		String exit = option(args, EXIT_AFTER);
+		if (exit != null) {
+			try {
+				exitAfter = Long.parseLong(exit);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException(
+						"Expected a number of seconds after " + EXIT_AFTER + ", not \"" + exit + "\".");
+			}
+		}
+
+		String broker = option(args, PUBLISH);
+		if (broker != null) {
+			int colon = broker.lastIndexOf(':');
+			brokerHost = colon >= 0 ? broker.substring(0, colon) : broker;
+			try {
+				if (colon >= 0) {
+					brokerPort = Integer.parseInt(broker.substring(colon + 1));
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid broker \"" + broker + "\", expected HOST or HOST:PORT.");
+			}
+		}
+
+		if (args.size() > 0 && !args.get(0).equals(AUTO_DETECT)) {
+			portName = args.get(0);
+		}
+
+		if (args.size() > 1) {
+			try {
+				httpPort = Integer.parseInt(args.get(1));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid HTTP port \"" + args.get(1) + "\".");
+			}
+		}
+	}
+
+	/**
+	 * The types of event to list and how many hours back to look, in any
+	 * order
+	 */
+	private void parseEvents(String[] args) {
+
+		try {
+			for (String arg : args) {
+				if (Character.isDigit(arg.charAt(0))) {
+					eventsFrom = System.currentTimeMillis() - (long) (Double.parseDouble(arg) * 60 * 60 * 1000);
+				} else {
+					for (String type : arg.split(",")) {
+						eventTypes.add(EventType.valueOf(type.trim().toUpperCase(Locale.ROOT)));
+					}
+				}
+			}
+		} catch (IllegalArgumentException | StringIndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Expected event types from " + Arrays.toString(EventType.values())
+					+ " and a number of hours, not " + Arrays.toString(args));
+		}
+	}
+
+	/**
+	 * Take an option and the value after it out of the arguments
+	 *
+	 * @param args
+	 *            the arguments, the option is removed if found
+	 * @param name
+	 *            the option, such as --publish
+	 * @return the value, or null if the option was not given
+	 * @throws IllegalArgumentException
+	 *             if the option has no value
+	 */
+	private static String option(List<String> args, String name) {
+		int i = args.indexOf(name);
+		if (i < 0) {
+			return null;
+		}
+		if (i + 1 >= args.size()) {
+			throw new IllegalArgumentException("Expected a value after " + name + ".");
+		}
+		String value = args.get(i + 1);
+		args.subList(i, i + 2).clear();
+		return value;
+	}
+
+}
@@ -0,0 +1,109 @@
+package kent.dja33.iot.a1.util;
+
+/**
+ * Splits the bytes read from the serial port into frames of the form
+ * "#D29.38:0.046882:-0.046882:1.031411#". A read can hold any number of
+ * frames and end part way through one, so every frame completed is handed on
+ * and whatever is still arriving is kept for the next read.
+ *
+ * Anything outside a frame is rejected as garbage. Two '#' in a row mean the
+ * first closed a frame whose start was lost, so the second is taken as the
+ * start of a new frame. A frame that grows past the buffer without ending is
+ * rejected and dropped.
+ *
+ * Only ever used by the serial event thread.
+ *
+ * @author Dante
+ *
+ */
+final class FrameAssembler {
+
+	/**
+	 * Told about every frame completed and everything thrown away
+	 */
+	interface FrameListener {
+
+		/**
+		 * @param frame
+		 *            the frame, starting with its opening '#' but without the
+		 *            closing one
+		 */
+		void frameReceived(String frame);
+
+		/**
+		 * @param reason
+		 *            why the text was thrown away
+		 * @param text
+		 *            the text thrown away
+		 */
+		void frameRejected(String reason, String text);
+
+	}
+
+	/* Longest frame buffered before giving up on it */
+	static final int BUFFER_SIZE = 256;
+
+	private final FrameListener listener;
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int pointer;
+
+	FrameAssembler(FrameListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Add the bytes of a read, handing on every frame they complete
+	 *
+	 * @param bytes
+	 *            the bytes read
+	 */
+	void accept(byte[] bytes) {
+
+		for (byte b : bytes) {
+			if (pointer == buffer.length) {
+				/* No end to the frame in sight, drop what has been read */
+				listener.frameRejected("Frame too long", new String(buffer));
+				pointer = 0;
+			}
+			buffer[pointer++] = (char) (b & 0xFF);
+		}
+
+		/* The '#' opening the frame being read, and where the last one ended */
+		int start = -1;
+		int consumed = 0;
+
+		for (int i = 0; i < pointer; i++) {
+			if (buffer[i] != '#') {
+				continue;
+			}
+			if (start < 0) {
+				/* Found the beginning of a new message */
+				if (i > consumed) {
+					listener.frameRejected("Garbage between frames", new String(buffer, consumed, i - consumed));
+				}
+				start = i;
+			} else if (i == start + 1) {
+				/* "##", the first closed a frame already lost, start again */
+				start = i;
+			} else {
+				/* Found the end of the message */
+				listener.frameReceived(new String(buffer, start, i - start));
+				start = -1;
+				consumed = i + 1;
+			}
+		}
+
+		/* Keep the frame still arriving, or anything not yet known to be garbage */
+		int keep = start >= 0 ? start : consumed;
+		System.arraycopy(buffer, keep, buffer, 0, pointer - keep);
+		pointer -= keep;
+	}
+
+	/**
+	 * Forget anything part way through being read
+	 */
+	void clear() {
+		pointer = 0;
+	}
+
+}
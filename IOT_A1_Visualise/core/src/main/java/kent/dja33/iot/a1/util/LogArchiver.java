@@ -0,0 +1,191 @@
+package kent.dja33.iot.a1.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses log files once Out has finished with them, and removes the
+ * oldest compressed logs to keep the directory within its limits. Only logs
+ * handed over are compressed, any other log in the directory, such as one
+ * from before logs were archived, is left as it is.
+ *
+ * All of the work is done on a single daemon thread of the lowest priority,
+ * so handing a file over never waits on the disk and compression only uses
+ * time the collector does not need. A log is compressed into a temporary file
+ * that is renamed once complete, and the log itself is only deleted after
+ * that, so a log is never lost if the program stops part way through. Any
+ * left behind this way are compressed again when the next logger starts.
+ *
+ * @author Dante
+ *
+ */
+final class LogArchiver {
+
+	static final String COMPRESSED_SUFFIX = ".gz";
+	private static final String PARTIAL_SUFFIX = ".part";
+
+	/*
+	 * Limits on the compressed logs kept, the oldest are removed first. Age is
+	 * from when a log was compressed, not when it was last written to.
+	 */
+	private static final long MAX_ARCHIVE_SIZE = 64 * 1024 * 1024;
+	private static final long MAX_ARCHIVE_AGE = 30L * 24 * 60 * 60 * 1000;
+
+	private final File directory;
+	private final String prefix;
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "LogArchiver");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	});
+
+	/**
+	 * Create an archiver over the logs in a directory
+	 *
+	 * @param directory
+	 *            where the logs are written
+	 * @param prefix
+	 *            the start of the name of every log
+	 */
+	LogArchiver(File directory, String prefix) {
+		this.directory = directory;
+		this.prefix = prefix;
+	}
+
+	/**
+	 * Compress a log that will not be written to again, then enforce the
+	 * limits. Returns straight away.
+	 *
+	 * @param log
+	 *            the closed log
+	 */
+	void archive(File log) {
+		executor.execute(() -> {
+			compress(log);
+			enforceLimits();
+		});
+	}
+
+	/**
+	 * Compress again any log a previous run stopped part way through
+	 * compressing, found by the unfinished compression it left, then enforce
+	 * the limits. Returns straight away.
+	 *
+	 * @param active
+	 *            the log being written to, never compressed
+	 */
+	void resume(File active) {
+		executor.execute(() -> {
+			File[] partials = directory
+					.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(PARTIAL_SUFFIX));
+			if (partials != null) {
+				for (File partial : partials) {
+					String name = partial.getName();
+					File log = new File(directory,
+							name.substring(0, name.length() - COMPRESSED_SUFFIX.length() - PARTIAL_SUFFIX.length()));
+					partial.delete();
+					if (log.exists() && !log.equals(active)) {
+						compress(log);
+					}
+				}
+			}
+			enforceLimits();
+		});
+	}
+
+	/**
+	 * Wait for everything handed over so far to be done
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	void awaitIdle() throws InterruptedException {
+		try {
+			executor.submit(() -> {
+			}).get();
+		} catch (ExecutionException e) {
+			/* Nothing to fail */
+		}
+	}
+
+	private void compress(File log) {
+
+		File partial = new File(log.getPath() + COMPRESSED_SUFFIX + PARTIAL_SUFFIX);
+		File compressed = new File(log.getPath() + COMPRESSED_SUFFIX);
+
+		try (InputStream in = new FileInputStream(log);
+				OutputStream out = new GZIPOutputStream(new FileOutputStream(partial), 1 << 16)) {
+			byte[] buffer = new byte[1 << 16];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+		} catch (IOException ioe) {
+			partial.delete();
+			report("Could not compress log " + log.getName() + ": " + ioe.getMessage());
+			return;
+		}
+
+		if (compressed.exists()) {
+			compressed.delete();
+		}
+		if (!partial.renameTo(compressed) || !log.delete()) {
+			report("Could not replace log " + log.getName() + " with its compressed copy.");
+		}
+
+	}
+
+	/**
+	 * Remove logs compressed more than MAX_ARCHIVE_AGE ago, then the oldest until
+	 * the rest fit within MAX_ARCHIVE_SIZE
+	 */
+	private void enforceLimits() {
+
+		File[] archives = directory
+				.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(COMPRESSED_SUFFIX));
+		if (archives == null) {
+			return;
+		}
+
+		/* Newest first */
+		Arrays.sort(archives, Comparator.comparingLong(File::lastModified).reversed());
+
+		long now = System.currentTimeMillis();
+		long kept = 0;
+
+		for (File archive : archives) {
+			long length = archive.length();
+			if (kept + length > MAX_ARCHIVE_SIZE || now - archive.lastModified() > MAX_ARCHIVE_AGE) {
+				if (!archive.delete()) {
+					kept += length;
+				}
+			} else {
+				kept += length;
+			}
+		}
+
+	}
+
+	/* The logger may have been closed while a log was being compressed */
+	private static void report(String message) {
+		Out out = Out.out;
+		if (out != null) {
+			out.loglnErr(message);
+		} else {
+			System.err.println(message);
+		}
+	}
+
+}
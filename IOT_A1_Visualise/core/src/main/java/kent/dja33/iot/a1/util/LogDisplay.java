@@ -0,0 +1,41 @@
+package kent.dja33.iot.a1.util;
+
+/**
+ * Somewhere other than the console that Out can display log messages, such
+ * as the log in the GUI. When no LogDisplay is set Out will use the console.
+ *
+ * @author Dante
+ *
+ */
+public interface LogDisplay {
+
+	/**
+	 * Print a message followed by a newline '\n'
+	 *
+	 * @param obj
+	 *            The object to display
+	 */
+	void println(Object obj);
+
+	/**
+	 * Print a newline '\n'
+	 */
+	void println();
+
+	/**
+	 * Print a message without a newline '\n'
+	 *
+	 * @param obj
+	 *            The object to display
+	 */
+	void print(Object obj);
+
+	/**
+	 * Print an error message followed by a newline '\n'
+	 *
+	 * @param obj
+	 *            The object to display
+	 */
+	void printlnErr(Object obj);
+
+}
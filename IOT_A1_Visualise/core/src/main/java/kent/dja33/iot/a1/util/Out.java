@@ -0,0 +1,488 @@
+
+package kent.dja33.iot.a1.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+
+import kent.dja33.iot.a1.util.metrics.Metrics;
+
+/**
+ * Logger class to output logs to a directory and log.txt
+ *
+ * A log is kept per day, continued in a further part whenever it reaches
+ * MAX_LOG_SIZE. Closed logs are compressed and the oldest removed by the
+ * LogArchiver in the background, so logging never waits on either.
+ *
+ * Finding and opening the day's log is done on a thread of its own, so
+ * whatever is starting up is never held up by the disk. Messages logged
+ * before it is open are kept and written out first once it is.
+ * 
+ * @author dja33
+ */
+public final class Out {
+
+	/* Directories for use across the system */
+	private static final String ROOT_DIRECTORY = System.getProperty("user.dir") + File.separator + "SensorMBED";
+	public static final String RESOURCES_DIRECTORY = ROOT_DIRECTORY + File.separator + "Resources";
+	public static final String SAMPLES_DIRECTORY = ROOT_DIRECTORY + File.separator + "Samples";
+	public static final String EVENTS_DIRECTORY = ROOT_DIRECTORY + File.separator + "Events";
+	public static final String SPOOL_DIRECTORY = ROOT_DIRECTORY + File.separator + "Spool";
+
+	/* Format to output logged data in */
+	private static final DateFormat logTimeFormat = new SimpleDateFormat("HH:mm:ss");
+	private boolean printDebugMessages = true;
+
+	/* Logs are named by day, with a part number after the first of the day */
+	private static final String LOG_PREFIX = "log";
+	private static final String LOG_SUFFIX = ".txt";
+	private static final DateFormat logDayFormat = new SimpleDateFormat("dd-MM-yy");
+
+	/* Size a log can grow to before continuing in another */
+	private static final long MAX_LOG_SIZE = 8 * 1024 * 1024;
+
+	/* Longest close waits for the log to be opened */
+	private static final long OPEN_TIMEOUT = 5000;
+
+	/* Where logs are created, and what to do with them once closed */
+	private final File directory;
+	private final LogArchiver archiver;
+
+	/* The log being written to, guarded by this logger */
+	private volatile File log;
+	private String logDay;
+	private int logPart;
+	private long written;
+	private long nextDay;
+	private boolean canLog;
+
+	/* Messages logged while the log is being opened, null once it has been */
+	private StringBuilder pending = new StringBuilder();
+	private final Thread opener;
+
+	/* Where to display messages, null if the console should be used */
+	private volatile LogDisplay display;
+
+	/* Singleton reference */
+	private BufferedWriter writer;
+	public static Out out = new Out(ROOT_DIRECTORY + File.separator + "Logs");
+
+	/**
+	 * Create the logger, pass the directory expected to create log files in
+	 * 
+	 * @param logDir
+	 */
+	Out(String logDir) {
+
+		directory = new File(logDir);
+		archiver = new LogArchiver(directory, LOG_PREFIX);
+
+		opener = new Thread(this::openLog, "Out-Open");
+		opener.setDaemon(true);
+		opener.start();
+	}
+
+	/**
+	 * Find or create today's log and open it, then write out anything logged
+	 * while doing so. Runs on the opener thread.
+	 */
+	private void openLog() {
+
+		recordToLog("Creating logger..." + System.lineSeparator(), true);
+
+		/* If the directory for creating logs in does not exist create it */
+		if (!directory.exists()) {
+			recordToLog("Directory '" + directory + "' did not exist. Creating it now..." + System.lineSeparator(),
+					true);
+			directory.mkdirs();
+		}
+
+		/* Carry on in today's latest log if it has room, else start another */
+		long now = System.currentTimeMillis();
+		String day = logDayFormat.format(new Date(now));
+		int part = latestPart(day);
+		File file = logFile(day, Math.max(part, 0));
+		boolean created = false;
+
+		if (part >= 0 && file.exists() && file.length() < MAX_LOG_SIZE) {
+			/* File already existed, append to the existing file */
+			recordToLog("File exists: " + file.getAbsolutePath() + System.lineSeparator(), true);
+		} else {
+			part++;
+			file = logFile(day, part);
+			created = true;
+			recordToLog("Creating new log file: " + file.getPath() + System.lineSeparator(), true);
+		}
+
+		synchronized (this) {
+
+			log = file;
+			logDay = day;
+			logPart = part;
+			nextDay = startOfNextDay(now);
+
+			try {
+				writer = open(log);
+				/* The banner heads a new file, runs appending carry straight on */
+				if (created) {
+					writer.write(" ___________________________________________________________" + System.lineSeparator());
+					writer.write("|                                                           |" + System.lineSeparator());
+					writer.write("| - - Start - - - - - - - - - - - - - - - - - - - - - - - - |" + System.lineSeparator());
+					writer.write("|___________________________________________________________|" + System.lineSeparator());
+					writer.newLine();
+				}
+				writer.write(pending.toString());
+				written += pending.length();
+			} catch (IOException ioe) {
+				System.err.print(pending);
+				System.err.println("Logger could not open file to write out to: " + ioe.getMessage());
+				pending = null;
+				return;
+			}
+
+			pending = null;
+			canLog = true;
+		}
+
+		/* Finish compressing any log an earlier run stopped part way through */
+		archiver.resume(log);
+	}
+
+	/**
+	 * Close the logger in use and all resources being used by it, including any
+	 * files currently open by the logger
+	 */
+	public static void close() {
+		out.logln("Closing logger.");
+		out.awaitOpen();
+		if (out != null && out.writer != null) {
+			out.logln("Closing writer for logger.");
+			synchronized (out) {
+				try {
+					out.writer.close();
+				} catch (IOException e) {
+					out.loglnErr("Failed to close logger: " + e.getMessage());
+				}
+				out.canLog = false;
+			}
+		}
+		if (out != null) {
+			out = null;
+		}
+	}
+
+	/**
+	 * Wait for the log to have been opened, or to have failed to open
+	 */
+	private void awaitOpen() {
+		try {
+			opener.join(OPEN_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Wait for the log to have been opened and the archiver to have finished
+	 * with every log handed to it
+	 * 
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	void awaitArchived() throws InterruptedException {
+		awaitOpen();
+		archiver.awaitIdle();
+	}
+
+	/**
+	 * Set where log messages should be displayed, such as the GUI once it has
+	 * been built. Passing null returns to using the console.
+	 * 
+	 * @param display
+	 *            where to display messages
+	 */
+	public void setDisplay(LogDisplay display) {
+		this.display = display;
+	}
+
+	/* Default message log prefix */
+	private static final String PREFIX = "[LOG] ";
+
+	/**
+	 * Log out an input object, will utilise the GUI if possible, suffixed with
+	 * '\n'
+	 * 
+	 * @param obj
+	 *            what to output
+	 */
+	public void logln(Object obj) {
+		LogDisplay display = this.display;
+		if (display != null) {
+			display.println(obj);
+		} else {
+			System.out.println(PREFIX + obj);
+		}
+
+		recordToLog(obj + System.lineSeparator(), true);
+	}
+
+	/**
+	 * Log out a '\n', utilises GUI if possible
+	 * 
+	 * @param obj
+	 *            what to output
+	 */
+	public void logln() {
+		LogDisplay display = this.display;
+		if (display != null) {
+			display.println();
+		} else {
+			System.out.println();
+		}
+
+		recordToLog(System.lineSeparator(), false);
+	}
+
+	/**
+	 * Log out an input object, will utilise the GUI if possible
+	 * 
+	 * @param obj
+	 *            what to output
+	 */
+	public void log(Object obj) {
+		LogDisplay display = this.display;
+		if (display != null) {
+			display.print(obj);
+		} else {
+			System.out.print(obj.toString());
+		}
+
+		recordToLog(obj.toString(), false);
+
+	}
+
+	/**
+	 * Log out an input object, will utilise the GUI if possible, includes a
+	 * timestamp
+	 * 
+	 * @param obj
+	 *            what to output
+	 */
+	public void logWithTime(Object obj) {
+		LogDisplay display = this.display;
+		if (display != null) {
+			display.print(obj);
+		} else {
+			System.out.print(obj.toString());
+		}
+
+		recordToLog(obj.toString(), true);
+
+	}
+
+	/* The PREFIX for error messages */
+	private static final String ERROR_PREFIX = "[ERROR] ";
+
+	/**
+	 * Log out an input object, will utilise the GUI if possible, suffixed with
+	 * '\n' includes a prefix of the ERROR_PREFIX
+	 * 
+	 * @param obj
+	 *            what to output
+	 */
+	public void loglnErr(Object obj) {
+		LogDisplay display = this.display;
+		if (display != null) {
+			display.printlnErr(obj);
+		} else {
+			System.out.println(ERROR_PREFIX + obj.toString());
+		}
+
+		recordToLog(ERROR_PREFIX + obj.toString(), true);
+	}
+
+	/**
+	 * Is the logger printing debug messages
+	 * 
+	 * @return
+	 */
+	public boolean isPrintingDebugMessages() {
+		return printDebugMessages;
+	}
+
+	/**
+	 * Set whether the log should print debug messages
+	 * 
+	 * @param print
+	 *            true if it shouldF
+	 */
+	public void setPrintingDebugMessages(boolean print) {
+		printDebugMessages = print;
+	}
+
+	/**
+	 * Attempt to write out a passed message to the current log file, if chosen
+	 * will also log the current time as well. The message goes into a new log
+	 * when the current one is full or a new day has started, or is kept until
+	 * the log has been opened.
+	 * 
+	 * @param str
+	 *            the message to log
+	 * @param logTime
+	 *            true to log time
+	 */
+	public synchronized void recordToLog(String str, boolean logTime) {
+
+		if (canLog) {
+
+			long start = System.nanoTime();
+			long now = System.currentTimeMillis();
+
+			if (written >= MAX_LOG_SIZE || now >= nextDay) {
+				rollOver(now);
+			}
+
+			try {
+				String line = logTime ? String.format("[%s] %s", logTimeFormat.format(new Date(now)), str) : str;
+				writer.write(line);
+				written += line.length();
+			} catch (IOException ioe) {
+				canLog = false;
+				loglnErr("Logger could not write to file: " + ioe.getMessage());
+			}
+
+			Metrics.metrics.logTime.recordSince(start);
+
+		} else if (pending != null) {
+
+			/* Still being opened, keep the message until it has been */
+			pending.append(logTime ? String.format("[%s] %s", logTimeFormat.format(new Date()), str) : str);
+
+		} else {
+			System.err.println(str);
+		}
+
+	}
+
+	/**
+	 * Close the current log, hand it to the archiver and continue in the next
+	 * one. Only the buffered tail of the current log is written here,
+	 * compressing it is left to the archiver's thread.
+	 * 
+	 * @param now
+	 *            the current time
+	 */
+	private void rollOver(long now) {
+
+		File previous = log;
+		String day = logDayFormat.format(new Date(now));
+
+		try {
+			writer.close();
+		} catch (IOException ioe) {
+			System.err.println("Logger could not close " + previous.getName() + ": " + ioe.getMessage());
+		}
+
+		/*
+		 * The next part of the day's log, or the first of a new day, from what
+		 * is being written rather than listing the directory while holding the
+		 * lock. Should another run have made that part already it is appended
+		 * to, and rolled over again if full.
+		 */
+		logPart = day.equals(logDay) ? logPart + 1 : 0;
+		logDay = day;
+		log = logFile(day, logPart);
+		written = 0;
+		nextDay = startOfNextDay(now);
+
+		try {
+			writer = open(log);
+			String line = String.format("[%s] Continued from %s%s", logTimeFormat.format(new Date(now)),
+					previous.getName(), System.lineSeparator());
+			writer.write(line);
+			written += line.length();
+		} catch (IOException ioe) {
+			canLog = false;
+			System.err.println("Logger could not open file to write out to: " + ioe.getMessage());
+		}
+
+		archiver.archive(previous);
+
+	}
+
+	/**
+	 * Open a log to append to, counting what it already holds towards its size
+	 */
+	private BufferedWriter open(File file) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file, true));
+		written = file.length();
+		return writer;
+	}
+
+	/**
+	 * The log for a part of a day, such as log05-03-17.txt for the first part
+	 * and log05-03-17.2.txt for the third
+	 */
+	private File logFile(String day, int part) {
+		return new File(directory, LOG_PREFIX + day + (part == 0 ? "" : "." + part) + LOG_SUFFIX);
+	}
+
+	/**
+	 * Find the highest part of a day's log, compressed or not
+	 * 
+	 * @param day
+	 *            the day as in a log's name
+	 * @return the part, -1 if there are no logs for the day
+	 */
+	private int latestPart(String day) {
+
+		String[] names = directory.list((dir, name) -> name.startsWith(LOG_PREFIX + day));
+		int latest = -1;
+
+		if (names != null) {
+			for (String name : names) {
+				String rest = name.substring(LOG_PREFIX.length() + day.length());
+				if (rest.endsWith(LogArchiver.COMPRESSED_SUFFIX)) {
+					rest = rest.substring(0, rest.length() - LogArchiver.COMPRESSED_SUFFIX.length());
+				}
+				if (!rest.endsWith(LOG_SUFFIX)) {
+					continue;
+				}
+				rest = rest.substring(0, rest.length() - LOG_SUFFIX.length());
+				if (rest.isEmpty()) {
+					latest = Math.max(latest, 0);
+				} else if (rest.matches("\\.\\d{1,9}")) {
+					latest = Math.max(latest, Integer.parseInt(rest.substring(1)));
+				}
+			}
+		}
+
+		return latest;
+	}
+
+	private static long startOfNextDay(long now) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(now);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		calendar.add(Calendar.DAY_OF_MONTH, 1);
+		return calendar.getTimeInMillis();
+	}
+
+	/**
+	 * Get the directory of the log
+	 * 
+	 * @return directory
+	 */
+	public String getDirectory() {
+		return directory.getPath();
+	}
+
+}
@@ -0,0 +1,186 @@
+package kent.dja33.iot.a1.util;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import kent.dja33.iot.a1.util.anomaly.AnomalyDetector;
+import kent.dja33.iot.a1.util.filter.FilterStage;
+import kent.dja33.iot.a1.util.jfr.PipelineBatchEvent;
+import kent.dja33.iot.a1.util.message.DataMessage;
+import kent.dja33.iot.a1.util.message.DataMessageListener;
+import kent.dja33.iot.a1.util.message.Message;
+import kent.dja33.iot.a1.util.message.MessageHandler;
+import kent.dja33.iot.a1.util.metrics.Metrics;
+
+/**
+ * Pops DataMessages from the SerialReader, marks their anomalies with the
+ * AnomalyDetector and passes them through the FilterStage if either is set,
+ * and hands them on to anything listening, such as
+ * the GUI or the SampleRecorder. Designed to be scheduled
+ * to run periodically and contains nothing specific to the GUI, so it can be
+ * used when running headless.
+ *
+ * Relies on Singleton pattern as the SerialReader does.
+ *
+ * @author Dante
+ *
+ */
+public class SensorPipeline implements Runnable {
+
+	/* Singleton */
+	private static final SensorPipeline pipeline = new SensorPipeline();
+
+	public static final SensorPipeline getPipeline() {
+		return pipeline;
+	}
+
+	private final List<DataMessageListener> listeners = new CopyOnWriteArrayList<>();
+
+	/* Filters applied before messages are handed on, null for none */
+	private volatile FilterStage filters;
+
+	/* Marks anomalies before messages are filtered, null for none */
+	private volatile AnomalyDetector detector;
+
+	/* Gaps waiting to be handed on, as start and end times */
+	private final Queue<long[]> gaps = new ConcurrentLinkedQueue<>();
+
+	/* Force singleton pattern */
+	private SensorPipeline() {}
+
+	/**
+	 * Add a listener to be given every valid DataMessage
+	 *
+	 * @param listener
+	 *            the listener to add
+	 */
+	public void addListener(DataMessageListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Stop a listener from being given DataMessages
+	 *
+	 * @param listener
+	 *            the listener to remove
+	 */
+	public void removeListener(DataMessageListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Set the filters applied to every message before it is handed on
+	 *
+	 * @param filters
+	 *            the filters to apply, null for none
+	 */
+	public void setFilterStage(FilterStage filters) {
+		this.filters = filters;
+	}
+
+	/**
+	 * Set the detector marking anomalies in every message before it is
+	 * filtered
+	 *
+	 * @param detector
+	 *            the detector to use, null for none
+	 */
+	public void setAnomalyDetector(AnomalyDetector detector) {
+		this.detector = detector;
+	}
+
+	/**
+	 * Mark that samples between two times were lost, listeners are told on
+	 * the next run before any messages received since
+	 *
+	 * @param start
+	 *            time of the last sample before the gap in milliseconds
+	 * @param end
+	 *            time samples resumed in milliseconds
+	 */
+	public void markGap(long start, long end) {
+		gaps.add(new long[] { start, end });
+	}
+
+	/**
+	 * Read in all available messages that are flagged as DATA and pass the
+	 * valid ones on to every listener.
+	 */
+	@Override
+	public void run() {
+
+		long start = System.nanoTime();
+		PipelineBatchEvent event = new PipelineBatchEvent();
+		event.begin();
+
+		try {
+
+			SerialReader.in.getDeviceState().checkSilence(System.currentTimeMillis());
+
+			/* Samples either side of a gap are unrelated so filters restart */
+			long[] gap;
+			while ((gap = gaps.poll()) != null) {
+				FilterStage filters = this.filters;
+				if (filters != null) {
+					filters.reset();
+				}
+				AnomalyDetector detector = this.detector;
+				if (detector != null) {
+					detector.reset();
+				}
+				for (DataMessageListener listener : listeners) {
+					listener.gap(gap[0], gap[1]);
+				}
+			}
+
+			Message msg = SerialReader.in.popMessage(MessageHandler.DATA);
+
+			if (msg instanceof DataMessage) {
+				event.queueAge = start - ((DataMessage) msg).getNanoTime();
+			}
+
+			while (msg != null) {
+
+				event.batchSize++;
+
+				// If the message is not corrupted at all and is 100% good to go
+				if (msg instanceof DataMessage && ((DataMessage) msg).isValid()) {
+					Metrics.metrics.samples.increment();
+					AnomalyDetector detector = this.detector;
+					if (detector != null) {
+						detector.apply((DataMessage) msg);
+					}
+					FilterStage filters = this.filters;
+					if (filters != null) {
+						filters.apply((DataMessage) msg);
+					}
+					for (DataMessageListener listener : listeners) {
+						listener.dataReceived((DataMessage) msg);
+					}
+				}
+
+				msg = SerialReader.in.popMessage(MessageHandler.DATA);
+
+			}
+
+			for (DataMessageListener listener : listeners) {
+				listener.endOfBatch();
+			}
+
+		} catch (Exception e) {
+			/* Never let an exception cancel the scheduled pipeline */
+			Out.out.loglnErr("Pipeline failed: " + e);
+		}
+
+		Metrics.metrics.pipelineTime.recordSince(start);
+
+		event.end();
+		if (event.batchSize > 0 && event.shouldCommit()) {
+			event.commit();
+		}
+
+	}
+
+}
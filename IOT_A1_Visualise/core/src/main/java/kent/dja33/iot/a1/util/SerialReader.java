@@ -3,14 +3,26 @@ package kent.dja33.iot.a1.util;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import jssc.SerialPort;
 import jssc.SerialPortEvent;
 import jssc.SerialPortEventListener;
 import jssc.SerialPortException;
 import jssc.SerialPortList;
-import kent.dja33.iot.a1.SensorDisplay;
+import kent.dja33.iot.a1.util.device.CommandQueue;
+import kent.dja33.iot.a1.util.device.CommandWriter;
+import kent.dja33.iot.a1.util.device.DeviceExecutor;
+import kent.dja33.iot.a1.util.device.DeviceState;
+import kent.dja33.iot.a1.util.device.DeviceState.AckState;
+import kent.dja33.iot.a1.util.emulator.MbedEmulator;
+import kent.dja33.iot.a1.util.jfr.FrameReceivedEvent;
+import kent.dja33.iot.a1.util.jfr.FrameRejectedEvent;
+import kent.dja33.iot.a1.util.message.DataMessage;
 import kent.dja33.iot.a1.util.message.Message;
 import kent.dja33.iot.a1.util.message.MessageHandler;
+import kent.dja33.iot.a1.util.message.SettingMessage;
+import kent.dja33.iot.a1.util.metrics.Metrics;
 
 /**
  * 
@@ -21,17 +33,30 @@ import kent.dja33.iot.a1.util.message.MessageHandler;
  * Relies on Singleton pattern and will queue and create messages as it reads in
  * data packets, tries to allow for error handling of invalid messages.
  * 
+ * Opening and closing a port blocks while the handshake runs, the Async
+ * variants run it on the DeviceExecutor so callers such as the GUI never
+ * wait on the device. Only one open or close runs at a time.
+ * 
  * @author Dante
  *
  */
-public class SerialReader {
+public class SerialReader implements CommandWriter {
 
 	/* Singleton reference */
 	public static final SerialReader in = new SerialReader();
+	public static final String NO_SERIAL_PORT = "NO SERIAL PORT";
 	private static final int RETRY_CONNECTION_ATTEMPTS = 3;
+	/* Longest to wait for the device to answer an acknowledgement */
+	private static final long ACK_TIMEOUT = 250;
 	private String portName;
 	private SerialPort port;
 
+	/* What we know about the device on the other end */
+	private final DeviceState deviceState = new DeviceState();
+
+	/* Commands waiting to be written to the device */
+	private final CommandQueue commands = new CommandQueue(this);
+
 	/* Reference to private static class for handling events */
 	private SerialReaderEventHandler portReader;
 
@@ -39,16 +64,24 @@ public class SerialReader {
 	 * Default creation of SerialReader has no active serial port
 	 */
 	private SerialReader() {
-		portName = SensorDisplay.NO_SERIAL_PORT;
+		portName = NO_SERIAL_PORT;
+		Metrics.metrics.registerGauge("Queue depth", () -> SerialReaderEventHandler.queuedInput.size());
 	}
 
 	/**
-	 * Return all active serial ports
+	 * Return all active serial ports, followed by any attached MbedEmulators
 	 * 
 	 * @return String[] of ports
 	 */
 	public String[] getActiveSerialPorts() {
-		return SerialPortList.getPortNames();
+		String[] ports = SerialPortList.getPortNames();
+		String[] emulated = MbedEmulator.getPortNames();
+		if (emulated.length == 0) {
+			return ports;
+		}
+		String[] all = Arrays.copyOf(ports, ports.length + emulated.length);
+		System.arraycopy(emulated, 0, all, ports.length, emulated.length);
+		return all;
 	}
 
 	/**
@@ -66,7 +99,7 @@ public class SerialReader {
 	 *            The port to connect to
 	 * @return Whether we connected or not
 	 */
-	public boolean openPort(String portName) {
+	public synchronized boolean openPort(String portName) {
 
 		if (port != null && port.isOpened()) {
 			Out.out.loglnErr(
@@ -80,7 +113,7 @@ public class SerialReader {
 			try {
 
 				/* If the portname passed matches NO_SERIAL_PORT */
-				if (portName.equals(SensorDisplay.NO_SERIAL_PORT)) {
+				if (portName.equals(NO_SERIAL_PORT)) {
 					Out.out.loglnErr("Can't connect to nothing!");
 					return false;
 				}
@@ -89,7 +122,8 @@ public class SerialReader {
 				 * Set basic parameters, if connection fails here most likely
 				 * port is in use
 				 */
-				this.port = new SerialPort(portName);
+				SerialPort emulated = MbedEmulator.createPort(portName);
+				this.port = emulated != null ? emulated : new SerialPort(portName);
 				this.port.openPort();
 				this.port.setParams(SerialPort.BAUDRATE_9600, SerialPort.DATABITS_8, SerialPort.STOPBITS_1,
 						SerialPort.PARITY_NONE);
@@ -101,7 +135,7 @@ public class SerialReader {
 				 * to acknowledge and discover whether this is the MBED device
 				 * or not
 				 */
-				this.portReader = new SerialReaderEventHandler(port);
+				this.portReader = new SerialReaderEventHandler(port, deviceState, commands);
 				this.port.addEventListener(portReader);
 				int retries = RETRY_CONNECTION_ATTEMPTS;
 
@@ -112,24 +146,24 @@ public class SerialReader {
 
 						/* Send Acknowledgement */
 						Out.out.log("Sending ACK. ");
+						deviceState.setAckState(AckState.REQUESTED);
 						if (!sendPayload("#ACK")) {
 							Out.out.logln("Unable to transmit, retrying... " + retries-- + " more times...");
 							continue;
 						}
 
-						/* Wait for response */
-						Thread.sleep(250);
-
 						/*
-						 * If we can find a message received that has matched
-						 * our acknowledgement
+						 * Wait for a message received that has matched our
+						 * acknowledgement, returns as soon as it arrives
 						 */
-						if (portReader.find("ACKR") != null) {
+						if (portReader.await("ACKR", ACK_TIMEOUT) != null) {
+							deviceState.setAckState(AckState.ACKNOWLEDGED);
 							/*
 							 * Acknowledge this message to say we want
 							 * temperature samples
 							 */
 							if (sendPayload("#ACKC")) {
+								deviceState.setAckState(AckState.CONFIRMED);
 								Out.out.logln("Established connection to sensor on \"" + portName + "\".");
 								return true;
 							} else {
@@ -156,6 +190,7 @@ public class SerialReader {
 				 */
 				portReader = null;
 				port.closePort();
+				deviceState.setAckState(AckState.NONE);
 
 				return false;
 
@@ -178,7 +213,7 @@ public class SerialReader {
 	 * 
 	 * @return true if disconnected, false otherwise
 	 */
-	public boolean closePort() {
+	public synchronized boolean closePort() {
 		if (port != null && port.isOpened()) {
 			try {
 				portReader.clearBuffer();
@@ -186,6 +221,7 @@ public class SerialReader {
 					Out.out.loglnErr(
 							"Failed to acknowledge sensor disconnect, disconnecting regardless but sensor is unaware.");
 				}
+				deviceState.setAckState(AckState.DISCONNECTED);
 				return port.closePort();
 			} catch (SerialPortException e) {
 				Out.out.loglnErr("An error occurred while trying to close the connection \"" + portName + "\".");
@@ -195,6 +231,61 @@ public class SerialReader {
 		return false;
 	}
 
+	/**
+	 * Open a port without blocking the caller, see openPort
+	 * 
+	 * @param portName
+	 *            The port to connect to
+	 * @return completes with whether we connected or not
+	 */
+	public CompletableFuture<Boolean> openPortAsync(String portName) {
+		return DeviceExecutor.devices.submit(() -> openPort(portName));
+	}
+
+	/**
+	 * List the active serial ports without blocking the caller, as asking the
+	 * system for them can take a while on some machines
+	 * 
+	 * @return completes with the ports, see getActiveSerialPorts
+	 */
+	public CompletableFuture<String[]> getActiveSerialPortsAsync() {
+		return DeviceExecutor.devices.submit(this::getActiveSerialPorts);
+	}
+
+	/**
+	 * Try every active serial port in turn without blocking the caller,
+	 * stopping at the first that completes the handshake
+	 * 
+	 * @return completes with the port connected to, or null if none responded
+	 */
+	public CompletableFuture<String> autoConnectAsync() {
+		return DeviceExecutor.devices.submit(this::autoConnect);
+	}
+
+	/**
+	 * Try every active serial port in turn, stopping at the first that
+	 * completes the handshake
+	 * 
+	 * @return the port connected to, or null if none responded
+	 */
+	public String autoConnect() {
+		for (String com : getActiveSerialPorts()) {
+			if (openPort(com)) {
+				return com;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Close the current connection without blocking the caller, see closePort
+	 * 
+	 * @return completes with true if disconnected, false otherwise
+	 */
+	public CompletableFuture<Boolean> closePortAsync() {
+		return DeviceExecutor.devices.submit(this::closePort);
+	}
+
 	/**
 	 * Whether we are currently connected to anything
 	 * 
@@ -245,13 +336,15 @@ public class SerialReader {
 	}
 
 	/**
-	 * Send a message to the MBED device, used for sending Acknowledgements and
-	 * responses to settings (i.e changing the refresh rate).
+	 * Send a message to the MBED device straight away from the calling thread,
+	 * used for the Acknowledgements. Anything else, such as changing the
+	 * refresh rate, should go through the CommandQueue.
 	 * 
 	 * @param payload
 	 *            The payload to transmit
 	 * @return Whether the message was delivered or not
 	 */
+	@Override
 	public boolean sendPayload(String payload) {
 		if (port != null && port.isOpened()) {
 			try {
@@ -264,10 +357,31 @@ public class SerialReader {
 		return false;
 	}
 	
+	/**
+	 * The state of the device on the other end of the connection, updated as
+	 * frames are decoded
+	 * 
+	 * @return device state
+	 */
+	@Override
+	public DeviceState getDeviceState() {
+		return deviceState;
+	}
+
+	/**
+	 * The queue commands for the device should be sent through
+	 * 
+	 * @return command queue
+	 */
+	public CommandQueue getCommands() {
+		return commands;
+	}
+
 	/**
 	 * The currently active serial ports name
 	 * @return name of port
 	 */
+	@Override
 	public String getActivePort() {
 		return portName;
 	}
@@ -282,17 +396,19 @@ public class SerialReader {
 	 * @author Dante
 	 *
 	 */
-	private static class SerialReaderEventHandler implements SerialPortEventListener {
+	private static class SerialReaderEventHandler implements SerialPortEventListener, FrameAssembler.FrameListener {
 
 		private final SerialPort openPort;
+		private final DeviceState deviceState;
+		private final CommandQueue commands;
 		private static final List<Message> queuedInput = new ArrayList<>();
-		/* Buffer used to read in bytes at a time */
-		private char[] readBuffer;
-		private byte pointer;
+		/* Splits what is read into frames */
+		private final FrameAssembler frames = new FrameAssembler(this);
 
-		public SerialReaderEventHandler(SerialPort port) {
+		public SerialReaderEventHandler(SerialPort port, DeviceState deviceState, CommandQueue commands) {
 			this.openPort = port;
-			readBuffer = new char[256];
+			this.deviceState = deviceState;
+			this.commands = commands;
 			if (port == null) {
 				throw new NullPointerException("Cannot create SerialThread with null SerialPort.");
 			}
@@ -302,17 +418,19 @@ public class SerialReader {
 		 * Empty the buffer
 		 */
 		public void clearBuffer() {
-			queuedInput.clear();
-			readBuffer = null;
-			pointer = 0;
+			synchronized (queuedInput) {
+				queuedInput.clear();
+			}
+			frames.clear();
 		}
 
 		/**
 		 * Read input, reads all bytes it can at once and tries to form messages
 		 * from the input by placing it into a buffer. The MTU for messages
 		 * being sent this manner is 127 as anything exceeding this will cause a
-		 * overflow of the buffer. Any messages successfully read in will placed
-		 * into a Message object and added to the queue.
+		 * overflow of the buffer. Every frame completed by the read is placed
+		 * into a Message object and added to the queue, and a frame still
+		 * arriving is kept for the next read.
 		 * 
 		 * @param bytesToRead
 		 *            number of bytes to read in from serial
@@ -327,31 +445,9 @@ public class SerialReader {
 					bytesToRead = 127;
 
 				byte[] buffer = openPort.readBytes(bytesToRead);
+				Metrics.metrics.bytesRead.add(buffer.length);
 
-				for (Byte b : buffer) {
-					readBuffer[pointer++] = (char) (b & 0xFF);
-				}
-
-				String potential = "";
-
-				/* Add to, wrap around and feed buffer */
-				for (char b : readBuffer) {
-					if (potential.equals("") && b == '#') { // Found the
-															// beginning of a
-															// new message
-						potential += b;
-					} else if (!potential.equals("") && b == '#') { // Found a
-																	// new
-																	// message
-						Out.out.recordToLog(" {MSG} -> {" + potential.replaceAll("#", "") + "} \n", true);
-						addNewMessage(potential);
-						readBuffer = new char[256];
-						pointer = 0;
-						break;
-					} else { // Concatenating onto a premature message
-						potential += b;
-					}
-				}
+				frames.accept(buffer);
 
 				// openPort.purgePort(SerialPort.PURGE_RXCLEAR);
 
@@ -367,22 +463,91 @@ public class SerialReader {
 
 		}
 
+		@Override
+		public void frameReceived(String frame) {
+			Out.out.recordToLog(" {MSG} -> {" + frame.substring(1) + "} \n", true);
+			addNewMessage(frame);
+		}
+
+		@Override
+		public void frameRejected(String reason, String text) {
+			reject(reason, text);
+		}
+
 		/**
-		 * Create a new message and add it to the queue
+		 * Create a new message and add it to the queue, settings are applied
+		 * straight to the device state instead of being queued
 		 * 
 		 * @param potential
 		 *            The potential for a new message
 		 */
 		private void addNewMessage(String potential) {
 
+			FrameReceivedEvent event = new FrameReceivedEvent();
+			event.begin();
+
 			Message msg = MessageHandler.getHandler().createMessage(potential);
+
+			event.end();
 			
 			/* Discard failed message */
 			if(msg.getName().equals(MessageHandler.ERR)){
+				reject("Unidentifiable frame", potential);
+				return;
+			}
+
+			if (event.shouldCommit()) {
+				event.type = msg.getName();
+				event.length = potential.length();
+				event.commit();
+			}
+
+			if (msg instanceof SettingMessage) {
+				SettingMessage setting = (SettingMessage) msg;
+				if (!setting.isValid()) {
+					reject("Unreadable setting", potential);
+					return;
+				}
+				deviceState.frameReceived();
+				if (SettingMessage.TICK_RATE.equals(setting.getSetting())) {
+					deviceState.setTickRate(setting.getValue());
+					commands.rateAnswered();
+				}
+				return;
+			}
+
+			if (msg instanceof DataMessage && !((DataMessage) msg).isValid()) {
+				reject("Malformed data frame", potential);
 				return;
 			}
-			
-			queuedInput.add(msg);
+
+			deviceState.frameReceived();
+			synchronized (queuedInput) {
+				queuedInput.add(msg);
+				queuedInput.notifyAll();
+			}
+
+		}
+
+		/**
+		 * Record that a frame could not be decoded and has been discarded
+		 * 
+		 * @param reason
+		 *            Why the frame was discarded
+		 * @param frame
+		 *            The frame discarded
+		 */
+		private void reject(String reason, String frame) {
+
+			Metrics.metrics.parseErrors.increment();
+			deviceState.frameRejected();
+
+			FrameRejectedEvent event = new FrameRejectedEvent();
+			if (event.shouldCommit()) {
+				event.reason = reason;
+				event.frame = frame;
+				event.commit();
+			}
 
 		}
 
@@ -399,6 +564,7 @@ public class SerialReader {
 				 */
 				if (!readInput(event.getEventValue())) {
 					Out.out.loglnErr("Failed to read from SerialPort \"" + openPort.getPortName() + "\".");
+					deviceState.connectionLost();
 				}
 
 			} else if (event.isCTS()) {// If CTS line has changed state
@@ -422,12 +588,8 @@ public class SerialReader {
 		 * @return Message if present, if empty then null
 		 */
 		public Message popMessage() {
-			if (queuedInput.size() > 0) {
-				Message msg = queuedInput.get(0);
-				queuedInput.remove(0);
-				return msg;
-			} else {
-				return null;
+			synchronized (queuedInput) {
+				return queuedInput.isEmpty() ? null : queuedInput.remove(0);
 			}
 		}
 
@@ -440,7 +602,9 @@ public class SerialReader {
 		 * @return Message if present, if empty then null
 		 */
 		public Message popMessage(String type) {
-			return popMessage(type, 0);
+			synchronized (queuedInput) {
+				return popMessage(type, 0);
+			}
 		}
 
 		/**
@@ -452,15 +616,17 @@ public class SerialReader {
 		 * @return Message if present, if empty then null
 		 */
 		public Message popLatestMessage(String type) {
-			Message msg = popMessage(type, 0);
+			synchronized (queuedInput) {
+				Message msg = popMessage(type, 0);
 
-			if (msg == null)
-				return null;
+				if (msg == null)
+					return null;
 
-			while (!msg.getName().equals(type)) {
-				msg = popMessage(type, 0);
+				while (!msg.getName().equals(type)) {
+					msg = popMessage(type, 0);
+				}
+				return msg;
 			}
-			return msg;
 		}
 
 		/**
@@ -501,15 +667,44 @@ public class SerialReader {
 		 * @return Message if found else null
 		 */
 		public Message find(String str) {
-			Message msg = popMessage();
+			synchronized (queuedInput) {
+				Message msg = popMessage();
 
-			if (msg != null && msg.getPayload() == null)
-				return find(str);
+				if (msg != null && msg.getPayload() == null)
+					return find(str);
 
-			while (msg != null && msg.getPayload() != null && str != null && !msg.getPayload().equals(str)) {
-				msg = popMessage();
+				while (msg != null && msg.getPayload() != null && str != null && !msg.getPayload().equals(str)) {
+					msg = popMessage();
+				}
+				return msg;
+			}
+		}
+
+		/**
+		 * Wait for a message with a payload matching the sequence expected,
+		 * messages before it are discarded as with find
+		 * 
+		 * @param str
+		 *            The sequence to match against
+		 * @param timeout
+		 *            Longest to wait in milliseconds
+		 * @return Message if one arrived in time else null
+		 * @throws InterruptedException
+		 *             if interrupted while waiting
+		 */
+		public Message await(String str, long timeout) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + timeout;
+			synchronized (queuedInput) {
+				Message msg;
+				while ((msg = find(str)) == null) {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						return null;
+					}
+					queuedInput.wait(remaining);
+				}
+				return msg;
 			}
-			return msg;
 		}
 
 		/**
@@ -518,7 +713,9 @@ public class SerialReader {
 		 * @return copy of queuendInput
 		 */
 		public List<Message> messages() {
-			return new ArrayList<>(queuedInput);
+			synchronized (queuedInput) {
+				return new ArrayList<>(queuedInput);
+			}
 		}
 
 	}
@@ -0,0 +1,289 @@
+package kent.dja33.iot.a1.util.alert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import kent.dja33.iot.a1.util.Out;
+import kent.dja33.iot.a1.util.alert.AlertRule.Channel;
+import kent.dja33.iot.a1.util.alert.AlertRule.Kind;
+import kent.dja33.iot.a1.util.message.DataMessage;
+import kent.dja33.iot.a1.util.message.DataMessageListener;
+
+/**
+ * Evaluates AlertRules against every sample passed through the SensorPipeline
+ * so nobody has to watch the chart for problems.
+ *
+ * The rules are compiled into flat arrays when the engine is created, so
+ * evaluating a sample is a single loop over primitives with no allocation or
+ * string handling. Runs entirely on the pipeline thread, listeners are told
+ * about alerts on that thread and must hand off to the FX thread themselves.
+ *
+ * @author Dante
+ *
+ */
+public class AlertEngine implements DataMessageListener {
+
+	private static final int CHANNELS = Channel.values().length;
+
+	/*
+	 * Shortest time in milliseconds a slope is measured over, samples arrive
+	 * in bursts so the time between two of them says little about how fast a
+	 * value is changing
+	 */
+	private static final long SLOPE_SPAN = 1000;
+
+	/* The compiled rules, indexed by rule */
+	private final AlertRule[] rules;
+	private final Kind[] kinds;
+	private final int[] channels;
+	private final float[] lows;
+	private final float[] highs;
+	private final float[] hysteresis;
+	private final long[] timeouts;
+	private final int[] debounce;
+
+	/* Samples in a row that disagree with whether the rule is active */
+	private final int[] counts;
+	private final boolean[] active;
+
+	/* Value of every channel for the current sample */
+	private final float[] values = new float[CHANNELS];
+	private long previousTime = -1;
+
+	/* Value of every channel at the start of the slope being measured */
+	private final float[] slopeFrom = new float[CHANNELS];
+	private long slopeTime = -1;
+
+	private final List<AlertListener> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Compile the rules given into the engine
+	 *
+	 * @param rules
+	 *            the rules to evaluate
+	 */
+	public AlertEngine(List<AlertRule> rules) {
+		int n = rules.size();
+
+		this.rules = rules.toArray(new AlertRule[n]);
+		this.kinds = new Kind[n];
+		this.channels = new int[n];
+		this.lows = new float[n];
+		this.highs = new float[n];
+		this.hysteresis = new float[n];
+		this.timeouts = new long[n];
+		this.debounce = new int[n];
+		this.counts = new int[n];
+		this.active = new boolean[n];
+
+		for (int i = 0; i < n; i++) {
+			AlertRule rule = this.rules[i];
+			kinds[i] = rule.kind;
+			channels[i] = rule.channel != null ? rule.channel.ordinal() : -1;
+			lows[i] = rule.low;
+			highs[i] = rule.high;
+			hysteresis[i] = rule.hysteresis;
+			timeouts[i] = rule.timeout;
+			debounce[i] = rule.debounce;
+		}
+	}
+
+	/**
+	 * The rules used when nothing else has been configured, expects the board
+	 * to be lying flat indoors
+	 *
+	 * @return default rules
+	 */
+	public static List<AlertRule> defaultRules() {
+		return new ArrayList<>(Arrays.asList(
+				AlertRule.above("High temperature", Channel.TEMPERATURE, 40f, 1f).debounce(3),
+				AlertRule.below("Low temperature", Channel.TEMPERATURE, 5f, 1f).debounce(3),
+				AlertRule.slope("Rapid temperature change", Channel.TEMPERATURE, 2f, 0.5f).debounce(3),
+				AlertRule.outside("Tilted", Channel.Z, 0.8f, 1.2f, 0.05f).debounce(2),
+				AlertRule.above("Impact", Channel.MAGNITUDE, 2f, 0.2f),
+				AlertRule.stale("No samples", 5000)));
+	}
+
+	/**
+	 * Listen for alerts being raised or cleared
+	 *
+	 * @param listener
+	 *            the listener to add
+	 */
+	public void addListener(AlertListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Stop listening for alerts
+	 *
+	 * @param listener
+	 *            the listener to remove
+	 */
+	public void removeListener(AlertListener listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public void dataReceived(DataMessage msg) {
+		evaluate(msg.getTime(), msg.getTemperature(), msg.getX(), msg.getY(), msg.getZ());
+	}
+
+	/**
+	 * Check for stale samples once every run of the pipeline, as staleness
+	 * cannot be detected from samples arriving
+	 */
+	@Override
+	public void endOfBatch() {
+		checkStale(System.currentTimeMillis());
+	}
+
+	/**
+	 * Evaluate every rule against a single sample
+	 *
+	 * @param time
+	 *            time the sample was received in milliseconds
+	 * @param temperature
+	 *            temperature in Celsius
+	 * @param x
+	 *            accelerometer X
+	 * @param y
+	 *            accelerometer Y
+	 * @param z
+	 *            accelerometer Z
+	 */
+	public void evaluate(long time, float temperature, float x, float y, float z) {
+
+		values[Channel.TEMPERATURE.ordinal()] = temperature;
+		values[Channel.X.ordinal()] = x;
+		values[Channel.Y.ordinal()] = y;
+		values[Channel.Z.ordinal()] = z;
+		values[Channel.MAGNITUDE.ordinal()] = (float) Math.sqrt(x * x + y * y + z * z);
+
+		long span = slopeTime < 0 ? 0 : time - slopeTime;
+		boolean spanned = span >= SLOPE_SPAN;
+
+		for (int i = 0; i < kinds.length; i++) {
+
+			float value;
+			boolean condition;
+			float h = active[i] ? hysteresis[i] : 0;
+
+			switch (kinds[i]) {
+			case ABOVE:
+				value = values[channels[i]];
+				condition = value > highs[i] - h;
+				break;
+			case BELOW:
+				value = values[channels[i]];
+				condition = value < lows[i] + h;
+				break;
+			case OUTSIDE:
+				value = values[channels[i]];
+				condition = value < lows[i] + h || value > highs[i] - h;
+				break;
+			case SLOPE:
+				if (!spanned) {
+					continue;
+				}
+				value = Math.abs(values[channels[i]] - slopeFrom[channels[i]]) * 1000f / span;
+				condition = value > highs[i] - h;
+				break;
+			default:
+				/* Stale rules are checked separately */
+				continue;
+			}
+
+			if (condition != active[i]) {
+				if (++counts[i] >= debounce[i]) {
+					change(i, condition, time, value);
+				}
+			} else {
+				counts[i] = 0;
+			}
+
+		}
+
+		/* Start measuring the next slope, or over again if time went backwards */
+		if (slopeTime < 0 || spanned || time < slopeTime) {
+			System.arraycopy(values, 0, slopeFrom, 0, CHANNELS);
+			slopeTime = time;
+		}
+		previousTime = time;
+
+		/* Any sample clears stale rules */
+		for (int i = 0; i < kinds.length; i++) {
+			if (kinds[i] == Kind.STALE && active[i]) {
+				change(i, false, time, 0);
+			}
+		}
+	}
+
+	/**
+	 * Raise any stale rules whose timeout has passed since the last sample,
+	 * nothing is raised until the first sample has been received
+	 *
+	 * @param now
+	 *            the current time in milliseconds
+	 */
+	public void checkStale(long now) {
+
+		if (previousTime < 0) {
+			return;
+		}
+
+		for (int i = 0; i < kinds.length; i++) {
+			if (kinds[i] == Kind.STALE && !active[i] && now - previousTime > timeouts[i]) {
+				change(i, true, now, now - previousTime);
+			}
+		}
+	}
+
+	private void change(int i, boolean raised, long time, float value) {
+		active[i] = raised;
+		counts[i] = 0;
+
+		for (AlertListener listener : listeners) {
+			listener.alertChanged(rules[i], raised, time, value);
+		}
+	}
+
+	/**
+	 * Whether the alert for a rule is currently raised
+	 *
+	 * @param rule
+	 *            the rule to check
+	 * @return true if raised
+	 */
+	public boolean isRaised(AlertRule rule) {
+		for (int i = 0; i < rules.length; i++) {
+			if (rules[i] == rule) {
+				return active[i];
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Listener that writes alerts to the log
+	 *
+	 * @param rule
+	 *            the rule that changed
+	 * @param raised
+	 *            whether it was raised or cleared
+	 * @param time
+	 *            the time it changed
+	 * @param value
+	 *            the value that changed it
+	 */
+	public static void log(AlertRule rule, boolean raised, long time, float value) {
+		if (raised) {
+			Out.out.loglnErr("Alert raised: " + rule + " (" + value + ")");
+		} else {
+			Out.out.logln("Alert cleared: " + rule + " (" + value + ")");
+		}
+	}
+
+}
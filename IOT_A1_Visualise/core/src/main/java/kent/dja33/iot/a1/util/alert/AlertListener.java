@@ -0,0 +1,25 @@
+package kent.dja33.iot.a1.util.alert;
+
+/**
+ * Listener notified whenever an AlertRule is raised or cleared
+ *
+ * @author Dante
+ *
+ */
+public interface AlertListener {
+
+	/**
+	 * Called on the pipeline thread, never the FX thread, so must not block.
+	 *
+	 * @param rule
+	 *            the rule that changed
+	 * @param raised
+	 *            true if the alert was raised, false if cleared
+	 * @param time
+	 *            time of the sample that changed the alert in milliseconds
+	 * @param value
+	 *            the value that changed the alert
+	 */
+	void alertChanged(AlertRule rule, boolean raised, long time, float value);
+
+}
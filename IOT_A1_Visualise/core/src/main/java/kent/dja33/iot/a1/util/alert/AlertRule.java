@@ -0,0 +1,162 @@
+package kent.dja33.iot.a1.util.alert;
+
+/**
+ * Describes a condition on the sample stream that should raise an alert,
+ * created through the static methods such as above() or outside(). Rules only
+ * describe what to check, the AlertEngine compiles them into arrays so that
+ * they can be evaluated against every sample without any allocation.
+ *
+ * Every rule has a hysteresis so that a value sitting on a threshold does not
+ * keep raising and clearing the alert, the alert is raised when the threshold
+ * is crossed and only cleared once the value has moved back past the
+ * threshold by the hysteresis. Rules can also be debounced so the condition
+ * has to hold for a number of samples in a row before the alert changes.
+ *
+ * @author Dante
+ *
+ */
+public final class AlertRule {
+
+	/* Values a rule can be evaluated against */
+	public enum Channel {
+		TEMPERATURE, X, Y, Z, MAGNITUDE
+	}
+
+	/* The kinds of check a rule performs */
+	enum Kind {
+		ABOVE, BELOW, OUTSIDE, SLOPE, STALE
+	}
+
+	final String name;
+	final Kind kind;
+	final Channel channel;
+	final float low;
+	final float high;
+	final float hysteresis;
+	final long timeout;
+	int debounce = 1;
+
+	private AlertRule(String name, Kind kind, Channel channel, float low, float high, float hysteresis,
+			long timeout) {
+		this.name = name;
+		this.kind = kind;
+		this.channel = channel;
+		this.low = low;
+		this.high = high;
+		this.hysteresis = hysteresis;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Alert when a channel goes above a threshold
+	 *
+	 * @param name
+	 *            name of the alert
+	 * @param channel
+	 *            channel to check
+	 * @param threshold
+	 *            value to raise the alert above
+	 * @param hysteresis
+	 *            how far back below the threshold to clear the alert
+	 * @return the rule
+	 */
+	public static AlertRule above(String name, Channel channel, float threshold, float hysteresis) {
+		return new AlertRule(name, Kind.ABOVE, channel, 0, threshold, hysteresis, 0);
+	}
+
+	/**
+	 * Alert when a channel goes below a threshold
+	 *
+	 * @param name
+	 *            name of the alert
+	 * @param channel
+	 *            channel to check
+	 * @param threshold
+	 *            value to raise the alert below
+	 * @param hysteresis
+	 *            how far back above the threshold to clear the alert
+	 * @return the rule
+	 */
+	public static AlertRule below(String name, Channel channel, float threshold, float hysteresis) {
+		return new AlertRule(name, Kind.BELOW, channel, threshold, 0, hysteresis, 0);
+	}
+
+	/**
+	 * Alert when a channel leaves a band, such as Z leaving the 1g band when
+	 * the board is tilted
+	 *
+	 * @param name
+	 *            name of the alert
+	 * @param channel
+	 *            channel to check
+	 * @param low
+	 *            bottom of the band
+	 * @param high
+	 *            top of the band
+	 * @param hysteresis
+	 *            how far back inside the band to clear the alert
+	 * @return the rule
+	 */
+	public static AlertRule outside(String name, Channel channel, float low, float high, float hysteresis) {
+		return new AlertRule(name, Kind.OUTSIDE, channel, low, high, hysteresis, 0);
+	}
+
+	/**
+	 * Alert when a channel changes faster than a rate, in either direction,
+	 * measured over at least a second of samples and checked once each second
+	 *
+	 * @param name
+	 *            name of the alert
+	 * @param channel
+	 *            channel to check
+	 * @param perSecond
+	 *            the fastest change allowed per second
+	 * @param hysteresis
+	 *            how far below the rate to clear the alert
+	 * @return the rule
+	 */
+	public static AlertRule slope(String name, Channel channel, float perSecond, float hysteresis) {
+		return new AlertRule(name, Kind.SLOPE, channel, 0, perSecond, hysteresis, 0);
+	}
+
+	/**
+	 * Alert when no samples have been received for a length of time
+	 *
+	 * @param name
+	 *            name of the alert
+	 * @param timeout
+	 *            time without samples in milliseconds
+	 * @return the rule
+	 */
+	public static AlertRule stale(String name, long timeout) {
+		return new AlertRule(name, Kind.STALE, null, 0, 0, 0, timeout);
+	}
+
+	/**
+	 * Require the condition to hold for a number of samples in a row before
+	 * raising or clearing the alert
+	 *
+	 * @param samples
+	 *            samples in a row, at least 1
+	 * @return this rule
+	 */
+	public AlertRule debounce(int samples) {
+		this.debounce = Math.max(1, samples);
+		return this;
+	}
+
+	/**
+	 * The name of the alert
+	 *
+	 * @return name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
@@ -0,0 +1,77 @@
+package kent.dja33.iot.a1.util.anomaly;
+
+/**
+ * The kinds of anomaly the AnomalyDetector marks a channel of a sample with.
+ * A DataMessage carries them as a mask of BITS_PER_CHANNEL bits for each
+ * channel, in the order temperature, X, Y then Z.
+ *
+ * A glitch is a run of OUTLIER samples that returns to where it came from, a
+ * real change is a run that stays away long enough to be confirmed and ends
+ * with a STEP.
+ *
+ * @author Dante
+ *
+ */
+public enum Anomaly {
+
+	/* Far from the recent values, a glitch unless a STEP follows */
+	OUTLIER,
+
+	/* Confirms the outliers before it were a real change of level */
+	STEP,
+
+	/* Recent values are far from what is usual for the time of day */
+	UNUSUAL;
+
+	public static final int BITS_PER_CHANNEL = 4;
+
+	/* Names of the channels, in the order their bits are held */
+	private static final String[] CHANNELS = { "temperature", "x", "y", "z" };
+
+	/**
+	 * The bit representing this anomaly on a channel
+	 *
+	 * @param channel
+	 *            0 for temperature, 1 to 3 for accelerometer X to Z
+	 * @return mask
+	 */
+	public int mask(int channel) {
+		return 1 << (channel * BITS_PER_CHANNEL + ordinal());
+	}
+
+	/**
+	 * Whether a mask of anomalies includes this one on a channel
+	 *
+	 * @param anomalies
+	 *            the mask
+	 * @param channel
+	 *            0 for temperature, 1 to 3 for accelerometer X to Z
+	 * @return true if included
+	 */
+	public boolean in(int anomalies, int channel) {
+		return (anomalies & mask(channel)) != 0;
+	}
+
+	/**
+	 * Describe a mask of anomalies, such as "temperature OUTLIER, z STEP"
+	 *
+	 * @param anomalies
+	 *            the mask
+	 * @return description, empty if there are none
+	 */
+	public static String describe(int anomalies) {
+		StringBuilder sb = new StringBuilder();
+		for (int channel = 0; channel < CHANNELS.length; channel++) {
+			for (Anomaly anomaly : values()) {
+				if (anomaly.in(anomalies, channel)) {
+					if (sb.length() > 0) {
+						sb.append(", ");
+					}
+					sb.append(CHANNELS[channel]).append(' ').append(anomaly);
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+}
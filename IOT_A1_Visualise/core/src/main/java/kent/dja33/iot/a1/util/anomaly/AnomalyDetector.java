@@ -0,0 +1,92 @@
+package kent.dja33.iot.a1.util.anomaly;
+
+import kent.dja33.iot.a1.util.message.DataMessage;
+import kent.dja33.iot.a1.util.metrics.Metrics;
+
+/**
+ * Marks the anomalies in every DataMessage before the SensorPipeline filters
+ * and hands it on, so a sensor glitch can be told apart from something really
+ * happening. Samples are never dropped, the anomalies found are set on the
+ * message for listeners to use or ignore as they wish.
+ *
+ * Each channel is checked by a ChannelDetector of its own against its raw
+ * values, as filtering would smear a glitch into the values around it. Runs
+ * on the pipeline thread only. Glitches and steps found are counted in the
+ * Metrics.
+ *
+ * @author Dante
+ *
+ */
+public class AnomalyDetector {
+
+	/* Resolution of the board's temperature sensor and accelerometer */
+	private static final float TEMPERATURE_RESOLUTION = 0.125f;
+	private static final float ACCELERATION_RESOLUTION = 1 / 21.33f;
+
+	private final ChannelDetector[] channels;
+
+	/* Counts already added to the Metrics */
+	private long glitches;
+	private long steps;
+
+	/**
+	 * Create a detector for each channel
+	 *
+	 * @param temperatureResolution
+	 *            smallest change in temperature the sensor can read
+	 * @param accelerationResolution
+	 *            smallest change in acceleration the sensor can read
+	 */
+	public AnomalyDetector(float temperatureResolution, float accelerationResolution) {
+		this.channels = new ChannelDetector[] { new ChannelDetector(0, temperatureResolution),
+				new ChannelDetector(1, accelerationResolution), new ChannelDetector(2, accelerationResolution),
+				new ChannelDetector(3, accelerationResolution) };
+	}
+
+	/**
+	 * The detector used when nothing else has been configured, for the sensors
+	 * of the MBED application shield
+	 *
+	 * @return default detector
+	 */
+	public static AnomalyDetector defaultDetector() {
+		return new AnomalyDetector(TEMPERATURE_RESOLUTION, ACCELERATION_RESOLUTION);
+	}
+
+	/**
+	 * Check the message and mark it with the anomalies found, must be called
+	 * with messages in the order they were received
+	 *
+	 * @param msg
+	 *            the message to check
+	 */
+	public void apply(DataMessage msg) {
+
+		long time = msg.getTime();
+		msg.setAnomalies(channels[0].check(msg.getTemperature(), time) | channels[1].check(msg.getX(), time)
+				| channels[2].check(msg.getY(), time) | channels[3].check(msg.getZ(), time));
+
+		long glitches = 0;
+		long steps = 0;
+		for (ChannelDetector channel : channels) {
+			glitches += channel.getGlitches();
+			steps += channel.getSteps();
+		}
+		Metrics.metrics.glitches.add(glitches - this.glitches);
+		Metrics.metrics.steps.add(steps - this.steps);
+		this.glitches = glitches;
+		this.steps = steps;
+
+	}
+
+	/**
+	 * Forget the recent values of every channel, such as after a gap. What is
+	 * usual for each time of day is kept.
+	 */
+	public void reset() {
+		for (ChannelDetector channel : channels) {
+			channel.reset();
+		}
+	}
+
+}
@@ -0,0 +1,296 @@
+package kent.dja33.iot.a1.util.anomaly;
+
+import java.util.TimeZone;
+
+/**
+ * Looks for anomalies in a single channel of samples, one value at a time.
+ * Everything it keeps is in primitive fields and arrays created up front, so
+ * the memory it needs never grows and checking a value never allocates.
+ *
+ * Each value is compared with the median of the last WINDOW values that were
+ * not outliers, scaled by their median absolute deviation, a robust z-score
+ * that a few bad values cannot drag around. The scale never drops below the
+ * resolution of the sensor, as a quantised channel sitting still has no
+ * deviation at all. A value scoring beyond THRESHOLD is an outlier and is
+ * left out of the window.
+ *
+ * Outliers on the same side in a row are a jump in the making. CONFIRM of
+ * them confirms the jump as a real change, the last is marked as a STEP and
+ * the window starts again from the new level. A run that ends sooner was a
+ * glitch.
+ *
+ * Alongside, the mean of each hour is folded into a baseline for that hour
+ * of the day, weighted towards the last SEASONAL_DAYS days, along with how
+ * much it usually varies. Once an hour of the day has been seen on MIN_DAYS
+ * days, a median straying from it by more than SEASONAL_THRESHOLD times the
+ * usual variation is UNUSUAL, such as a room that is warm at night.
+ *
+ * @author Dante
+ *
+ */
+final class ChannelDetector {
+
+	/* Values the median and deviation are taken over, and needed before any */
+	private static final int WINDOW = 64;
+	private static final int MIN_HISTORY = 8;
+
+	/* Robust z-score beyond which a value is an outlier */
+	private static final float THRESHOLD = 6;
+	/* Scales the median absolute deviation to a standard deviation */
+	private static final float MAD_SCALE = 1.4826f;
+	/* Outliers in a row on the same side confirming a change of level */
+	private static final int CONFIRM = 3;
+
+	/* Seasonal baselines, one per hour of the day */
+	private static final long HOUR = 60 * 60 * 1000;
+	private static final int HOURS = 24;
+	private static final int SEASONAL_DAYS = 7;
+	private static final int MIN_DAYS = 2;
+	private static final int MIN_HOUR_SAMPLES = 10;
+	private static final float SEASONAL_THRESHOLD = 4;
+
+	private final int channel;
+	private final float resolution;
+
+	/* Window in arrival order, and a sorted copy of it */
+	private final float[] window = new float[WINDOW];
+	private final float[] sorted = new float[WINDOW];
+	private int head;
+	private int size;
+
+	/* The current run of outliers */
+	private int run;
+	private float runSide;
+
+	/* Baseline and usual variation for each hour of the day */
+	private final float[] hourMeans = new float[HOURS];
+	private final float[] hourDeviations = new float[HOURS];
+	private final int[] hourDays = new int[HOURS];
+
+	/* The hour being accumulated, as hours since the epoch in local time */
+	private long hour = Long.MIN_VALUE;
+	private double hourSum;
+	private int hourCount;
+
+	/* Offset of local time, only looked up when the hour changes */
+	private long utcHour = Long.MIN_VALUE;
+	private long zoneOffset;
+
+	/* Number of glitches and steps found */
+	private long glitches;
+	private long steps;
+
+	/**
+	 * Create a detector for a channel
+	 *
+	 * @param channel
+	 *            0 for temperature, 1 to 3 for accelerometer X to Z
+	 * @param resolution
+	 *            the smallest change the sensor can read
+	 */
+	ChannelDetector(int channel, float resolution) {
+		this.channel = channel;
+		this.resolution = resolution;
+	}
+
+	/**
+	 * Check the next value of the channel
+	 *
+	 * @param value
+	 *            the raw value
+	 * @param time
+	 *            time it was received in milliseconds
+	 * @return mask of the anomalies found, 0 if none
+	 */
+	int check(float value, long time) {
+
+		if (Float.isNaN(value)) {
+			return 0;
+		}
+
+		if (size < MIN_HISTORY) {
+			add(value);
+			accumulate(value, time);
+			return 0;
+		}
+
+		float median = median();
+		float scale = Math.max(MAD_SCALE * deviation(median), resolution);
+		float z = (value - median) / scale;
+		int anomalies = 0;
+
+		if (Math.abs(z) > THRESHOLD) {
+
+			float side = Math.signum(z);
+			if (run > 0 && side != runSide) {
+				glitches++;
+				run = 0;
+			}
+			runSide = side;
+			run++;
+
+			if (run >= CONFIRM) {
+				/* A real change, start again from the new level */
+				steps++;
+				run = 0;
+				size = 0;
+				head = 0;
+				add(value);
+				anomalies |= Anomaly.STEP.mask(channel);
+			} else {
+				anomalies |= Anomaly.OUTLIER.mask(channel);
+			}
+
+		} else {
+
+			if (run > 0) {
+				glitches++;
+				run = 0;
+			}
+			add(value);
+			accumulate(value, time);
+
+		}
+
+		if (isUnusual(median)) {
+			anomalies |= Anomaly.UNUSUAL.mask(channel);
+		}
+
+		return anomalies;
+	}
+
+	/**
+	 * Forget the recent values, such as after a gap, the seasonal baselines
+	 * are kept
+	 */
+	void reset() {
+		head = 0;
+		size = 0;
+		run = 0;
+	}
+
+	long getGlitches() {
+		return glitches;
+	}
+
+	long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Add a value to the window, removing the oldest from the sorted copy
+	 */
+	private void add(float value) {
+
+		if (size == WINDOW) {
+			int i = indexOf(window[head]);
+			System.arraycopy(sorted, i + 1, sorted, i, size - i - 1);
+			size--;
+		}
+
+		window[head] = value;
+		head = (head + 1) % WINDOW;
+
+		int i = size;
+		while (i > 0 && sorted[i - 1] > value) {
+			sorted[i] = sorted[i - 1];
+			i--;
+		}
+		sorted[i] = value;
+		size++;
+
+	}
+
+	private int indexOf(float value) {
+		int low = 0;
+		int high = size - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (sorted[mid] < value) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private float median() {
+		return (size & 1) == 1 ? sorted[size / 2] : (sorted[size / 2 - 1] + sorted[size / 2]) / 2;
+	}
+
+	/**
+	 * Median of the distances from the median. Going outwards from the median
+	 * through the sorted window gives the distances in order, so the middle
+	 * one is found by walking half way without sorting anything.
+	 */
+	private float deviation(float median) {
+
+		int below = size / 2 - 1;
+		int above = size / 2;
+		if ((size & 1) == 1) {
+			below = size / 2;
+			above = size / 2 + 1;
+		}
+
+		float previous = 0;
+		float current = 0;
+		for (int n = 0; n <= size / 2; n++) {
+			previous = current;
+			if (above >= size || below >= 0 && median - sorted[below] <= sorted[above] - median) {
+				current = median - sorted[below--];
+			} else {
+				current = sorted[above++] - median;
+			}
+		}
+
+		return (size & 1) == 1 ? current : (previous + current) / 2;
+	}
+
+	/**
+	 * Add a value to the mean of its hour, folding the previous hour into its
+	 * baseline when a new one starts
+	 */
+	private void accumulate(float value, long time) {
+
+		long utc = Math.floorDiv(time, HOUR);
+		if (utc != utcHour) {
+			utcHour = utc;
+			zoneOffset = TimeZone.getDefault().getOffset(time);
+		}
+
+		long local = Math.floorDiv(time + zoneOffset, HOUR);
+		if (local != hour) {
+			if (hourCount >= MIN_HOUR_SAMPLES) {
+				int h = (int) Math.floorMod(hour, (long) HOURS);
+				float mean = (float) (hourSum / hourCount);
+				if (hourDays[h] == 0) {
+					hourMeans[h] = mean;
+					hourDeviations[h] = 0;
+				} else {
+					float weight = 1f / Math.min(hourDays[h] + 1, SEASONAL_DAYS);
+					hourDeviations[h] += weight * (Math.abs(mean - hourMeans[h]) - hourDeviations[h]);
+					hourMeans[h] += weight * (mean - hourMeans[h]);
+				}
+				hourDays[h]++;
+			}
+			hour = local;
+			hourSum = 0;
+			hourCount = 0;
+		}
+
+		hourSum += value;
+		hourCount++;
+
+	}
+
+	private boolean isUnusual(float median) {
+		if (hour == Long.MIN_VALUE) {
+			return false;
+		}
+		int h = (int) Math.floorMod(hour, (long) HOURS);
+		return hourDays[h] >= MIN_DAYS && Math.abs(median - hourMeans[h]) > SEASONAL_THRESHOLD
+				* Math.max(hourDeviations[h], resolution);
+	}
+
+}
@@ -0,0 +1,243 @@
+package kent.dja33.iot.a1.util.device;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import kent.dja33.iot.a1.util.Out;
+import kent.dja33.iot.a1.util.device.DeviceState.AckState;
+import kent.dja33.iot.a1.util.device.DeviceState.Property;
+import kent.dja33.iot.a1.util.event.EventLog;
+import kent.dja33.iot.a1.util.event.EventType;
+import kent.dja33.iot.a1.util.metrics.Metrics;
+
+/**
+ * Queue of commands waiting to be written to the MBED, so that nothing ever
+ * writes to the port from the FX thread and repeated button presses do not
+ * each cost a round trip to the device.
+ *
+ * A single writer on the DeviceExecutor drains the queue. It waits
+ * COALESCE_WINDOW after the first command arrives so a burst of presses is
+ * written out together in one write. Rate changes are merged into a net
+ * change beforehand, pressing increase twice and decrease once sends a single
+ * increase.
+ *
+ * The device answers every rate change it applies with a frame holding its
+ * new tick rate. Every such frame the SerialReader receives is matched to the
+ * rate changes written, oldest first, whether or not the rate it holds is
+ * different, and the time each took is recorded in the Metrics. A rate
+ * change the device did not apply, such as one past its fastest rate, is
+ * never answered and is given up on after ACK_TIMEOUT.
+ *
+ * @author Dante
+ *
+ */
+public class CommandQueue implements DeviceStateListener {
+
+	/* Commands understood by the MBED */
+	public static final String INCREASE_RATE = "#T0";
+	public static final String DECREASE_RATE = "#T1";
+
+	/* Time to wait for more commands before writing a batch */
+	private static final long COALESCE_WINDOW = 50;
+	/* Time to wait for the device to answer a rate change */
+	private static final long ACK_TIMEOUT = 2000;
+
+	private final CommandWriter writer;
+	private final long ackTimeout;
+
+	/* Everything below is guarded by this */
+	private final Deque<String> pending = new ArrayDeque<>();
+	/* Net rate change waiting to be sent, positive to increase */
+	private int rateChange;
+	/* Time each unanswered rate change was written, oldest first */
+	private final Deque<Long> inFlight = new ArrayDeque<>();
+	private boolean writing;
+
+	/**
+	 * Create a queue writing to the given writer, normally SerialReader.in
+	 *
+	 * @param writer
+	 *            where commands are written
+	 */
+	public CommandQueue(CommandWriter writer) {
+		this(writer, ACK_TIMEOUT);
+	}
+
+	/**
+	 * Create a queue giving up on unanswered rate changes after the time
+	 * given, so tests need not wait ACK_TIMEOUT
+	 */
+	CommandQueue(CommandWriter writer, long ackTimeout) {
+		this.writer = writer;
+		this.ackTimeout = ackTimeout;
+		writer.getDeviceState().addListener(this);
+	}
+
+	/**
+	 * Ask the device to send samples more often
+	 */
+	public void increaseRate() {
+		changeRate(1);
+	}
+
+	/**
+	 * Ask the device to send samples less often
+	 */
+	public void decreaseRate() {
+		changeRate(-1);
+	}
+
+	private synchronized void changeRate(int change) {
+		if (rateChange != 0 && Integer.signum(rateChange) != change) {
+			/* Cancels out a change still waiting to be sent */
+			Metrics.metrics.commandsMerged.add(2);
+		}
+		rateChange += change;
+		startWriter();
+	}
+
+	/**
+	 * Queue any other command to be written as it is, in order
+	 *
+	 * @param command
+	 *            the command to write
+	 */
+	public synchronized void send(String command) {
+		pending.add(command);
+		startWriter();
+	}
+
+	/**
+	 * Number of commands waiting to be written or answered
+	 *
+	 * @return commands outstanding
+	 */
+	public synchronized int getOutstanding() {
+		return pending.size() + Math.abs(rateChange) + inFlight.size();
+	}
+
+	private void startWriter() {
+		if (!writing) {
+			writing = true;
+			DeviceExecutor.devices.run(this::write);
+		}
+	}
+
+	/**
+	 * The single writer, keeps writing batches until there is nothing left
+	 */
+	private void write() {
+
+		while (true) {
+
+			try {
+				Thread.sleep(COALESCE_WINDOW);
+			} catch (InterruptedException e) {
+				synchronized (this) {
+					writing = false;
+				}
+				return;
+			}
+
+			StringBuilder batch = new StringBuilder();
+			int count;
+			int expired;
+
+			synchronized (this) {
+
+				if (pending.isEmpty() && rateChange == 0) {
+					writing = false;
+					return;
+				}
+
+				while (!pending.isEmpty()) {
+					batch.append(pending.poll());
+				}
+
+				count = Math.abs(rateChange);
+				String rate = rateChange > 0 ? INCREASE_RATE : DECREASE_RATE;
+				for (int i = 0; i < count; i++) {
+					batch.append(rate);
+				}
+				rateChange = 0;
+
+				long now = System.nanoTime();
+				expired = expire(now);
+				for (int i = 0; i < count; i++) {
+					inFlight.add(now);
+				}
+
+			}
+
+			reportExpired(expired);
+
+			if (writer.sendPayload(batch.toString())) {
+				Metrics.metrics.commandWrites.increment();
+				EventLog.events.record(EventType.COMMANDS_SENT, writer.getActivePort(), "payload", batch);
+			} else {
+				Out.out.loglnErr("Could not write \"" + batch + "\" to the sensor, discarding.");
+				synchronized (this) {
+					for (int i = 0; i < count; i++) {
+						inFlight.pollLast();
+					}
+				}
+			}
+
+		}
+
+	}
+
+	/**
+	 * Give up on rate changes the device never answered, called holding the
+	 * lock so the caller reports them once released
+	 *
+	 * @return the number given up on
+	 */
+	private int expire(long now) {
+		int expired = 0;
+		while (!inFlight.isEmpty() && now - inFlight.peek() > ackTimeout * 1_000_000) {
+			inFlight.poll();
+			expired++;
+		}
+		return expired;
+	}
+
+	private void reportExpired(int expired) {
+		if (expired > 0) {
+			Out.out.loglnErr("Sensor did not answer " + expired + " rate change(s).");
+			EventLog.events.record(EventType.COMMANDS_EXPIRED, writer.getActivePort(), "count", expired);
+		}
+	}
+
+	/**
+	 * Match a tick rate frame from the device to the oldest rate change
+	 * waiting for one, called by the SerialReader for every such frame
+	 */
+	public void rateAnswered() {
+		int expired;
+		synchronized (this) {
+			long now = System.nanoTime();
+			expired = expire(now);
+			Long sent = inFlight.poll();
+			if (sent != null) {
+				Metrics.metrics.commandLatency.record(now - sent);
+			}
+		}
+		reportExpired(expired);
+	}
+
+	@Override
+	public void deviceStateChanged(DeviceState state, Property property) {
+
+		if (property == Property.ACK_STATE && state.getAckState() != AckState.CONFIRMED) {
+			/* Nothing written before a reconnect will be answered */
+			synchronized (this) {
+				pending.clear();
+				rateChange = 0;
+				inFlight.clear();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,36 @@
+package kent.dja33.iot.a1.util.device;
+
+/**
+ * Whatever a CommandQueue writes its commands to, normally the SerialReader's
+ * open port
+ *
+ * @author Dante
+ *
+ */
+public interface CommandWriter {
+
+	/**
+	 * Write to the device straight away from the calling thread
+	 *
+	 * @param payload
+	 *            the commands to write
+	 * @return whether they were written
+	 */
+	boolean sendPayload(String payload);
+
+	/**
+	 * The device commands are written to, answers to rate changes are read
+	 * from it and a reconnect clears the queue
+	 *
+	 * @return device state
+	 */
+	DeviceState getDeviceState();
+
+	/**
+	 * The name of the port written to
+	 *
+	 * @return name of port
+	 */
+	String getActivePort();
+
+}
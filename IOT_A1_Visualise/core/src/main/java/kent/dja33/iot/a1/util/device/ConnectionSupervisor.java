@@ -0,0 +1,165 @@
+package kent.dja33.iot.a1.util.device;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import kent.dja33.iot.a1.util.Out;
+import kent.dja33.iot.a1.util.SensorPipeline;
+import kent.dja33.iot.a1.util.SerialReader;
+import kent.dja33.iot.a1.util.device.DeviceState.Health;
+import kent.dja33.iot.a1.util.device.DeviceState.Property;
+import kent.dja33.iot.a1.util.event.EventLog;
+import kent.dja33.iot.a1.util.event.EventType;
+
+/**
+ * Keeps the connection to the sensor alive during long unattended runs, so an
+ * MBED reset or a dropped USB cable does not need someone to press Connect
+ * again.
+ *
+ * Once told to watch a connection it listens to the DeviceState, when the
+ * device goes silent or the port can no longer be read it closes the port and
+ * keeps trying to reconnect, replaying the acknowledgement handshake, until it
+ * succeeds or is stopped. The delay between attempts doubles from
+ * INITIAL_BACKOFF up to MAX_BACKOFF and is jittered so several collectors
+ * sharing a hub do not all retry at the same moment. Reconnecting runs on the
+ * DeviceExecutor.
+ *
+ * Once reconnected the SensorPipeline is told of the gap, so it is marked in
+ * the sample stream and the store rather than silently skipped over.
+ *
+ * @author Dante
+ *
+ */
+public class ConnectionSupervisor implements DeviceStateListener {
+
+	/* Delay before the first attempt and the most it can back off to */
+	private static final long INITIAL_BACKOFF = 500;
+	private static final long MAX_BACKOFF = 30000;
+
+	private final SerialReader reader;
+	private final AtomicBoolean reconnecting = new AtomicBoolean();
+
+	private volatile boolean watching;
+	/* Port to reconnect to, null to try every port */
+	private volatile String portName;
+
+	/**
+	 * Create a supervisor for the given reader, it does nothing until told to
+	 * watch a connection
+	 *
+	 * @param reader
+	 *            the reader whose connection to keep alive
+	 */
+	public ConnectionSupervisor(SerialReader reader) {
+		this.reader = reader;
+		reader.getDeviceState().addListener(this);
+	}
+
+	/**
+	 * Start keeping the current connection alive
+	 *
+	 * @param portName
+	 *            the port to reconnect to, null to try every port as the
+	 *            device may come back under another name
+	 */
+	public void watch(String portName) {
+		this.portName = portName;
+		this.watching = true;
+	}
+
+	/**
+	 * Stop reconnecting, should be called before deliberately disconnecting
+	 */
+	public void stop() {
+		watching = false;
+	}
+
+	/**
+	 * Whether a reconnect is currently in progress
+	 *
+	 * @return true if reconnecting
+	 */
+	public boolean isReconnecting() {
+		return reconnecting.get();
+	}
+
+	@Override
+	public void deviceStateChanged(DeviceState state, Property property) {
+		if (property == Property.HEALTH && state.getHealth() == Health.SILENT && watching
+				&& reconnecting.compareAndSet(false, true)) {
+			DeviceExecutor.devices.run(() -> {
+				try {
+					reconnect(state);
+				} finally {
+					reconnecting.set(false);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Close the dead connection and retry until connected again or stopped
+	 *
+	 * @param state
+	 *            the state of the device, used to find when the gap began
+	 */
+	private void reconnect(DeviceState state) {
+
+		long gapStart = state.getLastFrameTime();
+		Out.out.loglnErr("Lost contact with sensor on \"" + reader.getActivePort() + "\", reconnecting...");
+		reader.closePort();
+
+		long backoff = INITIAL_BACKOFF;
+		int attempts = 0;
+
+		while (watching) {
+
+			try {
+				Thread.sleep(jitter(backoff));
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			if (!watching) {
+				return;
+			}
+
+			attempts++;
+			String port = portName;
+			boolean connected = port != null ? reader.openPort(port) : reader.autoConnect() != null;
+
+			if (connected) {
+
+				/* Stopped while the handshake was running, leave it closed */
+				if (!watching) {
+					reader.closePort();
+					return;
+				}
+
+				long now = System.currentTimeMillis();
+				SensorPipeline.getPipeline().markGap(gapStart, now);
+				Out.out.logln("Reconnected to \"" + reader.getActivePort() + "\" after " + attempts
+						+ " attempt(s), no samples for " + (now - gapStart) + "ms.");
+				EventLog.events.record(EventType.RECONNECTED, reader.getActivePort(), "attempts", attempts, "gap",
+						now - gapStart);
+				return;
+			}
+
+			backoff = Math.min(backoff * 2, MAX_BACKOFF);
+
+		}
+
+	}
+
+	/**
+	 * Pick a delay somewhere between half and all of the backoff
+	 *
+	 * @param backoff
+	 *            the current backoff in milliseconds
+	 * @return the delay in milliseconds
+	 */
+	private static long jitter(long backoff) {
+		return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+	}
+
+}
@@ -0,0 +1,78 @@
+package kent.dja33.iot.a1.util.device;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import kent.dja33.iot.a1.util.Out;
+
+/**
+ * Runs anything that talks to a device and may block, opening ports, the
+ * acknowledgement handshake, reconnecting and closing, so that none of it
+ * ever runs on the FX thread.
+ *
+ * Each task gets its own daemon platform thread, which is fine for the
+ * handful of devices a machine will have plugged in. Virtual threads would
+ * gain nothing, opening and closing a port hold the SerialReader's monitor
+ * while sleeping and waiting for the handshake, which pins a virtual thread
+ * to its carrier for the whole time.
+ *
+ * A task that throws is logged, and the future returned completes
+ * exceptionally, so callers must use whenComplete or handle rather than
+ * thenAccept to hear about it.
+ *
+ * @author Dante
+ *
+ */
+public class DeviceExecutor {
+
+	/* Singleton reference */
+	public static final DeviceExecutor devices = new DeviceExecutor();
+
+	/* Prefix for the name of every device thread */
+	private static final String THREAD_NAME = "Device-I/O-";
+
+	private final ExecutorService executor;
+
+	/* Force singleton pattern */
+	private DeviceExecutor() {
+		AtomicInteger count = new AtomicInteger();
+		executor = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, THREAD_NAME + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Run a blocking device task away from the calling thread
+	 *
+	 * @param task
+	 *            the task to run
+	 * @return the eventual result of the task
+	 */
+	public <T> CompletableFuture<T> submit(Supplier<T> task) {
+		return CompletableFuture.supplyAsync(task, executor).whenComplete((result, error) -> {
+			if (error != null) {
+				Out.out.loglnErr("Device task failed: " + error.getMessage());
+			}
+		});
+	}
+
+	/**
+	 * Run a blocking device task away from the calling thread
+	 *
+	 * @param task
+	 *            the task to run
+	 * @return completes once the task has finished
+	 */
+	public CompletableFuture<Void> run(Runnable task) {
+		return submit(() -> {
+			task.run();
+			return null;
+		});
+	}
+
+}
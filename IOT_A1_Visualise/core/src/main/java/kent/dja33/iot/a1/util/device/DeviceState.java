@@ -0,0 +1,259 @@
+package kent.dja33.iot.a1.util.device;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Model of what we currently know about the connected MBED, updated by the
+ * serial decoder as frames arrive rather than by the GUI scanning the message
+ * queue on every frame.
+ *
+ * Tracks the tick rate reported by the device, how far through the
+ * acknowledgement handshake we are and how healthy the connection appears to
+ * be. Anything interested in these values registers a DeviceStateListener and
+ * is told whenever one of them changes, listeners are notified on whichever
+ * thread made the change so GUI listeners must hand off to the FX thread.
+ *
+ * @author Dante
+ *
+ */
+public class DeviceState {
+
+	/* The properties listeners can be notified about */
+	public enum Property {
+		TICK_RATE, ACK_STATE, HEALTH
+	}
+
+	/* Stages of the handshake performed when opening a port */
+	public enum AckState {
+		NONE, REQUESTED, ACKNOWLEDGED, CONFIRMED, DISCONNECTED
+	}
+
+	/* How the connection appears to be performing */
+	public enum Health {
+		DISCONNECTED, HEALTHY, DEGRADED, SILENT
+	}
+
+	/*
+	 * Weighting of each frame towards the error rate, and the rates at which
+	 * the connection is considered degraded or has recovered
+	 */
+	private static final float ERROR_WEIGHT = 0.1f;
+	private static final float DEGRADED_ERROR_RATE = 0.2f;
+	private static final float RECOVERED_ERROR_RATE = 0.1f;
+
+	/* Minimum time without a frame before the device is considered silent */
+	private static final long MIN_SILENCE_MS = 2000;
+	/* Number of missed ticks before the device is considered silent */
+	private static final int SILENT_TICKS = 4;
+
+	private final List<DeviceStateListener> listeners = new CopyOnWriteArrayList<>();
+
+	private volatile float tickRate = Float.NaN;
+	private volatile AckState ackState = AckState.NONE;
+	private volatile Health health = Health.DISCONNECTED;
+
+	/* Only written from the serial event thread */
+	private volatile long lastFrameTime;
+	private volatile long framesReceived;
+	private volatile long framesRejected;
+	private float errorRate;
+
+	/**
+	 * Listen for changes to this device state
+	 *
+	 * @param listener
+	 *            the listener to add
+	 */
+	public void addListener(DeviceStateListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Stop listening for changes to this device state
+	 *
+	 * @param listener
+	 *            the listener to remove
+	 */
+	public void removeListener(DeviceStateListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Called whenever a frame has been successfully decoded
+	 */
+	public void frameReceived() {
+		framesReceived++;
+		lastFrameTime = System.currentTimeMillis();
+		errorRate -= errorRate * ERROR_WEIGHT;
+		updateHealth();
+	}
+
+	/**
+	 * Called whenever a frame could not be decoded
+	 */
+	public void frameRejected() {
+		framesRejected++;
+		lastFrameTime = System.currentTimeMillis();
+		errorRate += (1 - errorRate) * ERROR_WEIGHT;
+		updateHealth();
+	}
+
+	/**
+	 * Check whether the device has gone quiet, should be called periodically
+	 * as silence cannot be detected from the arrival of frames.
+	 *
+	 * @param now
+	 *            the current time in milliseconds
+	 */
+	public void checkSilence(long now) {
+		if (health == Health.DISCONNECTED || health == Health.SILENT) {
+			return;
+		}
+
+		long timeout = MIN_SILENCE_MS;
+		if (!Float.isNaN(tickRate)) {
+			timeout = Math.max(timeout, (long) (tickRate * 1000 * SILENT_TICKS));
+		}
+
+		if (now - lastFrameTime > timeout) {
+			setHealth(Health.SILENT);
+		}
+	}
+
+	/**
+	 * Called when the port could not be read from, most likely because the
+	 * device was unplugged or reset. Treated the same as the device going
+	 * silent.
+	 */
+	public void connectionLost() {
+		if (health != Health.DISCONNECTED) {
+			setHealth(Health.SILENT);
+		}
+	}
+
+	/**
+	 * Work out whether the connection is healthy from the recent error rate,
+	 * uses separate thresholds for degrading and recovering so the health does
+	 * not flicker when the error rate sits on a boundary.
+	 */
+	private void updateHealth() {
+		if (ackState != AckState.CONFIRMED) {
+			return;
+		}
+
+		if (health == Health.DEGRADED) {
+			if (errorRate < RECOVERED_ERROR_RATE) {
+				setHealth(Health.HEALTHY);
+			}
+		} else if (errorRate > DEGRADED_ERROR_RATE) {
+			setHealth(Health.DEGRADED);
+		} else if (health != Health.HEALTHY) {
+			setHealth(Health.HEALTHY);
+		}
+	}
+
+	/**
+	 * Set the tick rate reported by the device
+	 *
+	 * @param rate
+	 *            tick rate in seconds
+	 */
+	public void setTickRate(float rate) {
+		if (Float.compare(rate, tickRate) != 0) {
+			tickRate = rate;
+			fire(Property.TICK_RATE);
+		}
+	}
+
+	/**
+	 * Set how far through the handshake we are, confirming the handshake marks
+	 * the connection as healthy and disconnecting marks it as disconnected
+	 *
+	 * @param state
+	 *            the new state
+	 */
+	public void setAckState(AckState state) {
+		if (state != ackState) {
+			ackState = state;
+			fire(Property.ACK_STATE);
+		}
+
+		if (state == AckState.CONFIRMED) {
+			errorRate = 0;
+			lastFrameTime = System.currentTimeMillis();
+			setHealth(Health.HEALTHY);
+		} else if (state == AckState.DISCONNECTED) {
+			tickRate = Float.NaN;
+			setHealth(Health.DISCONNECTED);
+		}
+	}
+
+	private void setHealth(Health health) {
+		if (health != this.health) {
+			this.health = health;
+			fire(Property.HEALTH);
+		}
+	}
+
+	private void fire(Property property) {
+		for (DeviceStateListener listener : listeners) {
+			listener.deviceStateChanged(this, property);
+		}
+	}
+
+	/**
+	 * The tick rate last reported by the device
+	 *
+	 * @return tick rate in seconds, NaN if not yet reported
+	 */
+	public float getTickRate() {
+		return tickRate;
+	}
+
+	/**
+	 * How far through the handshake we are
+	 *
+	 * @return ack state
+	 */
+	public AckState getAckState() {
+		return ackState;
+	}
+
+	/**
+	 * How healthy the connection currently is
+	 *
+	 * @return health
+	 */
+	public Health getHealth() {
+		return health;
+	}
+
+	/**
+	 * The time the last frame arrived, valid or not
+	 *
+	 * @return time in milliseconds
+	 */
+	public long getLastFrameTime() {
+		return lastFrameTime;
+	}
+
+	/**
+	 * Number of frames successfully decoded
+	 *
+	 * @return frames received
+	 */
+	public long getFramesReceived() {
+		return framesReceived;
+	}
+
+	/**
+	 * Number of frames that could not be decoded
+	 *
+	 * @return frames rejected
+	 */
+	public long getFramesRejected() {
+		return framesRejected;
+	}
+
+}
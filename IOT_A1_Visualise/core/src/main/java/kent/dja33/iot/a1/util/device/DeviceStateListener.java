@@ -0,0 +1,22 @@
+package kent.dja33.iot.a1.util.device;
+
+/**
+ * Listener notified whenever a property of a DeviceState changes
+ *
+ * @author Dante
+ *
+ */
+public interface DeviceStateListener {
+
+	/**
+	 * Called on the thread that changed the state, which is usually the serial
+	 * event thread and never the FX thread.
+	 *
+	 * @param state
+	 *            the state that changed
+	 * @param property
+	 *            which property changed
+	 */
+	void deviceStateChanged(DeviceState state, DeviceState.Property property);
+
+}
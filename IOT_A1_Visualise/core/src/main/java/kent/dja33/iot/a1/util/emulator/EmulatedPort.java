@@ -0,0 +1,226 @@
+package kent.dja33.iot.a1.util.emulator;
+
+import jssc.SerialPort;
+import jssc.SerialPortEvent;
+import jssc.SerialPortEventListener;
+import jssc.SerialPortException;
+
+/**
+ * The host's end of the connection to an MbedEmulator, standing in for a
+ * real SerialPort so the SerialReader uses it without knowing the difference.
+ *
+ * Bytes written by the host are handed straight to the emulator. Bytes sent
+ * by the emulator wait in a receive buffer of RECEIVE_BUFFER_SIZE bytes, as
+ * in the driver of a real port, and the listener is told how many are waiting
+ * from a delivery thread just as jssc tells it from its event thread. If the
+ * host falls behind and the buffer fills, further bytes are lost as an
+ * overrun would lose them.
+ *
+ * @author Dante
+ *
+ */
+final class EmulatedPort extends SerialPort {
+
+	/* Bytes that can wait to be read before more are lost */
+	static final int RECEIVE_BUFFER_SIZE = 4096;
+
+	private final MbedEmulator emulator;
+
+	/* Receive buffer as a ring, guarded by itself */
+	private final byte[] buffer = new byte[RECEIVE_BUFFER_SIZE];
+	private int head;
+	private int size;
+
+	private volatile boolean opened;
+	private volatile SerialPortEventListener listener;
+	private Thread delivery;
+
+	EmulatedPort(MbedEmulator emulator) {
+		super(emulator.getPortName());
+		this.emulator = emulator;
+	}
+
+	@Override
+	public boolean isOpened() {
+		return opened;
+	}
+
+	@Override
+	public boolean openPort() throws SerialPortException {
+		if (opened) {
+			throw new SerialPortException(getPortName(), "openPort()", SerialPortException.TYPE_PORT_ALREADY_OPENED);
+		}
+		synchronized (buffer) {
+			head = 0;
+			size = 0;
+		}
+		opened = true;
+		delivery = new Thread(this::deliver, "Emulator-RX-" + getPortName());
+		delivery.setDaemon(true);
+		delivery.start();
+		emulator.portOpened(this);
+		return true;
+	}
+
+	@Override
+	public boolean setParams(int baudRate, int dataBits, int stopBits, int parity) throws SerialPortException {
+		return setParams(baudRate, dataBits, stopBits, parity, true, true);
+	}
+
+	@Override
+	public boolean setParams(int baudRate, int dataBits, int stopBits, int parity, boolean setRTS, boolean setDTR)
+			throws SerialPortException {
+		checkOpened("setParams()");
+		return true;
+	}
+
+	@Override
+	public boolean purgePort(int flags) throws SerialPortException {
+		checkOpened("purgePort()");
+		if ((flags & PURGE_RXCLEAR) != 0) {
+			synchronized (buffer) {
+				head = 0;
+				size = 0;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void addEventListener(SerialPortEventListener listener) throws SerialPortException {
+		addEventListener(listener, MASK_RXCHAR);
+	}
+
+	@Override
+	public void addEventListener(SerialPortEventListener listener, int mask) throws SerialPortException {
+		checkOpened("addEventListener()");
+		if (this.listener != null) {
+			throw new SerialPortException(getPortName(), "addEventListener()",
+					SerialPortException.TYPE_LISTENER_ALREADY_ADDED);
+		}
+		this.listener = listener;
+		synchronized (buffer) {
+			buffer.notifyAll();
+		}
+	}
+
+	@Override
+	public boolean removeEventListener() throws SerialPortException {
+		listener = null;
+		return true;
+	}
+
+	@Override
+	public boolean writeBytes(byte[] bytes) throws SerialPortException {
+		checkOpened("writeBytes()");
+		emulator.receive(bytes);
+		return true;
+	}
+
+	@Override
+	public byte[] readBytes(int count) throws SerialPortException {
+		byte[] bytes = new byte[count];
+		synchronized (buffer) {
+			int read = 0;
+			while (read < count) {
+				while (size == 0) {
+					if (!opened) {
+						throw new SerialPortException(getPortName(), "readBytes()",
+								SerialPortException.TYPE_PORT_NOT_OPENED);
+					}
+					try {
+						buffer.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SerialPortException(getPortName(), "readBytes()", e.toString());
+					}
+				}
+				int n = Math.min(count - read, Math.min(size, RECEIVE_BUFFER_SIZE - head));
+				System.arraycopy(buffer, head, bytes, read, n);
+				head = (head + n) % RECEIVE_BUFFER_SIZE;
+				size -= n;
+				read += n;
+			}
+		}
+		return bytes;
+	}
+
+	@Override
+	public int getInputBufferBytesCount() throws SerialPortException {
+		synchronized (buffer) {
+			return size;
+		}
+	}
+
+	@Override
+	public boolean closePort() throws SerialPortException {
+		checkOpened("closePort()");
+		opened = false;
+		listener = null;
+		synchronized (buffer) {
+			buffer.notifyAll();
+		}
+		emulator.portClosed(this);
+		return true;
+	}
+
+	/**
+	 * Add bytes sent by the emulator to the receive buffer
+	 *
+	 * @param bytes
+	 *            the bytes sent
+	 * @param length
+	 *            how many of them to send
+	 * @return how many were lost because the buffer was full
+	 */
+	int send(byte[] bytes, int length) {
+		synchronized (buffer) {
+			int accepted = Math.min(length, RECEIVE_BUFFER_SIZE - size);
+			for (int i = 0; i < accepted; i++) {
+				buffer[(head + size + i) % RECEIVE_BUFFER_SIZE] = bytes[i];
+			}
+			size += accepted;
+			if (accepted > 0) {
+				buffer.notifyAll();
+			}
+			return length - accepted;
+		}
+	}
+
+	/**
+	 * Tell the listener whenever bytes are waiting, until the port is closed
+	 */
+	private void deliver() {
+
+		while (opened) {
+
+			SerialPortEventListener listener;
+			int waiting;
+
+			synchronized (buffer) {
+				while (opened && (size == 0 || this.listener == null)) {
+					try {
+						buffer.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				listener = this.listener;
+				waiting = size;
+			}
+
+			if (listener != null && waiting > 0) {
+				listener.serialEvent(new SerialPortEvent(getPortName(), SerialPortEvent.RXCHAR, waiting));
+			}
+
+		}
+
+	}
+
+	private void checkOpened(String method) throws SerialPortException {
+		if (!opened) {
+			throw new SerialPortException(getPortName(), method, SerialPortException.TYPE_PORT_NOT_OPENED);
+		}
+	}
+
+}
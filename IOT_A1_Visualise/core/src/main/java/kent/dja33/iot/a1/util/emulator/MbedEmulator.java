@@ -0,0 +1,615 @@
+package kent.dja33.iot.a1.util.emulator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import jssc.SerialPort;
+import kent.dja33.iot.a1.util.Out;
+
+/**
+ * A software MBED that speaks the same protocol as the firmware, so the host
+ * side can be run and stressed without a board plugged in. Once attached it
+ * is listed by the SerialReader alongside the real ports under its port name
+ * and is connected to in just the same way.
+ *
+ * Frames are sent between '#' characters. The emulator answers "#ACK" with
+ * "#AACKR#" and starts sending data frames such as
+ * "#D29.38:0.046882:-0.046882:1.031411#" once the host confirms with
+ * "#ACKC", stopping again on "#DIS". "#T0" shortens the tick by TICK_STEP
+ * and "#T1" lengthens it, each change is answered with the new tick rate in
+ * the form "#S_TICK_RATE:0.450000#". A change past the fastest or slowest
+ * tick is ignored, as the firmware ignores it.
+ *
+ * Readings come from a SensorModel. The tick can be set far shorter than the
+ * firmware allows, and the link is paced to the baud rate unless it is set
+ * to 0, so frames can be sent far faster than the 9600 baud of the board.
+ *
+ * Faults are injected at random with the probabilities given, or those of a
+ * Profile: frames split across two writes, bursts of garbage bytes between
+ * frames, frames with a character lost, and "#ACK"s left unanswered. Both the
+ * readings and the faults come from Randoms seeded from the seed, so the
+ * same settings always send the same bytes. Every fault injected is counted.
+ *
+ * When sequenced, each data frame carries a sequence number in place of the
+ * accelerometer X and the time it was written is kept, so whoever receives
+ * it can tell how long it took to arrive.
+ *
+ * @author Dante
+ *
+ */
+public class MbedEmulator {
+
+	/* Ready made sets of faults */
+	public enum Profile {
+		/* A perfect link */
+		CLEAN(0, 0, 0, 0),
+		/* Roughly what the board and cable manage on a good day */
+		TYPICAL(0.02, 0.002, 0.005, 0.05),
+		/* Far worse than anything seen, for shaking out the host */
+		HOSTILE(0.25, 0.05, 0.05, 0.5);
+
+		private final double splitFrames;
+		private final double garbage;
+		private final double corruption;
+		private final double missingAcks;
+
+		private Profile(double splitFrames, double garbage, double corruption, double missingAcks) {
+			this.splitFrames = splitFrames;
+			this.garbage = garbage;
+			this.corruption = corruption;
+			this.missingAcks = missingAcks;
+		}
+	}
+
+	/* Change in tick for each rate command, and the limits of the firmware */
+	public static final float TICK_STEP = 0.05f;
+	public static final float MIN_TICK = 0.05f;
+	public static final float MAX_TICK = 5.0f;
+
+	/* Longest garbage burst in bytes */
+	private static final int MAX_GARBAGE = 8;
+
+	/* Pause between the two writes of a split frame */
+	private static final long SPLIT_PAUSE = 1_000_000;
+
+	/* Most frames sent together when catching up after falling behind */
+	private static final int MAX_BATCH = 256;
+
+	/* Furthest behind schedule before giving up on catching up */
+	private static final long MAX_LAG = 1_000_000_000L;
+
+	/* Sequence numbers wrap around after this many frames */
+	public static final int SEQUENCES = 65536;
+
+	/* Every attached emulator by port name */
+	private static final Map<String, MbedEmulator> attached = new ConcurrentHashMap<>();
+
+	private final String portName;
+
+	private volatile float tick = 0.5f;
+	private volatile int baudRate = SerialPort.BAUDRATE_9600;
+	private volatile long seed = 1;
+	private volatile double splitFrames;
+	private volatile double garbage;
+	private volatile double corruption;
+	private volatile double missingAcks;
+	private volatile boolean sequenced;
+
+	private float ambient = 28.5f;
+	private float drift = 0.05f;
+	private float noise = 0.05f;
+	private float tiltsPerMinute = 2;
+
+	/* Guarded by this */
+	private EmulatedPort port;
+	private Thread sender;
+	private SensorModel model;
+	private boolean streaming;
+
+	/* Faults in what is sent, only used by the sender, and in answering acks */
+	private Random faults;
+	private Random ackFaults;
+
+	private final AtomicLong framesSent = new AtomicLong();
+	private final AtomicLong framesSplit = new AtomicLong();
+	private final AtomicLong framesCorrupted = new AtomicLong();
+	private final AtomicLong garbageBursts = new AtomicLong();
+	private final AtomicLong acksDropped = new AtomicLong();
+	private final AtomicLong bytesLost = new AtomicLong();
+
+	/* Time each sequence number was last written, from System.nanoTime() */
+	private final AtomicLongArray sendTimes = new AtomicLongArray(SEQUENCES);
+
+	/**
+	 * Create an emulator, attach it to make it available to connect to
+	 *
+	 * @param portName
+	 *            the name it is listed under
+	 */
+	public MbedEmulator(String portName) {
+		this.portName = portName;
+	}
+
+	/**
+	 * Names of every attached emulator
+	 *
+	 * @return port names
+	 */
+	public static String[] getPortNames() {
+		return attached.keySet().stream().sorted().toArray(String[]::new);
+	}
+
+	/**
+	 * Create a port connected to the emulator attached under a name
+	 *
+	 * @param portName
+	 *            the port name
+	 * @return an unopened port, or null if no emulator is attached under the
+	 *         name
+	 */
+	public static SerialPort createPort(String portName) {
+		MbedEmulator emulator = attached.get(portName);
+		return emulator != null ? new EmulatedPort(emulator) : null;
+	}
+
+	/**
+	 * List the emulator under its port name so it can be connected to
+	 *
+	 * @return this emulator
+	 */
+	public MbedEmulator attach() {
+		attached.put(portName, this);
+		return this;
+	}
+
+	/**
+	 * Stop listing the emulator, the host is left connected if it is already
+	 */
+	public void detach() {
+		attached.remove(portName, this);
+	}
+
+	/**
+	 * Use the fault probabilities of a profile
+	 *
+	 * @param profile
+	 *            the profile
+	 * @return this emulator
+	 */
+	public MbedEmulator setProfile(Profile profile) {
+		this.splitFrames = profile.splitFrames;
+		this.garbage = profile.garbage;
+		this.corruption = profile.corruption;
+		this.missingAcks = profile.missingAcks;
+		return this;
+	}
+
+	/**
+	 * Set the time between data frames, this is what the device reports as
+	 * its tick rate
+	 *
+	 * @param seconds
+	 *            time between frames, may be far shorter than MIN_TICK
+	 * @return this emulator
+	 */
+	public MbedEmulator setTickRate(float seconds) {
+		this.tick = Math.max(0.000_01f, seconds);
+		return this;
+	}
+
+	/**
+	 * Limit how fast bytes are sent, 10 bits to a byte as on the board
+	 *
+	 * @param baudRate
+	 *            bits per second, 0 for no limit
+	 * @return this emulator
+	 */
+	public MbedEmulator setBaudRate(int baudRate) {
+		this.baudRate = Math.max(0, baudRate);
+		return this;
+	}
+
+	/**
+	 * Seed the readings and faults, takes effect on the next connection
+	 *
+	 * @param seed
+	 *            the seed
+	 * @return this emulator
+	 */
+	public MbedEmulator setSeed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * Set how the temperature behaves, takes effect on the next connection
+	 *
+	 * @param ambient
+	 *            temperature wandered around in Celsius
+	 * @param drift
+	 *            how far it wanders, in degrees per root second
+	 * @param noise
+	 *            standard deviation of the noise on each reading, a tenth of
+	 *            this is added to the accelerometer
+	 * @return this emulator
+	 */
+	public synchronized MbedEmulator setTemperature(float ambient, float drift, float noise) {
+		this.ambient = ambient;
+		this.drift = drift;
+		this.noise = noise;
+		return this;
+	}
+
+	/**
+	 * Set how often the board is tilted, takes effect on the next connection
+	 *
+	 * @param tiltsPerMinute
+	 *            average tilts a minute, 0 to leave it flat
+	 * @return this emulator
+	 */
+	public synchronized MbedEmulator setMotion(float tiltsPerMinute) {
+		this.tiltsPerMinute = tiltsPerMinute;
+		return this;
+	}
+
+	/**
+	 * Set the chance of each fault
+	 *
+	 * @param splitFrames
+	 *            chance a frame is split across two writes
+	 * @param garbage
+	 *            chance of a burst of garbage after a frame
+	 * @param corruption
+	 *            chance a frame loses a character
+	 * @param missingAcks
+	 *            chance an "#ACK" is left unanswered
+	 * @return this emulator
+	 */
+	public MbedEmulator setFaults(double splitFrames, double garbage, double corruption, double missingAcks) {
+		this.splitFrames = splitFrames;
+		this.garbage = garbage;
+		this.corruption = corruption;
+		this.missingAcks = missingAcks;
+		return this;
+	}
+
+	/**
+	 * Send a sequence number in place of the accelerometer X of each data
+	 * frame, counting up from 0 and wrapping after SEQUENCES
+	 *
+	 * @param sequenced
+	 *            true to send sequence numbers
+	 * @return this emulator
+	 */
+	public MbedEmulator setSequenced(boolean sequenced) {
+		this.sequenced = sequenced;
+		return this;
+	}
+
+	/**
+	 * When the frame with a sequence number was last written
+	 *
+	 * @param sequence
+	 *            the sequence number
+	 * @return time from System.nanoTime(), 0 if never written
+	 */
+	public long getSendTime(int sequence) {
+		return sendTimes.get(sequence & (SEQUENCES - 1));
+	}
+
+	/**
+	 * The name the emulator is listed under
+	 *
+	 * @return port name
+	 */
+	public String getPortName() {
+		return portName;
+	}
+
+	/**
+	 * The current time between data frames
+	 *
+	 * @return seconds
+	 */
+	public float getTickRate() {
+		return tick;
+	}
+
+	/**
+	 * Whether data frames are being sent
+	 *
+	 * @return true once confirmed until disconnected
+	 */
+	public synchronized boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Data frames sent since the emulator was created
+	 *
+	 * @return frames
+	 */
+	public long getFramesSent() {
+		return framesSent.get();
+	}
+
+	/**
+	 * Data frames split across two writes
+	 *
+	 * @return frames
+	 */
+	public long getFramesSplit() {
+		return framesSplit.get();
+	}
+
+	/**
+	 * Data frames sent with a character lost
+	 *
+	 * @return frames
+	 */
+	public long getFramesCorrupted() {
+		return framesCorrupted.get();
+	}
+
+	/**
+	 * Bursts of garbage sent between frames
+	 *
+	 * @return bursts
+	 */
+	public long getGarbageBursts() {
+		return garbageBursts.get();
+	}
+
+	/**
+	 * "#ACK"s left unanswered
+	 *
+	 * @return acks
+	 */
+	public long getAcksDropped() {
+		return acksDropped.get();
+	}
+
+	/**
+	 * Bytes lost because the host did not read them in time
+	 *
+	 * @return bytes
+	 */
+	public long getBytesLost() {
+		return bytesLost.get();
+	}
+
+	/**
+	 * The host has opened a port to the emulator, start the sender
+	 */
+	synchronized void portOpened(EmulatedPort port) {
+		if (this.port != null) {
+			Out.out.loglnErr("Emulator \"" + portName + "\" replaced an open connection.");
+		}
+		this.port = port;
+		this.streaming = false;
+		this.model = new SensorModel(seed, ambient, drift, noise, tiltsPerMinute);
+		this.faults = new Random(seed + 1);
+		this.ackFaults = new Random(seed + 2);
+		this.sender = new Thread(this::run, "Emulator-TX-" + portName);
+		this.sender.setDaemon(true);
+		this.sender.start();
+	}
+
+	/**
+	 * The host has closed its port, stop the sender
+	 */
+	synchronized void portClosed(EmulatedPort port) {
+		if (this.port == port) {
+			this.port = null;
+			this.streaming = false;
+			this.sender.interrupt();
+			this.sender = null;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Act on bytes written by the host, each write holds whole commands
+	 */
+	void receive(byte[] bytes) {
+
+		String input = new String(bytes, StandardCharsets.US_ASCII);
+
+		for (String command : input.split("#")) {
+			switch (command) {
+			case "":
+				break;
+			case "ACK":
+				if (chance(ackFaults, missingAcks)) {
+					acksDropped.incrementAndGet();
+				} else {
+					write("#AACKR#");
+				}
+				break;
+			case "ACKC":
+				synchronized (this) {
+					streaming = true;
+					notifyAll();
+				}
+				write(tickRateFrame());
+				break;
+			case "DIS":
+				synchronized (this) {
+					streaming = false;
+				}
+				break;
+			case "T0":
+				changeTick(-TICK_STEP);
+				break;
+			case "T1":
+				changeTick(TICK_STEP);
+				break;
+			default:
+				/* The firmware ignores anything it does not understand */
+				break;
+			}
+		}
+
+	}
+
+	private void changeTick(float change) {
+		/* Round to the step so repeated changes do not drift */
+		float changed = Math.round((tick + change) / TICK_STEP) * TICK_STEP;
+		if (changed < MIN_TICK - TICK_STEP / 2 || changed > MAX_TICK + TICK_STEP / 2) {
+			return;
+		}
+		tick = changed;
+		write(tickRateFrame());
+	}
+
+	private String tickRateFrame() {
+		return String.format(Locale.ROOT, "#S_TICK_RATE:%.6f#", tick);
+	}
+
+	private static boolean chance(Random random, double probability) {
+		return probability > 0 && random != null && random.nextDouble() < probability;
+	}
+
+	private void write(String frame) {
+		byte[] bytes = frame.getBytes(StandardCharsets.US_ASCII);
+		write(bytes, bytes.length);
+	}
+
+	private void write(byte[] bytes, int length) {
+		EmulatedPort port;
+		synchronized (this) {
+			port = this.port;
+		}
+		if (port != null) {
+			bytesLost.addAndGet(port.send(bytes, length));
+		}
+	}
+
+	/**
+	 * Send data frames every tick while streaming, paced to the baud rate
+	 */
+	private void run() {
+
+		StringBuilder batch = new StringBuilder();
+		StringBuilder frame = new StringBuilder();
+		long next = System.nanoTime();
+		int sequence = 0;
+
+		/* Sequence numbers of the frames that end in the batch */
+		int[] ending = new int[MAX_BATCH];
+		int endingCount = 0;
+
+		while (!Thread.currentThread().isInterrupted()) {
+
+			SensorModel model;
+			Random faults;
+			synchronized (this) {
+				while (!streaming && sender == Thread.currentThread()) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+					next = System.nanoTime();
+				}
+				if (sender != Thread.currentThread()) {
+					return;
+				}
+				model = this.model;
+				faults = this.faults;
+			}
+
+			long tickNanos = Math.max(1, (long) (tick * 1e9));
+			long now = System.nanoTime();
+			if (now < next) {
+				LockSupport.parkNanos(next - now);
+				continue;
+			}
+			if (now - next > MAX_LAG) {
+				next = now;
+			}
+
+			int due = (int) Math.min(MAX_BATCH, (now - next) / tickNanos + 1);
+			next += due * tickNanos;
+
+			batch.setLength(0);
+			endingCount = 0;
+			for (int i = 0; i < due; i++) {
+
+				frame.setLength(0);
+				frame.append('#');
+				int sent = sequenced ? sequence++ & (SEQUENCES - 1) : -1;
+				model.next(tick, sent, frame);
+				frame.append('#');
+
+				if (chance(faults, corruption)) {
+					/* Lose a character, never the first '#' */
+					frame.deleteCharAt(1 + faults.nextInt(frame.length() - 1));
+					framesCorrupted.incrementAndGet();
+				}
+
+				if (chance(faults, splitFrames)) {
+					int split = 1 + faults.nextInt(frame.length() - 1);
+					batch.append(frame, 0, split);
+					send(batch, ending, endingCount);
+					endingCount = 0;
+					LockSupport.parkNanos(SPLIT_PAUSE);
+					batch.setLength(0);
+					batch.append(frame, split, frame.length());
+					framesSplit.incrementAndGet();
+				} else {
+					batch.append(frame);
+				}
+
+				if (sent >= 0) {
+					ending[endingCount++] = sent;
+				}
+
+				if (chance(faults, garbage)) {
+					int length = 1 + faults.nextInt(MAX_GARBAGE);
+					for (int j = 0; j < length; j++) {
+						batch.append((char) faults.nextInt(256));
+					}
+					garbageBursts.incrementAndGet();
+				}
+
+				framesSent.incrementAndGet();
+			}
+
+			send(batch, ending, endingCount);
+
+		}
+
+	}
+
+	/**
+	 * Write a batch, taking as long as it would take at the baud rate, and
+	 * note when the frames ending in it were written
+	 */
+	private void send(StringBuilder batch, int[] ending, int endingCount) {
+
+		byte[] bytes = new byte[batch.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) batch.charAt(i);
+		}
+
+		long now = System.nanoTime();
+		for (int i = 0; i < endingCount; i++) {
+			sendTimes.set(ending[i], now);
+		}
+		write(bytes, bytes.length);
+
+		int baudRate = this.baudRate;
+		if (baudRate > 0) {
+			LockSupport.parkNanos(bytes.length * 10 * 1_000_000_000L / baudRate);
+		}
+
+	}
+
+}
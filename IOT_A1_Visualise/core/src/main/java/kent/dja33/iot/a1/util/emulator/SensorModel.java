@@ -0,0 +1,115 @@
+package kent.dja33.iot.a1.util.emulator;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates the readings of the emulated MBED one tick at a time, from a
+ * seeded Random so the same settings always give the same readings.
+ *
+ * Temperature wanders around the ambient temperature, pulled back towards it
+ * the further it drifts, and is read to the 0.125 degree steps of the board's
+ * sensor. The board lies flat most of the time, now and then it is tilted to
+ * a random angle, held there for a while and laid flat again. Its orientation
+ * eases towards each new angle rather than jumping, and the accelerometer is
+ * read to the steps of the board's 6 bit accelerometer.
+ *
+ * @author Dante
+ *
+ */
+final class SensorModel {
+
+	/* Resolution of the temperature sensor and accelerometer */
+	private static final float TEMPERATURE_STEP = 0.125f;
+	private static final float ACCELERATION_STEP = 1 / 21.33f;
+
+	/* How strongly temperature is pulled back to ambient, per second */
+	private static final double REVERSION = 0.01;
+
+	/* Largest tilt in radians, and how quickly the board moves to it */
+	private static final double MAX_TILT = Math.toRadians(70);
+	private static final double TILT_SPEED = 3;
+
+	/* Average time a tilt is held for in seconds */
+	private static final double TILT_HOLD = 4;
+
+	private final Random random;
+
+	private final float ambient;
+	private final float drift;
+	private final float noise;
+	private final float tiltsPerMinute;
+
+	private double temperature;
+
+	/* Current and target orientation in radians, and time left at the target */
+	private double pitch;
+	private double roll;
+	private double targetPitch;
+	private double targetRoll;
+	private double hold;
+
+	SensorModel(long seed, float ambient, float drift, float noise, float tiltsPerMinute) {
+		this.random = new Random(seed);
+		this.ambient = ambient;
+		this.drift = drift;
+		this.noise = noise;
+		this.tiltsPerMinute = tiltsPerMinute;
+		this.temperature = ambient;
+	}
+
+	/**
+	 * Move on by a tick and read the sensors
+	 *
+	 * @param seconds
+	 *            length of the tick
+	 * @param sequence
+	 *            sent in place of the accelerometer X if 0 or more, so the
+	 *            frame can be told apart from every other
+	 * @param sb
+	 *            where to append the payload of the data frame, such as
+	 *            "D29.38:0.046882:-0.046882:1.031411"
+	 */
+	void next(double seconds, int sequence, StringBuilder sb) {
+
+		/* Random walk pulled back towards ambient */
+		temperature += (ambient - temperature) * Math.min(1, REVERSION * seconds)
+				+ random.nextGaussian() * drift * Math.sqrt(seconds);
+
+		if (hold > 0) {
+			hold -= seconds;
+			if (hold <= 0) {
+				targetPitch = 0;
+				targetRoll = 0;
+			}
+		} else if (random.nextDouble() < tiltsPerMinute / 60 * seconds) {
+			targetPitch = (random.nextDouble() * 2 - 1) * MAX_TILT;
+			targetRoll = (random.nextDouble() * 2 - 1) * MAX_TILT;
+			hold = TILT_HOLD * -Math.log(1 - random.nextDouble());
+		}
+
+		double ease = Math.min(1, TILT_SPEED * seconds);
+		pitch += (targetPitch - pitch) * ease;
+		roll += (targetRoll - roll) * ease;
+
+		/* Gravity as seen by the board */
+		double x = Math.sin(pitch);
+		double y = -Math.sin(roll) * Math.cos(pitch);
+		double z = Math.cos(roll) * Math.cos(pitch);
+
+		sb.append('D');
+		sb.append(String.format(Locale.ROOT, "%.2f", step(temperature + random.nextGaussian() * noise, TEMPERATURE_STEP)));
+		x = step(x + random.nextGaussian() * noise / 10, ACCELERATION_STEP);
+		sb.append(':').append(String.format(Locale.ROOT, "%.6f", sequence >= 0 ? sequence : x));
+		sb.append(':').append(String.format(Locale.ROOT, "%.6f", step(y + random.nextGaussian() * noise / 10, ACCELERATION_STEP)));
+		sb.append(':').append(String.format(Locale.ROOT, "%.6f", step(z + random.nextGaussian() * noise / 10, ACCELERATION_STEP)));
+	}
+
+	/**
+	 * Read a value to the resolution of a sensor
+	 */
+	private static double step(double value, float step) {
+		return Math.round(value / step) * step;
+	}
+
+}
@@ -0,0 +1,301 @@
+package kent.dja33.iot.a1.util.event;
+
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Something that happened to a collector or its device, as written to the
+ * EventLog. Every event has a type, the time it happened in milliseconds and
+ * from System.nanoTime, the port of the device it concerns if any, and fields
+ * particular to its type.
+ *
+ * An event is stored as a single line of JSON, such as:
+ *
+ * {"time":1490000000000,"nanos":81234567,"type":"HEALTH","device":"COM11","health":"SILENT"}
+ *
+ * Numbers and booleans are written bare and everything else as a string.
+ * Fields are only ever read back as the text written.
+ *
+ * @author Dante
+ *
+ */
+public final class Event {
+
+	private final EventType type;
+	private final String device;
+	private final long time;
+	private final long nanos;
+	private final Map<String, String> fields;
+
+	Event(EventType type, String device, long time, long nanos, Map<String, String> fields) {
+		this.type = type;
+		this.device = device;
+		this.time = time;
+		this.nanos = nanos;
+		this.fields = fields;
+	}
+
+	public EventType getType() {
+		return type;
+	}
+
+	/**
+	 * The port of the device the event concerns
+	 *
+	 * @return port name, null if it concerns no device
+	 */
+	public String getDevice() {
+		return device;
+	}
+
+	/**
+	 * When the event happened
+	 *
+	 * @return time in milliseconds
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * When the event happened by System.nanoTime, only comparable between
+	 * events written by the same run
+	 *
+	 * @return nanoseconds
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+
+	/**
+	 * A field of the event
+	 *
+	 * @param name
+	 *            name of the field
+	 * @return the text written, null if the event has no such field
+	 */
+	public String get(String name) {
+		return fields.get(name);
+	}
+
+	/**
+	 * Every field of the event, in the order written
+	 *
+	 * @return fields
+	 */
+	public Map<String, String> getFields() {
+		return Collections.unmodifiableMap(fields);
+	}
+
+	/**
+	 * The event as a line of JSON, without the line separator
+	 *
+	 * @return JSON
+	 */
+	public String toJson() {
+		StringBuilder sb = new StringBuilder(96);
+		sb.append("{\"time\":").append(time);
+		sb.append(",\"nanos\":").append(nanos);
+		sb.append(",\"type\":\"").append(type.name()).append('"');
+		if (device != null) {
+			sb.append(",\"device\":");
+			quote(device, sb);
+		}
+		for (Map.Entry<String, String> field : fields.entrySet()) {
+			sb.append(',');
+			quote(field.getKey(), sb);
+			sb.append(':');
+			String value = field.getValue();
+			if (isBare(value)) {
+				sb.append(value);
+			} else {
+				quote(value, sb);
+			}
+		}
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * The event as the time followed by its type, device and fields
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(time)));
+		sb.append('\t').append(type);
+		if (device != null) {
+			sb.append('\t').append(device);
+		}
+		for (Map.Entry<String, String> field : fields.entrySet()) {
+			sb.append('\t').append(field.getKey()).append('=').append(field.getValue());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Read an event back from the line of JSON written by toJson
+	 *
+	 * @param json
+	 *            the line
+	 * @return the event, or null if the line is not an event
+	 */
+	static Event parse(String json) {
+
+		Map<String, String> values = new LinkedHashMap<>();
+		int[] at = { skipSpace(json, 0) };
+
+		if (at[0] >= json.length() || json.charAt(at[0]) != '{') {
+			return null;
+		}
+		at[0] = skipSpace(json, at[0] + 1);
+
+		while (at[0] < json.length() && json.charAt(at[0]) != '}') {
+			String name = readString(json, at);
+			at[0] = skipSpace(json, at[0]);
+			if (name == null || at[0] >= json.length() || json.charAt(at[0]) != ':') {
+				return null;
+			}
+			at[0] = skipSpace(json, at[0] + 1);
+			String value = at[0] < json.length() && json.charAt(at[0]) == '"' ? readString(json, at)
+					: readBare(json, at);
+			if (value == null) {
+				return null;
+			}
+			values.put(name, value);
+			at[0] = skipSpace(json, at[0]);
+			if (at[0] < json.length() && json.charAt(at[0]) == ',') {
+				at[0] = skipSpace(json, at[0] + 1);
+			}
+		}
+
+		try {
+			EventType type = EventType.valueOf(values.remove("type"));
+			long time = Long.parseLong(values.remove("time"));
+			long nanos = Long.parseLong(values.remove("nanos"));
+			String device = values.remove("device");
+			return new Event(type, device, time, nanos, values);
+		} catch (IllegalArgumentException | NullPointerException e) {
+			/* An unknown type, or a line from something else */
+			return null;
+		}
+
+	}
+
+	/* Whether a value can be written without quotes, numbers and booleans */
+	private static boolean isBare(String value) {
+		if (value.equals("true") || value.equals("false")) {
+			return true;
+		}
+		if (value.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (!(c >= '0' && c <= '9' || c == '-' && i == 0 || c == '.' || c == 'E' || c == 'e')) {
+				return false;
+			}
+		}
+		try {
+			Double.parseDouble(value);
+			return value.charAt(value.length() - 1) != '.';
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private static void quote(String value, StringBuilder sb) {
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+			case '\\':
+				sb.append('\\').append(c);
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format("\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		sb.append('"');
+	}
+
+	private static String readString(String json, int[] at) {
+		if (at[0] >= json.length() || json.charAt(at[0]) != '"') {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (int i = at[0] + 1; i < json.length(); i++) {
+			char c = json.charAt(i);
+			if (c == '"') {
+				at[0] = i + 1;
+				return sb.toString();
+			}
+			if (c == '\\' && ++i < json.length()) {
+				c = json.charAt(i);
+				switch (c) {
+				case 'n':
+					c = '\n';
+					break;
+				case 'r':
+					c = '\r';
+					break;
+				case 't':
+					c = '\t';
+					break;
+				case 'u':
+					if (i + 4 >= json.length()) {
+						return null;
+					}
+					try {
+						c = (char) Integer.parseInt(json.substring(i + 1, i + 5), 16);
+					} catch (NumberFormatException e) {
+						return null;
+					}
+					i += 4;
+					break;
+				default:
+					break;
+				}
+			}
+			sb.append(c);
+		}
+		return null;
+	}
+
+	private static String readBare(String json, int[] at) {
+		int end = at[0];
+		while (end < json.length() && json.charAt(end) != ',' && json.charAt(end) != '}'
+				&& !Character.isWhitespace(json.charAt(end))) {
+			end++;
+		}
+		if (end == at[0]) {
+			return null;
+		}
+		String value = json.substring(at[0], end);
+		at[0] = end;
+		return value;
+	}
+
+	private static int skipSpace(String json, int at) {
+		while (at < json.length() && Character.isWhitespace(json.charAt(at))) {
+			at++;
+		}
+		return at;
+	}
+
+}
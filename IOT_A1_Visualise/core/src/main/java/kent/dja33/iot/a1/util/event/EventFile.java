@@ -0,0 +1,236 @@
+package kent.dja33.iot.a1.util.event;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * A file of events, one line of JSON each, and the index written beside it.
+ *
+ * Events are grouped into blocks of up to BLOCK_EVENTS events, or fewer if
+ * they span more than BLOCK_SPAN. When a block is complete an entry is added
+ * to the index giving the times of its first and last events, a mask of the
+ * types of event in it, and where it lies in the file. Looking for events
+ * reads the index, which is a few bytes per block, and only reads the blocks
+ * that could hold what is looked for. Events after the last complete block,
+ * such as those written since, or by a collector that stopped without
+ * closing its log, are read from the end of the file directly.
+ *
+ * The index starts with the MAGIC number and VERSION followed by entries of
+ * the first and last time in milliseconds (long), the type mask (long), the
+ * offset of the block (long), its length in bytes (int) and the number of
+ * events in it (int).
+ *
+ * @author Dante
+ *
+ */
+final class EventFile {
+
+	static final String PREFIX = "events-";
+	static final String SUFFIX = ".jsonl";
+	static final String INDEX_SUFFIX = ".idx";
+
+	private static final int MAGIC = 0x45564E54;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	private static final int ENTRY_SIZE = 40;
+
+	/* Most events in a block and the most time one can span in milliseconds */
+	private static final int BLOCK_EVENTS = 64;
+	private static final long BLOCK_SPAN = 60 * 60 * 1000;
+
+	private final File file;
+	private final FileOutputStream out;
+	private final DataOutputStream index;
+	private long size;
+
+	/* The block being written */
+	private long blockOffset;
+	private long blockFirst;
+	private long blockLast;
+	private long blockTypes;
+	private int blockEvents;
+
+	/**
+	 * Create a file of events and its index
+	 *
+	 * @param file
+	 *            the file to create
+	 * @throws IOException
+	 *             if either could not be created
+	 */
+	EventFile(File file) throws IOException {
+		this.file = file;
+		this.out = new FileOutputStream(file);
+		try {
+			this.index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexOf(file))));
+			index.writeInt(MAGIC);
+			index.writeInt(VERSION);
+			index.flush();
+		} catch (IOException ioe) {
+			out.close();
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Write an event at the end of the file, each is written straight through
+	 * so it can be found at once
+	 *
+	 * @param event
+	 *            the event, no earlier than the last
+	 * @throws IOException
+	 *             if it could not be written
+	 */
+	void append(Event event) throws IOException {
+
+		if (blockEvents == BLOCK_EVENTS || blockEvents > 0 && event.getTime() - blockFirst > BLOCK_SPAN) {
+			endBlock();
+		}
+
+		byte[] line = (event.toJson() + '\n').getBytes(StandardCharsets.UTF_8);
+		out.write(line);
+
+		if (blockEvents == 0) {
+			blockOffset = size;
+			blockFirst = event.getTime();
+			blockTypes = 0;
+		}
+		blockLast = event.getTime();
+		blockTypes |= event.getType().mask();
+		blockEvents++;
+		size += line.length;
+
+	}
+
+	/**
+	 * Index the last block and close the file
+	 *
+	 * @throws IOException
+	 *             if the index could not be written
+	 */
+	void close() throws IOException {
+		try {
+			if (blockEvents > 0) {
+				endBlock();
+			}
+		} finally {
+			out.close();
+			index.close();
+		}
+	}
+
+	/**
+	 * Size of the file so far
+	 *
+	 * @return bytes
+	 */
+	long size() {
+		return size;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	private void endBlock() throws IOException {
+		index.writeLong(blockFirst);
+		index.writeLong(blockLast);
+		index.writeLong(blockTypes);
+		index.writeLong(blockOffset);
+		index.writeInt((int) (size - blockOffset));
+		index.writeInt(blockEvents);
+		index.flush();
+		blockEvents = 0;
+	}
+
+	/**
+	 * Find the events of a file in a window of time
+	 *
+	 * @param file
+	 *            the file of events
+	 * @param from
+	 *            earliest time to include in milliseconds
+	 * @param to
+	 *            time to stop before in milliseconds
+	 * @param types
+	 *            mask of the types to include
+	 * @param into
+	 *            where to add the events found, in the order written
+	 * @throws IOException
+	 *             if the file could not be read
+	 */
+	static void find(File file, long from, long to, long types, List<Event> into) throws IOException {
+
+		File indexFile = indexOf(file);
+		ByteBuffer index = ByteBuffer
+				.wrap(indexFile.exists() ? Files.readAllBytes(indexFile.toPath()) : new byte[0]);
+
+		/* Where the unindexed events start, all of them without an index */
+		long tail = 0;
+
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+
+			if (index.remaining() >= HEADER_SIZE && index.getInt() == MAGIC && index.getInt() == VERSION) {
+				while (index.remaining() >= ENTRY_SIZE) {
+					long first = index.getLong();
+					long last = index.getLong();
+					long mask = index.getLong();
+					long offset = index.getLong();
+					int length = index.getInt();
+					index.getInt();
+					if (last >= from && first < to && (mask & types) != 0) {
+						read(in, offset, length, from, to, types, into);
+					}
+					tail = offset + length;
+				}
+			}
+
+			long length = in.length();
+			if (length > tail) {
+				read(in, tail, (int) Math.min(Integer.MAX_VALUE, length - tail), from, to, types, into);
+			}
+
+		}
+
+	}
+
+	/**
+	 * Read the events in part of a file, a line not yet completely written is
+	 * left out
+	 */
+	private static void read(RandomAccessFile in, long offset, int length, long from, long to, long types,
+			List<Event> into) throws IOException {
+
+		byte[] bytes = new byte[length];
+		in.seek(offset);
+		in.readFully(bytes);
+
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			if (bytes[i] != '\n') {
+				continue;
+			}
+			Event event = Event.parse(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+			start = i + 1;
+			if (event != null && (event.getType().mask() & types) != 0 && event.getTime() >= from
+					&& event.getTime() < to) {
+				into.add(event);
+			}
+		}
+
+	}
+
+	static File indexOf(File file) {
+		String name = file.getName();
+		return new File(file.getParentFile(), name.substring(0, name.length() - SUFFIX.length()) + INDEX_SUFFIX);
+	}
+
+}
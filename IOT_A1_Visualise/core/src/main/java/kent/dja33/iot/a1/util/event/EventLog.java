@@ -0,0 +1,259 @@
+package kent.dja33.iot.a1.util.event;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import kent.dja33.iot.a1.util.Out;
+import kent.dja33.iot.a1.util.SerialReader;
+import kent.dja33.iot.a1.util.alert.AlertListener;
+import kent.dja33.iot.a1.util.alert.AlertRule;
+import kent.dja33.iot.a1.util.device.DeviceState;
+import kent.dja33.iot.a1.util.device.DeviceState.AckState;
+import kent.dja33.iot.a1.util.device.DeviceState.Property;
+
+/**
+ * Records what happens to the collector and its device as structured Events,
+ * alongside the human readable log written by Out, so questions such as
+ * "when did we disconnect?" can be answered without reading every log.
+ *
+ * Events are written to a new EventFile each day, or sooner if one reaches
+ * MAX_FILE_SIZE, named after the time it was started so they sort in order.
+ * Finding events skips every file started after the window looked at, or
+ * whose successor was started before it, and uses the index of the rest to
+ * read only the blocks holding the types asked for.
+ *
+ * Events are few, a handful an hour on a settled connection, so each is
+ * written as it is recorded on whichever thread recorded it.
+ *
+ * @author Dante
+ *
+ */
+public class EventLog implements AlertListener {
+
+	/* Size a file can grow to before starting another */
+	private static final long MAX_FILE_SIZE = 4 * 1024 * 1024;
+
+	/* Every type of event, as a mask */
+	public static final long ALL_TYPES = -1L >>> (64 - EventType.values().length);
+
+	/* Singleton reference */
+	public static final EventLog events = new EventLog(Out.EVENTS_DIRECTORY);
+
+	private final File directory;
+
+	/* Guarded by this log */
+	private EventFile current;
+	private long nextDay;
+	private boolean canWrite = true;
+
+	/**
+	 * Create an event log writing into the given directory, nothing is
+	 * created until the first event is recorded
+	 *
+	 * @param directory
+	 *            where to write events
+	 */
+	public EventLog(String directory) {
+		this.directory = new File(directory);
+	}
+
+	/**
+	 * Record the changes to a reader's device, its connection, health and tick
+	 * rate
+	 *
+	 * @param reader
+	 *            the reader to watch
+	 */
+	public void watch(SerialReader reader) {
+		reader.getDeviceState().addListener((state, property) -> deviceStateChanged(reader, state, property));
+	}
+
+	private void deviceStateChanged(SerialReader reader, DeviceState state, Property property) {
+		switch (property) {
+		case ACK_STATE:
+			if (state.getAckState() == AckState.CONFIRMED) {
+				record(EventType.CONNECTED, reader.getActivePort());
+			} else if (state.getAckState() == AckState.DISCONNECTED) {
+				record(EventType.DISCONNECTED, reader.getActivePort());
+			}
+			break;
+		case HEALTH:
+			record(EventType.HEALTH, reader.getActivePort(), "health", state.getHealth());
+			break;
+		case TICK_RATE:
+			record(EventType.TICK_RATE, reader.getActivePort(), "rate", state.getTickRate());
+			break;
+		}
+	}
+
+	@Override
+	public void alertChanged(AlertRule rule, boolean raised, long time, float value) {
+		record(raised ? EventType.ALERT_RAISED : EventType.ALERT_CLEARED, null, "rule", rule, "value", value,
+				"sampleTime", time);
+	}
+
+	/**
+	 * Record an event as happening now
+	 *
+	 * @param type
+	 *            what happened
+	 * @param device
+	 *            port of the device it concerns, null if none
+	 * @param fields
+	 *            the name of each field followed by its value
+	 */
+	public synchronized void record(EventType type, String device, Object... fields) {
+
+		if (!canWrite) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		Map<String, String> values = new LinkedHashMap<>();
+		for (int i = 0; i + 1 < fields.length; i += 2) {
+			values.put(String.valueOf(fields[i]), String.valueOf(fields[i + 1]));
+		}
+		Event event = new Event(type, device, now, System.nanoTime(), values);
+
+		try {
+			if (current == null || current.size() >= MAX_FILE_SIZE || now >= nextDay) {
+				startFile(now);
+			}
+			current.append(event);
+		} catch (IOException ioe) {
+			canWrite = false;
+			Out.out.loglnErr("Could not record event " + type + ": " + ioe.getMessage());
+		}
+
+	}
+
+	/**
+	 * Record that the log is being closed and close it, nothing more is
+	 * recorded afterwards
+	 */
+	public synchronized void close() {
+		if (current != null) {
+			record(EventType.STOP, null);
+			try {
+				current.close();
+			} catch (IOException ioe) {
+				Out.out.loglnErr("Could not close event log: " + ioe.getMessage());
+			}
+			current = null;
+		}
+		canWrite = false;
+	}
+
+	private void startFile(long now) throws IOException {
+
+		if (current != null) {
+			current.close();
+			current = null;
+		}
+
+		if (!directory.exists()) {
+			directory.mkdirs();
+		}
+
+		File file = new File(directory, EventFile.PREFIX + nameFormat().format(new Date(now)) + EventFile.SUFFIX);
+		current = new EventFile(file);
+
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(now);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		calendar.add(Calendar.DAY_OF_MONTH, 1);
+		nextDay = calendar.getTimeInMillis();
+
+	}
+
+	/**
+	 * Find the events of some types in a window of time
+	 *
+	 * @param from
+	 *            earliest time to include in milliseconds
+	 * @param to
+	 *            time to stop before in milliseconds
+	 * @param types
+	 *            the types to include, every type if empty
+	 * @return the events in the order they happened
+	 * @throws IOException
+	 *             if the events could not be read
+	 */
+	public List<Event> find(long from, long to, Collection<EventType> types) throws IOException {
+
+		long mask = 0;
+		for (EventType type : types) {
+			mask |= type.mask();
+		}
+		if (mask == 0) {
+			mask = ALL_TYPES;
+		}
+
+		File[] files = directory
+				.listFiles((dir, name) -> name.startsWith(EventFile.PREFIX) && name.endsWith(EventFile.SUFFIX));
+		List<Event> found = new ArrayList<>();
+
+		if (files == null) {
+			return found;
+		}
+
+		/* Named by the time they were started, so this is oldest first */
+		Arrays.sort(files);
+		SimpleDateFormat format = nameFormat();
+
+		for (int i = 0; i < files.length; i++) {
+			long started = startOf(files[i], format);
+			long next = i + 1 < files.length ? startOf(files[i + 1], format) : 0;
+			if (next == 0) {
+				next = Long.MAX_VALUE;
+			}
+			if (started >= to || next < from) {
+				continue;
+			}
+			EventFile.find(files[i], from, to, mask, found);
+		}
+
+		return found;
+	}
+
+	/**
+	 * The time a file was started from its name, 0 if the name is not a time
+	 * so it is never skipped
+	 */
+	private static long startOf(File file, SimpleDateFormat format) {
+		String name = file.getName();
+		try {
+			return format.parse(name.substring(EventFile.PREFIX.length(), name.length() - EventFile.SUFFIX.length()))
+					.getTime();
+		} catch (ParseException e) {
+			return 0;
+		}
+	}
+
+	private static SimpleDateFormat nameFormat() {
+		return new SimpleDateFormat("yyyyMMdd-HHmmssSSS");
+	}
+
+	/**
+	 * Get the directory events are written to
+	 *
+	 * @return directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+}
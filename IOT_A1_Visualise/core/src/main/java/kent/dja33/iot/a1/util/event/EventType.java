@@ -0,0 +1,46 @@
+package kent.dja33.iot.a1.util.event;
+
+/**
+ * The kinds of Event written to the EventLog, with the fields each carries.
+ * No more than 64 can exist as the index records which appear in a block as
+ * a bit each of a long.
+ *
+ * @author Dante
+ *
+ */
+public enum EventType {
+
+	/* The event log was opened by a collector starting, or closed */
+	START, STOP,
+
+	/* The handshake with a device completed, or the port was closed */
+	CONNECTED, DISCONNECTED,
+
+	/* The health of the connection changed, field "health" */
+	HEALTH,
+
+	/* The device reported a new tick rate, field "rate" in seconds */
+	TICK_RATE,
+
+	/* Commands were written to the device, field "payload" */
+	COMMANDS_SENT,
+
+	/* Rate changes the device never answered, field "count" */
+	COMMANDS_EXPIRED,
+
+	/* Contact was regained, fields "attempts" and "gap" in milliseconds */
+	RECONNECTED,
+
+	/* An alert changed, fields "rule", "value" and "sampleTime" */
+	ALERT_RAISED, ALERT_CLEARED;
+
+	/**
+	 * The bit representing this type in a mask of types
+	 *
+	 * @return mask
+	 */
+	public long mask() {
+		return 1L << ordinal();
+	}
+
+}
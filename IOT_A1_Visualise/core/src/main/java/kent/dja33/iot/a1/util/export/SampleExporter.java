@@ -0,0 +1,204 @@
+package kent.dja33.iot.a1.util.export;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import kent.dja33.iot.a1.util.store.SampleStore;
+import kent.dja33.iot.a1.util.store.Segment;
+
+/**
+ * Writes a range of recorded samples out as CSV so they can be opened in a
+ * spreadsheet or analysis tool rather than grepping the logs. A file name
+ * ending in ".gz" is compressed as it is written.
+ *
+ * The range is split into row groups of ROWS_PER_GROUP records. Groups are
+ * formatted, and compressed, in parallel straight from the mapped segments,
+ * then written out in order. Only a few groups are prepared ahead of the
+ * writer at once, so memory stays bounded however large the export. A
+ * compressed export is a gzip member per group one after another, which gzip
+ * and GZIPInputStream read back as a single file.
+ *
+ * Each row is the time received in milliseconds followed by temperature in
+ * Celsius, accelerometer X, Y and Z and the mask of Anomaly bits the sample
+ * was marked with. A gap in the recording is a row with only its time
+ * filled in.
+ *
+ * @author Dante
+ *
+ */
+public class SampleExporter {
+
+	public static final String HEADER = "time,temperature,x,y,z,anomalies\n";
+	public static final String COMPRESSED_SUFFIX = ".gz";
+
+	/* Records formatted by a single task */
+	private static final int ROWS_PER_GROUP = 65536;
+
+	private final SampleStore store;
+	private final int threads;
+
+	/**
+	 * Create an exporter reading from the given store
+	 *
+	 * @param store
+	 *            the store to export from
+	 */
+	public SampleExporter(SampleStore store) {
+		this.store = store;
+		this.threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Export every sample received within a range of time
+	 *
+	 * @param from
+	 *            start of the range in milliseconds, inclusive
+	 * @param to
+	 *            end of the range in milliseconds, exclusive
+	 * @param file
+	 *            the file to write, compressed if it ends in ".gz"
+	 * @return the number of rows written
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public long exportCsv(long from, long to, File file) throws IOException {
+
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists()) {
+			parent.mkdirs();
+		}
+
+		store.refresh();
+
+		List<Group> groups = new ArrayList<>();
+		for (Segment segment : store.getSegments()) {
+			if (segment.getEndTime() < from || segment.getStartTime() >= to) {
+				continue;
+			}
+			int end = segment.indexOf(to);
+			for (int start = segment.indexOf(from); start < end; start += ROWS_PER_GROUP) {
+				groups.add(new Group(segment, start, Math.min(end, start + ROWS_PER_GROUP)));
+			}
+		}
+
+		AtomicInteger count = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "SampleExporter-" + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		long rows = 0;
+
+		boolean compress = file.getName().endsWith(COMPRESSED_SUFFIX);
+
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+
+			out.write(encode(HEADER, compress));
+
+			/* Groups being formatted, at most a couple per thread */
+			Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+
+			for (Group group : groups) {
+				if (inFlight.size() >= threads * 2) {
+					out.write(take(inFlight));
+				}
+				inFlight.add(executor.submit(() -> encode(group.format(), compress)));
+				rows += group.end - group.start;
+			}
+
+			while (!inFlight.isEmpty()) {
+				out.write(take(inFlight));
+			}
+
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return rows;
+	}
+
+	/**
+	 * Turn text into the bytes written, as a gzip member of its own if
+	 * compressing
+	 */
+	private static byte[] encode(String text, boolean compress) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+		if (!compress) {
+			return bytes;
+		}
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+		/* Favour speed, the text compresses well regardless */
+		try (GZIPOutputStream out = new GZIPOutputStream(compressed, 1 << 16) {
+			{
+				def.setLevel(Deflater.BEST_SPEED);
+			}
+		}) {
+			out.write(bytes);
+		}
+		return compressed.toByteArray();
+	}
+
+	private static byte[] take(Deque<Future<byte[]>> inFlight) throws IOException {
+		try {
+			return inFlight.poll().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while exporting.");
+		} catch (ExecutionException e) {
+			throw new IOException("Could not format samples: " + e.getCause());
+		}
+	}
+
+	/**
+	 * A run of records within a single segment
+	 */
+	private static class Group {
+
+		private final Segment segment;
+		private final int start;
+		private final int end;
+
+		private Group(Segment segment, int start, int end) {
+			this.segment = segment;
+			this.start = start;
+			this.end = end;
+		}
+
+		private String format() {
+			StringBuilder sb = new StringBuilder((end - start) * 40);
+			for (int i = start; i < end; i++) {
+				sb.append(segment.getTime(i)).append(',');
+				float temperature = segment.getTemperature(i);
+				if (Float.isNaN(temperature)) {
+					sb.append(",,,,\n");
+					continue;
+				}
+				sb.append(temperature).append(',');
+				sb.append(segment.getX(i)).append(',');
+				sb.append(segment.getY(i)).append(',');
+				sb.append(segment.getZ(i)).append(',');
+				sb.append(segment.getAnomalies(i)).append('\n');
+			}
+			return sb.toString();
+		}
+
+	}
+
+}
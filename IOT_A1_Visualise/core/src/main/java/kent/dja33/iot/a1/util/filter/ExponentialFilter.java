@@ -0,0 +1,39 @@
+package kent.dja33.iot.a1.util.filter;
+
+/**
+ * Exponential moving average, each value moves the output alpha of the way
+ * towards it. Smaller values of alpha give smoother output that lags more.
+ *
+ * @author Dante
+ *
+ */
+public class ExponentialFilter implements SampleFilter {
+
+	private final float alpha;
+	private float output;
+	private boolean primed;
+
+	public ExponentialFilter(float alpha) {
+		if (alpha <= 0 || alpha > 1) {
+			throw new IllegalArgumentException("Alpha must be greater than 0 and at most 1.");
+		}
+		this.alpha = alpha;
+	}
+
+	@Override
+	public float filter(float value) {
+		if (!primed) {
+			output = value;
+			primed = true;
+		} else {
+			output += alpha * (value - output);
+		}
+		return output;
+	}
+
+	@Override
+	public void reset() {
+		primed = false;
+	}
+
+}
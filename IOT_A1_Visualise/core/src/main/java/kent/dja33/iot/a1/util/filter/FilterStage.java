@@ -0,0 +1,80 @@
+package kent.dja33.iot.a1.util.filter;
+
+import kent.dja33.iot.a1.util.message.DataMessage;
+
+/**
+ * Applies a SampleFilter to each channel of every DataMessage before the
+ * SensorPipeline hands it on. The raw values are left untouched, the filtered
+ * values are stored alongside them so every listener can choose which it
+ * wants. A channel without a filter has filtered values equal to its raw ones.
+ *
+ * @author Dante
+ *
+ */
+public class FilterStage {
+
+	private final SampleFilter temperature;
+	private final SampleFilter x;
+	private final SampleFilter y;
+	private final SampleFilter z;
+
+	/**
+	 * Create a stage from a filter for each channel, any may be null to leave
+	 * that channel unfiltered
+	 *
+	 * @param temperature
+	 *            filter for temperature
+	 * @param x
+	 *            filter for accelerometer X
+	 * @param y
+	 *            filter for accelerometer Y
+	 * @param z
+	 *            filter for accelerometer Z
+	 */
+	public FilterStage(SampleFilter temperature, SampleFilter x, SampleFilter y, SampleFilter z) {
+		this.temperature = temperature;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+	}
+
+	/**
+	 * The filters used when nothing else has been configured, averages out
+	 * the 0.12 steps in temperature and the quantisation jitter of the
+	 * accelerometer
+	 *
+	 * @return default stage
+	 */
+	public static FilterStage defaultStage() {
+		return new FilterStage(new MovingAverageFilter(8), new ExponentialFilter(0.25f),
+				new ExponentialFilter(0.25f), new ExponentialFilter(0.25f));
+	}
+
+	/**
+	 * Filter the message, must be called with messages in the order they were
+	 * received
+	 *
+	 * @param msg
+	 *            the message to filter
+	 */
+	public void apply(DataMessage msg) {
+		msg.setFiltered(apply(temperature, msg.getTemperature()), apply(x, msg.getX()), apply(y, msg.getY()),
+				apply(z, msg.getZ()));
+	}
+
+	private static float apply(SampleFilter filter, float value) {
+		return filter != null ? filter.filter(value) : value;
+	}
+
+	/**
+	 * Forget every value seen so far, such as when connecting to a new device
+	 */
+	public void reset() {
+		for (SampleFilter filter : new SampleFilter[] { temperature, x, y, z }) {
+			if (filter != null) {
+				filter.reset();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,75 @@
+package kent.dja33.iot.a1.util.filter;
+
+/**
+ * Second order (biquad) low-pass filter, coefficients are taken from the
+ * Audio EQ Cookbook by Robert Bristow-Johnson. Assumes samples arrive at a
+ * steady rate, so the cutoff is relative to the tick rate of the MBED.
+ *
+ * @author Dante
+ *
+ */
+public class LowPassFilter implements SampleFilter {
+
+	/* Q giving a maximally flat (Butterworth) response */
+	public static final double BUTTERWORTH_Q = 1 / Math.sqrt(2);
+
+	private final double b0;
+	private final double b1;
+	private final double b2;
+	private final double a1;
+	private final double a2;
+
+	/* Previous inputs and outputs */
+	private double x1, x2, y1, y2;
+	private boolean primed;
+
+	/**
+	 * Create a low-pass filter
+	 *
+	 * @param cutoff
+	 *            the cutoff frequency in Hz
+	 * @param sampleRate
+	 *            the rate samples arrive at in Hz
+	 * @param q
+	 *            the quality factor, BUTTERWORTH_Q for no resonance
+	 */
+	public LowPassFilter(double cutoff, double sampleRate, double q) {
+		if (cutoff <= 0 || cutoff >= sampleRate / 2) {
+			throw new IllegalArgumentException("Cutoff must be between 0 and half the sample rate.");
+		}
+
+		double w0 = 2 * Math.PI * cutoff / sampleRate;
+		double alpha = Math.sin(w0) / (2 * q);
+		double cos = Math.cos(w0);
+		double a0 = 1 + alpha;
+
+		b0 = (1 - cos) / 2 / a0;
+		b1 = (1 - cos) / a0;
+		b2 = (1 - cos) / 2 / a0;
+		a1 = -2 * cos / a0;
+		a2 = (1 - alpha) / a0;
+	}
+
+	@Override
+	public float filter(float value) {
+
+		/* Start from rest at the first value rather than ramping up from 0 */
+		if (!primed) {
+			x1 = x2 = y1 = y2 = value;
+			primed = true;
+		}
+
+		double y = b0 * value + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+		x2 = x1;
+		x1 = value;
+		y2 = y1;
+		y1 = y;
+		return (float) y;
+	}
+
+	@Override
+	public void reset() {
+		primed = false;
+	}
+
+}
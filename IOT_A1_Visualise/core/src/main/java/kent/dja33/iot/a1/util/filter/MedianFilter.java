@@ -0,0 +1,72 @@
+package kent.dja33.iot.a1.util.filter;
+
+/**
+ * Median of the last window values, good at removing single spikes without
+ * smearing steps. Keeps the window in arrival order alongside a sorted copy,
+ * the sorted copy is updated by removing the oldest value and inserting the
+ * newest rather than being sorted again.
+ *
+ * @author Dante
+ *
+ */
+public class MedianFilter implements SampleFilter {
+
+	private final float[] window;
+	private final float[] sorted;
+	private int head;
+	private int size;
+
+	public MedianFilter(int window) {
+		if (window < 1) {
+			throw new IllegalArgumentException("Window must hold at least one value.");
+		}
+		this.window = new float[window];
+		this.sorted = new float[window];
+	}
+
+	@Override
+	public float filter(float value) {
+
+		/* Remove the oldest value from the sorted copy */
+		if (size == window.length) {
+			int i = indexOf(window[head]);
+			System.arraycopy(sorted, i + 1, sorted, i, size - i - 1);
+			size--;
+		}
+
+		window[head] = value;
+		head = (head + 1) % window.length;
+
+		/* Insert the newest value into place */
+		int i = size;
+		while (i > 0 && sorted[i - 1] > value) {
+			sorted[i] = sorted[i - 1];
+			i--;
+		}
+		sorted[i] = value;
+		size++;
+
+		return (size & 1) == 1 ? sorted[size / 2] : (sorted[size / 2 - 1] + sorted[size / 2]) / 2;
+	}
+
+	private int indexOf(float value) {
+		int low = 0;
+		int high = size - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (sorted[mid] < value) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	@Override
+	public void reset() {
+		head = 0;
+		size = 0;
+	}
+
+}
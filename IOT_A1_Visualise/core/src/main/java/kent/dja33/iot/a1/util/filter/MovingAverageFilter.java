@@ -0,0 +1,44 @@
+package kent.dja33.iot.a1.util.filter;
+
+/**
+ * Simple moving average over the last window values, keeps a running sum so
+ * each value costs the same regardless of the size of the window.
+ *
+ * @author Dante
+ *
+ */
+public class MovingAverageFilter implements SampleFilter {
+
+	private final float[] window;
+	private int head;
+	private int size;
+	private double sum;
+
+	public MovingAverageFilter(int window) {
+		if (window < 1) {
+			throw new IllegalArgumentException("Window must hold at least one value.");
+		}
+		this.window = new float[window];
+	}
+
+	@Override
+	public float filter(float value) {
+		if (size == window.length) {
+			sum -= window[head];
+		} else {
+			size++;
+		}
+		window[head] = value;
+		head = (head + 1) % window.length;
+		sum += value;
+		return (float) (sum / size);
+	}
+
+	@Override
+	public void reset() {
+		head = 0;
+		size = 0;
+		sum = 0;
+	}
+
+}
@@ -0,0 +1,27 @@
+package kent.dja33.iot.a1.util.filter;
+
+/**
+ * A filter applied to a single channel of samples, one value at a time.
+ * Implementations keep all their state in primitive fields and arrays created
+ * up front, so filtering a value never allocates.
+ *
+ * @author Dante
+ *
+ */
+public interface SampleFilter {
+
+	/**
+	 * Pass the next value through the filter
+	 *
+	 * @param value
+	 *            the raw value
+	 * @return the filtered value
+	 */
+	float filter(float value);
+
+	/**
+	 * Forget every value seen so far
+	 */
+	void reset();
+
+}
@@ -0,0 +1,35 @@
+package kent.dja33.iot.a1.util.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for an update of the charts on the FX thread, only
+ * committed when points were added. Disabled by default.
+ *
+ * @author Dante
+ *
+ */
+@Name("kent.dja33.iot.a1.ChartUpdate")
+@Label("Chart Update")
+@Description("An update of the charts with newly received samples")
+@Category({ "MBED", "Render" })
+@Enabled(false)
+@StackTrace(false)
+public class ChartUpdateEvent extends Event {
+
+	@Label("Points Added")
+	public int pointsAdded;
+
+	@Label("Stats Recompute Time")
+	@Description("Time spent working out the average and bounds of the Y axis")
+	@Timespan(Timespan.NANOSECONDS)
+	public long statsTime;
+
+}
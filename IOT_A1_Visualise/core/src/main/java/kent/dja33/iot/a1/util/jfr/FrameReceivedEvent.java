@@ -0,0 +1,39 @@
+package kent.dja33.iot.a1.util.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for a frame read in over serial and decoded into a
+ * message, lasts as long as the decoding took.
+ *
+ * Like every event in this package it is disabled by default and costs next
+ * to nothing until it is enabled in the recording settings, for example by
+ * adding the following to a copy of default.jfc:
+ *
+ * <event name="kent.dja33.iot.a1.FrameReceived">
+ * <setting name="enabled">true</setting> </event>
+ *
+ * @author Dante
+ *
+ */
+@Name("kent.dja33.iot.a1.FrameReceived")
+@Label("Frame Received")
+@Description("A frame read over serial and decoded into a message")
+@Category({ "MBED", "Serial" })
+@Enabled(false)
+@StackTrace(false)
+public class FrameReceivedEvent extends Event {
+
+	@Label("Message Type")
+	public String type;
+
+	@Label("Frame Length")
+	public int length;
+
+}
@@ -0,0 +1,32 @@
+package kent.dja33.iot.a1.util.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for a frame that could not be decoded and was
+ * discarded, disabled by default.
+ *
+ * @author Dante
+ *
+ */
+@Name("kent.dja33.iot.a1.FrameRejected")
+@Label("Frame Rejected")
+@Description("A frame read over serial that could not be decoded")
+@Category({ "MBED", "Serial" })
+@Enabled(false)
+@StackTrace(false)
+public class FrameRejectedEvent extends Event {
+
+	@Label("Reason")
+	public String reason;
+
+	@Label("Frame")
+	public String frame;
+
+}
@@ -0,0 +1,35 @@
+package kent.dja33.iot.a1.util.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for a run of the SensorPipeline draining messages
+ * from the SerialReader, disabled by default.
+ *
+ * @author Dante
+ *
+ */
+@Name("kent.dja33.iot.a1.PipelineBatch")
+@Label("Pipeline Batch")
+@Description("A run of the SensorPipeline handing messages to its listeners")
+@Category({ "MBED", "Pipeline" })
+@Enabled(false)
+@StackTrace(false)
+public class PipelineBatchEvent extends Event {
+
+	@Label("Batch Size")
+	public int batchSize;
+
+	@Label("Queue Age")
+	@Description("How long the oldest message in the batch waited to be drained")
+	@Timespan(Timespan.NANOSECONDS)
+	public long queueAge;
+
+}
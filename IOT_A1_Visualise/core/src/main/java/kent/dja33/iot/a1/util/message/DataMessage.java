@@ -0,0 +1,230 @@
+package kent.dja33.iot.a1.util.message;
+
+import static kent.dja33.iot.a1.util.message.MessageHandler.DATA;
+
+/**
+ * A sample of temperature and accelerometer data sent by the MBED in the form
+ * "D29.38:0.046882:-0.046882:1.031411", the payload is parsed once when the
+ * message is created. Temperatures are always held in Celsius.
+ *
+ * Alongside the raw values are the values after the FilterStage, these are
+ * the same as the raw values until the message has been filtered. Values that
+ * look wrong are kept, the AnomalyDetector marks them instead.
+ *
+ * @author Dante
+ *
+ */
+public class DataMessage extends Message {
+
+	private float temperature;
+	private float accelX;
+	private float accelY;
+	private float accelZ;
+
+	/* Values after filtering */
+	private float filteredTemperature;
+	private float filteredX;
+	private float filteredY;
+	private float filteredZ;
+
+	/* The time the message was received in milliseconds */
+	private final long time;
+	/* The time the message was received from System.nanoTime() */
+	private final long nanoTime;
+
+	/* Whether the payload could be read */
+	private boolean valid;
+
+	/* Mask of the anomalies found in each channel */
+	private int anomalies;
+
+	public DataMessage(String name, String timeStamp, String payload, long id) {
+		super(name, timeStamp, payload, id);
+
+		this.time = System.currentTimeMillis();
+		this.nanoTime = System.nanoTime();
+
+		String[] payloadSplit = payload.split(":");
+
+		/* If we have data, then make sure it is not a potential error */
+		if (name == DATA) {
+
+			try {
+
+				temperature = Float.parseFloat(payloadSplit[0]);
+				accelX = Float.parseFloat(payloadSplit[1]);
+				accelY = Float.parseFloat(payloadSplit[2]);
+				accelZ = Float.parseFloat(payloadSplit[3]);
+				valid = true;
+				setFiltered(temperature, accelX, accelY, accelZ);
+			} catch (Exception e) {
+				/*
+				 * Not reliable as data, the SerialReader rejects it rather
+				 * than queueing it
+				 */
+				valid = false;
+			}
+
+		}
+	}
+
+	@Override
+	public String getPayload() {
+		return temperature + ":" + accelX + ":" + accelY + ":" + accelZ;
+	}
+
+	/**
+	 * Whether the payload could be read as a sample
+	 *
+	 * @return true if valid
+	 */
+	public boolean isValid() {
+		return valid;
+	}
+
+	/**
+	 * The time this message was received
+	 *
+	 * @return time in milliseconds
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * The time this message was received, for measuring latency
+	 *
+	 * @return time from System.nanoTime()
+	 */
+	public long getNanoTime() {
+		return nanoTime;
+	}
+
+	/**
+	 * Temperature in Celsius
+	 *
+	 * @return temperature
+	 */
+	public float getTemperature() {
+		return temperature;
+	}
+
+	/**
+	 * Accelerometer X in g
+	 *
+	 * @return x
+	 */
+	public float getX() {
+		return accelX;
+	}
+
+	/**
+	 * Accelerometer Y in g
+	 *
+	 * @return y
+	 */
+	public float getY() {
+		return accelY;
+	}
+
+	/**
+	 * Accelerometer Z in g
+	 *
+	 * @return z
+	 */
+	public float getZ() {
+		return accelZ;
+	}
+
+	/**
+	 * Set the values after filtering
+	 *
+	 * @param temperature
+	 *            filtered temperature in Celsius
+	 * @param x
+	 *            filtered accelerometer X
+	 * @param y
+	 *            filtered accelerometer Y
+	 * @param z
+	 *            filtered accelerometer Z
+	 */
+	public void setFiltered(float temperature, float x, float y, float z) {
+		filteredTemperature = temperature;
+		filteredX = x;
+		filteredY = y;
+		filteredZ = z;
+	}
+
+	/**
+	 * Temperature in Celsius, filtered or raw
+	 *
+	 * @param filtered
+	 *            true for the filtered value
+	 * @return temperature
+	 */
+	public float getTemperature(boolean filtered) {
+		return filtered ? filteredTemperature : temperature;
+	}
+
+	/**
+	 * Accelerometer X in g, filtered or raw
+	 *
+	 * @param filtered
+	 *            true for the filtered value
+	 * @return x
+	 */
+	public float getX(boolean filtered) {
+		return filtered ? filteredX : accelX;
+	}
+
+	/**
+	 * Accelerometer Y in g, filtered or raw
+	 *
+	 * @param filtered
+	 *            true for the filtered value
+	 * @return y
+	 */
+	public float getY(boolean filtered) {
+		return filtered ? filteredY : accelY;
+	}
+
+	/**
+	 * Accelerometer Z in g, filtered or raw
+	 *
+	 * @param filtered
+	 *            true for the filtered value
+	 * @return z
+	 */
+	public float getZ(boolean filtered) {
+		return filtered ? filteredZ : accelZ;
+	}
+
+	/**
+	 * Set the anomalies found in this sample
+	 *
+	 * @param anomalies
+	 *            mask of Anomaly bits for each channel, 0 for none
+	 */
+	public void setAnomalies(int anomalies) {
+		this.anomalies = anomalies;
+	}
+
+	/**
+	 * The anomalies found in this sample, see Anomaly
+	 *
+	 * @return mask of Anomaly bits for each channel, 0 for none
+	 */
+	public int getAnomalies() {
+		return anomalies;
+	}
+
+	/**
+	 * Whether any anomaly was found in this sample
+	 *
+	 * @return true if anomalous
+	 */
+	public boolean isAnomalous() {
+		return anomalies != 0;
+	}
+
+}
@@ -0,0 +1,41 @@
+package kent.dja33.iot.a1.util.message;
+
+/**
+ * Listener for valid DataMessages decoded from the MBED, registered with the
+ * SensorPipeline.
+ *
+ * @author Dante
+ *
+ */
+public interface DataMessageListener {
+
+	/**
+	 * Called on the pipeline thread for every valid DataMessage, in the order
+	 * they were received.
+	 *
+	 * @param msg
+	 *            the message received
+	 */
+	void dataReceived(DataMessage msg);
+
+	/**
+	 * Called once the pipeline has passed on every message it could find, can
+	 * be used to flush or publish work done over the batch.
+	 */
+	default void endOfBatch() {
+	}
+
+	/**
+	 * Called on the pipeline thread when samples were lost, such as while the
+	 * device was being reconnected, in order with the messages either side of
+	 * it.
+	 *
+	 * @param start
+	 *            time of the last sample before the gap in milliseconds
+	 * @param end
+	 *            time samples resumed in milliseconds
+	 */
+	default void gap(long start, long end) {
+	}
+
+}
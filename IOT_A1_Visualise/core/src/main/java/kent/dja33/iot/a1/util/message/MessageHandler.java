@@ -3,8 +3,7 @@ package kent.dja33.iot.a1.util.message;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
-import kent.dja33.iot.a1.Main;
-import kent.dja33.iot.a1.MeasurementType;
+import kent.dja33.iot.a1.util.metrics.Metrics;
 
 public class MessageHandler {
 
@@ -14,13 +13,6 @@ public class MessageHandler {
 	public static final String ACK = "Acknowledgement";
 	public static final String ERR = "Error";
 
-	/*
-	 * The maximum difference allowed in tolerating potentially damaged data
-	 * messages
-	 */
-	private static final float MAX_DIFF = 10.0f;
-	private static float lastPayload = Float.MAX_VALUE;
-
 	/* Message ID, incremented on each assigning */
 	private static long messageID = 1;
 
@@ -34,7 +26,23 @@ public class MessageHandler {
 	/* Force singleton pattern */
 	private MessageHandler() {}
 
+	/**
+	 * Create a message from a frame read in over serial, timing how long it
+	 * takes to decode
+	 * 
+	 * @param name
+	 *            the frame
+	 * @return the message, an error message if the frame is unidentifiable
+	 */
 	public Message createMessage(String name) {
+		long start = System.nanoTime();
+		Message msg = decode(name);
+		Metrics.metrics.frames.increment();
+		Metrics.metrics.parseTime.recordSince(start);
+		return msg;
+	}
+
+	private Message decode(String name) {
 
 		/* Immediately work out when the Message was RECEIVED */
 		String timeStamp = getTime();
@@ -102,78 +110,4 @@ public class MessageHandler {
 
 	}
 
-	private class SettingMessage extends Message {
-
-		public SettingMessage(String name, String timeStamp, String payload, long id) {
-			super(name, timeStamp, payload, id);
-		}
-
-	}
-
-	private class DataMessage extends Message {
-
-		private float temperature;
-		private float accelX;
-		private float accelY;
-		private float accelZ;
-
-		public DataMessage(String name, String timeStamp, String payload, long id) {
-			super(name, timeStamp, payload, id);
-
-			String[] payloadSplit = payload.split(":");
-
-			/* If we have data, then make sure it is not a potential error */
-			if (name == DATA) {
-
-				try {
-
-					temperature = Float.parseFloat(payloadSplit[0]);
-					accelX = Float.parseFloat(payloadSplit[1]);
-					accelY = Float.parseFloat(payloadSplit[2]);
-					accelZ = Float.parseFloat(payloadSplit[3]);
-
-					if ((temperature > lastPayload + MAX_DIFF || temperature < lastPayload - MAX_DIFF)
-							&& lastPayload != Float.MAX_VALUE) {
-						name = ERR;
-						return;
-					}
-
-					lastPayload = Float.parseFloat(payloadSplit[0]);
-				} catch (Exception e) {
-					System.err.println("Message useless, discarding...");
-					/*
-					 * This message is considered an error and not reliable as
-					 * data
-					 */
-					name = ERR;
-				}
-
-			}
-		}
-
-		@Override
-		public String getPayload() {
-
-			/* TemperatureHandler has not been created yet */
-			if (Main.display.getMeasurementType() == null) {
-				return "NOT_READY";
-			}
-
-			/* Conversion if needed */
-			if (Main.display.getMeasurementType().equals(MeasurementType.FAHRENHEIT)) {
-
-				float val = temperature;
-				val = MeasurementType.convert(MeasurementType.FAHRENHEIT, val);
-
-				return val + ":" + accelX + ":" + accelY + ":" + accelZ;
-
-			} else if (Main.display.getMeasurementType().equals(MeasurementType.CELSIUS)) {
-				return temperature + ":" + accelX + ":" + accelY + ":" + accelZ;
-			}
-
-			return "INVALID CONVERSION";
-		}
-
-	}
-
 }
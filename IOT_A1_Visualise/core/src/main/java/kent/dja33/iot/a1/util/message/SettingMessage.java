@@ -0,0 +1,106 @@
+package kent.dja33.iot.a1.util.message;
+
+/**
+ * A setting reported by the MBED, the payload is parsed once when the message
+ * is created rather than every time it is read.
+ *
+ * The firmware only reports its tick rate in the form "S_TICK_RATE:0.500000"
+ * but corruption over serial regularly produces frames such as
+ * "S_TICK0.480000" or "S_TICK_RATE000". As the tick rate is the only setting
+ * the MBED sends, the value is accepted as long as a well formed decimal can
+ * be found at the end of the payload, otherwise the setting is invalid.
+ *
+ * @author Dante
+ *
+ */
+public class SettingMessage extends Message {
+
+	/* The only setting the MBED currently reports */
+	public static final String TICK_RATE = "TICK_RATE";
+
+	/* The parsed setting, null if the payload was unreadable */
+	private final String setting;
+	private final float value;
+
+	public SettingMessage(String name, String timeStamp, String payload, long id) {
+		super(name, timeStamp, payload, id);
+
+		int start = findDecimal(payload);
+
+		if (start >= 0) {
+			setting = TICK_RATE;
+			value = Float.parseFloat(payload.substring(start));
+		} else {
+			setting = null;
+			value = Float.NaN;
+		}
+	}
+
+	/**
+	 * Find where the decimal value at the end of the payload begins, the value
+	 * must have at least one digit either side of a single decimal point and
+	 * must not be preceded by another digit.
+	 *
+	 * @param payload
+	 *            The payload to search
+	 * @return index the decimal starts at, or -1 if none was found
+	 */
+	private static int findDecimal(String payload) {
+
+		if (payload == null) {
+			return -1;
+		}
+
+		int i = payload.length() - 1;
+		int fraction = 0;
+		int whole = 0;
+
+		/* Digits after the decimal point */
+		while (i >= 0 && Character.isDigit(payload.charAt(i))) {
+			fraction++;
+			i--;
+		}
+
+		if (fraction == 0 || i < 0 || payload.charAt(i) != '.') {
+			return -1;
+		}
+
+		i--;
+
+		/* Digits before the decimal point */
+		while (i >= 0 && Character.isDigit(payload.charAt(i))) {
+			whole++;
+			i--;
+		}
+
+		return whole > 0 ? i + 1 : -1;
+	}
+
+	/**
+	 * Whether the payload held a readable setting
+	 *
+	 * @return true if valid
+	 */
+	public boolean isValid() {
+		return setting != null;
+	}
+
+	/**
+	 * The setting this message reports, such as TICK_RATE
+	 *
+	 * @return the setting, null if invalid
+	 */
+	public String getSetting() {
+		return setting;
+	}
+
+	/**
+	 * The value of the setting, for TICK_RATE this is in seconds
+	 *
+	 * @return value, NaN if invalid
+	 */
+	public float getValue() {
+		return value;
+	}
+
+}
@@ -0,0 +1,51 @@
+package kent.dja33.iot.a1.util.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count of events that can be added to from any thread with very little
+ * contention, such as the number of bytes read from serial.
+ *
+ * @author Dante
+ *
+ */
+public class Counter {
+
+	private final String name;
+	private final LongAdder count = new LongAdder();
+
+	public Counter(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Count a single event
+	 */
+	public void increment() {
+		count.increment();
+	}
+
+	/**
+	 * Count a number of events
+	 *
+	 * @param n
+	 *            events to add
+	 */
+	public void add(long n) {
+		count.add(n);
+	}
+
+	/**
+	 * Total number of events counted
+	 *
+	 * @return count
+	 */
+	public long get() {
+		return count.sum();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+}
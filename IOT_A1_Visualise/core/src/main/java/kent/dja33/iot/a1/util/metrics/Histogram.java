@@ -0,0 +1,137 @@
+package kent.dja33.iot.a1.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records a distribution of durations in nanoseconds, in the style of
+ * HdrHistogram. Values are counted into buckets that double in width every
+ * SUB_BUCKETS buckets, so every value is recorded to within 12.5% while the
+ * whole range of a long fits into a few hundred buckets allocated up front.
+ * Recording is lock free and never allocates.
+ *
+ * @author Dante
+ *
+ */
+public class Histogram {
+
+	/* Buckets per power of two, as a number of bits */
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (63 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final String name;
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public Histogram(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Record a duration, negative values are recorded as 0
+	 *
+	 * @param nanos
+	 *            the duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+
+		buckets.incrementAndGet(index(value));
+		count.incrementAndGet();
+		total.addAndGet(value);
+
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+		}
+	}
+
+	/**
+	 * Record the time since a start time taken from System.nanoTime()
+	 *
+	 * @param start
+	 *            when the duration started
+	 */
+	public void recordSince(long start) {
+		record(System.nanoTime() - start);
+	}
+
+	private static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/* Smallest value counted into a bucket */
+	private static long lowest(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+		return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BITS);
+	}
+
+	/**
+	 * The value below which the given fraction of recorded values fall,
+	 * reported as the top of the bucket it falls into
+	 *
+	 * @param fraction
+	 *            between 0 and 1, such as 0.99 for p99
+	 * @return the value in nanoseconds, 0 if nothing was recorded
+	 */
+	public long percentile(double fraction) {
+		long recorded = count.get();
+		if (recorded == 0) {
+			return 0;
+		}
+
+		long target = Math.max(1, (long) Math.ceil(recorded * fraction));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= target) {
+				return i + 1 < BUCKETS ? Math.min(lowest(i + 1) - 1, max.get()) : max.get();
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Number of values recorded
+	 *
+	 * @return count
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Mean of the values recorded
+	 *
+	 * @return mean in nanoseconds
+	 */
+	public double getMean() {
+		long recorded = count.get();
+		return recorded == 0 ? 0 : (double) total.get() / recorded;
+	}
+
+	/**
+	 * Largest value recorded
+	 *
+	 * @return max in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+}
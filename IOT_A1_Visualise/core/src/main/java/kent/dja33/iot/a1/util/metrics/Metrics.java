@@ -0,0 +1,144 @@
+package kent.dja33.iot.a1.util.metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the counters and histograms measuring the path a sample takes
+ * from arriving over serial to being drawn on the chart, used to find out why
+ * the GUI lags.
+ *
+ * Everything is cheap enough to record on every frame. A snapshot gives the
+ * rates since the previous snapshot along with the latency percentiles, it is
+ * shown in the GUI overlay and can be exported to a file.
+ *
+ * Relies on Singleton pattern as the logger does.
+ *
+ * @author Dante
+ *
+ */
+public final class Metrics {
+
+	/* Singleton reference */
+	public static final Metrics metrics = new Metrics();
+
+	/* Counters */
+	public final Counter bytesRead = new Counter("Bytes read");
+	public final Counter frames = new Counter("Frames");
+	public final Counter parseErrors = new Counter("Parse errors");
+	public final Counter samples = new Counter("Samples");
+	public final Counter commandWrites = new Counter("Command writes");
+	public final Counter commandsMerged = new Counter("Commands merged");
+	public final Counter glitches = new Counter("Glitches");
+	public final Counter steps = new Counter("Steps");
+	public final Counter batchesPublished = new Counter("Batches published");
+	public final Counter batchesSpooled = new Counter("Batches spooled");
+	public final Counter batchesDropped = new Counter("Batches dropped");
+	public final Counter publishRetries = new Counter("Publish retries");
+
+	/* Latencies */
+	public final Histogram parseTime = new Histogram("Parse");
+	public final Histogram pipelineTime = new Histogram("Pipeline");
+	public final Histogram sampleLatency = new Histogram("Sample latency");
+	public final Histogram fxFrameTime = new Histogram("FX frame");
+	public final Histogram logTime = new Histogram("Log write");
+	public final Histogram commandLatency = new Histogram("Command ACK");
+	public final Histogram publishLatency = new Histogram("Publish ACK");
+
+	private final Counter[] counters = { bytesRead, frames, parseErrors, samples, commandWrites,
+			commandsMerged, glitches, steps, batchesPublished, batchesSpooled, batchesDropped, publishRetries };
+	private final Histogram[] histograms = { parseTime, pipelineTime, sampleLatency, fxFrameTime, logTime,
+			commandLatency, publishLatency };
+
+	/* Values measured on demand, such as the depth of a queue */
+	private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+	/* Counter values at the previous snapshot, used to work out rates */
+	private final long[] previousCounts = new long[counters.length];
+	private long previousSnapshot = System.nanoTime();
+
+	private Metrics() {}
+
+	/**
+	 * Register a value to be measured whenever a snapshot is taken
+	 *
+	 * @param name
+	 *            name of the value
+	 * @param gauge
+	 *            supplies the value
+	 */
+	public void registerGauge(String name, LongSupplier gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * Take a snapshot of every metric as readable text, rates are worked out
+	 * since the previous snapshot was taken
+	 *
+	 * @return the snapshot
+	 */
+	public synchronized String snapshot() {
+
+		long now = System.nanoTime();
+		double seconds = Math.max(1e-9, (now - previousSnapshot) / 1e9);
+		previousSnapshot = now;
+
+		StringBuilder sb = new StringBuilder();
+
+		for (int i = 0; i < counters.length; i++) {
+			long count = counters[i].get();
+			sb.append(String.format("%-16s %10d %10.1f/s%n", counters[i].getName(), count,
+					(count - previousCounts[i]) / seconds));
+			previousCounts[i] = count;
+		}
+
+		for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+			sb.append(String.format("%-16s %10d%n", gauge.getKey(), gauge.getValue().getAsLong()));
+		}
+
+		sb.append(String.format("%-16s %8s %8s %8s %8s %8s%n", "Latency (ms)", "mean", "p50", "p99", "p999",
+				"max"));
+
+		for (Histogram histogram : histograms) {
+			sb.append(String.format("%-16s %8.3f %8.3f %8.3f %8.3f %8.3f%n", histogram.getName(),
+					histogram.getMean() / 1e6, histogram.percentile(0.5) / 1e6, histogram.percentile(0.99) / 1e6,
+					histogram.percentile(0.999) / 1e6, histogram.getMax() / 1e6));
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Write a snapshot out to a new file in the given directory
+	 *
+	 * @param directory
+	 *            where to write the snapshot
+	 * @return the file written
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public File exportSnapshot(String directory) throws IOException {
+
+		File dir = new File(directory);
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+
+		File file = new File(dir,
+				"metrics-" + new SimpleDateFormat("yy-MM-dd_HH-mm-ss").format(new Date()) + ".txt");
+
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+			writer.write(snapshot());
+		}
+
+		return file;
+	}
+
+}
@@ -0,0 +1,27 @@
+package kent.dja33.iot.a1.util.publish;
+
+/**
+ * A payload of samples from one device on its way to the broker, along with
+ * how its delivery is going.
+ *
+ * @author Dante
+ *
+ */
+final class Batch {
+
+	final String device;
+	final byte[] payload;
+
+	/* Identifier of the PUBLISH while waiting for its PUBACK */
+	int packetId;
+	/* When it was last sent, from System.nanoTime() */
+	long sent;
+	/* Times it has been sent */
+	int attempts;
+
+	Batch(String device, byte[] payload) {
+		this.device = device;
+		this.payload = payload;
+	}
+
+}
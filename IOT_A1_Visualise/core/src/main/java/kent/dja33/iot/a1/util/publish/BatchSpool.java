@@ -0,0 +1,258 @@
+package kent.dja33.iot.a1.util.publish;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import kent.dja33.iot.a1.util.Out;
+
+/**
+ * Holds batches on disk, oldest first, while the broker is slow or can not be
+ * reached, so samples outlive both an outage and a restart of the collector.
+ *
+ * Batches are appended to segment files, a new one started whenever the
+ * current one reaches MAX_SEGMENT_SIZE, each record being the device (UTF)
+ * then the length of the payload (int) and the payload. A segment is deleted
+ * once every batch in it has been taken back out. Segments left by an earlier
+ * run are picked up first. Should the spool grow past its limit the oldest
+ * segment is thrown away.
+ *
+ * Only ever used by the publisher's thread.
+ *
+ * @author Dante
+ *
+ */
+final class BatchSpool {
+
+	static final String SEGMENT_PREFIX = "spool-";
+	static final String SEGMENT_SUFFIX = ".dat";
+
+	/* Size a segment can grow to before starting another */
+	private static final long MAX_SEGMENT_SIZE = 4 * 1024 * 1024;
+	/* Largest payload believed when reading back, anything bigger is damage */
+	private static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+
+	private final File directory;
+	private final long maxSize;
+
+	/* Every segment oldest first, the last is being written to if writer is open */
+	private final ArrayDeque<File> segments = new ArrayDeque<>();
+	private long size;
+	private long sequence;
+
+	private DataOutputStream writer;
+	private long segmentSize;
+
+	private DataInputStream reader;
+	private Batch next;
+
+	/**
+	 * Open the spool in a directory, creating it if needed and picking up any
+	 * segments already there
+	 *
+	 * @param directory
+	 *            where to keep segments
+	 * @param maxSize
+	 *            bytes the spool can hold before dropping the oldest
+	 */
+	BatchSpool(File directory, long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+
+		if (!directory.exists()) {
+			directory.mkdirs();
+		}
+
+		File[] files = directory.listFiles(
+				(dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+		if (files != null) {
+			Arrays.sort(files);
+			for (File file : files) {
+				segments.add(file);
+				size += file.length();
+				sequence = Math.max(sequence, sequenceOf(file) + 1);
+			}
+			if (files.length > 0) {
+				Out.out.logln("Found " + files.length + " spooled segment(s) of samples to publish.");
+			}
+		}
+	}
+
+	/**
+	 * Add a batch to the end of the spool, it is buffered until flushed
+	 *
+	 * @param batch
+	 *            the batch
+	 * @throws IOException
+	 *             if it could not be written
+	 */
+	void append(Batch batch) throws IOException {
+
+		if (writer == null || segmentSize >= MAX_SEGMENT_SIZE) {
+			closeWriter();
+			File segment = new File(directory, String.format("%s%012d%s", SEGMENT_PREFIX, sequence++, SEGMENT_SUFFIX));
+			writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment)));
+			segments.add(segment);
+			segmentSize = 0;
+		}
+
+		int before = writer.size();
+		writer.writeUTF(batch.device);
+		writer.writeInt(batch.payload.length);
+		writer.write(batch.payload);
+		int written = writer.size() - before;
+		segmentSize += written;
+		size += written;
+
+		while (size > maxSize && segments.size() > 1) {
+			File oldest = segments.peekFirst();
+			Out.out.loglnErr("Publish spool is full, dropping " + oldest.getName() + ".");
+			deleteOldest();
+		}
+
+	}
+
+	/**
+	 * The oldest batch in the spool, left in place until removed
+	 *
+	 * @return the batch, or null if the spool is empty
+	 * @throws IOException
+	 *             if it could not be read
+	 */
+	Batch peek() throws IOException {
+
+		while (next == null) {
+
+			if (reader == null) {
+				if (segments.isEmpty()) {
+					return null;
+				}
+				/* Caught up with the segment being written, finish it first */
+				if (writer != null && segments.size() == 1) {
+					closeWriter();
+				}
+				try {
+					reader = new DataInputStream(new BufferedInputStream(new FileInputStream(segments.peekFirst())));
+				} catch (FileNotFoundException e) {
+					deleteOldest();
+					continue;
+				}
+			}
+
+			try {
+				String device = reader.readUTF();
+				int length = reader.readInt();
+				if (length < 0 || length > MAX_PAYLOAD) {
+					throw new EOFException();
+				}
+				byte[] payload = new byte[length];
+				reader.readFully(payload);
+				next = new Batch(device, payload);
+			} catch (EOFException e) {
+				/* End of the segment, or the damaged tail of one, it is done */
+				deleteOldest();
+			}
+
+		}
+
+		return next;
+	}
+
+	/**
+	 * Take the batch returned by peek out of the spool
+	 */
+	void remove() {
+		next = null;
+	}
+
+	boolean isEmpty() throws IOException {
+		return peek() == null;
+	}
+
+	/**
+	 * Bytes held on disk
+	 *
+	 * @return size of every segment
+	 */
+	long getSize() {
+		return size;
+	}
+
+	/**
+	 * Write out anything appended so far
+	 *
+	 * @throws IOException
+	 *             if it could not be written
+	 */
+	void flush() throws IOException {
+		if (writer != null) {
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Close the spool, anything not taken out stays for the next run. A batch
+	 * peeked but not removed is read again then.
+	 */
+	void close() {
+		try {
+			closeWriter();
+		} catch (IOException ioe) {
+			Out.out.loglnErr("Could not close publish spool: " + ioe.getMessage());
+		}
+		closeReader();
+	}
+
+	private void closeWriter() throws IOException {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+	}
+
+	private void closeReader() {
+		if (reader != null) {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				/* Only reading */
+			}
+			reader = null;
+		}
+	}
+
+	/**
+	 * Delete the oldest segment, including any batch of it peeked at
+	 */
+	private void deleteOldest() throws IOException {
+		if (segments.size() == 1) {
+			closeWriter();
+		}
+		closeReader();
+		next = null;
+		File oldest = segments.removeFirst();
+		size -= oldest.length();
+		if (!oldest.delete()) {
+			Out.out.loglnErr("Could not delete spool segment " + oldest.getName() + ".");
+		}
+	}
+
+	private static long sequenceOf(File segment) {
+		String name = segment.getName();
+		try {
+			return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+}
@@ -0,0 +1,266 @@
+package kent.dja33.iot.a1.util.publish;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntConsumer;
+
+/**
+ * The little of MQTT 3.1.1 the SamplePublisher needs, enough to talk to any
+ * broker such as Mosquitto without pulling in a client library. Connects with
+ * a clean session, publishes at QoS 0 or 1, reads PUBACKs and keeps the
+ * connection alive with PINGREQs. Nothing is subscribed to.
+ *
+ * Publishing is only ever done by the publisher's thread and is buffered
+ * until flushed. Acknowledgements are read on a thread of their own and
+ * handed to the listener given, as is the connection being lost.
+ *
+ * @author Dante
+ *
+ */
+final class MqttConnection implements Closeable {
+
+	/* Packet types, in the top four bits of the first byte */
+	private static final int CONNECT = 1;
+	private static final int CONNACK = 2;
+	private static final int PUBLISH = 3;
+	private static final int PUBACK = 4;
+	private static final int PINGREQ = 12;
+	private static final int DISCONNECT = 14;
+
+	/* Flags of a PUBLISH, in the bottom four bits of the first byte */
+	private static final int DUP = 0x08;
+
+	/* Longest to wait for the broker to accept the connection */
+	private static final int CONNECT_TIMEOUT = 5000;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Socket socket;
+	private final OutputStream out;
+	private final Thread reader;
+	private volatile boolean open;
+
+	/**
+	 * Connect to a broker and wait for it to accept
+	 *
+	 * @param host
+	 *            broker to connect to
+	 * @param port
+	 *            port it listens on, normally 1883
+	 * @param clientId
+	 *            identifies this client to the broker
+	 * @param keepAlive
+	 *            seconds the broker should wait between packets before
+	 *            giving up on the client
+	 * @param acked
+	 *            told the packet identifier of every PUBACK
+	 * @param lost
+	 *            run once if the connection is lost rather than closed
+	 * @throws IOException
+	 *             if the broker could not be reached or refused
+	 */
+	MqttConnection(String host, int port, String clientId, int keepAlive, IntConsumer acked, Runnable lost)
+			throws IOException {
+
+		socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(CONNECT_TIMEOUT);
+			out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+
+			byte[] id = clientId.getBytes(StandardCharsets.UTF_8);
+			byte[] body = new byte[10 + 2 + id.length];
+			int p = putString(body, 0, "MQTT".getBytes(StandardCharsets.US_ASCII));
+			body[p++] = 4; // protocol level 3.1.1
+			body[p++] = 0x02; // clean session
+			body[p++] = (byte) (keepAlive >> 8);
+			body[p++] = (byte) keepAlive;
+			putString(body, p, id);
+			writePacket(CONNECT << 4, body, body.length);
+			out.flush();
+
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			int type = in.readUnsignedByte() >> 4;
+			int length = readLength(in);
+			byte[] ack = new byte[length];
+			in.readFully(ack);
+			if (type != CONNACK || length < 2) {
+				throw new IOException("Broker did not acknowledge the connection");
+			}
+			if (ack[1] != 0) {
+				throw new IOException("Broker refused the connection with code " + ack[1]);
+			}
+
+			socket.setSoTimeout(0);
+			open = true;
+			reader = new Thread(() -> read(in, acked, lost), "Publisher-Acks");
+			reader.setDaemon(true);
+			reader.start();
+
+		} catch (IOException | RuntimeException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Queue a message to be published, it is sent once flushed or the buffer
+	 * fills
+	 *
+	 * @param topic
+	 *            topic to publish on
+	 * @param payload
+	 *            the message
+	 * @param qos
+	 *            0 for at most once, 1 for at least once
+	 * @param packetId
+	 *            identifies the message in its PUBACK, ignored at QoS 0
+	 * @param dup
+	 *            whether the message has been sent before
+	 * @throws IOException
+	 *             if the connection has been lost
+	 */
+	void publish(byte[] topic, byte[] payload, int qos, int packetId, boolean dup) throws IOException {
+
+		int length = 2 + topic.length + (qos > 0 ? 2 : 0) + payload.length;
+		writeHeader(PUBLISH << 4 | (dup ? DUP : 0) | qos << 1, length);
+
+		out.write(topic.length >> 8);
+		out.write(topic.length);
+		out.write(topic);
+		if (qos > 0) {
+			out.write(packetId >> 8);
+			out.write(packetId);
+		}
+		out.write(payload);
+
+	}
+
+	/**
+	 * Let the broker know the client is still there
+	 *
+	 * @throws IOException
+	 *             if the connection has been lost
+	 */
+	void ping() throws IOException {
+		writeHeader(PINGREQ << 4, 0);
+		out.flush();
+	}
+
+	/**
+	 * Send everything queued to the broker
+	 *
+	 * @throws IOException
+	 *             if the connection has been lost
+	 */
+	void flush() throws IOException {
+		out.flush();
+	}
+
+	boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Disconnect politely, then close the socket
+	 */
+	@Override
+	public void close() {
+		if (open) {
+			open = false;
+			try {
+				writeHeader(DISCONNECT << 4, 0);
+				out.flush();
+			} catch (IOException e) {
+				/* Closing anyway */
+			}
+		}
+		try {
+			socket.close();
+		} catch (IOException e) {
+			/* Nothing left to do */
+		}
+	}
+
+	/**
+	 * Read packets from the broker until the connection closes, only PUBACKs
+	 * matter, PINGRESPs and anything else are skipped
+	 */
+	private void read(DataInputStream in, IntConsumer acked, Runnable lost) {
+		try {
+			while (true) {
+				int type = in.readUnsignedByte() >> 4;
+				int length = readLength(in);
+				if (type == PUBACK && length >= 2) {
+					acked.accept(in.readUnsignedShort());
+					length -= 2;
+				}
+				in.skipBytes(length);
+			}
+		} catch (EOFException | SocketTimeoutException e) {
+			/* Broker closed the connection */
+		} catch (IOException e) {
+			/* Connection reset, or closed by us */
+		}
+		if (open) {
+			open = false;
+			try {
+				socket.close();
+			} catch (IOException e) {
+				/* Already gone */
+			}
+			lost.run();
+		}
+	}
+
+	private void writePacket(int header, byte[] body, int length) throws IOException {
+		writeHeader(header, length);
+		out.write(body, 0, length);
+	}
+
+	/**
+	 * Write the first byte of a packet and the remaining length, 7 bits a byte
+	 * lowest first
+	 */
+	private void writeHeader(int header, int length) throws IOException {
+		out.write(header);
+		do {
+			int digit = length & 0x7F;
+			length >>>= 7;
+			out.write(length > 0 ? digit | 0x80 : digit);
+		} while (length > 0);
+	}
+
+	private static int readLength(InputStream in) throws IOException {
+		int length = 0;
+		for (int shift = 0; shift < 28; shift += 7) {
+			int digit = in.read();
+			if (digit < 0) {
+				throw new EOFException();
+			}
+			length |= (digit & 0x7F) << shift;
+			if ((digit & 0x80) == 0) {
+				return length;
+			}
+		}
+		throw new IOException("Malformed remaining length");
+	}
+
+	private static int putString(byte[] into, int p, byte[] string) {
+		into[p++] = (byte) (string.length >> 8);
+		into[p++] = (byte) string.length;
+		System.arraycopy(string, 0, into, p, string.length);
+		return p + string.length;
+	}
+
+}
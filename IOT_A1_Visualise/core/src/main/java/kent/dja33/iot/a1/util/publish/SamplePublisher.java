@@ -0,0 +1,508 @@
+package kent.dja33.iot.a1.util.publish;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import kent.dja33.iot.a1.util.Out;
+import kent.dja33.iot.a1.util.message.DataMessage;
+import kent.dja33.iot.a1.util.message.DataMessageListener;
+import kent.dja33.iot.a1.util.metrics.Metrics;
+
+/**
+ * Publishes the samples of each device to an MQTT broker so systems outside
+ * the collector can use them, without ever holding up the SensorPipeline.
+ *
+ * Each device gets a listener from forDevice which packs its samples into a
+ * SampleBatch, sealed once it holds BATCH_SIZE samples or has waited LINGER,
+ * and handed to the publisher's own thread through a bounded queue. The
+ * publisher's thread seals any batch left waiting too, so a device going
+ * quiet does not hold its last samples back. Batches
+ * are published on TOPIC_PREFIX + device + TOPIC_SUFFIX, such as
+ * "iot-a1/COM11/samples".
+ *
+ * At QoS 1 up to WINDOW batches are in flight waiting for their PUBACK, any
+ * not acknowledged within RETRY_TIMEOUT are sent again marked as duplicates,
+ * as are all of them after reconnecting. At QoS 0 batches are sent and
+ * forgotten. Either way, while the broker can not be reached or the window
+ * is full, batches go to a BatchSpool on disk and are published from it,
+ * oldest first, once there is room again. Reconnecting backs off from
+ * INITIAL_BACKOFF up to MAX_BACKOFF, jittered as in the ConnectionSupervisor.
+ *
+ * Delivery is at least once, so downstream may see a batch twice, and a
+ * batch sent again may arrive after those sent since. Every sample carries
+ * its own time. On close batches still queued or in flight are spooled for
+ * the next run. Only if the queue itself fills, meaning the spool can not
+ * keep up either, are batches dropped, and counted in the Metrics.
+ *
+ * @author Dante
+ *
+ */
+public class SamplePublisher {
+
+	public static final int DEFAULT_PORT = 1883;
+
+	/* Topic a device's batches are published on */
+	private static final String TOPIC_PREFIX = "iot-a1/";
+	private static final String TOPIC_SUFFIX = "/samples";
+
+	/* Most samples in a batch, and longest one is held before sealing */
+	private static final int BATCH_SIZE = 256;
+	private static final long LINGER = 1_000_000_000L;
+
+	/* Batches waiting for the publisher's thread */
+	private static final int QUEUE_CAPACITY = 1024;
+	/* Batches waiting for a PUBACK at QoS 1 */
+	private static final int WINDOW = 32;
+	private static final long RETRY_TIMEOUT = 5_000_000_000L;
+
+	/* Seconds the broker waits between packets, pinged at half of it */
+	private static final int KEEP_ALIVE = 30;
+
+	/* Delay before the first reconnect and the most it can back off to */
+	private static final long INITIAL_BACKOFF = 500;
+	private static final long MAX_BACKOFF = 30000;
+
+	/* Spooled batches kept before the oldest are dropped */
+	private static final long MAX_SPOOL_SIZE = 256L * 1024 * 1024;
+
+	/* Longest the thread waits for work, and for the last acks on close */
+	private static final long POLL = 10;
+	private static final long CLOSE_TIMEOUT = 2000;
+
+	private final String host;
+	private final int port;
+	private final int qos;
+	private final File spoolDirectory;
+	private final String clientId;
+
+	private final BlockingQueue<Batch> ready = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+	private final ConcurrentLinkedQueue<Integer> acks = new ConcurrentLinkedQueue<>();
+	private final List<DeviceBatcher> batchers = new CopyOnWriteArrayList<>();
+
+	/* Only touched by the publisher's thread */
+	private final Map<Integer, Batch> inFlight = new LinkedHashMap<>();
+	private final Map<String, byte[]> topics = new HashMap<>();
+	private BatchSpool spool;
+	private MqttConnection connection;
+	private int nextPacketId;
+	private long backoff = INITIAL_BACKOFF;
+	private long nextAttempt;
+	private long lastSent;
+
+	private final Thread thread;
+	private volatile boolean running;
+	private volatile boolean connected;
+
+	/* Read by the Metrics gauges */
+	private volatile long inFlightCount;
+	private volatile long spoolSize;
+
+	/**
+	 * Create a publisher, nothing is sent until it is started
+	 *
+	 * @param host
+	 *            the broker
+	 * @param port
+	 *            port the broker listens on, normally DEFAULT_PORT
+	 * @param qos
+	 *            0 to publish at most once, 1 for at least once
+	 * @param spoolDirectory
+	 *            where to keep batches the broker has not taken
+	 */
+	public SamplePublisher(String host, int port, int qos, String spoolDirectory) {
+		if (qos < 0 || qos > 1) {
+			throw new IllegalArgumentException("QoS must be 0 or 1, not " + qos);
+		}
+		this.host = host;
+		this.port = port;
+		this.qos = qos;
+		this.spoolDirectory = new File(spoolDirectory);
+		this.clientId = "iot-a1-" + ProcessHandle.current().pid();
+		this.thread = new Thread(this::run, "Publisher");
+		this.thread.setDaemon(true);
+	}
+
+	/**
+	 * A listener packing the samples of a device into batches, to be added to
+	 * the SensorPipeline
+	 *
+	 * @param device
+	 *            names the device in its topic
+	 * @return the listener
+	 */
+	public DataMessageListener forDevice(String device) {
+		DeviceBatcher batcher = new DeviceBatcher(device);
+		batchers.add(batcher);
+		return batcher;
+	}
+
+	/**
+	 * Start publishing in the background
+	 */
+	public void start() {
+		running = true;
+		thread.start();
+	}
+
+	/**
+	 * Seal the batches being filled and publish what can be within
+	 * CLOSE_TIMEOUT, anything left is spooled for the next run
+	 */
+	public void close() {
+		for (DeviceBatcher batcher : batchers) {
+			batcher.seal();
+		}
+		running = false;
+		try {
+			thread.join(CLOSE_TIMEOUT * 2);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Whether the broker is connected
+	 *
+	 * @return true if connected
+	 */
+	public boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * Packs the samples of one device, called on the pipeline thread and
+	 * locked only against close sealing it from another
+	 */
+	private final class DeviceBatcher implements DataMessageListener {
+
+		private final String device;
+		private final SampleBatch batch = new SampleBatch(BATCH_SIZE);
+		private long started;
+
+		private DeviceBatcher(String device) {
+			this.device = device;
+		}
+
+		@Override
+		public synchronized void dataReceived(DataMessage msg) {
+			if (batch.size() == 0) {
+				started = System.nanoTime();
+			}
+			batch.add(msg.getTime(), msg.getTemperature(), msg.getX(), msg.getY(), msg.getZ(), msg.getAnomalies());
+			if (batch.size() >= BATCH_SIZE) {
+				seal();
+			}
+		}
+
+		@Override
+		public synchronized void gap(long start, long end) {
+			if (batch.size() == 0) {
+				started = System.nanoTime();
+			}
+			batch.addGap(start);
+		}
+
+		@Override
+		public void endOfBatch() {
+			sealIfOverdue();
+		}
+
+		/**
+		 * Seal the batch if it has waited LINGER, called at the end of each
+		 * pipeline run and by the publisher's thread when nothing is arriving
+		 */
+		private synchronized void sealIfOverdue() {
+			if (batch.size() > 0 && System.nanoTime() - started >= LINGER) {
+				seal();
+			}
+		}
+
+		private synchronized void seal() {
+			if (batch.size() == 0) {
+				return;
+			}
+			if (!ready.offer(new Batch(device, batch.toBytes()))) {
+				Metrics.metrics.batchesDropped.increment();
+			}
+			batch.clear();
+		}
+
+	}
+
+	/**
+	 * Move batches from the queue and the spool to the broker until closed
+	 */
+	private void run() {
+
+		spool = new BatchSpool(spoolDirectory, MAX_SPOOL_SIZE);
+		Metrics.metrics.registerGauge("Publish in flight", () -> inFlightCount);
+		Metrics.metrics.registerGauge("Publish spool KB", () -> spoolSize / 1024);
+
+		ArrayDeque<Batch> taken = new ArrayDeque<>();
+		long closing = 0;
+
+		while (true) {
+
+			try {
+
+				if (!running && closing == 0) {
+					closing = System.nanoTime();
+				}
+				if (closing != 0 && (connection == null || System.nanoTime() - closing > CLOSE_TIMEOUT * 1_000_000
+						|| ready.isEmpty() && inFlight.isEmpty() && spooled() == null)) {
+					break;
+				}
+
+				takeAcks();
+
+				if (connection != null && !connection.isOpen()) {
+					lost("Lost connection to broker " + host + ":" + port);
+				}
+				if (connection == null && closing == 0 && System.currentTimeMillis() >= nextAttempt) {
+					connect();
+				}
+
+				for (DeviceBatcher batcher : batchers) {
+					batcher.sealIfOverdue();
+				}
+
+				/*
+				 * Each batch is taken off the list before it is offered, so if
+				 * the connection fails part way the rest are offered on the next
+				 * pass and none twice, the one being sent is still in flight
+				 */
+				Batch batch = ready.poll(POLL, TimeUnit.MILLISECONDS);
+				if (batch != null) {
+					taken.add(batch);
+					ready.drainTo(taken);
+				}
+				while ((batch = taken.poll()) != null) {
+					offer(batch);
+				}
+
+				if (connection != null) {
+					drainSpool();
+					retry();
+					if (System.nanoTime() - lastSent > KEEP_ALIVE * 500_000_000L) {
+						connection.ping();
+						lastSent = System.nanoTime();
+					}
+					connection.flush();
+				}
+				flushSpool();
+
+			} catch (InterruptedException e) {
+				running = false;
+			} catch (IOException ioe) {
+				/* Only the connection throws, the spool's failures are handled where it is used */
+				lost("Lost connection to broker " + host + ":" + port + ": " + ioe.getMessage());
+			}
+
+			inFlightCount = inFlight.size();
+			spoolSize = spool.getSize();
+		}
+
+		/* Keep whatever the broker has not taken for the next run */
+		for (Batch b : inFlight.values()) {
+			spool(b);
+		}
+		ready.drainTo(taken);
+		for (Batch b : taken) {
+			spool(b);
+		}
+		spool.close();
+
+		if (connection != null) {
+			connection.close();
+			connection = null;
+		}
+		connected = false;
+		Out.out.logln("Stopped publishing samples.");
+
+	}
+
+	/**
+	 * Publish a batch if there is room, otherwise spool it behind the rest
+	 */
+	private void offer(Batch batch) throws IOException {
+		if (connection != null && hasRoom() && spooled() == null) {
+			send(batch);
+		} else {
+			spool(batch);
+		}
+	}
+
+	/**
+	 * Add a batch to the spool, dropping it if it can not be written
+	 */
+	private void spool(Batch batch) {
+		try {
+			spool.append(batch);
+			Metrics.metrics.batchesSpooled.increment();
+		} catch (IOException ioe) {
+			Out.out.loglnErr("Could not spool samples to publish: " + ioe.getMessage());
+			Metrics.metrics.batchesDropped.increment();
+		}
+	}
+
+	private void flushSpool() {
+		try {
+			spool.flush();
+		} catch (IOException ioe) {
+			Out.out.loglnErr("Could not spool samples to publish: " + ioe.getMessage());
+		}
+	}
+
+	/**
+	 * The oldest batch in the spool
+	 *
+	 * @return the batch, or null if there is none or it could not be read
+	 */
+	private Batch spooled() {
+		try {
+			return spool.peek();
+		} catch (IOException ioe) {
+			Out.out.loglnErr("Could not read spooled samples to publish: " + ioe.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Publish spooled batches, oldest first, for as long as there is room
+	 */
+	private void drainSpool() throws IOException {
+		for (int sent = 0; sent < WINDOW && hasRoom(); sent++) {
+			Batch batch = spooled();
+			if (batch == null) {
+				return;
+			}
+			/* Out of the spool first, if sending fails it is still in flight */
+			spool.remove();
+			send(batch);
+		}
+	}
+
+	/**
+	 * Send again any batch whose PUBACK is overdue
+	 */
+	private void retry() throws IOException {
+		long now = System.nanoTime();
+		for (Batch batch : inFlight.values()) {
+			if (now - batch.sent > RETRY_TIMEOUT) {
+				publish(batch);
+				Metrics.metrics.publishRetries.increment();
+			}
+		}
+	}
+
+	private boolean hasRoom() {
+		return qos == 0 || inFlight.size() < WINDOW;
+	}
+
+	private void send(Batch batch) throws IOException {
+		if (qos > 0) {
+			batch.packetId = nextPacketId();
+			inFlight.put(batch.packetId, batch);
+		}
+		publish(batch);
+		if (qos == 0) {
+			Metrics.metrics.batchesPublished.increment();
+		}
+	}
+
+	private void publish(Batch batch) throws IOException {
+		byte[] topic = topics.computeIfAbsent(batch.device,
+				device -> (TOPIC_PREFIX + device + TOPIC_SUFFIX).getBytes(StandardCharsets.UTF_8));
+		connection.publish(topic, batch.payload, qos, batch.packetId, batch.attempts > 0);
+		batch.attempts++;
+		batch.sent = System.nanoTime();
+		lastSent = batch.sent;
+	}
+
+	/**
+	 * The next identifier free for a PUBLISH, from 1 to 65535
+	 */
+	private int nextPacketId() {
+		do {
+			nextPacketId = nextPacketId % 0xFFFF + 1;
+		} while (inFlight.containsKey(nextPacketId));
+		return nextPacketId;
+	}
+
+	/**
+	 * Forget the batches the broker has acknowledged
+	 */
+	private void takeAcks() {
+		Integer id;
+		while ((id = acks.poll()) != null) {
+			Batch batch = inFlight.remove(id);
+			if (batch != null) {
+				Metrics.metrics.batchesPublished.increment();
+				Metrics.metrics.publishLatency.recordSince(batch.sent);
+			}
+		}
+	}
+
+	/**
+	 * Connect to the broker, sending again everything that was in flight, or
+	 * back off before the next attempt
+	 */
+	private void connect() throws IOException {
+
+		try {
+			connection = new MqttConnection(host, port, clientId, KEEP_ALIVE, acks::add, () -> {
+			});
+		} catch (IOException ioe) {
+			long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+			if (backoff == INITIAL_BACKOFF) {
+				Out.out.loglnErr("Could not reach broker " + host + ":" + port + ": " + ioe.getMessage()
+						+ ", spooling samples until it can be.");
+			}
+			nextAttempt = System.currentTimeMillis() + delay;
+			backoff = Math.min(backoff * 2, MAX_BACKOFF);
+			return;
+		}
+
+		Out.out.logln("Publishing samples to " + host + ":" + port + " at QoS " + qos + ".");
+		connected = true;
+		backoff = INITIAL_BACKOFF;
+		lastSent = System.nanoTime();
+
+		/* The session is clean, so anything unacknowledged must go again */
+		acks.clear();
+		Iterator<Batch> it = new ArrayList<>(inFlight.values()).iterator();
+		inFlight.clear();
+		while (it.hasNext()) {
+			Batch batch = it.next();
+			send(batch);
+			Metrics.metrics.publishRetries.increment();
+		}
+	}
+
+	/**
+	 * Drop the connection, keeping what was in flight to send again once
+	 * reconnected
+	 */
+	private void lost(String reason) {
+		Out.out.loglnErr(reason + ", spooling samples until it is back.");
+		connection.close();
+		connection = null;
+		connected = false;
+		nextAttempt = System.currentTimeMillis();
+	}
+
+}
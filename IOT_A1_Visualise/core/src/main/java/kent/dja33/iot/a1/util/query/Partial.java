@@ -0,0 +1,84 @@
+package kent.dja33.iot.a1.util.query;
+
+import java.util.Arrays;
+
+/**
+ * The answer to a query over part of the records, one entry per group in
+ * time order. Partials of neighbouring ranges are merged into the answer for
+ * both, so every aggregate is kept in a form that can be combined: the count,
+ * events, sum, minimum and maximum of each group.
+ *
+ * @author Dante
+ *
+ */
+final class Partial {
+
+	long[] groups = new long[4];
+	long[] counts = new long[4];
+	long[] events = new long[4];
+	double[] sums = new double[4];
+	float[] minimums = new float[4];
+	float[] maximums = new float[4];
+	int size;
+
+	/* Whether the first and last records of the range were selected */
+	boolean firstSelected;
+	boolean lastSelected;
+
+	/**
+	 * Add to a group, which must not be earlier than the last group added
+	 */
+	void add(long group, long count, long event, double sum, float min, float max) {
+
+		if (size > 0 && groups[size - 1] == group) {
+			int i = size - 1;
+			counts[i] += count;
+			events[i] += event;
+			sums[i] += sum;
+			minimums[i] = Math.min(minimums[i], min);
+			maximums[i] = Math.max(maximums[i], max);
+			return;
+		}
+
+		if (size == groups.length) {
+			int capacity = size * 2;
+			groups = Arrays.copyOf(groups, capacity);
+			counts = Arrays.copyOf(counts, capacity);
+			events = Arrays.copyOf(events, capacity);
+			sums = Arrays.copyOf(sums, capacity);
+			minimums = Arrays.copyOf(minimums, capacity);
+			maximums = Arrays.copyOf(maximums, capacity);
+		}
+
+		groups[size] = group;
+		counts[size] = count;
+		events[size] = event;
+		sums[size] = sum;
+		minimums[size] = min;
+		maximums[size] = max;
+		size++;
+	}
+
+	/**
+	 * Combine with the partial of the range straight after this one
+	 *
+	 * @param next
+	 *            the later partial
+	 * @return the combined partial
+	 */
+	Partial merge(Partial next) {
+
+		/* A run of selected records across the two ranges is one event */
+		if (lastSelected && next.firstSelected && next.size > 0) {
+			next.events[0]--;
+		}
+
+		for (int i = 0; i < next.size; i++) {
+			add(next.groups[i], next.counts[i], next.events[i], next.sums[i], next.minimums[i], next.maximums[i]);
+		}
+
+		lastSelected = next.lastSelected;
+		return this;
+	}
+
+}
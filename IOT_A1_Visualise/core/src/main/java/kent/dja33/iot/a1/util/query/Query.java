@@ -0,0 +1,239 @@
+package kent.dja33.iot.a1.util.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import kent.dja33.iot.a1.util.store.SampleStore;
+import kent.dja33.iot.a1.util.store.Segment;
+
+/**
+ * A question asked of everything recorded by the SampleRecorder, such as the
+ * highest temperature per hour while the board was lying flat, or how many
+ * times a day it was tilted. Built up fluently:
+ *
+ * new Query().select(Aggregate.MAX, Column.TEMPERATURE).where(Column.Z,
+ * Comparison.ABS_LESS, 0.9f).groupBy(Query.HOUR).run(store)
+ *
+ * or parsed from a small subset of SQL by parse(), for example
+ * "SELECT MAX(temperature) WHERE ABS(z) < 0.9 GROUP BY HOUR". The anomalies
+ * column is the mask of Anomaly bits a sample was marked with, so
+ * "SELECT COUNT(*) WHERE anomalies > 0 GROUP BY DAY" counts anomalous
+ * samples a day.
+ *
+ * A query only describes what to ask, running it splits the segments into
+ * ranges of records that are answered on a fork/join pool and merged back in
+ * time order. Each range is read a block at a time into primitive arrays,
+ * filters narrow a selection of record indices and the aggregate is taken
+ * over whatever is left, so the work per record is a few tight loops with
+ * no allocation. Gap records are never selected.
+ *
+ * @author Dante
+ *
+ */
+public final class Query {
+
+	/* Values a query can filter on or aggregate */
+	public enum Column {
+		TEMPERATURE, X, Y, Z, ANOMALIES
+	}
+
+	/* Checks a filter can make, the ABS checks compare the size of the value */
+	public enum Comparison {
+		LESS("<"), LESS_EQUAL("<="), GREATER(">"), GREATER_EQUAL(">="), ABS_LESS("<"), ABS_GREATER(">");
+
+		private final String symbol;
+
+		private Comparison(String symbol) {
+			this.symbol = symbol;
+		}
+
+		/**
+		 * The comparison as written in a query
+		 *
+		 * @return symbol
+		 */
+		public String getSymbol() {
+			return symbol;
+		}
+	}
+
+	/* What to work out over the records selected in each group */
+	public enum Aggregate {
+		/* Records selected */
+		COUNT,
+		/* Runs of records selected in a row, a tilt lasting a minute is one */
+		EVENTS, MIN, MAX, MEAN, SUM
+	}
+
+	/* Common widths to group by, in milliseconds */
+	public static final long MINUTE = 60 * 1000L;
+	public static final long HOUR = 60 * MINUTE;
+	public static final long DAY = 24 * HOUR;
+
+	/* Records answered by a single task */
+	static final int RECORDS_PER_TASK = 65536;
+
+	Aggregate aggregate = Aggregate.COUNT;
+	Column column = Column.TEMPERATURE;
+	long from = Long.MIN_VALUE;
+	long to = Long.MAX_VALUE;
+	long groupWidth;
+
+	/* Filters, applied in the order given */
+	final List<Column> filterColumns = new ArrayList<>();
+	final List<Comparison> filterComparisons = new ArrayList<>();
+	final List<Float> filterBounds = new ArrayList<>();
+
+	/**
+	 * Parse a query from a subset of SQL, keywords and column names are not
+	 * case sensitive:
+	 *
+	 * SELECT COUNT(*) | EVENTS(*) | MIN|MAX|MEAN|SUM(column)
+	 * [WHERE condition [AND condition]...]
+	 * [GROUP BY MINUTE | HOUR | DAY | milliseconds]
+	 *
+	 * A condition is "column op number" or "ABS(column) &lt; number", or
+	 * "time op milliseconds" to limit the range of time asked about.
+	 *
+	 * @param text
+	 *            the query
+	 * @return the query
+	 * @throws IllegalArgumentException
+	 *             if the query could not be understood
+	 */
+	public static Query parse(String text) {
+		return new QueryParser(text).parse();
+	}
+
+	/**
+	 * Choose what to work out, by default the records selected are counted
+	 *
+	 * @param aggregate
+	 *            the aggregate
+	 * @param column
+	 *            the column to aggregate, ignored for COUNT and EVENTS
+	 * @return this query
+	 */
+	public Query select(Aggregate aggregate, Column column) {
+		this.aggregate = aggregate;
+		this.column = column;
+		return this;
+	}
+
+	/**
+	 * Only select records where a column passes a check
+	 *
+	 * @param column
+	 *            the column to check
+	 * @param comparison
+	 *            the check
+	 * @param bound
+	 *            the value to check against
+	 * @return this query
+	 */
+	public Query where(Column column, Comparison comparison, float bound) {
+		filterColumns.add(column);
+		filterComparisons.add(comparison);
+		filterBounds.add(bound);
+		return this;
+	}
+
+	/**
+	 * Only select records received within a range of time
+	 *
+	 * @param from
+	 *            start of the range in milliseconds, inclusive
+	 * @param to
+	 *            end of the range in milliseconds, exclusive
+	 * @return this query
+	 */
+	public Query between(long from, long to) {
+		this.from = from;
+		this.to = to;
+		return this;
+	}
+
+	/**
+	 * Answer separately for each window of time, windows start on multiples
+	 * of the width since the epoch
+	 *
+	 * @param width
+	 *            width of a window in milliseconds, 0 for a single answer
+	 * @return this query
+	 */
+	public Query groupBy(long width) {
+		this.groupWidth = Math.max(0, width);
+		return this;
+	}
+
+	/**
+	 * Answer the query over everything in the store, the store is refreshed
+	 * first so the latest records are included
+	 *
+	 * @param store
+	 *            the store to query
+	 * @return the answer for each group in time order
+	 */
+	public QueryResult run(SampleStore store) {
+
+		store.refresh();
+
+		/* Ranges of records within the time asked about */
+		List<Segment> segments = new ArrayList<>();
+		List<int[]> ranges = new ArrayList<>();
+
+		for (Segment segment : store.getSegments()) {
+
+			if (segment.getEndTime() < from || segment.getStartTime() >= to) {
+				continue;
+			}
+
+			int first = segment.indexOf(from);
+			int last = to == Long.MAX_VALUE ? segment.size() : segment.indexOf(to);
+
+			for (int start = first; start < last; start += RECORDS_PER_TASK) {
+				segments.add(segment);
+				ranges.add(new int[] { start, Math.min(last, start + RECORDS_PER_TASK) });
+			}
+
+		}
+
+		if (ranges.isEmpty()) {
+			return new QueryResult(this, new Partial());
+		}
+
+		Partial partial = ForkJoinPool.commonPool().invoke(new QueryTask(this, segments, ranges, 0, ranges.size()));
+		return new QueryResult(this, partial);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("SELECT ").append(aggregate);
+		if (aggregate == Aggregate.COUNT || aggregate == Aggregate.EVENTS) {
+			sb.append("(*)");
+		} else {
+			sb.append('(').append(column).append(')');
+		}
+		String join = " WHERE ";
+		for (int i = 0; i < filterColumns.size(); i++) {
+			Comparison comparison = filterComparisons.get(i);
+			boolean abs = comparison == Comparison.ABS_LESS || comparison == Comparison.ABS_GREATER;
+			sb.append(join).append(abs ? "ABS(" + filterColumns.get(i) + ")" : filterColumns.get(i));
+			sb.append(' ').append(comparison.getSymbol()).append(' ').append(filterBounds.get(i));
+			join = " AND ";
+		}
+		if (from != Long.MIN_VALUE) {
+			sb.append(join).append("TIME >= ").append(from);
+			join = " AND ";
+		}
+		if (to != Long.MAX_VALUE) {
+			sb.append(join).append("TIME < ").append(to);
+		}
+		if (groupWidth > 0) {
+			sb.append(" GROUP BY ").append(groupWidth);
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,223 @@
+package kent.dja33.iot.a1.util.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import kent.dja33.iot.a1.util.query.Query.Aggregate;
+import kent.dja33.iot.a1.util.query.Query.Column;
+import kent.dja33.iot.a1.util.query.Query.Comparison;
+
+/**
+ * Reads the subset of SQL described by Query.parse() into a Query.
+ *
+ * @author Dante
+ *
+ */
+final class QueryParser {
+
+	private final String text;
+	private final List<String> tokens = new ArrayList<>();
+	private int position;
+
+	QueryParser(String text) {
+		this.text = text;
+		tokenise(text);
+	}
+
+	/**
+	 * Split into words, numbers, brackets and comparisons
+	 */
+	private void tokenise(String text) {
+		int i = 0;
+		while (i < text.length()) {
+			char c = text.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '(' || c == ')' || c == '*' || c == ',') {
+				tokens.add(String.valueOf(c));
+				i++;
+			} else if (c == '<' || c == '>' || c == '=') {
+				int start = i++;
+				if (i < text.length() && text.charAt(i) == '=') {
+					i++;
+				}
+				tokens.add(text.substring(start, i));
+			} else {
+				int start = i;
+				while (i < text.length() && !Character.isWhitespace(text.charAt(i)) && "()*,<>=".indexOf(text.charAt(i)) < 0) {
+					i++;
+				}
+				tokens.add(text.substring(start, i).toUpperCase(Locale.ROOT));
+			}
+		}
+	}
+
+	Query parse() {
+
+		Query query = new Query();
+
+		expect("SELECT");
+		Aggregate aggregate = parseEnum(Aggregate.class, next());
+		expect("(");
+		if (aggregate == Aggregate.COUNT || aggregate == Aggregate.EVENTS) {
+			expect("*");
+			query.select(aggregate, Column.TEMPERATURE);
+		} else {
+			query.select(aggregate, parseEnum(Column.class, next()));
+		}
+		expect(")");
+
+		if (accept("WHERE")) {
+			do {
+				parseCondition(query);
+			} while (accept("AND"));
+		}
+
+		if (accept("GROUP")) {
+			expect("BY");
+			String width = next();
+			switch (width) {
+			case "MINUTE":
+				query.groupBy(Query.MINUTE);
+				break;
+			case "HOUR":
+				query.groupBy(Query.HOUR);
+				break;
+			case "DAY":
+				query.groupBy(Query.DAY);
+				break;
+			default:
+				query.groupBy(parseLong(width));
+				break;
+			}
+		}
+
+		if (position < tokens.size()) {
+			throw error("Unexpected \"" + tokens.get(position) + "\"");
+		}
+
+		return query;
+	}
+
+	private void parseCondition(Query query) {
+
+		if (accept("TIME")) {
+			String symbol = next();
+			long time = parseLong(next());
+			switch (symbol) {
+			case ">=":
+				query.between(time, query.to);
+				break;
+			case ">":
+				query.between(time + 1, query.to);
+				break;
+			case "<":
+				query.between(query.from, time);
+				break;
+			case "<=":
+				query.between(query.from, time + 1);
+				break;
+			default:
+				throw error("TIME can not be compared with \"" + symbol + "\"");
+			}
+			return;
+		}
+
+		boolean abs = accept("ABS");
+		if (abs) {
+			expect("(");
+		}
+		Column column = parseEnum(Column.class, next());
+		if (abs) {
+			expect(")");
+		}
+
+		String symbol = next();
+		float bound = parseFloat(next());
+
+		if (abs) {
+			switch (symbol) {
+			case "<":
+				query.where(column, Comparison.ABS_LESS, bound);
+				return;
+			case ">":
+				query.where(column, Comparison.ABS_GREATER, bound);
+				return;
+			default:
+				throw error("ABS can only be compared with < or >");
+			}
+		}
+
+		switch (symbol) {
+		case "<":
+			query.where(column, Comparison.LESS, bound);
+			break;
+		case "<=":
+			query.where(column, Comparison.LESS_EQUAL, bound);
+			break;
+		case ">":
+			query.where(column, Comparison.GREATER, bound);
+			break;
+		case ">=":
+			query.where(column, Comparison.GREATER_EQUAL, bound);
+			break;
+		case "=":
+			query.where(column, Comparison.GREATER_EQUAL, bound);
+			query.where(column, Comparison.LESS_EQUAL, bound);
+			break;
+		default:
+			throw error("Unknown comparison \"" + symbol + "\"");
+		}
+	}
+
+	private String next() {
+		if (position == tokens.size()) {
+			throw error("Query ended early");
+		}
+		return tokens.get(position++);
+	}
+
+	private boolean accept(String token) {
+		if (position < tokens.size() && tokens.get(position).equals(token)) {
+			position++;
+			return true;
+		}
+		return false;
+	}
+
+	private void expect(String token) {
+		if (!accept(token)) {
+			throw error("Expected \"" + token + "\"");
+		}
+	}
+
+	private <E extends Enum<E>> E parseEnum(Class<E> type, String token) {
+		try {
+			return Enum.valueOf(type, token);
+		} catch (IllegalArgumentException e) {
+			throw error("Unknown " + type.getSimpleName().toLowerCase(Locale.ROOT) + " \"" + token + "\"");
+		}
+	}
+
+	private long parseLong(String token) {
+		try {
+			return Long.parseLong(token);
+		} catch (NumberFormatException e) {
+			throw error("Expected a whole number but found \"" + token + "\"");
+		}
+	}
+
+	private float parseFloat(String token) {
+		try {
+			return Float.parseFloat(token);
+		} catch (NumberFormatException e) {
+			throw error("Expected a number but found \"" + token + "\"");
+		}
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " in query \"" + text + "\".");
+	}
+
+}
@@ -0,0 +1,109 @@
+package kent.dja33.iot.a1.util.query;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import kent.dja33.iot.a1.util.query.Query.Aggregate;
+
+/**
+ * The answer to a query, a value for each group that had any records
+ * selected, in time order. A query without groups has at most one.
+ *
+ * @author Dante
+ *
+ */
+public final class QueryResult {
+
+	private final String query;
+	private final Aggregate aggregate;
+	private final long groupWidth;
+	private final Partial partial;
+
+	QueryResult(Query query, Partial partial) {
+		this.query = query.toString();
+		this.aggregate = query.aggregate;
+		this.groupWidth = query.groupWidth;
+		this.partial = partial;
+	}
+
+	/**
+	 * Number of groups answered
+	 *
+	 * @return groups
+	 */
+	public int size() {
+		return partial.size;
+	}
+
+	/**
+	 * Start of the window of time a group covers
+	 *
+	 * @param i
+	 *            index of the group
+	 * @return time in milliseconds, 0 if the query was not grouped
+	 */
+	public long getGroup(int i) {
+		return partial.groups[i];
+	}
+
+	/**
+	 * Number of records selected in a group
+	 *
+	 * @param i
+	 *            index of the group
+	 * @return records
+	 */
+	public long getCount(int i) {
+		return partial.counts[i];
+	}
+
+	/**
+	 * The aggregate asked for over a group
+	 *
+	 * @param i
+	 *            index of the group
+	 * @return value
+	 */
+	public double getValue(int i) {
+		switch (aggregate) {
+		case COUNT:
+			return partial.counts[i];
+		case EVENTS:
+			return partial.events[i];
+		case MIN:
+			return partial.minimums[i];
+		case MAX:
+			return partial.maximums[i];
+		case MEAN:
+			return partial.sums[i] / partial.counts[i];
+		case SUM:
+			return partial.sums[i];
+		}
+		throw new IllegalStateException("Unknown aggregate " + aggregate);
+	}
+
+	/**
+	 * The result as a table, a line per group
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(query).append('\n');
+		SimpleDateFormat format = new SimpleDateFormat(groupWidth < Query.DAY ? "yyyy-MM-dd HH:mm" : "yyyy-MM-dd");
+		for (int i = 0; i < size(); i++) {
+			if (groupWidth > 0) {
+				sb.append(format.format(new Date(getGroup(i)))).append('\t');
+			}
+			if (aggregate == Aggregate.COUNT || aggregate == Aggregate.EVENTS) {
+				sb.append((long) getValue(i));
+			} else {
+				sb.append(String.format("%.3f", getValue(i)));
+			}
+			sb.append("\t(").append(getCount(i)).append(" records)\n");
+		}
+		if (size() == 0) {
+			sb.append("No records selected.\n");
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,306 @@
+package kent.dja33.iot.a1.util.query;
+
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+import kent.dja33.iot.a1.util.query.Query.Aggregate;
+import kent.dja33.iot.a1.util.query.Query.Column;
+import kent.dja33.iot.a1.util.query.Query.Comparison;
+import kent.dja33.iot.a1.util.store.Segment;
+
+/**
+ * Answers a query over a list of record ranges, splitting the list in half
+ * until each task has a single range and merging the halves back in order.
+ *
+ * A range is read BLOCK_SIZE records at a time. The selection starts as every
+ * record in the block that is not a gap, each filter reads its column into an
+ * array and keeps only the selected indices that pass, then the aggregate is
+ * taken over each run of selected records in the same group. Every loop is
+ * over primitive arrays with the comparison or aggregate chosen outside it.
+ *
+ * @author Dante
+ *
+ */
+final class QueryTask extends RecursiveTask<Partial> {
+
+	private static final long serialVersionUID = 1L;
+
+	/* Records read into the arrays at once */
+	private static final int BLOCK_SIZE = 4096;
+
+	private final Aggregate aggregate;
+	private final Column column;
+	private final long groupWidth;
+	private final Column[] filterColumns;
+	private final Comparison[] filterComparisons;
+	private final float[] filterBounds;
+
+	private final List<Segment> segments;
+	private final List<int[]> ranges;
+	private final int low;
+	private final int high;
+
+	/**
+	 * Create the task for every range of a query
+	 *
+	 * @param query
+	 *            the query to answer
+	 * @param segments
+	 *            the segment each range is in
+	 * @param ranges
+	 *            the first and last (exclusive) record of each range, in time
+	 *            order
+	 * @param low
+	 *            first range to answer
+	 * @param high
+	 *            last range to answer, exclusive
+	 */
+	QueryTask(Query query, List<Segment> segments, List<int[]> ranges, int low, int high) {
+		this.aggregate = query.aggregate;
+		this.column = query.column;
+		this.groupWidth = query.groupWidth;
+		this.filterColumns = query.filterColumns.toArray(new Column[0]);
+		this.filterComparisons = query.filterComparisons.toArray(new Comparison[0]);
+		this.filterBounds = new float[filterColumns.length];
+		for (int i = 0; i < filterBounds.length; i++) {
+			filterBounds[i] = query.filterBounds.get(i);
+		}
+		this.segments = segments;
+		this.ranges = ranges;
+		this.low = low;
+		this.high = high;
+	}
+
+	private QueryTask(QueryTask parent, int low, int high) {
+		this.aggregate = parent.aggregate;
+		this.column = parent.column;
+		this.groupWidth = parent.groupWidth;
+		this.filterColumns = parent.filterColumns;
+		this.filterComparisons = parent.filterComparisons;
+		this.filterBounds = parent.filterBounds;
+		this.segments = parent.segments;
+		this.ranges = parent.ranges;
+		this.low = low;
+		this.high = high;
+	}
+
+	@Override
+	protected Partial compute() {
+
+		if (high - low == 1) {
+			int[] range = ranges.get(low);
+			return scan(segments.get(low), range[0], range[1]);
+		}
+
+		int mid = (low + high) >>> 1;
+		QueryTask first = new QueryTask(this, low, mid);
+		first.fork();
+		Partial second = new QueryTask(this, mid, high).compute();
+		return first.join().merge(second);
+	}
+
+	private Partial scan(Segment segment, int start, int end) {
+
+		Partial partial = new Partial();
+
+		long[] times = new long[BLOCK_SIZE];
+		float[] values = new float[BLOCK_SIZE];
+		int[] selection = new int[BLOCK_SIZE];
+
+		/* Whether the record before the block was selected */
+		boolean previous = false;
+
+		for (int block = start; block < end; block += BLOCK_SIZE) {
+
+			int length = Math.min(BLOCK_SIZE, end - block);
+
+			/* Gap records have a NaN temperature, which is never equal to itself */
+			read(segment, Column.TEMPERATURE, block, length, values);
+			int n = 0;
+			for (int i = 0; i < length; i++) {
+				selection[n] = i;
+				n += values[i] == values[i] ? 1 : 0;
+			}
+
+			for (int f = 0; f < filterColumns.length && n > 0; f++) {
+				read(segment, filterColumns[f], block, length, values);
+				n = filter(values, selection, n, filterComparisons[f], filterBounds[f]);
+			}
+
+			if (block == start) {
+				partial.firstSelected = n > 0 && selection[0] == 0;
+			}
+
+			if (n == 0) {
+				previous = false;
+				continue;
+			}
+
+			for (int i = 0; i < length; i++) {
+				times[i] = segment.getTime(block + i);
+			}
+			if (aggregate != Aggregate.COUNT && aggregate != Aggregate.EVENTS) {
+				read(segment, column, block, length, values);
+			}
+
+			/* Aggregate each run of selected records within the same group */
+			int k = 0;
+			while (k < n) {
+
+				long group = groupWidth == 0 ? 0 : Math.floorDiv(times[selection[k]], groupWidth) * groupWidth;
+				long groupEnd = groupWidth == 0 ? Long.MAX_VALUE : group + groupWidth;
+
+				int runEnd = k + 1;
+				while (runEnd < n && times[selection[runEnd]] < groupEnd) {
+					runEnd++;
+				}
+
+				aggregate(partial, group, values, selection, k, runEnd, previous);
+				k = runEnd;
+
+			}
+
+			previous = selection[n - 1] == length - 1;
+		}
+
+		partial.lastSelected = previous;
+		return partial;
+	}
+
+	/**
+	 * Add a run of selected records in the same group to a partial
+	 */
+	private void aggregate(Partial partial, long group, float[] values, int[] selection, int from, int to,
+			boolean previous) {
+
+		long count = to - from;
+		long events = 0;
+		double sum = 0;
+		float min = Float.MAX_VALUE;
+		float max = -Float.MAX_VALUE;
+
+		switch (aggregate) {
+		case EVENTS:
+			/* A record starts an event if the one before it was not selected */
+			if (from == 0) {
+				events = previous && selection[0] == 0 ? 0 : 1;
+			} else {
+				events = selection[from] - 1 != selection[from - 1] ? 1 : 0;
+			}
+			for (int k = from + 1; k < to; k++) {
+				events += selection[k] - 1 != selection[k - 1] ? 1 : 0;
+			}
+			break;
+		case MIN:
+			for (int k = from; k < to; k++) {
+				min = Math.min(min, values[selection[k]]);
+			}
+			break;
+		case MAX:
+			for (int k = from; k < to; k++) {
+				max = Math.max(max, values[selection[k]]);
+			}
+			break;
+		case MEAN:
+		case SUM:
+			for (int k = from; k < to; k++) {
+				sum += values[selection[k]];
+			}
+			break;
+		default:
+			break;
+		}
+
+		partial.add(group, count, events, sum, min, max);
+	}
+
+	/**
+	 * Read a column of a block of records into an array
+	 */
+	private static void read(Segment segment, Column column, int from, int length, float[] into) {
+		switch (column) {
+		case TEMPERATURE:
+			for (int i = 0; i < length; i++) {
+				into[i] = segment.getTemperature(from + i);
+			}
+			break;
+		case X:
+			for (int i = 0; i < length; i++) {
+				into[i] = segment.getX(from + i);
+			}
+			break;
+		case Y:
+			for (int i = 0; i < length; i++) {
+				into[i] = segment.getY(from + i);
+			}
+			break;
+		case Z:
+			for (int i = 0; i < length; i++) {
+				into[i] = segment.getZ(from + i);
+			}
+			break;
+		case ANOMALIES:
+			/* Masks use far fewer bits than a float holds exactly */
+			for (int i = 0; i < length; i++) {
+				into[i] = segment.getAnomalies(from + i);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Keep only the selected indices whose values pass a comparison, without
+	 * branching on the result
+	 *
+	 * @return the number still selected
+	 */
+	private static int filter(float[] values, int[] selection, int n, Comparison comparison, float bound) {
+		int m = 0;
+		switch (comparison) {
+		case LESS:
+			for (int k = 0; k < n; k++) {
+				int i = selection[k];
+				selection[m] = i;
+				m += values[i] < bound ? 1 : 0;
+			}
+			break;
+		case LESS_EQUAL:
+			for (int k = 0; k < n; k++) {
+				int i = selection[k];
+				selection[m] = i;
+				m += values[i] <= bound ? 1 : 0;
+			}
+			break;
+		case GREATER:
+			for (int k = 0; k < n; k++) {
+				int i = selection[k];
+				selection[m] = i;
+				m += values[i] > bound ? 1 : 0;
+			}
+			break;
+		case GREATER_EQUAL:
+			for (int k = 0; k < n; k++) {
+				int i = selection[k];
+				selection[m] = i;
+				m += values[i] >= bound ? 1 : 0;
+			}
+			break;
+		case ABS_LESS:
+			for (int k = 0; k < n; k++) {
+				int i = selection[k];
+				selection[m] = i;
+				m += Math.abs(values[i]) < bound ? 1 : 0;
+			}
+			break;
+		case ABS_GREATER:
+			for (int k = 0; k < n; k++) {
+				int i = selection[k];
+				selection[m] = i;
+				m += Math.abs(values[i]) > bound ? 1 : 0;
+			}
+			break;
+		}
+		return m;
+	}
+
+}
@@ -0,0 +1,381 @@
+package kent.dja33.iot.a1.util.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import kent.dja33.iot.a1.util.Out;
+import kent.dja33.iot.a1.util.anomaly.Anomaly;
+import kent.dja33.iot.a1.util.device.DeviceState;
+import kent.dja33.iot.a1.util.message.DataMessage;
+import kent.dja33.iot.a1.util.message.DataMessageListener;
+import kent.dja33.iot.a1.util.metrics.Metrics;
+
+/**
+ * Small HTTP server so samples can be viewed from other machines without the
+ * GUI, built on the HttpServer bundled with the JDK. Provides:
+ *
+ * /state - the state of the device and the latest sample
+ * /history?limit=n - up to the last HISTORY_SIZE samples received
+ * /stream - a Server-Sent Events stream of samples as they arrive, with a
+ * "gap" event whenever samples were lost
+ * /metrics - a snapshot of the Metrics as text
+ *
+ * A sample the AnomalyDetector found anomalies in describes them in an
+ * "anomalies" field, such as "temperature OUTLIER".
+ *
+ * Listens to the SensorPipeline, samples are collected over a batch and sent
+ * to every subscriber at once at the end of the batch. Every subscriber has
+ * its own bounded queue of batches written out by its own thread, when a
+ * subscriber falls behind its oldest batch is dropped so a slow client never
+ * holds up the pipeline or any other client.
+ *
+ * A thread per subscriber is simple, as HttpServer only offers blocking
+ * streams, and costs little for at most MAX_SUBSCRIBERS clients who mostly
+ * sit waiting on their queue. Serving many more would need a single writer
+ * over non-blocking sockets instead.
+ *
+ * A value that is not a number, such as the temperature of a frame the
+ * device could not read, is sent as null.
+ *
+ * @author Dante
+ *
+ */
+public class SampleServer implements DataMessageListener {
+
+	/* Number of samples kept for /history */
+	public static final int HISTORY_SIZE = 1024;
+
+	/* Batches a subscriber can fall behind by before dropping the oldest */
+	private static final int MAX_QUEUED_BATCHES = 64;
+	/* Maximum number of /stream subscribers at once */
+	private static final int MAX_SUBSCRIBERS = 32;
+	/* How long a stream can go without data before a keep-alive is sent */
+	private static final long KEEP_ALIVE_MS = 15000;
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final DeviceState deviceState;
+	private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+	/* Held by each subscriber, so the limit is checked and taken at once */
+	private final Semaphore subscriberSlots = new Semaphore(MAX_SUBSCRIBERS);
+
+	/* Ring of recent samples, guarded by this */
+	private final long[] times = new long[HISTORY_SIZE];
+	private final float[] temperatures = new float[HISTORY_SIZE];
+	private final float[] xs = new float[HISTORY_SIZE];
+	private final float[] ys = new float[HISTORY_SIZE];
+	private final float[] zs = new float[HISTORY_SIZE];
+	private final int[] anomalies = new int[HISTORY_SIZE];
+	private int head;
+	private int size;
+
+	/* Samples collected during the current batch, only used by the pipeline */
+	private final StringBuilder batch = new StringBuilder();
+
+	/* Batches dropped because a subscriber fell behind */
+	private volatile long droppedBatches;
+
+	/* Gaps in the samples since the server started */
+	private volatile long gaps;
+
+	private volatile boolean running;
+
+	/**
+	 * Create a server on the given address, use port 0 to pick any free port
+	 *
+	 * @param address
+	 *            the address to listen on
+	 * @param deviceState
+	 *            the state reported by /state
+	 * @throws IOException
+	 *             if the server could not bind to the address
+	 */
+	public SampleServer(InetSocketAddress address, DeviceState deviceState) throws IOException {
+		this.deviceState = deviceState;
+		this.server = HttpServer.create(address, 0);
+		/* Subscribers hold on to a thread each, so the pool must grow */
+		this.executor = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, "SampleServer");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		server.createContext("/state", this::handleState);
+		server.createContext("/history", this::handleHistory);
+		server.createContext("/stream", this::handleStream);
+		server.createContext("/metrics", this::handleMetrics);
+		server.setExecutor(executor);
+	}
+
+	/**
+	 * Start accepting connections
+	 */
+	public void start() {
+		running = true;
+		server.start();
+		Out.out.logln("Serving samples on port " + getPort() + ".");
+	}
+
+	/**
+	 * Stop the server and disconnect every subscriber
+	 */
+	public void stop() {
+		running = false;
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * The port the server is listening on
+	 *
+	 * @return port
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Number of clients currently subscribed to /stream
+	 *
+	 * @return subscribers
+	 */
+	public int getSubscriberCount() {
+		return subscribers.size();
+	}
+
+	@Override
+	public void dataReceived(DataMessage msg) {
+
+		synchronized (this) {
+			times[head] = msg.getTime();
+			temperatures[head] = msg.getTemperature();
+			xs[head] = msg.getX();
+			ys[head] = msg.getY();
+			zs[head] = msg.getZ();
+			anomalies[head] = msg.getAnomalies();
+			head = (head + 1) % HISTORY_SIZE;
+			if (size < HISTORY_SIZE) {
+				size++;
+			}
+		}
+
+		if (!subscribers.isEmpty()) {
+			batch.append(batch.length() == 0 ? '[' : ',');
+			appendSample(batch, msg.getTime(), msg.getTemperature(), msg.getX(), msg.getY(), msg.getZ(),
+					msg.getAnomalies());
+		}
+
+	}
+
+	/**
+	 * Send everything collected over the batch to every subscriber, the event
+	 * is built once and shared between them
+	 */
+	@Override
+	public void endOfBatch() {
+
+		if (batch.length() == 0) {
+			return;
+		}
+
+		String event = "data: " + batch.append(']') + "\n\n";
+		batch.setLength(0);
+
+		publish(event);
+
+	}
+
+	/**
+	 * Send anything collected before the gap, then tell every subscriber
+	 * samples were lost
+	 */
+	@Override
+	public void gap(long start, long end) {
+		gaps++;
+		endOfBatch();
+		publish("event: gap\ndata: {\"start\":" + start + ",\"end\":" + end + "}\n\n");
+	}
+
+	private void publish(String event) {
+		for (Subscriber subscriber : subscribers) {
+			if (!subscriber.offer(event)) {
+				droppedBatches++;
+			}
+		}
+	}
+
+	private static void appendSample(StringBuilder sb, long time, float temperature, float x, float y, float z,
+			int anomalies) {
+		sb.append("{\"time\":").append(time);
+		appendNumber(sb.append(",\"temperature\":"), temperature);
+		appendNumber(sb.append(",\"x\":"), x);
+		appendNumber(sb.append(",\"y\":"), y);
+		appendNumber(sb.append(",\"z\":"), z);
+		if (anomalies != 0) {
+			sb.append(",\"anomalies\":\"").append(Anomaly.describe(anomalies)).append('"');
+		}
+		sb.append('}');
+	}
+
+	/**
+	 * JSON has no NaN or infinity, so those are written as null
+	 */
+	private static void appendNumber(StringBuilder sb, float value) {
+		if (Float.isNaN(value) || Float.isInfinite(value)) {
+			sb.append("null");
+		} else {
+			sb.append(value);
+		}
+	}
+
+	private void handleState(HttpExchange exchange) throws IOException {
+
+		StringBuilder sb = new StringBuilder("{");
+		appendNumber(sb.append("\"tickRate\":"), deviceState.getTickRate());
+		sb.append(",\"ackState\":\"").append(deviceState.getAckState()).append('"');
+		sb.append(",\"health\":\"").append(deviceState.getHealth()).append('"');
+		sb.append(",\"framesReceived\":").append(deviceState.getFramesReceived());
+		sb.append(",\"framesRejected\":").append(deviceState.getFramesRejected());
+		sb.append(",\"lastFrameTime\":").append(deviceState.getLastFrameTime());
+		sb.append(",\"subscribers\":").append(subscribers.size());
+		sb.append(",\"droppedBatches\":").append(droppedBatches);
+		sb.append(",\"gaps\":").append(gaps);
+		sb.append(",\"latest\":");
+
+		synchronized (this) {
+			if (size == 0) {
+				sb.append("null");
+			} else {
+				int i = (head - 1 + HISTORY_SIZE) % HISTORY_SIZE;
+				appendSample(sb, times[i], temperatures[i], xs[i], ys[i], zs[i], anomalies[i]);
+			}
+		}
+
+		respond(exchange, sb.append('}').toString());
+	}
+
+	private void handleHistory(HttpExchange exchange) throws IOException {
+
+		int limit = HISTORY_SIZE;
+		String query = exchange.getRequestURI().getQuery();
+
+		if (query != null && query.startsWith("limit=")) {
+			try {
+				limit = Integer.parseInt(query.substring("limit=".length()));
+			} catch (NumberFormatException e) {
+				exchange.sendResponseHeaders(400, -1);
+				exchange.close();
+				return;
+			}
+		}
+
+		StringBuilder sb = new StringBuilder("[");
+
+		synchronized (this) {
+			int count = Math.max(0, Math.min(limit, size));
+			for (int n = 0; n < count; n++) {
+				int i = (head - count + n + HISTORY_SIZE) % HISTORY_SIZE;
+				if (n > 0) {
+					sb.append(',');
+				}
+				appendSample(sb, times[i], temperatures[i], xs[i], ys[i], zs[i], anomalies[i]);
+			}
+		}
+
+		respond(exchange, sb.append(']').toString());
+	}
+
+	private void handleMetrics(HttpExchange exchange) throws IOException {
+		respond(exchange, Metrics.metrics.snapshot(), "text/plain");
+	}
+
+	private void respond(HttpExchange exchange, String json) throws IOException {
+		respond(exchange, json, "application/json");
+	}
+
+	private void respond(HttpExchange exchange, String text, String contentType) throws IOException {
+		byte[] body = text.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(body);
+		}
+	}
+
+	/**
+	 * Holds the connection open and writes out batches as they are queued for
+	 * the subscriber, runs on a thread of its own until the client goes away
+	 */
+	private void handleStream(HttpExchange exchange) throws IOException {
+
+		if (!subscriberSlots.tryAcquire()) {
+			exchange.sendResponseHeaders(503, -1);
+			exchange.close();
+			return;
+		}
+
+		Subscriber subscriber = new Subscriber();
+
+		try (OutputStream os = exchange.getResponseBody()) {
+
+			exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+			exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+			exchange.sendResponseHeaders(200, 0);
+			subscribers.add(subscriber);
+
+			/* Let the client know it is connected straight away */
+			os.write(": connected\n\n".getBytes(StandardCharsets.UTF_8));
+			os.flush();
+
+			while (running) {
+				String event = subscriber.batches.poll(KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+				os.write((event != null ? event : ": keep-alive\n\n").getBytes(StandardCharsets.UTF_8));
+				os.flush();
+			}
+
+		} catch (IOException | InterruptedException e) {
+			/* Client went away or the server is stopping */
+		} finally {
+			subscribers.remove(subscriber);
+			subscriberSlots.release();
+		}
+	}
+
+	/**
+	 * A client of /stream and the batches waiting to be written out to it
+	 */
+	private static class Subscriber {
+
+		private final BlockingQueue<String> batches = new ArrayBlockingQueue<>(MAX_QUEUED_BATCHES);
+
+		/**
+		 * Queue a batch without ever blocking, dropping the oldest batch if the
+		 * subscriber has fallen too far behind
+		 *
+		 * @return false if a batch had to be dropped
+		 */
+		private boolean offer(String event) {
+			boolean dropped = false;
+			while (!batches.offer(event)) {
+				batches.poll();
+				dropped = true;
+			}
+			return !dropped;
+		}
+
+	}
+
+}
@@ -0,0 +1,133 @@
+package kent.dja33.iot.a1.util.store;
+
+/**
+ * Temperatures decoded from the store for a fixed window of time at one
+ * resolution tier, held in primitive arrays so a chunk is cheap to keep in
+ * the cache and to draw from.
+ *
+ * At the raw tier every record is a point. At the other tiers each point is
+ * a bucket of TIERS[tier] milliseconds, at the time of the start of the
+ * bucket, holding the mean, minimum and maximum of the records within it
+ * and every anomaly any of them were marked with. A point with a NaN
+ * temperature marks a gap in the recording.
+ *
+ * @author Dante
+ *
+ */
+public final class SampleChunk {
+
+	private final int tier;
+	private final long start;
+	private final long end;
+	private final long[] times;
+	private final float[] temperatures;
+	private final float[] minimums;
+	private final float[] maximums;
+	private final int[] anomalies;
+	private final int size;
+
+	SampleChunk(int tier, long start, long end, long[] times, float[] temperatures, float[] minimums,
+			float[] maximums, int[] anomalies, int size) {
+		this.tier = tier;
+		this.start = start;
+		this.end = end;
+		this.times = times;
+		this.temperatures = temperatures;
+		this.minimums = minimums;
+		this.maximums = maximums;
+		this.anomalies = anomalies;
+		this.size = size;
+	}
+
+	/**
+	 * The resolution tier, an index into SampleStore.TIERS
+	 *
+	 * @return tier
+	 */
+	public int getTier() {
+		return tier;
+	}
+
+	/**
+	 * Start of the window covered, inclusive
+	 *
+	 * @return time in milliseconds
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * End of the window covered, exclusive
+	 *
+	 * @return time in milliseconds
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	/**
+	 * Number of points
+	 *
+	 * @return points
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Time of a point
+	 *
+	 * @param i
+	 *            index of the point
+	 * @return time in milliseconds
+	 */
+	public long getTime(int i) {
+		return times[i];
+	}
+
+	/**
+	 * Temperature of a point, the mean of its bucket
+	 *
+	 * @param i
+	 *            index of the point
+	 * @return temperature in Celsius, NaN for a gap
+	 */
+	public float getTemperature(int i) {
+		return temperatures[i];
+	}
+
+	/**
+	 * Lowest temperature within the bucket of a point
+	 *
+	 * @param i
+	 *            index of the point
+	 * @return temperature in Celsius
+	 */
+	public float getMinimum(int i) {
+		return minimums[i];
+	}
+
+	/**
+	 * Highest temperature within the bucket of a point
+	 *
+	 * @param i
+	 *            index of the point
+	 * @return temperature in Celsius
+	 */
+	public float getMaximum(int i) {
+		return maximums[i];
+	}
+
+	/**
+	 * Anomalies marked on any record within the bucket of a point
+	 *
+	 * @param i
+	 *            index of the point
+	 * @return mask of Anomaly bits
+	 */
+	public int getAnomalies(int i) {
+		return anomalies[i];
+	}
+
+}
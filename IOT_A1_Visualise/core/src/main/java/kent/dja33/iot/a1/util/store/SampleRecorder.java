@@ -0,0 +1,214 @@
+package kent.dja33.iot.a1.util.store;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import kent.dja33.iot.a1.util.Out;
+import kent.dja33.iot.a1.util.message.DataMessage;
+import kent.dja33.iot.a1.util.message.DataMessageListener;
+
+/**
+ * Records every sample passed through the SensorPipeline to disk so it can be
+ * looked back on later, rather than only living in the chart.
+ *
+ * Samples are written as fixed size binary records into segment files, a new
+ * segment is started whenever the current one reaches MAX_SEGMENT_SIZE. Each
+ * segment starts with the MAGIC number and VERSION followed by records of the
+ * time received in milliseconds (long), temperature in Celsius and
+ * accelerometer X, Y and Z (floats) then the mask of Anomaly bits the
+ * sample was marked with (int). Either the raw or the filtered values can be
+ * recorded. Segments of VERSION 1 have no mask, their records are
+ * VERSION_1_RECORD_SIZE and are still read.
+ *
+ * When samples were lost, for example while the device was being
+ * reconnected, a gap record is written at the time the gap started with every
+ * value NaN and no anomalies. No samples exist between a gap record and the record after it.
+ *
+ * @author Dante
+ *
+ */
+public class SampleRecorder implements DataMessageListener {
+
+	/* Identifies a segment file and the layout of its records */
+	public static final int MAGIC = 0x4D424544;
+	public static final int VERSION = 2;
+	public static final int HEADER_SIZE = 8;
+	public static final int RECORD_SIZE = 28;
+	public static final int VERSION_1_RECORD_SIZE = 24;
+	public static final String SEGMENT_PREFIX = "samples-";
+	public static final String SEGMENT_SUFFIX = ".dat";
+
+	/* Size a segment can grow to before starting another */
+	private static final long MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+	private final File directory;
+	private final boolean filtered;
+	private DataOutputStream writer;
+	private long segmentSize;
+	private boolean canRecord = true;
+
+	/**
+	 * Create a recorder writing raw samples into the given directory, will
+	 * create the directory if it does not exist
+	 *
+	 * @param directory
+	 *            where to write segments
+	 */
+	public SampleRecorder(String directory) {
+		this(directory, false);
+	}
+
+	/**
+	 * Create a recorder writing segments into the given directory, will create
+	 * the directory if it does not exist
+	 *
+	 * @param directory
+	 *            where to write segments
+	 * @param filtered
+	 *            true to record filtered rather than raw values
+	 */
+	public SampleRecorder(String directory, boolean filtered) {
+		this.directory = new File(directory);
+		this.filtered = filtered;
+
+		if (!this.directory.exists()) {
+			Out.out.logln("Directory '" + this.directory + "' did not exist. Creating it now...");
+			this.directory.mkdirs();
+		}
+	}
+
+	/**
+	 * Start a new segment, named after the time it was started
+	 *
+	 * @throws IOException
+	 *             if the segment could not be created
+	 */
+	private void openSegment() throws IOException {
+		File segment = new File(directory,
+				SEGMENT_PREFIX + new SimpleDateFormat("yy-MM-dd_HH-mm-ss-SSS").format(new Date()) + SEGMENT_SUFFIX);
+
+		Out.out.logln("Recording samples to " + segment.getName());
+
+		writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment)));
+		writer.writeInt(MAGIC);
+		writer.writeInt(VERSION);
+		segmentSize = HEADER_SIZE;
+	}
+
+	@Override
+	public synchronized void dataReceived(DataMessage msg) {
+
+		if (!canRecord) {
+			return;
+		}
+
+		try {
+
+			writeRecord(msg.getTime(), msg.getTemperature(filtered), msg.getX(filtered), msg.getY(filtered),
+					msg.getZ(filtered), msg.getAnomalies());
+
+		} catch (IOException ioe) {
+			canRecord = false;
+			Out.out.loglnErr("Recorder could not write sample: " + ioe.getMessage());
+		}
+
+	}
+
+	/**
+	 * Write a gap record so anything reading the segments back knows samples
+	 * are missing rather than the device having held a steady value
+	 */
+	@Override
+	public synchronized void gap(long start, long end) {
+
+		if (!canRecord) {
+			return;
+		}
+
+		try {
+			writeRecord(start, Float.NaN, Float.NaN, Float.NaN, Float.NaN, 0);
+		} catch (IOException ioe) {
+			canRecord = false;
+			Out.out.loglnErr("Recorder could not write gap: " + ioe.getMessage());
+		}
+
+	}
+
+	private void writeRecord(long time, float temperature, float x, float y, float z, int anomalies)
+			throws IOException {
+
+		if (writer == null || segmentSize + RECORD_SIZE > MAX_SEGMENT_SIZE) {
+			closeSegment();
+			openSegment();
+		}
+
+		writer.writeLong(time);
+		writer.writeFloat(temperature);
+		writer.writeFloat(x);
+		writer.writeFloat(y);
+		writer.writeFloat(z);
+		writer.writeInt(anomalies);
+		segmentSize += RECORD_SIZE;
+	}
+
+	/**
+	 * Whether a record read back from a segment is a gap record
+	 *
+	 * @param temperature
+	 *            the temperature of the record
+	 * @return true if the record marks the start of a gap
+	 */
+	public static boolean isGap(float temperature) {
+		return Float.isNaN(temperature);
+	}
+
+	/**
+	 * Flush everything written in the batch so a crash loses at most a single
+	 * batch of samples
+	 */
+	@Override
+	public synchronized void endOfBatch() {
+		if (writer != null) {
+			try {
+				writer.flush();
+			} catch (IOException ioe) {
+				canRecord = false;
+				Out.out.loglnErr("Recorder could not flush samples: " + ioe.getMessage());
+			}
+		}
+	}
+
+	private void closeSegment() throws IOException {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+	}
+
+	/**
+	 * Close the segment currently being written
+	 */
+	public synchronized void close() {
+		try {
+			closeSegment();
+		} catch (IOException ioe) {
+			Out.out.loglnErr("Failed to close recorder: " + ioe.getMessage());
+		}
+		canRecord = false;
+	}
+
+	/**
+	 * The directory segments are written to
+	 *
+	 * @return directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+}
@@ -0,0 +1,444 @@
+package kent.dja33.iot.a1.util.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import kent.dja33.iot.a1.util.Out;
+
+/**
+ * Read side of the segments written by the SampleRecorder, used to browse
+ * back through everything recorded rather than only the live samples.
+ *
+ * Time is split into fixed windows and each window is decoded into a
+ * SampleChunk at one of the resolution TIERS. The tier is chosen from what is
+ * being viewed: every record if there are few enough of them to draw,
+ * otherwise the finest buckets that fit. The coarsest tier fits a year into
+ * a few hundred points. Decoded chunks are kept in an LRU cache of
+ * CACHE_SIZE chunks.
+ *
+ * Nothing is precomputed, a chunk at any tier is built on demand from the
+ * raw records it covers. The first view of a long span therefore reads every
+ * record in it, later views of it come from the cache.
+ *
+ * Chunks are decoded on a background thread, asking for a window returns the
+ * chunks already cached straight away and loads the rest, along with the
+ * windows either side so panning finds them ready. The caller is told once a
+ * chunk has been loaded so it can ask again.
+ *
+ * @author Dante
+ *
+ */
+public class SampleStore {
+
+	/* Width of a bucket at each resolution tier in milliseconds, 0 is raw */
+	public static final long[] TIERS = { 0, 1_000, 5_000, 30_000, 300_000, 1_800_000, 10_800_000, 86_400_000 };
+
+	/* Time covered by a raw chunk, and the number of buckets in any other */
+	private static final long RAW_CHUNK_SPAN = 60_000;
+	private static final int CHUNK_BUCKETS = 256;
+
+	/* Most decoded chunks kept at once */
+	private static final int CACHE_SIZE = 256;
+
+	private final File directory;
+
+	/* Every segment sorted by time, replaced as a whole on refresh */
+	private volatile List<Segment> segments = Collections.emptyList();
+	/* Segments that could not be read, so they are only reported once */
+	private final Set<String> unreadable = new HashSet<>();
+
+	/* Guarded by itself */
+	private final Map<Long, SampleChunk> cache = new LinkedHashMap<Long, SampleChunk>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, SampleChunk> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	/* Chunks waiting to be decoded */
+	private final Set<Long> loading = ConcurrentHashMap.newKeySet();
+	private final ExecutorService loader;
+
+	/**
+	 * Create a store over the segments in a directory, call refresh to find
+	 * them
+	 *
+	 * @param directory
+	 *            the directory the SampleRecorder writes to
+	 */
+	public SampleStore(String directory) {
+		this.directory = new File(directory);
+		this.loader = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "SampleStore");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Look for segments written since the last refresh, and map again any
+	 * that have grown. Cached chunks that may have changed are dropped.
+	 */
+	public synchronized void refresh() {
+
+		File[] files = directory.listFiles((dir, name) -> name.startsWith(SampleRecorder.SEGMENT_PREFIX)
+				&& name.endsWith(SampleRecorder.SEGMENT_SUFFIX));
+
+		if (files == null) {
+			files = new File[0];
+		}
+
+		Map<String, Segment> previous = new HashMap<>();
+		for (Segment segment : segments) {
+			previous.put(segment.getFile().getName(), segment);
+		}
+
+		List<Segment> updated = new ArrayList<>(files.length);
+		long changedFrom = Long.MAX_VALUE;
+
+		for (File file : files) {
+
+			Segment old = previous.get(file.getName());
+			if (old != null && old.getLength() == file.length()) {
+				updated.add(old);
+				continue;
+			}
+
+			try {
+				Segment segment = Segment.open(file);
+				updated.add(segment);
+				changedFrom = Math.min(changedFrom, old != null ? old.getEndTime() : segment.getStartTime());
+			} catch (IOException ioe) {
+				if (unreadable.add(file.getName())) {
+					Out.out.loglnErr("Skipping segment: " + ioe.getMessage());
+				}
+			}
+
+		}
+
+		updated.sort(Comparator.comparingLong(Segment::getStartTime));
+		segments = Collections.unmodifiableList(updated);
+
+		if (changedFrom != Long.MAX_VALUE) {
+			long from = changedFrom;
+			synchronized (cache) {
+				cache.values().removeIf(chunk -> chunk.getEnd() > from);
+			}
+		}
+
+	}
+
+	/**
+	 * Every segment found by the last refresh, in time order
+	 *
+	 * @return segments
+	 */
+	public List<Segment> getSegments() {
+		return segments;
+	}
+
+	/**
+	 * Time of the earliest record stored
+	 *
+	 * @return time in milliseconds, Long.MAX_VALUE if nothing is stored
+	 */
+	public long getStartTime() {
+		long start = Long.MAX_VALUE;
+		for (Segment segment : segments) {
+			start = Math.min(start, segment.getStartTime());
+		}
+		return start;
+	}
+
+	/**
+	 * Time of the latest record stored
+	 *
+	 * @return time in milliseconds, Long.MIN_VALUE if nothing is stored
+	 */
+	public long getEndTime() {
+		long end = Long.MIN_VALUE;
+		for (Segment segment : segments) {
+			end = Math.max(end, segment.getEndTime());
+		}
+		return end;
+	}
+
+	/**
+	 * Choose the tier to view a span of time at, raw if the records within it
+	 * are no more than maxPoints, otherwise the finest tier with no more than
+	 * maxPoints buckets within it. Only a span wider than maxPoints buckets of
+	 * the coarsest tier can hold more.
+	 *
+	 * @param from
+	 *            start of the span in milliseconds
+	 * @param to
+	 *            end of the span in milliseconds
+	 * @param maxPoints
+	 *            the most points that should be drawn
+	 * @return the tier, an index into TIERS
+	 */
+	public int tierFor(long from, long to, int maxPoints) {
+		if (count(from, to) <= maxPoints) {
+			return 0;
+		}
+		long span = to - from;
+		for (int tier = 1; tier < TIERS.length; tier++) {
+			/* A span not lined up with the buckets touches one more */
+			if (span / TIERS[tier] + 1 <= maxPoints) {
+				return tier;
+			}
+		}
+		return TIERS.length - 1;
+	}
+
+	/**
+	 * Number of records within a span of time, gaps included
+	 */
+	private long count(long from, long to) {
+		long count = 0;
+		for (Segment segment : segments) {
+			if (segment.getEndTime() >= from && segment.getStartTime() < to) {
+				count += segment.indexOf(to) - segment.indexOf(from);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * The time covered by a single chunk at a tier
+	 *
+	 * @param tier
+	 *            the tier
+	 * @return time in milliseconds
+	 */
+	public static long chunkSpan(int tier) {
+		return tier == 0 ? RAW_CHUNK_SPAN : TIERS[tier] * CHUNK_BUCKETS;
+	}
+
+	/**
+	 * Get the chunks covering a span of time, never blocks. Only chunks already
+	 * decoded are returned, the rest are loaded in the background along with
+	 * those either side.
+	 *
+	 * @param from
+	 *            start of the span in milliseconds
+	 * @param to
+	 *            end of the span in milliseconds
+	 * @param maxPoints
+	 *            the most points that should be drawn
+	 * @param loaded
+	 *            run on the loading thread whenever a missing chunk has been
+	 *            loaded
+	 * @return the cached chunks in time order
+	 */
+	public List<SampleChunk> window(long from, long to, int maxPoints, Runnable loaded) {
+
+		int tier = tierFor(from, to, maxPoints);
+		long span = chunkSpan(tier);
+		long first = Math.floorDiv(from, span);
+		long last = Math.floorDiv(to, span);
+
+		List<SampleChunk> chunks = new ArrayList<>();
+
+		for (long index = first; index <= last; index++) {
+			SampleChunk chunk = cached(tier, index);
+			if (chunk != null) {
+				chunks.add(chunk);
+			} else {
+				request(tier, index, loaded);
+			}
+		}
+
+		/* Prefetch either side once everything visible has been asked for */
+		request(tier, first - 1, loaded);
+		request(tier, last + 1, loaded);
+
+		return chunks;
+	}
+
+	/**
+	 * Decode a chunk straight away on the calling thread, bypassing the cache
+	 *
+	 * @param tier
+	 *            the tier
+	 * @param index
+	 *            which window of chunkSpan(tier) since the epoch
+	 * @return the chunk
+	 */
+	public SampleChunk load(int tier, long index) {
+		long span = chunkSpan(tier);
+		return decode(tier, index * span, (index + 1) * span);
+	}
+
+	private static long key(int tier, long index) {
+		return index * TIERS.length + tier;
+	}
+
+	private SampleChunk cached(int tier, long index) {
+		synchronized (cache) {
+			return cache.get(key(tier, index));
+		}
+	}
+
+	private void request(int tier, long index, Runnable loaded) {
+
+		long key = key(tier, index);
+		if (cached(tier, index) != null || !loading.add(key)) {
+			return;
+		}
+
+		loader.execute(() -> {
+			try {
+				SampleChunk chunk = load(tier, index);
+				synchronized (cache) {
+					cache.put(key, chunk);
+				}
+			} finally {
+				loading.remove(key);
+			}
+			if (loaded != null) {
+				loaded.run();
+			}
+		});
+
+	}
+
+	/**
+	 * Read every record within a window, bucketing them unless at the raw
+	 * tier
+	 */
+	private SampleChunk decode(int tier, long start, long end) {
+
+		long width = TIERS[tier];
+		ChunkBuilder builder = new ChunkBuilder(tier == 0 ? 256 : (int) ((end - start) / width) + 1);
+
+		long bucket = Long.MIN_VALUE;
+		double sum = 0;
+		int count = 0;
+		float min = 0;
+		float max = 0;
+		int anomalies = 0;
+
+		for (Segment segment : segments) {
+
+			if (segment.getEndTime() < start || segment.getStartTime() >= end) {
+				continue;
+			}
+
+			for (int i = segment.indexOf(start); i < segment.size(); i++) {
+
+				long time = segment.getTime(i);
+				if (time >= end) {
+					break;
+				}
+
+				float temperature = segment.getTemperature(i);
+
+				if (tier == 0) {
+					builder.add(time, temperature, temperature, temperature, segment.getAnomalies(i));
+					continue;
+				}
+
+				long b = Float.isNaN(temperature) ? time : start + (time - start) / width * width;
+
+				if (b != bucket || Float.isNaN(temperature)) {
+					if (count > 0) {
+						builder.add(bucket, (float) (sum / count), min, max, anomalies);
+					}
+					if (Float.isNaN(temperature)) {
+						builder.add(time, Float.NaN, Float.NaN, Float.NaN, 0);
+						bucket = Long.MIN_VALUE;
+						count = 0;
+						continue;
+					}
+					bucket = b;
+					sum = 0;
+					count = 0;
+					min = temperature;
+					max = temperature;
+					anomalies = 0;
+				}
+
+				sum += temperature;
+				count++;
+				min = Math.min(min, temperature);
+				max = Math.max(max, temperature);
+				anomalies |= segment.getAnomalies(i);
+
+			}
+
+		}
+
+		if (count > 0) {
+			builder.add(bucket, (float) (sum / count), min, max, anomalies);
+		}
+
+		return builder.build(tier, start, end);
+	}
+
+	/**
+	 * Stop loading chunks
+	 */
+	public void close() {
+		loader.shutdownNow();
+	}
+
+	/**
+	 * Collects the points of a chunk into arrays that grow as needed
+	 */
+	private static class ChunkBuilder {
+
+		private long[] times;
+		private float[] temperatures;
+		private float[] minimums;
+		private float[] maximums;
+		private int[] anomalies;
+		private int size;
+
+		private ChunkBuilder(int capacity) {
+			times = new long[capacity];
+			temperatures = new float[capacity];
+			minimums = new float[capacity];
+			maximums = new float[capacity];
+			anomalies = new int[capacity];
+		}
+
+		private void add(long time, float temperature, float min, float max, int mask) {
+			if (size == times.length) {
+				int capacity = size * 2;
+				times = Arrays.copyOf(times, capacity);
+				temperatures = Arrays.copyOf(temperatures, capacity);
+				minimums = Arrays.copyOf(minimums, capacity);
+				maximums = Arrays.copyOf(maximums, capacity);
+				anomalies = Arrays.copyOf(anomalies, capacity);
+			}
+			times[size] = time;
+			temperatures[size] = temperature;
+			minimums[size] = min;
+			maximums[size] = max;
+			anomalies[size] = mask;
+			size++;
+		}
+
+		private SampleChunk build(int tier, long start, long end) {
+			return new SampleChunk(tier, start, end, times, temperatures, minimums, maximums, anomalies, size);
+		}
+
+	}
+
+}
@@ -0,0 +1,210 @@
+package kent.dja33.iot.a1.util.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A segment written by the SampleRecorder, memory mapped so records are read
+ * straight from the file without being copied onto the heap. Records are
+ * appended in the order they were received, so they are sorted by time and
+ * can be searched.
+ *
+ * The mapping is taken when the segment is opened, a segment still being
+ * recorded to must be opened again to see records written since. Segments
+ * written before anomalies were recorded are read as having none.
+ *
+ * @author Dante
+ *
+ */
+public final class Segment {
+
+	private final File file;
+	private final long length;
+	private final ByteBuffer buffer;
+	private final int recordSize;
+	private final boolean hasAnomalies;
+	private final int size;
+
+	private Segment(File file, long length, ByteBuffer buffer, int version) {
+		this.file = file;
+		this.length = length;
+		this.buffer = buffer;
+		this.hasAnomalies = version >= 2;
+		this.recordSize = hasAnomalies ? SampleRecorder.RECORD_SIZE : SampleRecorder.VERSION_1_RECORD_SIZE;
+		/* A record still being written when mapped is ignored */
+		this.size = (int) ((length - SampleRecorder.HEADER_SIZE) / recordSize);
+	}
+
+	/**
+	 * Map a segment file
+	 *
+	 * @param file
+	 *            the segment
+	 * @return the mapped segment
+	 * @throws IOException
+	 *             if the file could not be read or is not a segment
+	 */
+	public static Segment open(File file) throws IOException {
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+			long length = channel.size();
+			if (length < SampleRecorder.HEADER_SIZE) {
+				throw new IOException("Segment \"" + file.getName() + "\" has no header.");
+			}
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("Segment \"" + file.getName() + "\" is too large to map.");
+			}
+
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+			int version = buffer.getInt(4);
+			if (buffer.getInt(0) != SampleRecorder.MAGIC || version < 1 || version > SampleRecorder.VERSION) {
+				throw new IOException("\"" + file.getName() + "\" is not a segment this version can read.");
+			}
+
+			return new Segment(file, length, buffer, version);
+		}
+
+	}
+
+	/**
+	 * Number of records in the segment
+	 *
+	 * @return records
+	 */
+	public int size() {
+		return size;
+	}
+
+	private int offset(int i) {
+		return SampleRecorder.HEADER_SIZE + i * recordSize;
+	}
+
+	/**
+	 * Time the record was received
+	 *
+	 * @param i
+	 *            index of the record
+	 * @return time in milliseconds
+	 */
+	public long getTime(int i) {
+		return buffer.getLong(offset(i));
+	}
+
+	/**
+	 * Temperature of the record, NaN for a gap record
+	 *
+	 * @param i
+	 *            index of the record
+	 * @return temperature in Celsius
+	 */
+	public float getTemperature(int i) {
+		return buffer.getFloat(offset(i) + 8);
+	}
+
+	/**
+	 * Accelerometer X of the record
+	 *
+	 * @param i
+	 *            index of the record
+	 * @return X
+	 */
+	public float getX(int i) {
+		return buffer.getFloat(offset(i) + 12);
+	}
+
+	/**
+	 * Accelerometer Y of the record
+	 *
+	 * @param i
+	 *            index of the record
+	 * @return Y
+	 */
+	public float getY(int i) {
+		return buffer.getFloat(offset(i) + 16);
+	}
+
+	/**
+	 * Accelerometer Z of the record
+	 *
+	 * @param i
+	 *            index of the record
+	 * @return Z
+	 */
+	public float getZ(int i) {
+		return buffer.getFloat(offset(i) + 20);
+	}
+
+	/**
+	 * Anomalies the record was marked with
+	 *
+	 * @param i
+	 *            index of the record
+	 * @return mask of Anomaly bits, 0 for a gap or a segment without them
+	 */
+	public int getAnomalies(int i) {
+		return hasAnomalies ? buffer.getInt(offset(i) + 24) : 0;
+	}
+
+	/**
+	 * Time of the first record
+	 *
+	 * @return time in milliseconds, Long.MAX_VALUE if empty
+	 */
+	public long getStartTime() {
+		return size > 0 ? getTime(0) : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Time of the last record
+	 *
+	 * @return time in milliseconds, Long.MIN_VALUE if empty
+	 */
+	public long getEndTime() {
+		return size > 0 ? getTime(size - 1) : Long.MIN_VALUE;
+	}
+
+	/**
+	 * Find the first record at or after the given time
+	 *
+	 * @param time
+	 *            time in milliseconds
+	 * @return index of the record, size() if every record is earlier
+	 */
+	public int indexOf(long time) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getTime(mid) < time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * The file mapped
+	 *
+	 * @return file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Length of the file when it was mapped
+	 *
+	 * @return length in bytes
+	 */
+	public long getLength() {
+		return length;
+	}
+
+}
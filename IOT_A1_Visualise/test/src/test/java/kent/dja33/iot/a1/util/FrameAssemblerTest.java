@@ -0,0 +1,145 @@
+package kent.dja33.iot.a1.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Reads as they come off the serial port, several frames at once, frames
+ * split between reads and the garbage the MBED sends between them, split into
+ * frames by the FrameAssembler.
+ *
+ * @author Dante
+ *
+ */
+class FrameAssemblerTest {
+
+	private final List<String> frames = new ArrayList<>();
+	private final List<String> rejected = new ArrayList<>();
+
+	private final FrameAssembler assembler = new FrameAssembler(new FrameAssembler.FrameListener() {
+
+		@Override
+		public void frameReceived(String frame) {
+			frames.add(frame);
+		}
+
+		@Override
+		public void frameRejected(String reason, String text) {
+			rejected.add(reason + ": " + text);
+		}
+
+	});
+
+	private void read(String text) {
+		assembler.accept(text.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	@Test
+	void singleFrame() {
+		read("#D29.38:0.046882:-0.046882:1.031411#");
+
+		assertEquals(Arrays.asList("#D29.38:0.046882:-0.046882:1.031411"), frames);
+		assertEquals(0, rejected.size());
+	}
+
+	@Test
+	void twoFramesInOneRead() {
+		read("#D21.50:0:0:1##S_TICK_RATE:0.500000#");
+
+		assertEquals(Arrays.asList("#D21.50:0:0:1", "#S_TICK_RATE:0.500000"), frames);
+		assertEquals(0, rejected.size());
+	}
+
+	@Test
+	void frameSplitAcrossReads() {
+		read("#D21.50:0.0");
+		assertEquals(0, frames.size());
+
+		read("12:-0.02");
+		assertEquals(0, frames.size());
+
+		read("3:1.000##D21.");
+		assertEquals(Arrays.asList("#D21.50:0.012:-0.023:1.000"), frames);
+
+		read("60:0:0:1#");
+		assertEquals(Arrays.asList("#D21.50:0.012:-0.023:1.000", "#D21.60:0:0:1"), frames);
+		assertEquals(0, rejected.size());
+	}
+
+	@Test
+	void leadingGarbageIsRejected() {
+		read("xx\r\n#D21.50:0:0:1#");
+
+		assertEquals(Arrays.asList("#D21.50:0:0:1"), frames);
+		assertEquals(Arrays.asList("Garbage between frames: xx\r\n"), rejected);
+	}
+
+	@Test
+	void garbageBetweenFramesIsRejected() {
+		read("#D21.50:0:0:1#??#D21.60:0:0:1#");
+
+		assertEquals(Arrays.asList("#D21.50:0:0:1", "#D21.60:0:0:1"), frames);
+		assertEquals(Arrays.asList("Garbage between frames: ??"), rejected);
+	}
+
+	@Test
+	void garbageIsOnlyRejectedOnceAFrameStarts() {
+		read("noise");
+		assertEquals(0, rejected.size());
+
+		read(" more#D21.50:0:0:1#");
+		assertEquals(Arrays.asList("Garbage between frames: noise more"), rejected);
+		assertEquals(Arrays.asList("#D21.50:0:0:1"), frames);
+	}
+
+	@Test
+	void doubleHashResynchronises() {
+		/* Joined part way through a frame, its closing '#' is followed by the next frame's opening one */
+		read("0.012:-0.023:1.000##D21.50:0:0:1#");
+
+		assertEquals(Arrays.asList("#D21.50:0:0:1"), frames);
+		assertEquals(Arrays.asList("Garbage between frames: 0.012:-0.023:1.000"), rejected);
+	}
+
+	@Test
+	void doubleHashSplitAcrossReads() {
+		read("#D21.50:0:0:1#");
+		read("#");
+		read("#D21.60:0:0:1#");
+
+		assertEquals(Arrays.asList("#D21.50:0:0:1", "#D21.60:0:0:1"), frames);
+		assertEquals(0, rejected.size());
+	}
+
+	@Test
+	void frameTooLongIsDropped() {
+		char[] endless = new char[FrameAssembler.BUFFER_SIZE + 10];
+		Arrays.fill(endless, '1');
+		endless[0] = '#';
+
+		read(new String(endless));
+		read("#D21.50:0:0:1#");
+
+		/* What overflowed is dropped, the rest is garbage once a frame starts */
+		assertTrue(rejected.get(0).startsWith("Frame too long: #111"), rejected.get(0));
+		assertEquals("Garbage between frames: 1111111111", rejected.get(1));
+		assertEquals(Arrays.asList("#D21.50:0:0:1"), frames);
+	}
+
+	@Test
+	void clearForgetsPartialFrame() {
+		read("#D21.50:0:");
+		assembler.clear();
+		read("#D21.60:0:0:1#");
+
+		assertEquals(Arrays.asList("#D21.60:0:0:1"), frames);
+	}
+
+}
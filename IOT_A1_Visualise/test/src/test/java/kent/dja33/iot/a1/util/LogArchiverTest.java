@@ -0,0 +1,109 @@
+package kent.dja33.iot.a1.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * A logger started over a directory of logs it did not write, checking none
+ * of them are compressed or removed however old they are, while logs it was
+ * handed or left part way through are compressed and kept.
+ *
+ * @author Dante
+ *
+ */
+class LogArchiverTest {
+
+	/* February 2017, well beyond the age compressed logs are kept to */
+	private static final long OLD = 1_487_000_000_000L;
+
+	@TempDir
+	Path directory;
+
+	private File oldLog(String name) throws IOException {
+		File log = new File(directory.toFile(), name);
+		Files.write(log.toPath(), ("[12:00:00] " + name + System.lineSeparator()).getBytes(StandardCharsets.US_ASCII));
+		assertTrue(log.setLastModified(OLD));
+		return log;
+	}
+
+	private static byte[] decompress(File file) throws IOException {
+		try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	@Test
+	void startingOverOldLogsDeletesNone() throws IOException, InterruptedException {
+		File[] logs = { oldLog("log18-02-17.txt"), oldLog("log19-02-17.txt"), oldLog("log19-02-17.1.txt") };
+		byte[][] contents = new byte[logs.length][];
+		for (int i = 0; i < logs.length; i++) {
+			contents[i] = Files.readAllBytes(logs[i].toPath());
+		}
+
+		Out out = new Out(directory.toString());
+		out.awaitArchived();
+
+		for (int i = 0; i < logs.length; i++) {
+			assertTrue(logs[i].exists(), logs[i].getName() + " was removed");
+			assertArrayEquals(contents[i], Files.readAllBytes(logs[i].toPath()));
+			assertFalse(new File(logs[i].getPath() + LogArchiver.COMPRESSED_SUFFIX).exists());
+		}
+
+		/* Only today's log is added */
+		assertEquals(logs.length + 1, directory.toFile().list().length);
+	}
+
+	@Test
+	void interruptedCompressionIsFinishedAndKept() throws IOException, InterruptedException {
+		File log = oldLog("log20-02-17.txt");
+		byte[] content = Files.readAllBytes(log.toPath());
+		File partial = new File(log.getPath() + LogArchiver.COMPRESSED_SUFFIX + ".part");
+		Files.write(partial.toPath(), new byte[] { 0x1f });
+
+		Out out = new Out(directory.toString());
+		out.awaitArchived();
+
+		File compressed = new File(log.getPath() + LogArchiver.COMPRESSED_SUFFIX);
+		assertFalse(partial.exists());
+		assertFalse(log.exists());
+		assertTrue(compressed.exists(), "Compressed log was removed for the age of its entries");
+		assertArrayEquals(content, decompress(compressed));
+	}
+
+	@Test
+	void handedOverLogIsAgedFromWhenCompressed() throws IOException, InterruptedException {
+		File log = oldLog("log21-02-17.txt");
+		byte[] content = Files.readAllBytes(log.toPath());
+
+		LogArchiver archiver = new LogArchiver(directory.toFile(), "log");
+		archiver.archive(log);
+		archiver.awaitIdle();
+
+		File compressed = new File(log.getPath() + LogArchiver.COMPRESSED_SUFFIX);
+		assertFalse(log.exists());
+		assertTrue(compressed.exists());
+		assertArrayEquals(content, decompress(compressed));
+	}
+
+}
@@ -0,0 +1,216 @@
+package kent.dja33.iot.a1.util.alert;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import kent.dja33.iot.a1.util.alert.AlertRule.Channel;
+
+/**
+ * Samples fed straight into an AlertEngine, checking when each kind of rule
+ * is raised and cleared and that hysteresis and debounce hold alerts steady.
+ *
+ * @author Dante
+ *
+ */
+class AlertEngineTest {
+
+	/* Every change reported, "+name" when raised and "-name" when cleared */
+	private final List<String> changes = new ArrayList<>();
+
+	private long time = 1000;
+
+	private AlertEngine engine(AlertRule... rules) {
+		AlertEngine engine = new AlertEngine(Arrays.asList(rules));
+		engine.addListener((rule, raised, time, value) -> changes.add((raised ? "+" : "-") + rule));
+		return engine;
+	}
+
+	/**
+	 * A sample a quarter of a second after the last, lying flat
+	 */
+	private void temperature(AlertEngine engine, float temperature) {
+		engine.evaluate(time += 250, temperature, 0, 0, 1);
+	}
+
+	private void z(AlertEngine engine, float z) {
+		engine.evaluate(time += 250, 20, 0, 0, z);
+	}
+
+	@Test
+	void aboveHoldsUntilBackPastHysteresis() {
+		AlertRule hot = AlertRule.above("Hot", Channel.TEMPERATURE, 40, 1);
+		AlertEngine engine = engine(hot);
+
+		temperature(engine, 39.9f);
+		assertFalse(engine.isRaised(hot));
+
+		temperature(engine, 40.5f);
+		assertTrue(engine.isRaised(hot));
+
+		temperature(engine, 39.5f);
+		assertTrue(engine.isRaised(hot));
+
+		temperature(engine, 38.9f);
+		assertFalse(engine.isRaised(hot));
+
+		/* Back to needing the threshold itself */
+		temperature(engine, 39.5f);
+		assertFalse(engine.isRaised(hot));
+
+		assertEquals(Arrays.asList("+Hot", "-Hot"), changes);
+	}
+
+	@Test
+	void belowHoldsUntilBackPastHysteresis() {
+		AlertRule cold = AlertRule.below("Cold", Channel.TEMPERATURE, 5, 1);
+		AlertEngine engine = engine(cold);
+
+		temperature(engine, 4.5f);
+		temperature(engine, 5.5f);
+		assertTrue(engine.isRaised(cold));
+
+		temperature(engine, 6.5f);
+		assertFalse(engine.isRaised(cold));
+		assertEquals(Arrays.asList("+Cold", "-Cold"), changes);
+	}
+
+	@Test
+	void outsideBandBothWays() {
+		AlertRule tilted = AlertRule.outside("Tilted", Channel.Z, 0.8f, 1.2f, 0.05f);
+		AlertEngine engine = engine(tilted);
+
+		z(engine, 1f);
+		z(engine, 0.7f);
+		assertTrue(engine.isRaised(tilted));
+
+		z(engine, 0.82f);
+		assertTrue(engine.isRaised(tilted));
+
+		z(engine, 0.9f);
+		assertFalse(engine.isRaised(tilted));
+
+		z(engine, 1.3f);
+		assertTrue(engine.isRaised(tilted));
+
+		assertEquals(Arrays.asList("+Tilted", "-Tilted", "+Tilted"), changes);
+	}
+
+	@Test
+	void magnitudeCombinesAxes() {
+		AlertRule impact = AlertRule.above("Impact", Channel.MAGNITUDE, 2, 0.2f);
+		AlertEngine engine = engine(impact);
+
+		engine.evaluate(time, 20, 1.5f, 1.5f, 1f);
+		assertTrue(engine.isRaised(impact));
+	}
+
+	@Test
+	void debounceNeedsSamplesInARow() {
+		AlertRule hot = AlertRule.above("Hot", Channel.TEMPERATURE, 40, 1).debounce(3);
+		AlertEngine engine = engine(hot);
+
+		temperature(engine, 41);
+		temperature(engine, 41);
+		/* A single sample back under starts the count again */
+		temperature(engine, 39);
+		temperature(engine, 41);
+		temperature(engine, 41);
+		assertFalse(engine.isRaised(hot));
+
+		temperature(engine, 41);
+		assertTrue(engine.isRaised(hot));
+
+		temperature(engine, 30);
+		temperature(engine, 30);
+		assertTrue(engine.isRaised(hot));
+
+		temperature(engine, 30);
+		assertFalse(engine.isRaised(hot));
+
+		assertEquals(Arrays.asList("+Hot", "-Hot"), changes);
+	}
+
+	@Test
+	void slopeIgnoresBurstsOfSamples() {
+		AlertRule rapid = AlertRule.slope("Rapid", Channel.TEMPERATURE, 2, 0.5f);
+		AlertEngine engine = engine(rapid);
+
+		/* Two samples read together differ by far more than 2C over their spacing */
+		for (int i = 0; i < 20; i++) {
+			engine.evaluate(time, 20, 0, 0, 1);
+			engine.evaluate(time + 5, 20.2f, 0, 0, 1);
+			time += 250;
+		}
+
+		assertFalse(engine.isRaised(rapid));
+	}
+
+	@Test
+	void slopeRaisedByFastRampAndClearedWhenSteady() {
+		AlertRule rapid = AlertRule.slope("Rapid", Channel.TEMPERATURE, 2, 0.5f);
+		AlertEngine engine = engine(rapid);
+
+		/* 1C a second is fine */
+		float temperature = 20;
+		for (int i = 0; i < 12; i++) {
+			temperature(engine, temperature += 0.25f);
+		}
+		assertFalse(engine.isRaised(rapid));
+
+		/* 6C a second is not */
+		for (int i = 0; i < 8; i++) {
+			temperature(engine, temperature += 1.5f);
+		}
+		assertTrue(engine.isRaised(rapid));
+
+		for (int i = 0; i < 8; i++) {
+			temperature(engine, temperature);
+		}
+		assertFalse(engine.isRaised(rapid));
+
+		assertEquals(Arrays.asList("+Rapid", "-Rapid"), changes);
+	}
+
+	@Test
+	void staleRaisedWithoutSamplesAndClearedByOne() {
+		AlertRule stale = AlertRule.stale("No samples", 5000);
+		AlertEngine engine = engine(stale);
+
+		/* Nothing is stale before the first sample */
+		engine.checkStale(time + 60_000);
+		assertFalse(engine.isRaised(stale));
+
+		temperature(engine, 20);
+		engine.checkStale(time + 5000);
+		assertFalse(engine.isRaised(stale));
+
+		engine.checkStale(time + 5001);
+		assertTrue(engine.isRaised(stale));
+
+		time += 6000;
+		temperature(engine, 20);
+		assertFalse(engine.isRaised(stale));
+
+		assertEquals(Arrays.asList("+No samples", "-No samples"), changes);
+	}
+
+	@Test
+	void rulesAreIndependent() {
+		AlertRule hot = AlertRule.above("Hot", Channel.TEMPERATURE, 40, 1);
+		AlertRule tilted = AlertRule.outside("Tilted", Channel.Z, 0.8f, 1.2f, 0.05f);
+		AlertEngine engine = engine(hot, tilted);
+
+		engine.evaluate(time, 45, 0, 0, 1);
+
+		assertTrue(engine.isRaised(hot));
+		assertFalse(engine.isRaised(tilted));
+	}
+
+}
@@ -0,0 +1,137 @@
+package kent.dja33.iot.a1.util.anomaly;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * A ChannelDetector over the accelerometer's Z channel, fed values a second
+ * apart about one level so no hour of the day is ever unusual, checking a
+ * spike is an outlier, a step is only confirmed on its third value, and the
+ * jitter of a quantised channel sitting still is never anything.
+ *
+ * @author Dante
+ *
+ */
+class ChannelDetectorTest {
+
+	private static final int CHANNEL = 3;
+
+	/* One step of the accelerometer, as the MBED reports it */
+	private static final float RESOLUTION = 0.046882f;
+	private static final float LEVEL = 1.031411f;
+
+	private static final long START = 1_500_000_000_000L;
+
+	private ChannelDetector detector;
+	private long time;
+
+	@BeforeEach
+	void createDetector() {
+		detector = new ChannelDetector(CHANNEL, RESOLUTION);
+		time = START;
+	}
+
+	private int check(float value) {
+		time += 1000;
+		return detector.check(value, time);
+	}
+
+	/**
+	 * Fill the window with the level jittering a step either way
+	 */
+	private void settle() {
+		for (int i = 0; i < 64; i++) {
+			assertEquals(0, check(LEVEL + (i % 3 - 1) * RESOLUTION));
+		}
+	}
+
+	@Test
+	void spikeIsAnOutlier() {
+		settle();
+
+		int anomalies = check(LEVEL + 1);
+		assertEquals(Anomaly.OUTLIER.mask(CHANNEL), anomalies);
+		assertTrue(Anomaly.OUTLIER.in(anomalies, CHANNEL));
+
+		/* Back to the level, the spike was a glitch and left the window alone */
+		assertEquals(0, check(LEVEL));
+		assertEquals(1, detector.getGlitches());
+		assertEquals(0, detector.getSteps());
+	}
+
+	@Test
+	void spikeJustBeyondTheThresholdIsAnOutlier() {
+		settle();
+
+		/* The jitter deviates by a step, scaled to a standard deviation of 1.48 steps */
+		assertEquals(0, check(LEVEL + 8 * RESOLUTION));
+		assertEquals(Anomaly.OUTLIER.mask(CHANNEL), check(LEVEL + 10 * RESOLUTION));
+		assertEquals(Anomaly.OUTLIER.mask(CHANNEL), check(LEVEL - 10 * RESOLUTION));
+	}
+
+	@Test
+	void stepIsConfirmedOnTheThirdValue() {
+		settle();
+
+		float raised = LEVEL + 1;
+		assertEquals(Anomaly.OUTLIER.mask(CHANNEL), check(raised));
+		assertEquals(Anomaly.OUTLIER.mask(CHANNEL), check(raised));
+		assertEquals(Anomaly.STEP.mask(CHANNEL), check(raised));
+		assertEquals(1, detector.getSteps());
+		assertEquals(0, detector.getGlitches());
+
+		/* The new level is normal from then on */
+		for (int i = 0; i < 100; i++) {
+			assertEquals(0, check(raised + (i % 3 - 1) * RESOLUTION));
+		}
+		assertEquals(1, detector.getSteps());
+	}
+
+	@Test
+	void runCutShortIsAGlitch() {
+		settle();
+
+		assertEquals(Anomaly.OUTLIER.mask(CHANNEL), check(LEVEL - 1));
+		assertEquals(Anomaly.OUTLIER.mask(CHANNEL), check(LEVEL - 1));
+		assertEquals(0, check(LEVEL));
+
+		/* Outliers either side of the level are never a step */
+		assertEquals(Anomaly.OUTLIER.mask(CHANNEL), check(LEVEL + 1));
+		assertEquals(Anomaly.OUTLIER.mask(CHANNEL), check(LEVEL - 1));
+		assertEquals(Anomaly.OUTLIER.mask(CHANNEL), check(LEVEL + 1));
+
+		assertEquals(0, detector.getSteps());
+		assertEquals(3, detector.getGlitches());
+	}
+
+	@Test
+	void quantisedJitterIsNeverFlagged() {
+		Random random = new Random(33);
+		for (int i = 0; i < 100_000; i++) {
+			float value = LEVEL + (random.nextInt(3) - 1) * RESOLUTION;
+			assertEquals(0, check(value), "Flagged " + value + " after " + i + " values");
+		}
+		assertEquals(0, detector.getGlitches());
+		assertEquals(0, detector.getSteps());
+	}
+
+	@Test
+	void nothingIsFlaggedBeforeTheWindowFills() {
+		for (int i = 0; i < 7; i++) {
+			assertEquals(0, check(i % 2 == 0 ? LEVEL : LEVEL + 10));
+		}
+	}
+
+	@Test
+	void gapsAreIgnored() {
+		settle();
+		assertEquals(0, check(Float.NaN));
+		assertEquals(Anomaly.OUTLIER.mask(CHANNEL), check(LEVEL + 1));
+	}
+
+}
@@ -0,0 +1,211 @@
+package kent.dja33.iot.a1.util.device;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import kent.dja33.iot.a1.util.device.DeviceState.AckState;
+import kent.dja33.iot.a1.util.event.Event;
+import kent.dja33.iot.a1.util.event.EventLog;
+import kent.dja33.iot.a1.util.event.EventType;
+import kent.dja33.iot.a1.util.metrics.Metrics;
+
+/**
+ * A CommandQueue writing to a fake device, checking that bursts are written
+ * together, opposite rate changes cancel out, unanswered rate changes are
+ * given up on and reported, and a disconnect forgets everything.
+ *
+ * @author Dante
+ *
+ */
+class CommandQueueTest {
+
+	/* Long enough for the writer to have written anything it was going to */
+	private static final long WRITE_WAIT = 1000;
+	private static final long QUIET_WAIT = 300;
+
+	/* Short stand-in for the ACK_TIMEOUT */
+	private static final long ACK_TIMEOUT = 200;
+
+	private static final String PORT = "FAKE";
+
+	/**
+	 * Records every write, and can be told to fail them
+	 */
+	private static class FakeWriter implements CommandWriter {
+
+		final DeviceState state = new DeviceState();
+		final BlockingQueue<String> writes = new LinkedBlockingQueue<>();
+		volatile boolean fail;
+
+		@Override
+		public boolean sendPayload(String payload) {
+			writes.add(payload);
+			return !fail;
+		}
+
+		@Override
+		public DeviceState getDeviceState() {
+			return state;
+		}
+
+		@Override
+		public String getActivePort() {
+			return PORT;
+		}
+
+	}
+
+	private FakeWriter device;
+	private CommandQueue queue;
+
+	@BeforeEach
+	void connect() {
+		device = new FakeWriter();
+		device.state.setAckState(AckState.CONFIRMED);
+		queue = new CommandQueue(device, ACK_TIMEOUT);
+	}
+
+	private String nextWrite() throws InterruptedException {
+		return device.writes.poll(WRITE_WAIT, TimeUnit.MILLISECONDS);
+	}
+
+	private void assertNothingWritten() throws InterruptedException {
+		assertNull(device.writes.poll(QUIET_WAIT, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	void burstIsWrittenTogether() throws InterruptedException {
+		long writes = Metrics.metrics.commandWrites.get();
+
+		queue.send("#A");
+		queue.increaseRate();
+		queue.send("#B");
+		queue.increaseRate();
+
+		assertEquals("#A#B#T0#T0", nextWrite());
+		assertNothingWritten();
+		assertEquals(writes + 1, Metrics.metrics.commandWrites.get());
+		assertEquals(2, queue.getOutstanding());
+	}
+
+	@Test
+	void commandsAfterAWriteGoInTheNext() throws InterruptedException {
+		queue.send("#A");
+		assertEquals("#A", nextWrite());
+
+		queue.send("#B");
+		assertEquals("#B", nextWrite());
+	}
+
+	@Test
+	void oppositeRateChangesNetOut() throws InterruptedException {
+		long merged = Metrics.metrics.commandsMerged.get();
+
+		queue.increaseRate();
+		queue.increaseRate();
+		queue.decreaseRate();
+
+		assertEquals("#T0", nextWrite());
+		assertEquals(merged + 2, Metrics.metrics.commandsMerged.get());
+		assertEquals(1, queue.getOutstanding());
+	}
+
+	@Test
+	void rateChangesThatCancelAreNotWritten() throws InterruptedException {
+		queue.decreaseRate();
+		queue.increaseRate();
+
+		assertEquals(0, queue.getOutstanding());
+		assertNothingWritten();
+	}
+
+	@Test
+	void answersAreMatchedOldestFirst() throws InterruptedException {
+		long answered = Metrics.metrics.commandLatency.getCount();
+
+		queue.decreaseRate();
+		queue.decreaseRate();
+		assertEquals("#T1#T1", nextWrite());
+
+		queue.rateAnswered();
+		assertEquals(1, queue.getOutstanding());
+		queue.rateAnswered();
+		assertEquals(0, queue.getOutstanding());
+		assertEquals(answered + 2, Metrics.metrics.commandLatency.getCount());
+
+		/* An answer nobody is waiting for is ignored */
+		queue.rateAnswered();
+		assertEquals(answered + 2, Metrics.metrics.commandLatency.getCount());
+	}
+
+	@Test
+	void unansweredRateChangesExpireAndAreReported() throws InterruptedException, IOException {
+		long start = System.currentTimeMillis();
+		long answered = Metrics.metrics.commandLatency.getCount();
+
+		queue.increaseRate();
+		assertEquals("#T0", nextWrite());
+		assertEquals(1, queue.getOutstanding());
+
+		Thread.sleep(ACK_TIMEOUT * 2);
+		queue.rateAnswered();
+
+		assertEquals(0, queue.getOutstanding());
+		assertEquals(answered, Metrics.metrics.commandLatency.getCount());
+
+		List<Event> expired = EventLog.events.find(start, Long.MAX_VALUE, Arrays.asList(EventType.COMMANDS_EXPIRED));
+		assertEquals(1, expired.size());
+		assertEquals(PORT, expired.get(0).getDevice());
+		assertEquals("1", expired.get(0).get("count"));
+	}
+
+	@Test
+	void unansweredRateChangesExpireOnTheNextWrite() throws InterruptedException {
+		queue.increaseRate();
+		assertEquals("#T0", nextWrite());
+
+		Thread.sleep(ACK_TIMEOUT * 2);
+		queue.send("#A");
+		assertEquals("#A", nextWrite());
+
+		assertEquals(0, queue.getOutstanding());
+	}
+
+	@Test
+	void disconnectClearsEverything() throws InterruptedException {
+		queue.increaseRate();
+		assertEquals("#T0", nextWrite());
+
+		queue.send("#A");
+		queue.decreaseRate();
+		queue.decreaseRate();
+		device.state.setAckState(AckState.DISCONNECTED);
+
+		assertEquals(0, queue.getOutstanding());
+		assertNothingWritten();
+	}
+
+	@Test
+	void failedWriteIsNotWaitedOn() throws InterruptedException {
+		device.fail = true;
+
+		queue.send("#A");
+		queue.increaseRate();
+
+		assertEquals("#A#T0", nextWrite());
+		assertNothingWritten();
+		assertEquals(0, queue.getOutstanding());
+	}
+
+}
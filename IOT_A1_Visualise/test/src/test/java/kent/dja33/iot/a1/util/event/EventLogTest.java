@@ -0,0 +1,292 @@
+package kent.dja33.iot.a1.util.event;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Events of mixed types written across several blocks and files of a
+ * temporary directory, found again by EventLog, checking exactly those of the
+ * types and window asked for come back whether the index is whole, missing or
+ * cut short, and that the index and the names of files are used to pass over
+ * what cannot match.
+ *
+ * @author Dante
+ *
+ */
+class EventLogTest {
+
+	private static final long START = 1_500_000_000_000L;
+	private static final long SECOND = 1000;
+	private static final long MINUTE = 60 * SECOND;
+	private static final long HOUR = 60 * MINUTE;
+	private static final long DAY = 24 * HOUR;
+
+	/* Where each entry of an index starts, and where its mask lies in it */
+	private static final int HEADER_SIZE = 8;
+	private static final int ENTRY_SIZE = 40;
+	private static final int MASK_OFFSET = 16;
+
+	@TempDir
+	Path directory;
+
+	private EventLog log;
+
+	/* Every event written, in the order written */
+	private final List<Event> written = new ArrayList<>();
+
+	private File first;
+	private File second;
+
+	@BeforeEach
+	void writeEvents() throws IOException {
+
+		log = new EventLog(directory.toString());
+
+		/*
+		 * 200 events 10 seconds apart then two hours later, making blocks of
+		 * 64 health and tick rate, 64 commands, 22 alerts cut short by the
+		 * gap, and 50 health
+		 */
+		EventFile events = create(START);
+		for (int i = 0; i < 200; i++) {
+			long time = START + i * 10 * SECOND + (i >= 150 ? 2 * HOUR : 0);
+			EventType type;
+			if (i < 64) {
+				type = i % 2 == 0 ? EventType.HEALTH : EventType.TICK_RATE;
+			} else if (i < 128) {
+				type = EventType.COMMANDS_SENT;
+			} else if (i < 150) {
+				type = i % 2 == 0 ? EventType.ALERT_RAISED : EventType.ALERT_CLEARED;
+			} else {
+				type = EventType.HEALTH;
+			}
+			append(events, type, time);
+		}
+		events.close();
+		first = events.getFile();
+
+		/* A day later, 100 connections a minute apart, in blocks of an hour */
+		events = create(START + DAY);
+		for (int i = 0; i < 100; i++) {
+			append(events, i % 2 == 0 ? EventType.CONNECTED : EventType.DISCONNECTED, START + DAY + i * MINUTE);
+		}
+		events.close();
+		second = events.getFile();
+
+	}
+
+	private EventFile create(long started) throws IOException {
+		String name = EventFile.PREFIX + new SimpleDateFormat("yyyyMMdd-HHmmssSSS").format(new Date(started))
+				+ EventFile.SUFFIX;
+		return new EventFile(new File(directory.toFile(), name));
+	}
+
+	private void append(EventFile events, EventType type, long time) throws IOException {
+		Map<String, String> fields = new LinkedHashMap<>();
+		fields.put("n", String.valueOf(written.size()));
+		Event event = new Event(type, "COM3", time, written.size(), fields);
+		events.append(event);
+		written.add(event);
+	}
+
+	/**
+	 * What find should return, from every event written
+	 */
+	private List<String> expected(long from, long to, EventType... types) {
+		List<EventType> wanted = Arrays.asList(types.length > 0 ? types : EventType.values());
+		List<String> expected = new ArrayList<>();
+		for (Event event : written) {
+			if (wanted.contains(event.getType()) && event.getTime() >= from && event.getTime() < to) {
+				expected.add(event.toJson());
+			}
+		}
+		return expected;
+	}
+
+	private List<String> found(long from, long to, EventType... types) throws IOException {
+		List<String> found = new ArrayList<>();
+		for (Event event : log.find(from, to, Arrays.asList(types))) {
+			found.add(event.toJson());
+		}
+		return found;
+	}
+
+	private void assertFinds(long from, long to, EventType... types) throws IOException {
+		List<String> expected = expected(from, to, types);
+		assertEquals(expected, found(from, to, types));
+	}
+
+	/**
+	 * Every query the tests check, across blocks, files and types
+	 */
+	private void assertFindsEverything() throws IOException {
+		assertFinds(0, Long.MAX_VALUE);
+		assertFinds(START, START + 5 * MINUTE);
+		assertFinds(START + 5 * MINUTE, START + 3 * HOUR, EventType.HEALTH);
+		assertFinds(START, START + 2 * DAY, EventType.COMMANDS_SENT, EventType.CONNECTED);
+		assertFinds(START + 20 * MINUTE, START + DAY + 30 * MINUTE, EventType.ALERT_CLEARED, EventType.DISCONNECTED);
+		assertFinds(START + DAY + 59 * MINUTE, START + DAY + 62 * MINUTE, EventType.CONNECTED);
+	}
+
+	/**
+	 * Each entry of an index as the number of events in the block and the
+	 * time between its first and last
+	 */
+	private static List<long[]> entries(File file) throws IOException {
+		List<long[]> entries = new ArrayList<>();
+		try (DataInputStream in = new DataInputStream(new FileInputStream(EventFile.indexOf(file)))) {
+			in.readInt();
+			in.readInt();
+			while (in.available() >= ENTRY_SIZE) {
+				long firstTime = in.readLong();
+				long lastTime = in.readLong();
+				in.readLong();
+				in.readLong();
+				in.readInt();
+				entries.add(new long[] { in.readInt(), lastTime - firstTime });
+			}
+		}
+		return entries;
+	}
+
+	@Test
+	void findsExactlyTheEventsAskedFor() throws IOException {
+		assertEquals(300, found(0, Long.MAX_VALUE).size());
+		assertEquals(written.size(), expected(0, Long.MAX_VALUE).size());
+
+		assertFindsEverything();
+
+		/* Before a block, between two and before a file */
+		assertEquals(Collections.emptyList(), found(0, START));
+		assertEquals(Collections.emptyList(), found(START + HOUR, START + 2 * HOUR));
+		assertEquals(Collections.emptyList(), found(START + 3 * HOUR, START + DAY));
+
+		/* The start of the window is included and its end is not */
+		assertEquals(10, found(START + 10 * SECOND, START + 110 * SECOND).size());
+		assertEquals(Collections.emptyList(), found(START, START + 3 * HOUR, EventType.STOP));
+	}
+
+	@Test
+	void blocksHoldNoMoreThan64EventsOrAnHour() throws IOException {
+		List<long[]> entries = entries(first);
+		assertEquals(4, entries.size());
+		assertEquals(64, entries.get(0)[0]);
+		assertEquals(64, entries.get(1)[0]);
+		assertEquals(22, entries.get(2)[0]);
+		assertEquals(50, entries.get(3)[0]);
+
+		entries = entries(second);
+		assertEquals(2, entries.size());
+		assertEquals(61, entries.get(0)[0]);
+		assertEquals(39, entries.get(1)[0]);
+		for (long[] entry : entries) {
+			assertTrue(entry[1] <= HOUR);
+		}
+	}
+
+	@Test
+	void missingIndexReadsTheWholeFile() throws IOException {
+		assertTrue(EventFile.indexOf(first).delete());
+		assertTrue(EventFile.indexOf(second).delete());
+
+		assertFindsEverything();
+	}
+
+	@Test
+	void truncatedIndexReadsTheRestOfTheFile() throws IOException {
+		/* Part way through the second entry, then part way through the header */
+		try (RandomAccessFile index = new RandomAccessFile(EventFile.indexOf(first), "rw")) {
+			index.setLength(HEADER_SIZE + ENTRY_SIZE + ENTRY_SIZE / 2);
+		}
+		try (RandomAccessFile index = new RandomAccessFile(EventFile.indexOf(second), "rw")) {
+			index.setLength(HEADER_SIZE / 2);
+		}
+
+		assertFindsEverything();
+	}
+
+	@Test
+	void eventsAfterTheLastBlockAreFound() throws IOException {
+		/* Not closed, as if the collector stopped, so the block is never indexed */
+		EventFile events = create(START + 2 * DAY);
+		try {
+			for (int i = 0; i < 10; i++) {
+				append(events, EventType.RECONNECTED, START + 2 * DAY + i * SECOND);
+			}
+			assertEquals(0, entries(events.getFile()).size());
+
+			assertFindsEverything();
+			assertFinds(START + 2 * DAY, Long.MAX_VALUE, EventType.RECONNECTED);
+			assertEquals(10, found(0, Long.MAX_VALUE, EventType.RECONNECTED).size());
+		} finally {
+			events.close();
+		}
+	}
+
+	@Test
+	void blocksAreChosenByTheIndex() throws IOException {
+		/* Claim the block of commands holds none, if the index is read it is skipped */
+		try (RandomAccessFile index = new RandomAccessFile(EventFile.indexOf(first), "rw")) {
+			index.seek(HEADER_SIZE + ENTRY_SIZE + MASK_OFFSET);
+			index.writeLong(EventType.STOP.mask());
+		}
+
+		assertEquals(Collections.emptyList(), found(0, Long.MAX_VALUE, EventType.COMMANDS_SENT));
+
+		/* Every other block is still read */
+		assertFinds(0, Long.MAX_VALUE, EventType.HEALTH, EventType.TICK_RATE, EventType.ALERT_RAISED,
+				EventType.CONNECTED);
+	}
+
+	@Test
+	void filesAreChosenByTheTimeInTheirName() throws IOException {
+		/*
+		 * Named as started after the first file's window, and before the second
+		 * file, but holding events within the first's window and the second's
+		 */
+		EventFile misnamed = create(START + HOUR + 30 * MINUTE);
+		misnamed.append(new Event(EventType.START, null, START + 30 * SECOND, 0, new LinkedHashMap<>()));
+		misnamed.append(new Event(EventType.START, null, START + DAY + 10 * MINUTE, 1, new LinkedHashMap<>()));
+		misnamed.close();
+
+		/* Started after the window, so never read */
+		assertEquals(Collections.emptyList(), found(START, START + HOUR, EventType.START));
+
+		/* Its successor started before the window, so never read either */
+		assertEquals(Collections.emptyList(), found(START + DAY + 5 * MINUTE, Long.MAX_VALUE, EventType.START));
+
+		/* Only read when the window takes in when it was started */
+		assertEquals(1, found(START, START + HOUR + 31 * MINUTE, EventType.START).size());
+	}
+
+	@Test
+	void fileWithoutATimeInItsNameIsAlwaysRead() throws IOException {
+		File file = new File(directory.toFile(), EventFile.PREFIX + "copied" + EventFile.SUFFIX);
+		EventFile copied = new EventFile(file);
+		copied.append(new Event(EventType.STOP, null, START + 2 * HOUR, 0, new LinkedHashMap<>()));
+		copied.close();
+
+		assertEquals(1, found(START + HOUR, START + 3 * HOUR, EventType.STOP).size());
+		assertFinds(START + HOUR, START + 3 * HOUR, EventType.HEALTH);
+	}
+
+}
@@ -0,0 +1,172 @@
+package kent.dja33.iot.a1.util.filter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The moving average, exponential, median and low-pass filters against values
+ * worked out by hand, or by brute force where that is easier.
+ *
+ * @author Dante
+ *
+ */
+class SampleFilterTest {
+
+	private static final float DELTA = 1e-5f;
+
+	@Test
+	void movingAverageOverWindow() {
+		SampleFilter filter = new MovingAverageFilter(3);
+
+		assertEquals(1f, filter.filter(1), DELTA);
+		assertEquals(1.5f, filter.filter(2), DELTA);
+		assertEquals(2f, filter.filter(3), DELTA);
+		assertEquals(3f, filter.filter(4), DELTA);
+		assertEquals(4f, filter.filter(5), DELTA);
+	}
+
+	@Test
+	void movingAverageForgetsOnReset() {
+		SampleFilter filter = new MovingAverageFilter(4);
+		filter.filter(100);
+		filter.filter(100);
+		filter.reset();
+
+		assertEquals(10f, filter.filter(10), DELTA);
+	}
+
+	@Test
+	void movingAverageNeedsAWindow() {
+		assertThrows(IllegalArgumentException.class, () -> new MovingAverageFilter(0));
+	}
+
+	@Test
+	void exponentialStartsAtFirstValue() {
+		SampleFilter filter = new ExponentialFilter(0.5f);
+
+		assertEquals(0f, filter.filter(0), DELTA);
+		assertEquals(5f, filter.filter(10), DELTA);
+		assertEquals(7.5f, filter.filter(10), DELTA);
+
+		filter.reset();
+		assertEquals(-3f, filter.filter(-3), DELTA);
+	}
+
+	@Test
+	void exponentialWithAlphaOfOneFollowsInput() {
+		SampleFilter filter = new ExponentialFilter(1f);
+		filter.filter(4);
+
+		assertEquals(9f, filter.filter(9), DELTA);
+	}
+
+	@Test
+	void exponentialRejectsAlphaOutOfRange() {
+		assertThrows(IllegalArgumentException.class, () -> new ExponentialFilter(0f));
+		assertThrows(IllegalArgumentException.class, () -> new ExponentialFilter(1.5f));
+	}
+
+	@Test
+	void medianRemovesSpike() {
+		SampleFilter filter = new MedianFilter(3);
+
+		assertEquals(1f, filter.filter(1), DELTA);
+		assertEquals(50.5f, filter.filter(100), DELTA);
+		assertEquals(2f, filter.filter(2), DELTA);
+		assertEquals(3f, filter.filter(3), DELTA);
+		assertEquals(3f, filter.filter(4), DELTA);
+	}
+
+	@Test
+	void medianKeepsStep() {
+		SampleFilter filter = new MedianFilter(3);
+		float[] expected = { 0, 0, 0, 0, 5, 5 };
+		float[] input = { 0, 0, 0, 5, 5, 5 };
+
+		for (int i = 0; i < input.length; i++) {
+			assertEquals(expected[i], filter.filter(input[i]), DELTA);
+		}
+	}
+
+	@Test
+	void medianMatchesSortedWindow() {
+		int window = 5;
+		SampleFilter filter = new MedianFilter(window);
+		Random random = new Random(42);
+		float[] values = new float[1000];
+
+		for (int i = 0; i < values.length; i++) {
+			/* Few distinct values so duplicates leave the window often */
+			values[i] = random.nextInt(6);
+
+			int from = Math.max(0, i - window + 1);
+			float[] sorted = Arrays.copyOfRange(values, from, i + 1);
+			Arrays.sort(sorted);
+			int n = sorted.length;
+			float median = (n & 1) == 1 ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2;
+
+			assertEquals(median, filter.filter(values[i]), DELTA, "sample " + i);
+		}
+	}
+
+	@Test
+	void medianForgetsOnReset() {
+		SampleFilter filter = new MedianFilter(3);
+		filter.filter(7);
+		filter.filter(8);
+		filter.reset();
+
+		assertEquals(1f, filter.filter(1), DELTA);
+	}
+
+	@Test
+	void lowPassHoldsSteadyInput() {
+		SampleFilter filter = new LowPassFilter(1, 10, LowPassFilter.BUTTERWORTH_Q);
+
+		for (int i = 0; i < 50; i++) {
+			assertEquals(21.5f, filter.filter(21.5f), 1e-4f);
+		}
+	}
+
+	@Test
+	void lowPassSettlesOnStep() {
+		SampleFilter filter = new LowPassFilter(1, 10, LowPassFilter.BUTTERWORTH_Q);
+		filter.filter(0);
+
+		float output = 0;
+		for (int i = 0; i < 100; i++) {
+			output = filter.filter(1);
+		}
+
+		assertEquals(1f, output, 1e-3f);
+	}
+
+	@Test
+	void lowPassRemovesNoiseAboveCutoff() {
+		SampleFilter filter = new LowPassFilter(1, 10, LowPassFilter.BUTTERWORTH_Q);
+
+		/* Alternating values are at the highest frequency the rate can carry */
+		float peak = 0;
+		for (int i = 0; i < 200; i++) {
+			float output = filter.filter((i & 1) == 0 ? 1 : -1);
+			if (i >= 100) {
+				peak = Math.max(peak, Math.abs(output));
+			}
+		}
+
+		assertTrue(peak < 0.05f, "peak " + peak);
+	}
+
+	@Test
+	void lowPassRejectsCutoffAboveNyquist() {
+		assertThrows(IllegalArgumentException.class, () -> new LowPassFilter(5, 10, LowPassFilter.BUTTERWORTH_Q));
+		assertThrows(IllegalArgumentException.class, () -> new LowPassFilter(0, 10, LowPassFilter.BUTTERWORTH_Q));
+	}
+
+}
@@ -0,0 +1,111 @@
+package kent.dja33.iot.a1.util.message;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Frames as read off the serial port, including the corrupted ones the MBED
+ * is known to send, turned into messages by the MessageHandler.
+ *
+ * @author Dante
+ *
+ */
+class MessageParsingTest {
+
+	private static Message parse(String frame) {
+		return MessageHandler.getHandler().createMessage(frame);
+	}
+
+	@Test
+	void dataFrameIsParsed() {
+		DataMessage msg = assertInstanceOf(DataMessage.class, parse("#D29.38:0.046882:-0.046882:1.031411#"));
+
+		assertTrue(msg.isValid());
+		assertEquals(MessageHandler.DATA, msg.getName());
+		assertEquals(29.38f, msg.getTemperature());
+		assertEquals(0.046882f, msg.getX());
+		assertEquals(-0.046882f, msg.getY());
+		assertEquals(1.031411f, msg.getZ());
+		assertFalse(msg.isAnomalous());
+	}
+
+	@Test
+	void filteredValuesStartAsRaw() {
+		DataMessage msg = (DataMessage) parse("#D21.50:0.010:0.020:0.990#");
+
+		assertEquals(msg.getTemperature(), msg.getTemperature(true));
+		assertEquals(msg.getX(), msg.getX(true));
+		assertEquals(msg.getY(), msg.getY(true));
+		assertEquals(msg.getZ(), msg.getZ(true));
+
+		msg.setFiltered(20f, 0f, 0f, 1f);
+		assertEquals(20f, msg.getTemperature(true));
+		assertEquals(21.5f, msg.getTemperature(false));
+	}
+
+	@Test
+	void truncatedDataFrameIsInvalid() {
+		DataMessage msg = assertInstanceOf(DataMessage.class, parse("#D29.38:0.046882#"));
+		assertFalse(msg.isValid());
+	}
+
+	@Test
+	void corruptedDataFrameIsInvalid() {
+		DataMessage msg = assertInstanceOf(DataMessage.class, parse("#D29.3x:0.046882:-0.046882:1.031411#"));
+		assertFalse(msg.isValid());
+	}
+
+	@Test
+	void tickRateIsParsed() {
+		SettingMessage msg = assertInstanceOf(SettingMessage.class, parse("#S_TICK_RATE:0.500000#"));
+
+		assertTrue(msg.isValid());
+		assertEquals(MessageHandler.SETTING, msg.getName());
+		assertEquals(SettingMessage.TICK_RATE, msg.getSetting());
+		assertEquals(0.5f, msg.getValue());
+	}
+
+	@Test
+	void tickRateSurvivesCorruptedName() {
+		SettingMessage msg = (SettingMessage) parse("#S_TICK0.480000#");
+
+		assertTrue(msg.isValid());
+		assertEquals(0.48f, msg.getValue());
+	}
+
+	@Test
+	void tickRateWithoutDecimalIsInvalid() {
+		SettingMessage msg = (SettingMessage) parse("#S_TICK_RATE000#");
+
+		assertFalse(msg.isValid());
+		assertNull(msg.getSetting());
+		assertTrue(Float.isNaN(msg.getValue()));
+	}
+
+	@Test
+	void tickRateNeedsDigitsBothSidesOfThePoint() {
+		assertFalse(((SettingMessage) parse("#S_TICK_RATE:.5#")).isValid());
+		assertFalse(((SettingMessage) parse("#S_TICK_RATE:5.#")).isValid());
+	}
+
+	@Test
+	void emptyFrameIsAnError() {
+		assertEquals(MessageHandler.ERR, parse("##").getName());
+	}
+
+	@Test
+	void unknownFrameIsAnError() {
+		assertEquals(MessageHandler.ERR, parse("#Xsomething#").getName());
+	}
+
+	@Test
+	void acknowledgementIsRecognised() {
+		assertEquals(MessageHandler.ACK, parse("#A_OK#").getName());
+	}
+
+}
@@ -0,0 +1,147 @@
+package kent.dja33.iot.a1.util.publish;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Batches spooled to a temporary directory and read back, within one run and
+ * across a restart of the collector.
+ *
+ * @author Dante
+ *
+ */
+class BatchSpoolTest {
+
+	private static final long MAX_SIZE = 1024 * 1024;
+
+	@TempDir
+	File directory;
+
+	private static Batch batch(int n) {
+		byte[] payload = new byte[n + 1];
+		payload[0] = (byte) n;
+		return new Batch("COM" + n, payload);
+	}
+
+	private static void assertBatch(int n, Batch batch) {
+		assertNotNull(batch, "batch " + n);
+		assertEquals("COM" + n, batch.device);
+		assertArrayEquals(batch(n).payload, batch.payload);
+	}
+
+	private String[] segments() {
+		return directory.list((dir, name) -> name.startsWith(BatchSpool.SEGMENT_PREFIX));
+	}
+
+	@Test
+	void emptySpoolHasNothing() throws IOException {
+		BatchSpool spool = new BatchSpool(directory, MAX_SIZE);
+
+		assertNull(spool.peek());
+		assertTrue(spool.isEmpty());
+		spool.close();
+	}
+
+	@Test
+	void batchesComeBackOldestFirst() throws IOException {
+		BatchSpool spool = new BatchSpool(directory, MAX_SIZE);
+		for (int n = 0; n < 3; n++) {
+			spool.append(batch(n));
+		}
+
+		for (int n = 0; n < 3; n++) {
+			assertBatch(n, spool.peek());
+			/* Peeking again without removing gives the same batch */
+			assertBatch(n, spool.peek());
+			spool.remove();
+		}
+
+		assertTrue(spool.isEmpty());
+		assertEquals(0, segments().length);
+		spool.close();
+	}
+
+	@Test
+	void batchesSurviveRestart() throws IOException {
+		BatchSpool spool = new BatchSpool(directory, MAX_SIZE);
+		for (int n = 0; n < 3; n++) {
+			spool.append(batch(n));
+		}
+		spool.flush();
+		spool.close();
+
+		assertEquals(1, segments().length);
+
+		spool = new BatchSpool(directory, MAX_SIZE);
+		assertTrue(spool.getSize() > 0);
+		for (int n = 0; n < 3; n++) {
+			assertBatch(n, spool.peek());
+			spool.remove();
+		}
+
+		assertTrue(spool.isEmpty());
+		assertEquals(0, segments().length);
+		spool.close();
+	}
+
+	@Test
+	void batchesAppendedAfterRestartFollowTheOldOnes() throws IOException {
+		BatchSpool spool = new BatchSpool(directory, MAX_SIZE);
+		spool.append(batch(0));
+		spool.close();
+
+		spool = new BatchSpool(directory, MAX_SIZE);
+		spool.append(batch(1));
+		spool.flush();
+
+		assertEquals(2, segments().length);
+		assertBatch(0, spool.peek());
+		spool.remove();
+		assertBatch(1, spool.peek());
+		spool.remove();
+		assertTrue(spool.isEmpty());
+		spool.close();
+	}
+
+	@Test
+	void batchPeekedButNotRemovedIsReadAgainAfterRestart() throws IOException {
+		BatchSpool spool = new BatchSpool(directory, MAX_SIZE);
+		spool.append(batch(0));
+		spool.append(batch(1));
+		assertBatch(0, spool.peek());
+		spool.close();
+
+		spool = new BatchSpool(directory, MAX_SIZE);
+		assertBatch(0, spool.peek());
+		spool.close();
+	}
+
+	@Test
+	void fullSpoolDropsOldestSegment() throws IOException {
+		long maxSize = 6 * 1024 * 1024;
+		BatchSpool spool = new BatchSpool(directory, maxSize);
+
+		for (int n = 0; n < 12; n++) {
+			Batch batch = new Batch("COM" + n, new byte[1024 * 1024]);
+			batch.payload[0] = (byte) n;
+			spool.append(batch);
+		}
+		spool.flush();
+
+		assertTrue(spool.getSize() <= maxSize, "size " + spool.getSize());
+		Batch oldest = spool.peek();
+		assertNotEquals("COM0", oldest.device);
+		spool.close();
+	}
+
+}
@@ -0,0 +1,101 @@
+package kent.dja33.iot.a1.util.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import kent.dja33.iot.a1.util.query.Query.Aggregate;
+import kent.dja33.iot.a1.util.query.Query.Column;
+import kent.dja33.iot.a1.util.query.Query.Comparison;
+
+/**
+ * The subset of SQL understood by Query.parse(), and the mistakes it should
+ * refuse.
+ *
+ * @author Dante
+ *
+ */
+class QueryParserTest {
+
+	@Test
+	void countAll() {
+		Query query = Query.parse("SELECT COUNT(*)");
+
+		assertEquals(Aggregate.COUNT, query.aggregate);
+		assertEquals(0, query.filterColumns.size());
+		assertEquals(Long.MIN_VALUE, query.from);
+		assertEquals(Long.MAX_VALUE, query.to);
+		assertEquals(0, query.groupWidth);
+	}
+
+	@Test
+	void keywordsAreNotCaseSensitive() {
+		Query query = Query.parse("select max(temperature) where abs(z) < 0.9 group by hour");
+
+		assertEquals(Aggregate.MAX, query.aggregate);
+		assertEquals(Column.TEMPERATURE, query.column);
+		assertEquals(Arrays.asList(Column.Z), query.filterColumns);
+		assertEquals(Arrays.asList(Comparison.ABS_LESS), query.filterComparisons);
+		assertEquals(Arrays.asList(0.9f), query.filterBounds);
+		assertEquals(Query.HOUR, query.groupWidth);
+	}
+
+	@Test
+	void conditionsAreAppliedInOrder() {
+		Query query = Query.parse("SELECT MEAN(x) WHERE y >= -0.5 AND ABS(z) > 1.1 AND anomalies > 0");
+
+		assertEquals(Arrays.asList(Column.Y, Column.Z, Column.ANOMALIES), query.filterColumns);
+		assertEquals(Arrays.asList(Comparison.GREATER_EQUAL, Comparison.ABS_GREATER, Comparison.GREATER),
+				query.filterComparisons);
+		assertEquals(Arrays.asList(-0.5f, 1.1f, 0f), query.filterBounds);
+	}
+
+	@Test
+	void equalsIsBothBounds() {
+		Query query = Query.parse("SELECT COUNT(*) WHERE temperature = 21.5");
+
+		assertEquals(Arrays.asList(Comparison.GREATER_EQUAL, Comparison.LESS_EQUAL), query.filterComparisons);
+		assertEquals(Arrays.asList(21.5f, 21.5f), query.filterBounds);
+	}
+
+	@Test
+	void timeLimitsTheRange() {
+		Query query = Query.parse("SELECT COUNT(*) WHERE time >= 1000 AND time < 2000");
+		assertEquals(1000, query.from);
+		assertEquals(2000, query.to);
+
+		query = Query.parse("SELECT COUNT(*) WHERE time > 1000 AND time <= 2000");
+		assertEquals(1001, query.from);
+		assertEquals(2001, query.to);
+	}
+
+	@Test
+	void groupByWidths() {
+		assertEquals(Query.MINUTE, Query.parse("SELECT EVENTS(*) GROUP BY MINUTE").groupWidth);
+		assertEquals(Query.DAY, Query.parse("SELECT EVENTS(*) GROUP BY DAY").groupWidth);
+		assertEquals(5000, Query.parse("SELECT EVENTS(*) GROUP BY 5000").groupWidth);
+	}
+
+	@Test
+	void printedQueryParsesBackTheSame() {
+		Query query = Query.parse("SELECT MIN(z) WHERE ABS(x) > 0.2 AND time >= 10 AND time < 20 GROUP BY 1000");
+
+		assertEquals(query.toString(), Query.parse(query.toString()).toString());
+	}
+
+	@Test
+	void refusesMistakes() {
+		String[] mistakes = { "", "COUNT(*)", "SELECT AVG(x)", "SELECT COUNT(x)", "SELECT MAX(*)",
+				"SELECT MAX(pressure)", "SELECT COUNT(*", "SELECT COUNT(*) WHERE", "SELECT COUNT(*) WHERE x ! 1",
+				"SELECT COUNT(*) WHERE x < one", "SELECT COUNT(*) WHERE ABS(x) >= 1", "SELECT COUNT(*) WHERE time = 5",
+				"SELECT COUNT(*) GROUP BY", "SELECT COUNT(*) GROUP BY WEEK", "SELECT COUNT(*) LIMIT 5" };
+
+		for (String mistake : mistakes) {
+			assertThrows(IllegalArgumentException.class, () -> Query.parse(mistake), mistake);
+		}
+	}
+
+}
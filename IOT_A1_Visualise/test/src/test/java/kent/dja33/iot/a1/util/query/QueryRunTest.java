@@ -0,0 +1,176 @@
+package kent.dja33.iot.a1.util.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import kent.dja33.iot.a1.util.query.Query.Aggregate;
+import kent.dja33.iot.a1.util.query.Query.Column;
+import kent.dja33.iot.a1.util.query.Query.Comparison;
+import kent.dja33.iot.a1.util.store.SampleRecorder;
+import kent.dja33.iot.a1.util.store.SampleStore;
+
+/**
+ * Queries run over a SampleStore on segments written to a temporary
+ * directory, laid out as the SampleRecorder would with times chosen so every
+ * answer is known.
+ *
+ * @author Dante
+ *
+ */
+class QueryRunTest {
+
+	/* Start of an hour, so groups of a minute start on a record */
+	private static final long START = 472_222 * Query.HOUR;
+
+	@TempDir
+	Path directory;
+
+	private SampleStore store;
+
+	@BeforeEach
+	void openStore() {
+		store = new SampleStore(directory.toString());
+	}
+
+	@AfterEach
+	void closeStore() {
+		store.close();
+	}
+
+	/**
+	 * Two minutes of a sample a second, 20C for the first and 30C for the
+	 * second, tilted for 3 samples in every 10 and an anomaly in the sixth,
+	 * followed by a gap
+	 */
+	private void writeTwoMinutes() throws IOException {
+		try (DataOutputStream out = segment("samples-00-00-00_00-00-00-000.dat")) {
+			for (int i = 0; i < 120; i++) {
+				record(out, START + i * 1000L, i < 60 ? 20f : 30f, 0f, 0f, i % 10 < 3 ? 0.5f : 1f, i == 5 ? 1 : 0);
+			}
+			record(out, START + 120_000, Float.NaN, Float.NaN, Float.NaN, Float.NaN, 0);
+		}
+	}
+
+	private DataOutputStream segment(String name) throws IOException {
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(new File(directory.toFile(), name))));
+		out.writeInt(SampleRecorder.MAGIC);
+		out.writeInt(SampleRecorder.VERSION);
+		return out;
+	}
+
+	private static void record(DataOutputStream out, long time, float temperature, float x, float y, float z,
+			int anomalies) throws IOException {
+		out.writeLong(time);
+		out.writeFloat(temperature);
+		out.writeFloat(x);
+		out.writeFloat(y);
+		out.writeFloat(z);
+		out.writeInt(anomalies);
+	}
+
+	@Test
+	void emptyStoreHasNoGroups() {
+		assertEquals(0, Query.parse("SELECT COUNT(*)").run(store).size());
+	}
+
+	@Test
+	void countSkipsGaps() throws IOException {
+		writeTwoMinutes();
+
+		QueryResult result = Query.parse("SELECT COUNT(*)").run(store);
+
+		assertEquals(1, result.size());
+		assertEquals(120, result.getCount(0));
+		assertEquals(120, result.getValue(0));
+	}
+
+	@Test
+	void aggregatesGroupedByMinute() throws IOException {
+		writeTwoMinutes();
+
+		QueryResult max = Query.parse("SELECT MAX(temperature) GROUP BY MINUTE").run(store);
+		assertEquals(2, max.size());
+		assertEquals(START, max.getGroup(0));
+		assertEquals(START + Query.MINUTE, max.getGroup(1));
+		assertEquals(20, max.getValue(0));
+		assertEquals(30, max.getValue(1));
+
+		assertEquals(25, Query.parse("SELECT MEAN(temperature)").run(store).getValue(0), 1e-9);
+		assertEquals(3000, Query.parse("SELECT SUM(temperature)").run(store).getValue(0), 1e-9);
+		assertEquals(0.5, Query.parse("SELECT MIN(z)").run(store).getValue(0), 1e-9);
+	}
+
+	@Test
+	void eventsCountRunsOfSelectedRecords() throws IOException {
+		writeTwoMinutes();
+
+		QueryResult result = Query.parse("SELECT EVENTS(*) WHERE ABS(z) < 0.9 GROUP BY MINUTE").run(store);
+
+		assertEquals(2, result.size());
+		assertEquals(6, result.getValue(0));
+		assertEquals(6, result.getValue(1));
+		assertEquals(18, result.getCount(0));
+	}
+
+	@Test
+	void anomaliesCanBeFilteredOn() throws IOException {
+		writeTwoMinutes();
+
+		QueryResult result = Query.parse("SELECT COUNT(*) WHERE anomalies > 0").run(store);
+
+		assertEquals(1, result.getCount(0));
+	}
+
+	@Test
+	void timeRangeIsHonoured() throws IOException {
+		writeTwoMinutes();
+
+		QueryResult result = new Query().between(START + 30_000, START + Query.MINUTE + 30_000).run(store);
+
+		assertEquals(60, result.getCount(0));
+	}
+
+	@Test
+	void recordsWrittenLaterAreFound() throws IOException {
+		writeTwoMinutes();
+		assertEquals(120, Query.parse("SELECT COUNT(*)").run(store).getCount(0));
+
+		try (DataOutputStream out = segment("samples-00-00-00_00-02-00-000.dat")) {
+			record(out, START + 121_000, 25f, 0f, 0f, 1f, 0);
+		}
+
+		assertEquals(121, Query.parse("SELECT COUNT(*)").run(store).getCount(0));
+	}
+
+	@Test
+	void eventSpanningTasksIsCountedOnce() throws IOException {
+		int records = Query.RECORDS_PER_TASK * 2 + 100;
+		int tiltFrom = Query.RECORDS_PER_TASK - 5;
+
+		try (DataOutputStream out = segment("samples-00-00-00_00-00-00-000.dat")) {
+			for (int i = 0; i < records; i++) {
+				boolean tilted = i >= tiltFrom && i < tiltFrom + 10;
+				record(out, START + i * 10L, 20f, 0f, 0f, tilted ? 0.5f : 1f, 0);
+			}
+		}
+
+		QueryResult result = new Query().select(Aggregate.EVENTS, Column.Z)
+				.where(Column.Z, Comparison.ABS_LESS, 0.9f).run(store);
+
+		assertEquals(1, result.getValue(0));
+		assertEquals(10, result.getCount(0));
+	}
+
+}
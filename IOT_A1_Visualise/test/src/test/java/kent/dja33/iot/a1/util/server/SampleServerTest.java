@@ -0,0 +1,158 @@
+package kent.dja33.iot.a1.util.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import kent.dja33.iot.a1.util.device.DeviceState;
+import kent.dja33.iot.a1.util.message.DataMessage;
+import kent.dja33.iot.a1.util.message.MessageHandler;
+
+/**
+ * A SampleServer listening on a free port of localhost, fed samples directly
+ * and asked for them over HTTP.
+ *
+ * @author Dante
+ *
+ */
+class SampleServerTest {
+
+	private static final int TIMEOUT = 5000;
+
+	private SampleServer server;
+
+	@BeforeEach
+	void startServer() throws IOException {
+		server = new SampleServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), new DeviceState());
+		server.start();
+	}
+
+	@AfterEach
+	void stopServer() {
+		server.stop();
+	}
+
+	private HttpURLConnection open(String path) throws IOException {
+		URL url = new URL("http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getPort()
+				+ path);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setConnectTimeout(TIMEOUT);
+		connection.setReadTimeout(TIMEOUT);
+		return connection;
+	}
+
+	private String get(String path) throws IOException {
+		HttpURLConnection connection = open(path);
+		assertEquals(200, connection.getResponseCode(), path);
+		try (InputStream in = connection.getInputStream()) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static DataMessage sample(String payload) {
+		return new DataMessage(MessageHandler.DATA, null, payload, 0);
+	}
+
+	private void receive(String... payloads) {
+		for (String payload : payloads) {
+			server.dataReceived(sample(payload));
+		}
+		server.endOfBatch();
+	}
+
+	@Test
+	void stateBeforeAnySample() throws IOException {
+		String state = get("/state");
+
+		assertTrue(state.contains("\"tickRate\":null"), state);
+		assertTrue(state.contains("\"latest\":null"), state);
+		assertTrue(state.contains("\"subscribers\":0"), state);
+	}
+
+	@Test
+	void stateHasLatestSample() throws IOException {
+		receive("20.0:0.0:0.0:1.0", "21.5:0.1:0.2:0.9");
+
+		String state = get("/state");
+
+		assertTrue(state.contains("\"latest\":{"), state);
+		assertTrue(state.contains("\"temperature\":21.5"), state);
+		assertTrue(state.contains("\"z\":0.9"), state);
+	}
+
+	@Test
+	void historyIsLimitedToTheLatest() throws IOException {
+		receive("20.0:0:0:1", "21.0:0:0:1", "22.0:0:0:1");
+
+		String history = get("/history?limit=2");
+
+		assertTrue(history.startsWith("[{") && history.endsWith("}]"), history);
+		assertEquals(2, history.split("\"time\"").length - 1, history);
+		assertTrue(history.indexOf("21.0") < history.indexOf("22.0"), history);
+		assertTrue(!history.contains("\"temperature\":20.0"), history);
+
+		assertEquals(3, get("/history").split("\"time\"").length - 1);
+	}
+
+	@Test
+	void historyRejectsBadLimit() throws IOException {
+		assertEquals(400, open("/history?limit=lots").getResponseCode());
+	}
+
+	@Test
+	void valuesThatAreNotNumbersAreNull() throws IOException {
+		receive("NaN:0:Infinity:1");
+
+		String history = get("/history");
+
+		assertTrue(history.contains("\"temperature\":null"), history);
+		assertTrue(history.contains("\"y\":null"), history);
+	}
+
+	@Test
+	void metricsAreText() throws IOException {
+		HttpURLConnection connection = open("/metrics");
+
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("text/plain", connection.getContentType());
+	}
+
+	@Test
+	void streamSendsBatchesAndGaps() throws IOException {
+		HttpURLConnection connection = open("/stream");
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("text/event-stream", connection.getContentType());
+
+		try (BufferedReader in = new BufferedReader(
+				new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+
+			assertEquals(": connected", in.readLine());
+			assertEquals("", in.readLine());
+			assertEquals(1, server.getSubscriberCount());
+
+			receive("21.5:0:0:1", "21.6:0:0:1");
+			String data = in.readLine();
+			assertTrue(data.startsWith("data: [{") && data.endsWith("}]"), data);
+			assertEquals(2, data.split("\"time\"").length - 1, data);
+			assertEquals("", in.readLine());
+
+			server.gap(1000, 2000);
+			assertEquals("event: gap", in.readLine());
+			assertEquals("data: {\"start\":1000,\"end\":2000}", in.readLine());
+		}
+	}
+
+}
@@ -0,0 +1,134 @@
+package kent.dja33.iot.a1.util.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The tier a SampleStore picks for a view, checking a view never holds more
+ * points than were asked for whether the records are dense, sparse or a year
+ * apart.
+ *
+ * @author Dante
+ *
+ */
+class SampleStoreTest {
+
+	/* As many points as the HistoryView draws */
+	private static final int MAX_POINTS = 600;
+
+	private static final long START = 1_500_000_000_000L;
+	private static final long DAY = 86_400_000;
+
+	@TempDir
+	Path directory;
+
+	private SampleStore store;
+
+	@BeforeEach
+	void openStore() {
+		store = new SampleStore(directory.toString());
+	}
+
+	@AfterEach
+	void closeStore() {
+		store.close();
+	}
+
+	/**
+	 * Write a segment of records every interval, then find it
+	 */
+	private void write(String name, long start, long interval, int count) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(new File(directory.toFile(), name))))) {
+			out.writeInt(SampleRecorder.MAGIC);
+			out.writeInt(SampleRecorder.VERSION);
+			for (int i = 0; i < count; i++) {
+				out.writeLong(start + i * interval);
+				out.writeFloat(20f);
+				out.writeFloat(0f);
+				out.writeFloat(0f);
+				out.writeFloat(1f);
+				out.writeInt(0);
+			}
+		}
+		store.refresh();
+	}
+
+	/**
+	 * Points within a view at the tier the store picks for it, decoded as the
+	 * HistoryView would be given them
+	 */
+	private int points(long from, long to) {
+		int tier = store.tierFor(from, to, MAX_POINTS);
+		long span = SampleStore.chunkSpan(tier);
+		int points = 0;
+		for (long index = Math.floorDiv(from, span); index <= Math.floorDiv(to, span); index++) {
+			SampleChunk chunk = store.load(tier, index);
+			for (int i = 0; i < chunk.size(); i++) {
+				if (chunk.getTime(i) >= from && chunk.getTime(i) < to) {
+					points++;
+				}
+			}
+		}
+		return points;
+	}
+
+	@Test
+	void sparseRecordsAreDrawnRaw() throws IOException {
+		write("samples-sparse.dat", START, 1000, 150);
+
+		assertEquals(0, store.tierFor(START, START + 150_000, MAX_POINTS));
+		assertEquals(150, points(START, START + 150_000));
+	}
+
+	@Test
+	void denseRecordsAreBucketed() throws IOException {
+		/* 15,000 records in 150 seconds, a 250ms point width would have been raw */
+		write("samples-dense.dat", START, 10, 15_000);
+
+		int tier = store.tierFor(START, START + 150_000, MAX_POINTS);
+		assertTrue(tier > 0, "Picked the raw tier for 15000 records");
+		assertEquals(1, tier);
+		assertTrue(points(START, START + 150_000) <= MAX_POINTS);
+	}
+
+	@Test
+	void emptyViewIsRaw() {
+		assertEquals(0, store.tierFor(START, START + 365 * DAY, MAX_POINTS));
+	}
+
+	@Test
+	void yearFitsInTheCoarsestTier() throws IOException {
+		/* A record every 10 minutes for a year */
+		write("samples-year.dat", START, 600_000, 365 * 144);
+
+		long to = START + 365 * DAY;
+		int tier = store.tierFor(START, to, MAX_POINTS);
+		assertEquals(SampleStore.TIERS.length - 1, tier);
+		assertTrue(points(START, to) <= MAX_POINTS);
+	}
+
+	@Test
+	void viewNotLinedUpWithBucketsStillFits() throws IOException {
+		write("samples-offset.dat", START, 100, 6_000);
+
+		/* 600 seconds starts part way through a bucket, so 601 one second buckets would be touched */
+		long from = START + 500;
+		int tier = store.tierFor(from, from + 600_000, MAX_POINTS);
+		assertTrue(SampleStore.TIERS[tier] > 1_000);
+		assertTrue(points(from, from + 600_000) <= MAX_POINTS);
+	}
+
+}
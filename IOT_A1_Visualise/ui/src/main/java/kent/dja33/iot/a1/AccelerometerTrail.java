@@ -0,0 +1,192 @@
+package kent.dja33.iot.a1;
+
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.text.TextAlignment;
+
+/**
+ * Shows where the board has been tilted over the last TRAIL_LENGTH samples,
+ * replacing a ScatterChart with a single point that was moved and laid out
+ * again for every sample even though only the last was ever seen.
+ *
+ * Positions are kept in a fixed ring of primitives, adding one is only a few
+ * array writes. The trail is drawn onto a Canvas at most once per pulse, the
+ * oldest positions fading out, alongside a gauge of the Z force with the
+ * range it covered over the trail. Drawing costs the same however many
+ * samples arrived.
+ *
+ * Must only be used from the FX thread.
+ *
+ * @author Dante
+ *
+ */
+public class AccelerometerTrail {
+
+	/* Number of positions drawn */
+	public static final int TRAIL_LENGTH = 64;
+
+	/* Range of the X and Y axes and the Z gauge, in g */
+	private static final double RANGE = 1.2;
+
+	/* Space around the plot, and the width of the gauge */
+	private static final double PADDING = 30;
+	private static final double GAUGE_WIDTH = 20;
+
+	private static final Color TRAIL_COLOUR = Color.web("#f3622d");
+	private static final Color GRID_COLOUR = Color.gray(0.85);
+	private static final Color GAUGE_COLOUR = Color.web("#57b757");
+
+	/* Ring of recent positions */
+	private final float[] xs = new float[TRAIL_LENGTH];
+	private final float[] ys = new float[TRAIL_LENGTH];
+	private final float[] zs = new float[TRAIL_LENGTH];
+	private int head;
+	private int size;
+
+	private final Pane pane = new Pane();
+	private final Canvas canvas = new Canvas();
+	private final String title;
+
+	/* Whether anything has changed since the last draw */
+	private boolean dirty = true;
+
+	/**
+	 * Create an empty trail
+	 *
+	 * @param title
+	 *            drawn above the trail
+	 */
+	public AccelerometerTrail(String title) {
+		this.title = title;
+		pane.getChildren().add(canvas);
+		/* Follow the size of the pane, redrawing once it changes */
+		canvas.widthProperty().bind(pane.widthProperty());
+		canvas.heightProperty().bind(pane.heightProperty());
+		canvas.widthProperty().addListener((observable, oldValue, newValue) -> redraw());
+		canvas.heightProperty().addListener((observable, oldValue, newValue) -> redraw());
+	}
+
+	/**
+	 * The node to place in the GUI
+	 *
+	 * @return pane holding the canvas
+	 */
+	public Pane getNode() {
+		return pane;
+	}
+
+	/**
+	 * Add the latest position, it is not drawn until the next call to draw
+	 *
+	 * @param x
+	 *            horizontal position in g
+	 * @param y
+	 *            vertical position in g
+	 * @param z
+	 *            Z force in g
+	 */
+	public void add(float x, float y, float z) {
+		xs[head] = x;
+		ys[head] = y;
+		zs[head] = z;
+		head = (head + 1) % TRAIL_LENGTH;
+		if (size < TRAIL_LENGTH) {
+			size++;
+		}
+		dirty = true;
+	}
+
+	/**
+	 * Draw the trail if anything has been added since it was last drawn
+	 */
+	public void draw() {
+		if (dirty) {
+			redraw();
+		}
+	}
+
+	private void redraw() {
+
+		dirty = false;
+
+		double width = canvas.getWidth();
+		double height = canvas.getHeight();
+		GraphicsContext gc = canvas.getGraphicsContext2D();
+		gc.clearRect(0, 0, width, height);
+
+		/* Square plot on the left, gauge on the right */
+		double side = Math.min(width - GAUGE_WIDTH * 2 - PADDING * 2, height - PADDING * 2);
+		if (side <= 0) {
+			return;
+		}
+		double left = PADDING;
+		double top = (height - side) / 2;
+		double scale = side / (RANGE * 2);
+		double centreX = left + side / 2;
+		double centreY = top + side / 2;
+
+		gc.setFill(Color.BLACK);
+		gc.setTextAlign(TextAlignment.CENTER);
+		gc.setTextBaseline(VPos.BOTTOM);
+		gc.fillText(title, width / 2, top - 5);
+
+		gc.setStroke(GRID_COLOUR);
+		gc.setLineWidth(1);
+		gc.strokeRect(left, top, side, side);
+		gc.strokeLine(centreX, top, centreX, top + side);
+		gc.strokeLine(left, centreY, left + side, centreY);
+
+		/* Oldest first so the latest is drawn on top */
+		double r = Math.max(2, side / 80);
+		float zMin = Float.MAX_VALUE;
+		float zMax = -Float.MAX_VALUE;
+		for (int n = 0; n < size; n++) {
+			int i = (head - size + n + TRAIL_LENGTH) % TRAIL_LENGTH;
+			double age = (double) (n + 1) / size;
+			double px = centreX + clamp(xs[i]) * scale;
+			double py = centreY - clamp(ys[i]) * scale;
+			gc.setFill(TRAIL_COLOUR.deriveColor(0, 1, 1, age));
+			double radius = n == size - 1 ? r * 2 : r;
+			gc.fillOval(px - radius, py - radius, radius * 2, radius * 2);
+			zMin = Math.min(zMin, zs[i]);
+			zMax = Math.max(zMax, zs[i]);
+		}
+
+		/* Z gauge, filled from -RANGE up to the latest Z */
+		double gaugeLeft = width - PADDING - GAUGE_WIDTH;
+		gc.setStroke(GRID_COLOUR);
+		gc.strokeRect(gaugeLeft, top, GAUGE_WIDTH, side);
+		gc.setFill(Color.BLACK);
+		gc.fillText("Z", gaugeLeft + GAUGE_WIDTH / 2, top - 5);
+
+		if (size > 0) {
+			float z = zs[(head - 1 + TRAIL_LENGTH) % TRAIL_LENGTH];
+			double zTop = gaugeY(z, top, side);
+			gc.setFill(GAUGE_COLOUR);
+			gc.fillRect(gaugeLeft, zTop, GAUGE_WIDTH, top + side - zTop);
+
+			/* Range covered over the trail */
+			gc.setStroke(Color.BLACK);
+			double minY = gaugeY(zMin, top, side);
+			double maxY = gaugeY(zMax, top, side);
+			gc.strokeLine(gaugeLeft - 4, minY, gaugeLeft + GAUGE_WIDTH + 4, minY);
+			gc.strokeLine(gaugeLeft - 4, maxY, gaugeLeft + GAUGE_WIDTH + 4, maxY);
+
+			gc.setTextBaseline(VPos.TOP);
+			gc.fillText(String.format("%.2f", z), gaugeLeft + GAUGE_WIDTH / 2, top + side + 5);
+		}
+
+	}
+
+	private static double clamp(float value) {
+		return Math.max(-RANGE, Math.min(RANGE, value));
+	}
+
+	private static double gaugeY(float z, double top, double side) {
+		return top + side - (clamp(z) + RANGE) / (RANGE * 2) * side;
+	}
+
+}
@@ -0,0 +1,427 @@
+package kent.dja33.iot.a1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javafx.animation.AnimationTimer;
+import javafx.geometry.Orientation;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+import kent.dja33.iot.a1.util.anomaly.Anomaly;
+import kent.dja33.iot.a1.util.metrics.Metrics;
+
+/**
+ * Grid of small strip charts, a tile per DeviceStream, for watching a rack of
+ * boards at once. A LineChart and SensorHandler per device, each with its own
+ * pulse, falls over long before fifty devices, so every tile is drawn onto
+ * one Canvas the size of the view by one AnimationTimer.
+ *
+ * On each pulse only the tiles in view are looked at, and of those only the
+ * ones whose stream has had samples added, or has gone quiet, since they
+ * were last drawn are drawn again. Scrolling, zooming or resizing draws the
+ * tiles in view once.
+ *
+ * How much is drawn follows the size of a tile. A tile never draws more than
+ * a line per pixel across it, when it holds more samples than it is wide
+ * each pixel shows the range of the samples it covers. Tiles shorter than
+ * SPARKLINE_HEIGHT are only a line, taller ones add the device name, the
+ * latest temperature and marks for outliers, and from DETAIL_HEIGHT the
+ * accelerometer Z and the temperature range too. Scrolling moves through the
+ * tiles, scrolling with control held zooms.
+ *
+ * Must only be used from the FX thread.
+ *
+ * @author Dante
+ *
+ */
+public class DashboardView {
+
+	/* Width a tile aims for and its limits when zooming, and its height */
+	private static final double DEFAULT_TILE_WIDTH = 240;
+	private static final double MIN_TILE_WIDTH = 60;
+	private static final double MAX_TILE_WIDTH = 960;
+	private static final double TILE_ASPECT = 0.5;
+	private static final double ZOOM_FACTOR = 1.25;
+
+	/* Space between and inside tiles */
+	private static final double GAP = 4;
+	private static final double PADDING = 3;
+
+	/* Tile heights from which more detail is drawn */
+	private static final double SPARKLINE_HEIGHT = 48;
+	private static final double DETAIL_HEIGHT = 120;
+
+	/* Time without samples before a tile is shown as quiet */
+	private static final long QUIET_MS = 5000;
+
+	/* Smallest range of temperature a tile spans, and the range of Z in g */
+	private static final float MIN_TEMPERATURE_SPAN = 0.5f;
+	private static final float Z_RANGE = 1.2f;
+
+	private static final Color BACKGROUND = Color.WHITE;
+	private static final Color QUIET_BACKGROUND = Color.gray(0.9);
+	private static final Color BORDER = Color.gray(0.75);
+	private static final Color TEMPERATURE_COLOUR = Color.web("#f3622d");
+	private static final Color Z_COLOUR = Color.web("#57b757");
+	private static final Color OUTLIER_COLOUR = Color.RED;
+	private static final Color TEXT_COLOUR = Color.gray(0.2);
+	private static final Font FONT = Font.font("Monospaced", 10);
+
+	private final List<DeviceStream> streams = new ArrayList<>();
+
+	/* What each tile showed when last drawn, -1 if it must be drawn again */
+	private long[] drawnWritten = new long[0];
+	private boolean[] drawnQuiet = new boolean[0];
+
+	private final Pane pane = new Pane();
+	private final Canvas canvas = new Canvas();
+	private final ScrollBar scrollBar = new ScrollBar();
+
+	/* Layout of the grid, worked out again when anything changes it */
+	private double tileWidth = DEFAULT_TILE_WIDTH;
+	private int columns = 1;
+	private double cellWidth;
+	private double cellHeight;
+	private boolean layoutChanged = true;
+
+	private MeasurementType measurementType = MeasurementType.CELSIUS;
+	private boolean showing;
+
+	/* Reused for the range of samples under each pixel */
+	private float[] columnMin = new float[0];
+	private float[] columnMax = new float[0];
+	private boolean[] columnOutlier = new boolean[0];
+
+	/**
+	 * Create an empty dashboard, add a stream for each device to show
+	 */
+	public DashboardView() {
+
+		scrollBar.setOrientation(Orientation.VERTICAL);
+		pane.getChildren().addAll(canvas, scrollBar);
+
+		/* Canvas fills the pane beside the scroll bar */
+		scrollBar.layoutXProperty().bind(pane.widthProperty().subtract(scrollBar.widthProperty()));
+		scrollBar.prefHeightProperty().bind(pane.heightProperty());
+		canvas.widthProperty().bind(pane.widthProperty().subtract(scrollBar.widthProperty()));
+		canvas.heightProperty().bind(pane.heightProperty());
+
+		canvas.widthProperty().addListener((observable, oldValue, newValue) -> layoutChanged = true);
+		canvas.heightProperty().addListener((observable, oldValue, newValue) -> layoutChanged = true);
+		scrollBar.valueProperty().addListener((observable, oldValue, newValue) -> layoutChanged = true);
+
+		pane.setOnScroll(event -> {
+			if (event.isControlDown()) {
+				double zoom = event.getDeltaY() > 0 ? ZOOM_FACTOR : 1 / ZOOM_FACTOR;
+				tileWidth = Math.max(MIN_TILE_WIDTH, Math.min(MAX_TILE_WIDTH, tileWidth * zoom));
+				layoutChanged = true;
+			} else {
+				scrollBar.setValue(Math.max(scrollBar.getMin(),
+						Math.min(scrollBar.getMax(), scrollBar.getValue() - event.getDeltaY())));
+			}
+			event.consume();
+		});
+
+		new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				if (showing) {
+					long start = System.nanoTime();
+					draw(System.currentTimeMillis());
+					Metrics.metrics.fxFrameTime.recordSince(start);
+				}
+			}
+		}.start();
+
+	}
+
+	/**
+	 * The node to place in the GUI
+	 *
+	 * @return pane holding the canvas and scroll bar
+	 */
+	public Pane getNode() {
+		return pane;
+	}
+
+	/**
+	 * Add a tile for a device, after every tile already shown
+	 *
+	 * @param stream
+	 *            the samples of the device
+	 */
+	public void addStream(DeviceStream stream) {
+		streams.add(stream);
+		layoutChanged = true;
+	}
+
+	/**
+	 * Remove a device's tile
+	 *
+	 * @param stream
+	 *            the samples of the device
+	 */
+	public void removeStream(DeviceStream stream) {
+		streams.remove(stream);
+		layoutChanged = true;
+	}
+
+	/**
+	 * Start drawing the dashboard
+	 */
+	public void show() {
+		showing = true;
+		layoutChanged = true;
+	}
+
+	/**
+	 * Stop drawing the dashboard
+	 */
+	public void hide() {
+		showing = false;
+	}
+
+	/**
+	 * Show temperatures in another unit
+	 *
+	 * @param type
+	 *            the unit to show
+	 */
+	public void setMeasurementType(MeasurementType type) {
+		measurementType = type;
+		layoutChanged = true;
+	}
+
+	/**
+	 * Draw every tile in view that has changed since it was last drawn, or
+	 * every tile in view if the layout has changed
+	 */
+	private void draw(long now) {
+
+		double width = canvas.getWidth();
+		double height = canvas.getHeight();
+		int count = streams.size();
+		GraphicsContext gc = canvas.getGraphicsContext2D();
+
+		if (layoutChanged) {
+			layoutChanged = false;
+			layout(width, height, count);
+			gc.clearRect(0, 0, width, height);
+			Arrays.fill(drawnWritten, -1);
+		}
+
+		if (count == 0 || width <= 0 || height <= 0) {
+			return;
+		}
+
+		double offset = scrollBar.getValue();
+		int firstRow = (int) (offset / cellHeight);
+		int lastRow = (int) ((offset + height) / cellHeight);
+
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = 0; column < columns; column++) {
+
+				int i = row * columns + column;
+				if (i >= count) {
+					return;
+				}
+
+				DeviceStream stream = streams.get(i);
+				long written = stream.getWritten();
+				boolean quiet = written == 0 || now - stream.getTime(written, 0) > QUIET_MS;
+
+				/* Nothing new, leave the tile as it was drawn */
+				if (written == drawnWritten[i] && quiet == drawnQuiet[i]) {
+					continue;
+				}
+
+				drawTile(gc, stream, written, quiet, column * cellWidth, row * cellHeight - offset,
+						cellWidth - GAP, cellHeight - GAP);
+				drawnWritten[i] = written;
+				drawnQuiet[i] = quiet;
+
+			}
+		}
+
+	}
+
+	/**
+	 * Work out the grid for the size of the view, and how far it can scroll
+	 */
+	private void layout(double width, double height, int count) {
+
+		columns = Math.max(1, (int) ((width + GAP) / (tileWidth + GAP)));
+		cellWidth = (width + GAP) / columns;
+		cellHeight = Math.max(1, Math.round((cellWidth - GAP) * TILE_ASPECT)) + GAP;
+
+		int rows = (count + columns - 1) / columns;
+		double content = rows * cellHeight - GAP;
+		scrollBar.setMax(Math.max(0, content - height));
+		scrollBar.setVisibleAmount(height);
+		scrollBar.setUnitIncrement(cellHeight / 4);
+		scrollBar.setBlockIncrement(height);
+		if (scrollBar.getValue() > scrollBar.getMax()) {
+			scrollBar.setValue(scrollBar.getMax());
+		}
+
+		if (drawnWritten.length < count) {
+			drawnWritten = new long[count];
+			drawnQuiet = new boolean[count];
+		}
+
+		int pixels = (int) Math.ceil(cellWidth);
+		if (columnMin.length < pixels) {
+			columnMin = new float[pixels];
+			columnMax = new float[pixels];
+			columnOutlier = new boolean[pixels];
+		}
+
+	}
+
+	private void drawTile(GraphicsContext gc, DeviceStream stream, long written, boolean quiet, double x, double y,
+			double w, double h) {
+
+		gc.setFill(quiet ? QUIET_BACKGROUND : BACKGROUND);
+		gc.fillRect(x, y, w, h);
+		gc.setStroke(BORDER);
+		gc.setLineWidth(1);
+		gc.strokeRect(x + 0.5, y + 0.5, w - 1, h - 1);
+
+		boolean labelled = h >= SPARKLINE_HEIGHT;
+		boolean detailed = h >= DETAIL_HEIGHT;
+		double textHeight = labelled ? FONT.getSize() + 2 : 0;
+
+		double plotX = x + PADDING;
+		double plotY = y + PADDING + textHeight;
+		double plotW = w - 2 * PADDING;
+		double plotH = h - 2 * PADDING - textHeight * (detailed ? 2 : 1);
+		int pixels = (int) plotW;
+
+		int n = DeviceStream.readable(written);
+
+		if (labelled) {
+			gc.setFont(FONT);
+			gc.setFill(TEXT_COLOUR);
+			gc.setTextBaseline(VPos.TOP);
+			gc.setTextAlign(TextAlignment.LEFT);
+			gc.fillText(stream.getName(), x + PADDING, y + PADDING, plotW / 2);
+			if (n > 0) {
+				gc.setTextAlign(TextAlignment.RIGHT);
+				gc.fillText(format(stream.getTemperature(written, 0)), x + w - PADDING, y + PADDING);
+			}
+		}
+
+		if (n < 2 || pixels < 2 || plotH < 2) {
+			return;
+		}
+
+		/*
+		 * Oldest sample on the left, newest on the right. With more samples
+		 * than pixels each pixel holds the range of the samples under it.
+		 */
+		int used = Math.min(n, pixels);
+		float low = Float.MAX_VALUE;
+		float high = -Float.MAX_VALUE;
+
+		for (int p = 0; p < used; p++) {
+			columnMin[p] = Float.MAX_VALUE;
+			columnMax[p] = -Float.MAX_VALUE;
+			columnOutlier[p] = false;
+		}
+
+		for (int k = 0; k < n; k++) {
+			int age = n - 1 - k;
+			int p = (int) ((long) k * used / n);
+			float t = stream.getTemperature(written, age);
+			if (t < columnMin[p]) {
+				columnMin[p] = t;
+			}
+			if (t > columnMax[p]) {
+				columnMax[p] = t;
+			}
+			if (Anomaly.OUTLIER.in(stream.getAnomalies(written, age), 0)) {
+				columnOutlier[p] = true;
+			}
+		}
+
+		for (int p = 0; p < used; p++) {
+			low = Math.min(low, columnMin[p]);
+			high = Math.max(high, columnMax[p]);
+		}
+		if (high - low < MIN_TEMPERATURE_SPAN) {
+			float middle = (high + low) / 2;
+			low = middle - MIN_TEMPERATURE_SPAN / 2;
+			high = middle + MIN_TEMPERATURE_SPAN / 2;
+		}
+
+		double step = plotW / Math.max(1, used - 1);
+		double scale = plotH / (high - low);
+		double bottom = plotY + plotH;
+
+		/* One path down each pixel's range and across to the next */
+		gc.setStroke(TEMPERATURE_COLOUR);
+		gc.beginPath();
+		for (int p = 0; p < used; p++) {
+			double px = plotX + p * step;
+			double top = bottom - (columnMax[p] - low) * scale;
+			double base = bottom - (columnMin[p] - low) * scale;
+			if (p == 0) {
+				gc.moveTo(px, base);
+			} else {
+				gc.lineTo(px, base);
+			}
+			if (top != base) {
+				gc.lineTo(px, top);
+			}
+		}
+		gc.stroke();
+
+		if (labelled) {
+			gc.setStroke(OUTLIER_COLOUR);
+			for (int p = 0; p < used; p++) {
+				if (columnOutlier[p]) {
+					double px = plotX + p * step;
+					gc.strokeLine(px, plotY, px, plotY + 3);
+				}
+			}
+		}
+
+		if (detailed) {
+
+			/* Z from the same samples, one point per pixel */
+			gc.setStroke(Z_COLOUR);
+			gc.beginPath();
+			double middle = plotY + plotH / 2;
+			for (int p = 0; p < used; p++) {
+				int age = n - 1 - (int) ((long) p * n / used);
+				double py = middle - stream.getZ(written, age) / Z_RANGE * plotH / 2;
+				py = Math.max(plotY, Math.min(bottom, py));
+				if (p == 0) {
+					gc.moveTo(plotX, py);
+				} else {
+					gc.lineTo(plotX + p * step, py);
+				}
+			}
+			gc.stroke();
+
+			gc.setFill(TEXT_COLOUR);
+			gc.setTextBaseline(VPos.TOP);
+			gc.setTextAlign(TextAlignment.LEFT);
+			gc.fillText(format(low) + " - " + format(high), x + PADDING, bottom + 2, plotW);
+
+		}
+
+	}
+
+	private String format(float celsius) {
+		return String.format("%.2f%s", measurementType.fromCelsius(celsius), measurementType.getMeasurementSymbol());
+	}
+
+}
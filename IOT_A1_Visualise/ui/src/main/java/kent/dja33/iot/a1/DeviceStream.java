@@ -0,0 +1,160 @@
+package kent.dja33.iot.a1;
+
+import kent.dja33.iot.a1.util.message.DataMessage;
+import kent.dja33.iot.a1.util.message.DataMessageListener;
+
+/**
+ * The recent samples of one device for a tile of the DashboardView, kept in
+ * a fixed ring of primitives so a rack of devices costs a few arrays each
+ * rather than a chart and a queue of objects each.
+ *
+ * Written by a single thread, normally the pipeline, and read by the FX
+ * thread without locking. The writer publishes each sample by bumping a
+ * volatile count once the values are in place, the reader only looks at
+ * samples published before it started and at most CAPACITY - MARGIN of
+ * them, so the writer would have to lap it by MARGIN samples within a single
+ * draw to overwrite one it is reading.
+ *
+ * @author Dante
+ *
+ */
+public class DeviceStream implements DataMessageListener {
+
+	/* Samples kept, and how many of the oldest the reader leaves alone */
+	public static final int CAPACITY = 1024;
+	private static final int MARGIN = 64;
+
+	private final float[] temperatures = new float[CAPACITY];
+	private final float[] zs = new float[CAPACITY];
+	private final int[] anomalies = new int[CAPACITY];
+	private final long[] times = new long[CAPACITY];
+
+	/* Samples written so far, published after the values */
+	private volatile long written;
+
+	private volatile String name;
+
+	/**
+	 * Create an empty stream
+	 *
+	 * @param name
+	 *            shown on the device's tile
+	 */
+	public DeviceStream(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public void dataReceived(DataMessage msg) {
+		add(msg.getTime(), msg.getTemperature(), msg.getZ(), msg.getAnomalies());
+	}
+
+	/**
+	 * Add a sample, only ever from one thread at a time
+	 *
+	 * @param time
+	 *            time received in milliseconds
+	 * @param temperature
+	 *            temperature in Celsius
+	 * @param z
+	 *            accelerometer Z in g
+	 * @param anomalies
+	 *            anomalies found in the sample, 0 for none
+	 */
+	public void add(long time, float temperature, float z, int anomalies) {
+		long n = written;
+		int i = (int) (n % CAPACITY);
+		times[i] = time;
+		temperatures[i] = temperature;
+		zs[i] = z;
+		this.anomalies[i] = anomalies;
+		written = n + 1;
+	}
+
+	/**
+	 * Number of samples written so far, changes whenever a sample is added so
+	 * a tile can tell whether it needs drawing again
+	 *
+	 * @return samples written
+	 */
+	public long getWritten() {
+		return written;
+	}
+
+	/**
+	 * Number of samples that can safely be read, given the count read from
+	 * getWritten
+	 *
+	 * @param written
+	 *            the count read
+	 * @return samples readable, the newest of them
+	 */
+	public static int readable(long written) {
+		return (int) Math.min(written, CAPACITY - MARGIN);
+	}
+
+	/**
+	 * Temperature of a sample counting back from the newest
+	 *
+	 * @param written
+	 *            the count read from getWritten
+	 * @param age
+	 *            0 for the newest sample, up to readable - 1
+	 * @return temperature in Celsius
+	 */
+	public float getTemperature(long written, int age) {
+		return temperatures[index(written, age)];
+	}
+
+	/**
+	 * Accelerometer Z of a sample counting back from the newest
+	 *
+	 * @param written
+	 *            the count read from getWritten
+	 * @param age
+	 *            0 for the newest sample, up to readable - 1
+	 * @return z in g
+	 */
+	public float getZ(long written, int age) {
+		return zs[index(written, age)];
+	}
+
+	/**
+	 * Anomalies of a sample counting back from the newest
+	 *
+	 * @param written
+	 *            the count read from getWritten
+	 * @param age
+	 *            0 for the newest sample, up to readable - 1
+	 * @return mask of anomalies
+	 */
+	public int getAnomalies(long written, int age) {
+		return anomalies[index(written, age)];
+	}
+
+	/**
+	 * Time of a sample counting back from the newest
+	 *
+	 * @param written
+	 *            the count read from getWritten
+	 * @param age
+	 *            0 for the newest sample, up to readable - 1
+	 * @return time in milliseconds
+	 */
+	public long getTime(long written, int age) {
+		return times[index(written, age)];
+	}
+
+	private static int index(long written, int age) {
+		return (int) ((written - 1 - age) % CAPACITY);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+}
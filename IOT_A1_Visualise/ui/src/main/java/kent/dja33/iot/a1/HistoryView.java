@@ -0,0 +1,320 @@
+package kent.dja33.iot.a1;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javafx.animation.AnimationTimer;
+import javafx.collections.ObservableList;
+import javafx.scene.chart.LineChart;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.chart.XYChart;
+import javafx.scene.chart.XYChart.Data;
+import javafx.scene.chart.XYChart.Series;
+import javafx.util.StringConverter;
+import kent.dja33.iot.a1.util.store.SampleChunk;
+import kent.dja33.iot.a1.util.store.SampleStore;
+
+/**
+ * Chart for looking back over everything recorded by the SampleRecorder,
+ * shown in place of the live temperature chart. Dragging pans through time
+ * and scrolling zooms in and out around the cursor.
+ *
+ * Points come from the SampleStore at whichever resolution tier suits the
+ * span being viewed, and only those within the view are drawn, so no more
+ * than MAX_POINTS are ever drawn however far out the view is zoomed. MAX_SPAN
+ * is kept within what the coarsest tier can show in MAX_POINTS. Panning and zooming only mark the view as changed,
+ * it is redrawn at most once per pulse from chunks already cached. Missing
+ * chunks are loaded in the background and the view redrawn once they arrive.
+ * Gaps in the recording break the line.
+ *
+ * @author Dante
+ *
+ */
+public class HistoryView {
+
+	/* Most points drawn at once */
+	private static final int MAX_POINTS = 600;
+
+	/* Span shown when first opened, and the limits of zooming */
+	private static final long DEFAULT_SPAN = 60 * 60 * 1000L;
+	private static final long MIN_SPAN = 10 * 1000L;
+	private static final long MAX_SPAN = 365 * 24 * 60 * 60 * 1000L;
+
+	/* Change in span for each step of the scroll wheel */
+	private static final double ZOOM_FACTOR = 1.25;
+
+	/* Number of ticks along the time axis */
+	private static final int TICKS = 8;
+
+	/* Spans longer than this show the date as well as the time */
+	private static final long SHOW_DATE_SPAN = 2 * 24 * 60 * 60 * 1000L;
+
+	private static final String LINE_STYLE = "-fx-stroke: #f3622d;";
+
+	private final SampleStore store;
+	private final NumberAxis xAxis;
+	private final NumberAxis yAxis;
+	private final LineChart<Number, Number> chart;
+
+	/* View being shown, FX thread only */
+	private long start;
+	private long end;
+	private double dragX;
+	private int tier = -1;
+	private boolean showing;
+
+	/* Set from any thread when the view needs drawing again */
+	private volatile boolean dirty;
+
+	/**
+	 * Create a view over the given store
+	 *
+	 * @param store
+	 *            the recorded samples to browse
+	 */
+	public HistoryView(SampleStore store) {
+
+		this.store = store;
+
+		xAxis = new NumberAxis();
+		xAxis.setLabel("Time");
+		xAxis.setAutoRanging(false);
+		xAxis.setForceZeroInRange(false);
+		xAxis.setAnimated(false);
+		xAxis.setTickLabelFormatter(new StringConverter<Number>() {
+			@Override
+			public String toString(Number time) {
+				String format = end - start > SHOW_DATE_SPAN ? "dd/MM HH:mm" : "HH:mm:ss";
+				return new SimpleDateFormat(format).format(new Date(time.longValue()));
+			}
+
+			@Override
+			public Number fromString(String string) {
+				return null;
+			}
+		});
+
+		yAxis = new NumberAxis();
+		yAxis.setLabel("Temperature " + MeasurementType.CELSIUS.getMeasurementSymbol());
+		yAxis.setTickLabelFormatter(MeasurementType.CELSIUS.getAxisFormatter());
+		yAxis.setForceZeroInRange(false);
+		yAxis.setAnimated(false);
+
+		chart = new LineChart<>(xAxis, yAxis);
+		chart.setCreateSymbols(false);
+		chart.setAnimated(false);
+		chart.setLegendVisible(false);
+		chart.setTitle("Recorded Samples");
+
+		chart.setOnMousePressed((event) -> dragX = event.getX());
+		chart.setOnMouseDragged((event) -> {
+			pan(event.getX() - dragX);
+			dragX = event.getX();
+		});
+		chart.setOnScroll((event) -> zoom(event.getDeltaY(), event.getSceneX(), event.getSceneY()));
+
+		new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				if (showing && dirty) {
+					dirty = false;
+					render();
+				}
+			}
+		}.start();
+
+	}
+
+	/**
+	 * The chart to place in the GUI
+	 *
+	 * @return chart
+	 */
+	public LineChart<Number, Number> getChart() {
+		return chart;
+	}
+
+	/**
+	 * Start showing the view, looks for anything recorded since it was last
+	 * shown and moves to the latest samples
+	 */
+	public void show() {
+		store.refresh();
+		end = store.getEndTime();
+		if (end == Long.MIN_VALUE) {
+			end = System.currentTimeMillis();
+		}
+		start = end - DEFAULT_SPAN;
+		showing = true;
+		dirty = true;
+	}
+
+	/**
+	 * Stop drawing the view
+	 */
+	public void hide() {
+		showing = false;
+	}
+
+	/**
+	 * Show temperatures in another unit, only the axis changes as samples are
+	 * stored in Celsius
+	 *
+	 * @param type
+	 *            the unit to show
+	 */
+	public void setMeasurementType(MeasurementType type) {
+		yAxis.setLabel("Temperature " + type.getMeasurementSymbol());
+		yAxis.setTickLabelFormatter(type.getAxisFormatter());
+	}
+
+	/**
+	 * Whether the view is currently being shown
+	 *
+	 * @return true if showing
+	 */
+	public boolean isShowing() {
+		return showing;
+	}
+
+	/**
+	 * Start of the time being viewed
+	 *
+	 * @return time in milliseconds
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * End of the time being viewed
+	 *
+	 * @return time in milliseconds
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	/**
+	 * Move through time by a number of pixels
+	 *
+	 * @param pixels
+	 *            distance dragged, positive moves back in time
+	 */
+	private void pan(double pixels) {
+		double width = xAxis.getWidth();
+		if (width <= 0) {
+			return;
+		}
+		long shift = (long) (pixels / width * (end - start));
+		start -= shift;
+		end -= shift;
+		dirty = true;
+	}
+
+	/**
+	 * Zoom in or out keeping the time under the cursor where it is
+	 */
+	private void zoom(double delta, double sceneX, double sceneY) {
+
+		if (delta == 0) {
+			return;
+		}
+
+		double factor = delta > 0 ? 1 / ZOOM_FACTOR : ZOOM_FACTOR;
+		long span = end - start;
+		long newSpan = Math.max(MIN_SPAN, Math.min(MAX_SPAN, (long) (span * factor)));
+
+		double x = xAxis.sceneToLocal(sceneX, sceneY).getX();
+		long pivot = x >= 0 && x <= xAxis.getWidth() ? xAxis.getValueForDisplay(x).longValue() : start + span / 2;
+		double ratio = (double) (pivot - start) / span;
+
+		start = pivot - (long) (newSpan * ratio);
+		end = start + newSpan;
+		dirty = true;
+	}
+
+	/**
+	 * Draw every cached point within the view, a new line is started after
+	 * every gap
+	 */
+	private void render() {
+
+		List<SampleChunk> chunks = store.window(start, end, MAX_POINTS, () -> dirty = true);
+
+		List<List<Data<Number, Number>>> lines = new ArrayList<>();
+		List<Data<Number, Number>> line = new ArrayList<>();
+
+		for (SampleChunk chunk : chunks) {
+			for (int i = 0; i < chunk.size(); i++) {
+				/* Chunks either side of the view hang over its edges */
+				if (chunk.getTime(i) < start || chunk.getTime(i) >= end) {
+					continue;
+				}
+				float temperature = chunk.getTemperature(i);
+				if (Float.isNaN(temperature)) {
+					if (!line.isEmpty()) {
+						lines.add(line);
+						line = new ArrayList<>();
+					}
+					continue;
+				}
+				line.add(new Data<>(chunk.getTime(i), temperature));
+			}
+		}
+
+		if (!line.isEmpty()) {
+			lines.add(line);
+		}
+
+		ObservableList<Series<Number, Number>> series = chart.getData();
+
+		while (series.size() > lines.size()) {
+			series.remove(series.size() - 1);
+		}
+		while (series.size() < lines.size()) {
+			series.add(new XYChart.Series<>());
+		}
+		for (int i = 0; i < lines.size(); i++) {
+			series.get(i).getData().setAll(lines.get(i));
+			/* Every line is the same series really, so draw them alike */
+			if (series.get(i).getNode() != null) {
+				series.get(i).getNode().setStyle(LINE_STYLE);
+			}
+		}
+
+		xAxis.setLowerBound(start);
+		xAxis.setUpperBound(end);
+		xAxis.setTickUnit(Math.max(1, (end - start) / TICKS));
+
+		int tier = store.tierFor(start, end, MAX_POINTS);
+		if (tier != this.tier) {
+			this.tier = tier;
+			chart.setTitle("Recorded Samples (" + describe(SampleStore.TIERS[tier]) + ")");
+		}
+
+	}
+
+	/**
+	 * Describe the width of a bucket
+	 *
+	 * @param width
+	 *            width in milliseconds, 0 for raw
+	 * @return readable width
+	 */
+	private static String describe(long width) {
+		if (width == 0) {
+			return "every sample";
+		} else if (width < 60_000) {
+			return "per " + width / 1000 + " s";
+		} else if (width < 3_600_000) {
+			return "per " + width / 60_000 + " min";
+		} else if (width < 86_400_000) {
+			return "per " + width / 3_600_000 + " h";
+		}
+		return "per " + width / 86_400_000 + " day";
+	}
+
+}
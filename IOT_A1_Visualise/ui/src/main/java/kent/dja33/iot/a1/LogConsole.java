@@ -0,0 +1,281 @@
+package kent.dja33.iot.a1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javafx.animation.AnimationTimer;
+import javafx.collections.ObservableListBase;
+import javafx.collections.transformation.FilteredList;
+import javafx.scene.control.ListView;
+import kent.dja33.iot.a1.util.LogDisplay;
+
+/**
+ * The log shown at the bottom of the GUI, replaces appending to a TextArea
+ * which grew forever and had to lay out all of its text on every append.
+ *
+ * Lines are held in a ring of fixed capacity so the oldest lines are dropped
+ * once it is full, and shown in a ListView which only creates cells for the
+ * lines on screen. Messages can be logged from any thread, they are queued
+ * and added to the ring in a single batch once per pulse on the FX thread.
+ *
+ * @author Dante
+ *
+ */
+public class LogConsole implements LogDisplay {
+
+	/* Levels a line can be logged at */
+	public enum Level {
+		INFO, WARNING
+	}
+
+	/* Maximum number of lines kept */
+	public static final int CAPACITY = 2000;
+
+	/* Prefix for lines logged as warnings */
+	private static final String WARNING_PREFIX = "[WARNING] ";
+
+	/* Messages waiting to be added on the next pulse */
+	private final ConcurrentLinkedQueue<Entry> pending = new ConcurrentLinkedQueue<>();
+
+	private final LineRing lines = new LineRing(CAPACITY);
+	private final FilteredList<Line> shown = new FilteredList<>(lines);
+	private final ListView<Line> view = new ListView<>(shown);
+
+	/* The line being built from print calls without a newline, FX thread only */
+	private final StringBuilder current = new StringBuilder();
+	private Level currentLevel = Level.INFO;
+
+	private Level minimumLevel = Level.INFO;
+
+	public LogConsole() {
+
+		view.setFocusTraversable(false);
+
+		new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				drain();
+			}
+		}.start();
+	}
+
+	/**
+	 * The view to place in the GUI
+	 *
+	 * @return view
+	 */
+	public ListView<Line> getView() {
+		return view;
+	}
+
+	/**
+	 * Only show lines logged at or above the given level
+	 *
+	 * @param level
+	 *            the lowest level to show
+	 */
+	public void setMinimumLevel(Level level) {
+		minimumLevel = level;
+		shown.setPredicate(level == Level.INFO ? null : line -> line.level.compareTo(level) >= 0);
+		view.scrollTo(shown.size() - 1);
+	}
+
+	/**
+	 * The lowest level being shown
+	 *
+	 * @return level
+	 */
+	public Level getMinimumLevel() {
+		return minimumLevel;
+	}
+
+	/**
+	 * Remove every line, must be called on the FX thread
+	 */
+	public void clear() {
+		drain();
+		current.setLength(0);
+		lines.clear();
+	}
+
+	/**
+	 * Add everything queued since the last pulse to the ring in one change,
+	 * then scroll to the bottom once rather than after every line
+	 */
+	private void drain() {
+
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		List<Line> added = new ArrayList<>();
+		Entry entry;
+
+		while ((entry = pending.poll()) != null) {
+
+			if (current.length() == 0) {
+				currentLevel = entry.level;
+			}
+			current.append(entry.text);
+
+			if (entry.endsLine) {
+				added.add(new Line(currentLevel, current.toString()));
+				current.setLength(0);
+			}
+		}
+
+		if (!added.isEmpty()) {
+			lines.addAll(added);
+			view.scrollTo(shown.size() - 1);
+		}
+	}
+
+	@Override
+	public void println(Object obj) {
+		pending.add(new Entry(Level.INFO, String.valueOf(obj), true));
+	}
+
+	@Override
+	public void println() {
+		pending.add(new Entry(Level.INFO, "", true));
+	}
+
+	@Override
+	public void print(Object obj) {
+		pending.add(new Entry(Level.INFO, String.valueOf(obj), false));
+	}
+
+	@Override
+	public void printlnErr(Object obj) {
+		pending.add(new Entry(Level.WARNING, WARNING_PREFIX + obj, true));
+	}
+
+	/**
+	 * Something logged but not yet added to the ring
+	 */
+	private static class Entry {
+
+		private final Level level;
+		private final String text;
+		private final boolean endsLine;
+
+		private Entry(Level level, String text, boolean endsLine) {
+			this.level = level;
+			this.text = text;
+			this.endsLine = endsLine;
+		}
+
+	}
+
+	/**
+	 * A single line shown in the log
+	 */
+	public static class Line {
+
+		private final Level level;
+		private final String text;
+
+		private Line(Level level, String text) {
+			this.level = level;
+			this.text = text;
+		}
+
+		public Level getLevel() {
+			return level;
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+
+	}
+
+	/**
+	 * Observable list over a ring of fixed capacity, adding beyond the
+	 * capacity removes the oldest lines in the same change so the ListView
+	 * only has to update once.
+	 */
+	private static class LineRing extends ObservableListBase<Line> {
+
+		private final Line[] ring;
+		private int start;
+		private int size;
+
+		private LineRing(int capacity) {
+			ring = new Line[capacity];
+		}
+
+		@Override
+		public Line get(int index) {
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			}
+			return ring[(start + index) % ring.length];
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public boolean addAll(Collection<? extends Line> added) {
+
+			/* Anything beyond the capacity would be removed straight away */
+			List<? extends Line> list = new ArrayList<>(added);
+			if (list.size() > ring.length) {
+				list = list.subList(list.size() - ring.length, list.size());
+			}
+
+			int overflow = Math.max(0, size + list.size() - ring.length);
+
+			beginChange();
+
+			if (overflow > 0) {
+				List<Line> removed = new ArrayList<>(overflow);
+				for (int i = 0; i < overflow; i++) {
+					removed.add(ring[start]);
+					ring[start] = null;
+					start = (start + 1) % ring.length;
+				}
+				size -= overflow;
+				nextRemove(0, removed);
+			}
+
+			for (Line line : list) {
+				ring[(start + size) % ring.length] = line;
+				size++;
+			}
+			nextAdd(size - list.size(), size);
+
+			endChange();
+			return !list.isEmpty();
+		}
+
+		@Override
+		public void clear() {
+			if (size == 0) {
+				return;
+			}
+
+			List<Line> removed = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				removed.add(get(i));
+			}
+
+			Arrays.fill(ring, null);
+			start = 0;
+			size = 0;
+
+			beginChange();
+			nextRemove(0, removed);
+			endChange();
+		}
+
+	}
+
+}
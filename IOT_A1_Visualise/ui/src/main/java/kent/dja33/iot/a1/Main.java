@@ -0,0 +1,38 @@
+package kent.dja33.iot.a1;
+
+import javafx.application.Application;
+import kent.dja33.iot.a1.util.Out;
+
+/**
+ * Starting point for the application to run, contains
+ * static entrance for the GUI component that can be accessed from
+ * anywhere. Passing --headless starts the HeadlessMain collector
+ * instead of the GUI.
+ * @author Dante
+ *
+ */
+public class Main {
+
+	/* Argument to run without the GUI */
+	public static final String HEADLESS = "--headless";
+
+	/* Set once the GUI has started, null when running headless */
+	public static SensorDisplay display;
+
+	public static void main(String[] args){
+
+		if (args.length > 0 && args[0].equals(HEADLESS)) {
+			String[] remaining = new String[args.length - 1];
+			System.arraycopy(args, 1, remaining, 0, remaining.length);
+			HeadlessMain.main(remaining);
+			return;
+		}
+
+		Out.out.logln("Starting application...");
+
+		/* JavaFX creates the one SensorDisplay itself */
+		Application.launch(SensorDisplay.class, args);
+
+	}
+
+}
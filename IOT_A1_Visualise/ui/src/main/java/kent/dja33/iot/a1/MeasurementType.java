@@ -0,0 +1,64 @@
+package kent.dja33.iot.a1;
+
+import javafx.util.StringConverter;
+
+/**
+ * Units temperatures can be shown in. Samples are only ever stored in Celsius,
+ * the unit is applied when they are drawn as a linear transform of the axis.
+ * 
+ * @author Dante
+ *
+ */
+public enum MeasurementType {
+
+	CELSIUS("C", 1f, 0f), FAHRENHEIT("F", 1.8f, 32f);
+	
+	private String symbol;
+	private final float scale;
+	private final float offset;
+
+	/* Formats axis values held in Celsius as this unit */
+	private final StringConverter<Number> axisFormatter = new StringConverter<Number>() {
+		@Override
+		public String toString(Number celsius) {
+			return String.format("%.1f", fromCelsius(celsius.floatValue()));
+		}
+
+		@Override
+		public Number fromString(String string) {
+			return (Float.parseFloat(string) - offset) / scale;
+		}
+	};
+	
+	private MeasurementType(String sym, float scale, float offset) {
+		this.symbol = sym;
+		this.scale = scale;
+		this.offset = offset;
+	}
+	
+	String getMeasurementSymbol(){
+		return this.symbol;
+	}
+
+	/**
+	 * Convert a temperature in Celsius into this unit
+	 * 
+	 * @param celsius
+	 *            temperature in Celsius
+	 * @return temperature in this unit
+	 */
+	public float fromCelsius(float celsius) {
+		return celsius * scale + offset;
+	}
+
+	/**
+	 * Formatter for an axis whose values are in Celsius, showing them in this
+	 * unit
+	 * 
+	 * @return the formatter
+	 */
+	StringConverter<Number> getAxisFormatter() {
+		return axisFormatter;
+	}
+
+}
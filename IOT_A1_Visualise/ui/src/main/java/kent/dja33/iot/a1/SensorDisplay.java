@@ -0,0 +1,820 @@
+package kent.dja33.iot.a1;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.event.ActionEvent;
+import javafx.event.EventHandler;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Node;
+import javafx.scene.Scene;
+import javafx.scene.chart.CategoryAxis;
+import javafx.scene.chart.LineChart;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.control.Button;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.StackPane;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Font;
+import javafx.stage.Stage;
+import kent.dja33.iot.a1.util.Out;
+import kent.dja33.iot.a1.util.SensorPipeline;
+import kent.dja33.iot.a1.util.SerialReader;
+import kent.dja33.iot.a1.util.alert.AlertEngine;
+import kent.dja33.iot.a1.util.anomaly.AnomalyDetector;
+import kent.dja33.iot.a1.util.device.ConnectionSupervisor;
+import kent.dja33.iot.a1.util.event.EventLog;
+import kent.dja33.iot.a1.util.event.EventType;
+import kent.dja33.iot.a1.util.filter.FilterStage;
+import kent.dja33.iot.a1.util.export.SampleExporter;
+import kent.dja33.iot.a1.util.metrics.Metrics;
+import kent.dja33.iot.a1.util.store.SampleRecorder;
+import kent.dja33.iot.a1.util.store.SampleStore;
+
+/**
+ * Main view for the SensorDisplay, creates all the buttons and views for FX to
+ * handle and then handles an AnimationTimer to update the LineChart on show.
+ * 
+ * The View itself gives buttons for connecting/disconnecting, viewing
+ * serialports, the linechart, an output log and finally buttons that allow the
+ * user to increase or decrease the rate of readings.
+ * 
+ * The user can also scroll on the graph to increase or decrease the ranges of
+ * values currently shown.
+ * 
+ * Only what the first paint needs is built before the window is shown. The
+ * serial ports are listed in the background once it is, and the pipeline,
+ * recorder, store and supervisor are created and started on a thread of
+ * their own. The history and dashboard are only built the first time they
+ * are asked for.
+ * 
+ * @author Dante
+ *
+ */
+public class SensorDisplay extends Application {
+
+	/* Const fields for display */
+	private static final String TITLE = "MBED FRDM-K64F Temperature Monitor";
+	private BorderPane root;
+	private HBox split;
+	private VBox buttonPanel;
+
+	/* Commonly used buttons */
+	private Button connect;
+	private Button disconnect;
+	private Button autodetect;
+	private Button increase;
+	private Button decrease;
+	private Button changeMeasurementType;
+	private Button changeFiltered;
+
+	/* Selection box for available serial ports */
+	private ComboBox<String> serialPortSelection;
+
+	/*
+	 * LineChart using the Date as a string on the X Axis and the temperature
+	 * reading as a number on the Y Axis
+	 */
+	private LineChart<String, Number> temperatureChart;
+	private AccelerometerTrail accelerometerTrail;
+	private static SensorHandler temperature;
+
+	/* Static such that the Output reader can access it */
+	private static LogConsole logBox;
+	private Button changeLogLevel;
+
+	/* Overlay showing the metrics, hidden by default */
+	private Label metricsOverlay;
+	private Button showMetrics;
+	private static final long METRICS_REFRESH_RATE = 1_000_000_000L;
+
+	/*
+	 * Everything received is recorded so it can be browsed back through, the
+	 * history is built when first shown. Null until the pipeline has started.
+	 */
+	private SampleRecorder recorder;
+	private SampleStore store;
+	private HistoryView history;
+	private Button showHistory;
+	private Button exportSamples;
+
+	/* Tiles for every device, only the connected sensor for now, built when first shown */
+	private final DeviceStream deviceStream = new DeviceStream(NO_SERIAL_PORT);
+	private DashboardView dashboard;
+	private Button showDashboard;
+
+	/* Reconnects the sensor if it is lost while connected, null until started */
+	private ConnectionSupervisor supervisor;
+
+	/* If the GUI has been built and is ready */
+	private static boolean ready = false;
+
+	/* View resolutions */
+	public static final int MAX_WINDOW_WIDTH = 1920;
+	public static final int MAX_WINDOW_HEIGHT = 1080;
+	public static final int MIN_WINDOW_WIDTH = 720;
+	public static final int MIN_WINDOW_HEIGHT = 480;
+	public static final String NO_SERIAL_PORT = SerialReader.NO_SERIAL_PORT;
+
+	@Override
+	public void start(Stage stage) throws Exception {
+
+		/*
+		 * Start here, called from launch method and builds the GUI including
+		 * the scene and any wrapper components.
+		 */
+
+		Main.display = this;
+		stage.setTitle(TITLE);
+
+		root = new BorderPane();
+
+		{
+
+			/* Our list of buttons to go on the side of the graph */
+			buttonPanel = new VBox(10);
+
+			{
+
+				/* All available serial ports, listed once the window is up */
+				ObservableList<String> options = FXCollections.observableArrayList(new String[] { NO_SERIAL_PORT });
+
+				serialPortSelection = new ComboBox<>(options);
+
+				serialPortSelection.getSelectionModel().select(0);
+
+				serialPortSelection.valueProperty().addListener(new ChangeListener<String>() {
+					@Override
+					public void changed(ObservableValue<? extends String> observable, String oldValue,
+							String newValue) {
+						connect.setDisable(newValue == NO_SERIAL_PORT || SerialReader.in.connected());
+					}
+				});
+
+				/* Button to refresh the available serial ports */
+				Button button = new Button("Refresh");
+				button.setOnAction(new EventHandler<ActionEvent>() {
+
+					@Override
+					public void handle(ActionEvent event) {
+
+						Out.out.logln("Refreshing available serial ports.");
+						refreshPorts();
+					}
+
+				});
+
+				buttonPanel.getChildren().add(serialPortSelection);
+				buttonPanel.getChildren().add(button);
+
+				/*
+				 * Connection button, by default disabled as we have nothing to
+				 * connect to at first
+				 */
+				connect = new Button("Connect");
+				connect.setDisable(true);
+				connect.setOnAction(new EventHandler<ActionEvent>() {
+
+					@Override
+					public void handle(ActionEvent event) {
+
+						/*
+						 * Attempt to connect on the specified port from the
+						 * ComboBox, the handshake runs off the FX thread so
+						 * disable the button until it has finished, failed or
+						 * not
+						 */
+						String selected = serialPortSelection.getSelectionModel().getSelectedItem();
+						connect.setDisable(true);
+						SerialReader.in.openPortAsync(selected).whenComplete((connected, error) -> Platform.runLater(() -> {
+							if (error == null && connected) {
+								connectSuccessful();
+							} else {
+								connect.setDisable(false);
+								Out.out.logln("Unable to connect to \"" + selected + "\"");
+							}
+						}));
+
+					}
+
+				});
+
+				/*
+				 * Disconnection button, by default disabled as we have nothing
+				 * to disconnect from at first
+				 */
+				disconnect = new Button("Disconnect");
+				disconnect.setDisable(true);
+				disconnect.setOnAction(new EventHandler<ActionEvent>() {
+
+					@Override
+					public void handle(ActionEvent event) {
+
+						disconnect.setDisable(true);
+						if (supervisor != null) {
+							supervisor.stop();
+						}
+						SerialReader.in.closePortAsync().whenComplete((closed, error) -> Platform.runLater(() -> {
+							if (error == null && closed) {
+								disconnectSuccessful();
+							} else {
+								disconnect.setDisable(false);
+							}
+						}));
+
+					}
+
+				});
+
+				buttonPanel.getChildren().add(connect);
+				buttonPanel.getChildren().add(disconnect);
+
+				/*
+				 * Auto connect button, attempts to connect to any and all open
+				 * serial channels
+				 */
+				autodetect = new Button("Auto-detect");
+				autodetect.setOnAction(new EventHandler<ActionEvent>() {
+
+					@Override
+					public void handle(ActionEvent event) {
+
+						Out.out.logln("Attempting to automatically connect to Serial port.");
+
+						/* Disable button so it cannot be spammed */
+						autodetect.setDisable(true);
+
+						/* For every serial channel, attempt to connect, com is null if it failed */
+						SerialReader.in.autoConnectAsync().whenComplete((com, error) -> Platform.runLater(() -> {
+							if (com != null) { // If successful
+								serialPortSelection.getSelectionModel().select(com);
+								connectSuccessful();
+								autodetect.setText("Auto-detect");
+								return;
+							}
+
+							/* If failed re-enable button */
+							autodetect.setDisable(false);
+
+							/* Unable to automatically connect */
+							serialPortSelection.getSelectionModel().select(0);
+							Out.out.loglnErr("Could not automatically connect to any sensor devices.");
+						}));
+
+					}
+
+				});
+
+				/* Clear the text log at the bottom of the GUI */
+				button = new Button("Clear log");
+				button.setOnAction(new EventHandler<ActionEvent>() {
+
+					@Override
+					public void handle(ActionEvent event) {
+
+						logBox.clear();
+						Out.out.logln("Log cleared.");
+
+					}
+
+				});
+
+				buttonPanel.getChildren().add(autodetect);
+				buttonPanel.getChildren().add(button);
+
+				/* Switch between showing every message or only warnings */
+				changeLogLevel = new Button("Warnings Only");
+				changeLogLevel.setOnAction((event) -> {
+					if (logBox.getMinimumLevel() == LogConsole.Level.INFO) {
+						logBox.setMinimumLevel(LogConsole.Level.WARNING);
+						changeLogLevel.setText("All Messages");
+					} else {
+						logBox.setMinimumLevel(LogConsole.Level.INFO);
+						changeLogLevel.setText("Warnings Only");
+					}
+				});
+
+				buttonPanel.getChildren().add(changeLogLevel);
+
+				// Set padding between each node in the button panel
+				buttonPanel.setPadding(new Insets(5, 5, 5, 5));
+
+				/* Increase the rate at which we receive samples */
+				increase = new Button("Increase Rate");
+				increase.setOnAction((event) -> {
+					Out.out.logln("Increasing the refresh rate.");
+					SerialReader.in.getCommands().increaseRate();
+				});
+
+				buttonPanel.getChildren().add(increase);
+
+				/* Decrease the rate at which we receive samples */
+				decrease = new Button("Decrease Rate");
+				decrease.setOnAction((event) -> {
+					Out.out.logln("Decreasing the refresh rate.");
+					SerialReader.in.getCommands().decreaseRate();
+				});
+
+				buttonPanel.getChildren().add(decrease);
+
+				/* By default we are not connected, so both disabled */
+				increase.setDisable(true);
+				decrease.setDisable(true);
+
+				/* Create a measurementType button, default is Celsius */
+				changeMeasurementType = new Button("To Fahrenheit");
+				changeMeasurementType.setDisable(true);
+				changeMeasurementType.setOnAction((event) -> {
+					if (temperature.getMeasurementType() == MeasurementType.CELSIUS) {
+						Out.out.logln("Switching to Fahrenheit");
+						temperature.switchMeasurementType(MeasurementType.FAHRENHEIT);
+						if (history != null) {
+							history.setMeasurementType(MeasurementType.FAHRENHEIT);
+						}
+						if (dashboard != null) {
+							dashboard.setMeasurementType(MeasurementType.FAHRENHEIT);
+						}
+						changeMeasurementType.setText("To Celsius");
+					} else if (temperature.getMeasurementType() == MeasurementType.FAHRENHEIT) {
+						Out.out.logln("Switching to Celsius");
+						temperature.switchMeasurementType(MeasurementType.CELSIUS);
+						if (history != null) {
+							history.setMeasurementType(MeasurementType.CELSIUS);
+						}
+						if (dashboard != null) {
+							dashboard.setMeasurementType(MeasurementType.CELSIUS);
+						}
+						changeMeasurementType.setText("To Fahrenheit");
+					}
+				});
+
+				buttonPanel.getChildren().add(changeMeasurementType);
+
+				/* Switch between raw and filtered samples, default is raw */
+				changeFiltered = new Button("Show Filtered");
+				changeFiltered.setOnAction((event) -> {
+					boolean filtered = !temperature.isFiltered();
+					Out.out.logln(filtered ? "Showing filtered samples" : "Showing raw samples");
+					temperature.setFiltered(filtered);
+					changeFiltered.setText(filtered ? "Show Raw" : "Show Filtered");
+				});
+
+				buttonPanel.getChildren().add(changeFiltered);
+
+				/* Swap the live chart for one of everything recorded */
+				showHistory = new Button("Show History");
+				showHistory.setDisable(true);
+				showHistory.setOnAction((event) -> {
+					if (!getHistory().isShowing()) {
+						showLive();
+						history.show();
+						split.getChildren().set(0, history.getChart());
+						showHistory.setText("Show Live");
+					} else {
+						showLive();
+					}
+				});
+
+				buttonPanel.getChildren().add(showHistory);
+
+				/* Swap the live chart for a tile per device */
+				showDashboard = new Button("Show Dashboard");
+				showDashboard.setOnAction((event) -> {
+					if (split.getChildren().get(0) != getDashboard().getNode()) {
+						showLive();
+						dashboard.show();
+						split.getChildren().set(0, dashboard.getNode());
+						showDashboard.setText("Show Live");
+					} else {
+						showLive();
+					}
+				});
+
+				buttonPanel.getChildren().add(showDashboard);
+
+				/*
+				 * Export the samples being viewed in history, or everything
+				 * recorded, to a compressed CSV file
+				 */
+				exportSamples = new Button("Export Samples");
+				exportSamples.setDisable(true);
+				exportSamples.setOnAction((event) -> {
+					boolean viewing = history != null && history.isShowing();
+					long from = viewing ? history.getStart() : Long.MIN_VALUE;
+					long to = viewing ? history.getEnd() : Long.MAX_VALUE;
+					File file = new File(Out.RESOURCES_DIRECTORY, "samples-"
+							+ new SimpleDateFormat("yy-MM-dd_HH-mm-ss").format(new Date()) + ".csv.gz");
+					Out.out.logln("Exporting samples to " + file.getName() + "...");
+					Thread export = new Thread(() -> {
+						try {
+							long rows = new SampleExporter(store).exportCsv(from, to, file);
+							Out.out.logln("Exported " + rows + " samples to " + file);
+						} catch (IOException ioe) {
+							Out.out.loglnErr("Could not export samples: " + ioe.getMessage());
+						}
+					}, "Export");
+					export.setDaemon(true);
+					export.start();
+				});
+
+				buttonPanel.getChildren().add(exportSamples);
+
+				/* Show or hide the performance overlay on the charts */
+				showMetrics = new Button("Show Stats");
+				showMetrics.setOnAction((event) -> {
+					metricsOverlay.setVisible(!metricsOverlay.isVisible());
+					showMetrics.setText(metricsOverlay.isVisible() ? "Hide Stats" : "Show Stats");
+				});
+
+				buttonPanel.getChildren().add(showMetrics);
+
+				/* Write the current metrics out to a file */
+				button = new Button("Export Stats");
+				button.setOnAction((event) -> {
+					try {
+						Out.out.logln("Exported stats to " + Metrics.metrics.exportSnapshot(Out.RESOURCES_DIRECTORY));
+					} catch (IOException ioe) {
+						Out.out.loglnErr("Could not export stats: " + ioe.getMessage());
+					}
+				});
+
+				buttonPanel.getChildren().add(button);
+
+				/* For every node added, force the width and height */
+				for (Node n : buttonPanel.getChildren()) {
+					if (n instanceof Region) {
+						Region node = (Region) n;
+						node.setMaxWidth(120);
+						node.setMinWidth(120);
+					}
+				}
+
+			}
+
+			buttonPanel.setAlignment(Pos.CENTER_LEFT);
+
+			/* Create the log area and center it */
+			StackPane sp = new StackPane();
+
+			{
+
+				/*
+				 * Bounded log that adds lines once per pulse and scrolls to
+				 * the bottom itself
+				 */
+				logBox = new LogConsole();
+
+				logBox.getView().setMaxHeight(MAX_WINDOW_HEIGHT / 10);
+				logBox.getView().setMinHeight(MIN_WINDOW_HEIGHT / 10);
+				logBox.getView().setMaxWidth(MAX_WINDOW_WIDTH / 3);
+				logBox.getView().setMinWidth(MIN_WINDOW_WIDTH / 3);
+
+			}
+
+			sp.getChildren().add(logBox.getView());
+
+			/* Pad it from the exterior */
+			sp.setPadding(new Insets(5, 5, 20, 5));
+
+			sp.setAlignment(Pos.CENTER);
+			root.setBottom(sp);
+		}
+
+		root.setRight(buttonPanel);
+
+		split = new HBox();
+
+		split.setScaleShape(true);
+		split.setAlignment(Pos.CENTER);
+
+		/*
+		 * Now need to create the Chart used, in this case using a LineChart
+		 * with DateAsString for the X Axis and the temp as the Y Axis.
+		 */
+		final CategoryAxis xAxis = new CategoryAxis();
+		final NumberAxis yAxis = new NumberAxis();
+
+		HBox hbox = new HBox(2);
+
+		{
+			xAxis.setLabel("Time");
+			yAxis.setLabel("Temperature");
+
+			/*
+			 * Advice taken from JewelSea on handling updating animated graphs,
+			 * adapted for LineChart
+			 */
+			temperatureChart = new LineChart<String, Number>(xAxis, yAxis) {
+				// Override to remove symbols on each data point
+				@Override
+				protected void dataItemAdded(Series<String, Number> series, int itemIndex, Data<String, Number> item) {
+
+				}
+			};
+
+			temperatureChart.setPrefSize(MAX_WINDOW_WIDTH / 2, MIN_WINDOW_HEIGHT);
+
+			/* When the user scrolls on the LineChart, update it's scale */
+			temperatureChart.setOnScroll((event) -> {
+
+				temperature.resizeChart(event.getDeltaY());
+
+			});
+
+			/*
+			 * Remove automatic ranging for Y as this is updated manually in
+			 * scaling
+			 */
+			yAxis.setAutoRanging(false);
+			xAxis.setAutoRanging(true);
+
+			/* Remove the legend as we only have one value being show */
+			temperatureChart.setLegendVisible(false);
+
+			/*
+			 * Animation adds a layer of confusion onto the graph, so this is
+			 * removed to allow the transitions between added elements to be
+			 * simpler
+			 */
+			// lineChart.setAnimated(false);
+			temperatureChart.setTitle("Temperature Samples");
+
+			split.getChildren().add(temperatureChart);
+
+			/*
+			 * Trail of recent accelerometer positions with a gauge for the Z
+			 * force, drawn once per pulse
+			 */
+			accelerometerTrail = new AccelerometerTrail("Accelerometer Data");
+			accelerometerTrail.getNode().setPrefSize(MAX_WINDOW_WIDTH / 2, MIN_WINDOW_HEIGHT);
+			HBox.setHgrow(accelerometerTrail.getNode(), Priority.ALWAYS);
+			hbox.setAlignment(Pos.CENTER_RIGHT);
+			hbox.getChildren().add(accelerometerTrail.getNode());
+			HBox.setHgrow(hbox, Priority.ALWAYS);
+
+			split.getChildren().add(hbox);
+
+		}
+
+		/* Overlay for the metrics, sits on top of the charts */
+		metricsOverlay = new Label();
+		metricsOverlay.setFont(Font.font("Monospaced", 11));
+		metricsOverlay.setStyle("-fx-background-color: rgba(255, 255, 255, 0.85); -fx-padding: 5;");
+		metricsOverlay.setMouseTransparent(true);
+		metricsOverlay.setVisible(false);
+
+		StackPane center = new StackPane(split, metricsOverlay);
+		StackPane.setAlignment(metricsOverlay, Pos.TOP_LEFT);
+
+		/* Refresh the overlay once a second while it is showing */
+		new AnimationTimer() {
+			private long last;
+
+			@Override
+			public void handle(long now) {
+				if (metricsOverlay.isVisible() && now - last > METRICS_REFRESH_RATE) {
+					metricsOverlay.setText(Metrics.metrics.snapshot());
+					last = now;
+				}
+			}
+		}.start();
+
+		root.setCenter(center);
+
+		/*
+		 * Create the scene, give it the borderpane which now contains all our
+		 * elements
+		 */
+		Scene scene = new Scene(root, MIN_WINDOW_WIDTH, MIN_WINDOW_HEIGHT);
+
+		stage.setScene(scene);
+
+		/* Constraints on interface */
+		stage.setMinHeight(MIN_WINDOW_HEIGHT);
+		stage.setMinWidth(MIN_WINDOW_WIDTH);
+		stage.setMaxHeight(MAX_WINDOW_HEIGHT);
+		stage.setMaxWidth(MAX_WINDOW_WIDTH);
+
+		/*
+		 * If we close the GUI prematurely then close connections and logger,
+		 * exit smoothly
+		 */
+		stage.setOnCloseRequest(e -> {
+			if (supervisor != null) {
+				supervisor.stop();
+			}
+			SerialReader.in.closePort();
+			if (recorder != null) {
+				recorder.close();
+				store.close();
+			}
+			EventLog.events.close();
+			Out.close();
+			System.exit(0);
+		});
+
+		/* GUI is now ready */
+		ready = true;
+		Out.out.setDisplay(logBox);
+
+		/*
+		 * Create our new TemperatureHandler and give it the LineChart and Axis
+		 */
+		temperature = new SensorHandler(temperatureChart, yAxis, accelerometerTrail);
+
+		/* Finally show everything */
+		stage.show();
+
+		/*
+		 * Nothing below is needed for the first paint, so the ports are listed
+		 * and the pipeline started off the FX thread once the window is up
+		 */
+		refreshPorts();
+		Thread startup = new Thread(this::startPipeline, "Startup");
+		startup.setDaemon(true);
+		startup.start();
+	}
+
+	/**
+	 * Hand the samples to the charts, recorder and alerts, then start checking
+	 * for them. Safe to run off the FX thread as the listeners only touch the
+	 * GUI through their own pulse. The recorder, store and supervisor are
+	 * handed to the FX thread once created, so only it ever reads them.
+	 */
+	private void startPipeline() {
+
+		SampleRecorder recorder = new SampleRecorder(Out.SAMPLES_DIRECTORY);
+		SampleStore store = new SampleStore(Out.SAMPLES_DIRECTORY);
+		ConnectionSupervisor supervisor = new ConnectionSupervisor(SerialReader.in);
+
+		SensorPipeline.getPipeline().setAnomalyDetector(AnomalyDetector.defaultDetector());
+		SensorPipeline.getPipeline().setFilterStage(FilterStage.defaultStage());
+		SensorPipeline.getPipeline().addListener(temperature);
+		SensorPipeline.getPipeline().addListener(deviceStream);
+		SensorPipeline.getPipeline().addListener(recorder);
+
+		/* Watch the samples for problems, alerts are written to the log */
+		AlertEngine alerts = new AlertEngine(AlertEngine.defaultRules());
+		alerts.addListener(AlertEngine::log);
+		alerts.addListener(EventLog.events);
+		SensorPipeline.getPipeline().addListener(alerts);
+
+		/* Record connections, health and alerts as events beside the log */
+		EventLog.events.watch(SerialReader.in);
+		EventLog.events.record(EventType.START, null, "collector", "display");
+
+		/* Schedule Message Parser to run every 250ms */
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "SensorPipeline");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleAtFixedRate(SensorPipeline.getPipeline(), 0, 250, TimeUnit.MILLISECONDS);
+
+		Platform.runLater(() -> {
+			this.recorder = recorder;
+			this.store = store;
+			this.supervisor = supervisor;
+			showHistory.setDisable(false);
+			exportSamples.setDisable(false);
+
+			/* Connected before the supervisor existed, so watch it now */
+			if (SerialReader.in.connected()) {
+				supervisor.watch(SerialReader.in.getActivePort());
+			}
+		});
+
+	}
+
+	/**
+	 * List the available serial ports in the background, then fill the
+	 * selection box with them. The selection is left on the active port if
+	 * connected, otherwise on nothing.
+	 */
+	private void refreshPorts() {
+		SerialReader.in.getActiveSerialPortsAsync().thenAccept(ports -> Platform.runLater(() -> {
+			serialPortSelection.getItems().setAll(NO_SERIAL_PORT);
+			serialPortSelection.getItems().addAll(ports);
+
+			/*
+			 * Set default selection to nothing if we're not connected
+			 */
+			if (!SerialReader.in.connected()) {
+				serialPortSelection.getSelectionModel().select(0);
+			} else {
+				serialPortSelection.getSelectionModel().select(SerialReader.in.getActivePort());
+			}
+		}));
+	}
+
+	/**
+	 * The history of everything recorded, built the first time it is needed
+	 * 
+	 * @return the history view
+	 */
+	private HistoryView getHistory() {
+		if (history == null) {
+			history = new HistoryView(store);
+			history.getChart().setPrefSize(MAX_WINDOW_WIDTH / 2, MIN_WINDOW_HEIGHT);
+			history.setMeasurementType(temperature.getMeasurementType());
+		}
+		return history;
+	}
+
+	/**
+	 * The tile for every device, built the first time it is needed
+	 * 
+	 * @return the dashboard
+	 */
+	private DashboardView getDashboard() {
+		if (dashboard == null) {
+			dashboard = new DashboardView();
+			dashboard.getNode().setPrefSize(MAX_WINDOW_WIDTH / 2, MIN_WINDOW_HEIGHT);
+			dashboard.setMeasurementType(temperature.getMeasurementType());
+			dashboard.addStream(deviceStream);
+		}
+		return dashboard;
+	}
+
+	/**
+	 * If the connection was successful then call this method, will update the
+	 * GUI components and tell the temperature reader to start parsing messages
+	 */
+	protected void connectSuccessful() {
+		Out.out.logln("Connected to \"" + SerialReader.in.getActivePort() + "\".");
+		connect.setDisable(true);
+		autodetect.setDisable(true);
+		disconnect.setDisable(false);
+		increase.setDisable(false);
+		decrease.setDisable(false);
+		changeMeasurementType.setDisable(false);
+		temperature.start();
+		deviceStream.setName(SerialReader.in.getActivePort());
+		if (supervisor != null) {
+			supervisor.watch(SerialReader.in.getActivePort());
+		}
+	}
+
+	/**
+	 * Put the live chart back in place of the history or dashboard, whichever
+	 * is showing
+	 */
+	private void showLive() {
+		if (history != null) {
+			history.hide();
+		}
+		if (dashboard != null) {
+			dashboard.hide();
+		}
+		split.getChildren().set(0, temperatureChart);
+		showHistory.setText("Show History");
+		showDashboard.setText("Show Dashboard");
+	}
+
+	/**
+	 * If we have disconnected then call this method, will update GUI components
+	 * and stop the temperature reader from parsing anymore messages.
+	 */
+	protected void disconnectSuccessful() {
+		Out.out.logln("Disconnected from \"" + SerialReader.in.getActivePort() + "\".");
+		disconnect.setDisable(true);
+		connect.setDisable(false);
+		autodetect.setDisable(false);
+		increase.setDisable(true);
+		decrease.setDisable(true);
+		changeMeasurementType.setDisable(true);
+		temperature.stop();
+	}
+
+	public MeasurementType getMeasurementType() {
+		return temperature != null ? temperature.getMeasurementType() : null;
+	}
+
+	/**
+	 * Whether the GUI has been built and is on display.
+	 * 
+	 * @return true if built
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+}
@@ -3,19 +3,21 @@ package kent.dja33.iot.a1;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
 import javafx.scene.chart.LineChart;
 import javafx.scene.chart.NumberAxis;
-import javafx.scene.chart.ScatterChart;
 import javafx.scene.chart.XYChart;
 import javafx.scene.chart.XYChart.Data;
-import javafx.scene.control.ProgressBar;
 import kent.dja33.iot.a1.util.SerialReader;
-import kent.dja33.iot.a1.util.message.Message;
-import kent.dja33.iot.a1.util.message.MessageHandler;
+import kent.dja33.iot.a1.util.device.DeviceState;
+import kent.dja33.iot.a1.util.jfr.ChartUpdateEvent;
+import kent.dja33.iot.a1.util.message.DataMessage;
+import kent.dja33.iot.a1.util.message.DataMessageListener;
+import kent.dja33.iot.a1.util.metrics.Metrics;
 
 /**
- * This class is designed to handle parsing input from the serialReader by
- * popping off messages from its queue. These messages are then added to its own
+ * This class is designed to handle input from the serialReader by listening to
+ * the SensorPipeline for DataMessages. These messages are then added to its own
  * queue which is used to update the Graphs with Sample objects.
  * 
  * Although the class has concurrent components it is also called within the FX
@@ -26,7 +28,7 @@ import kent.dja33.iot.a1.util.message.MessageHandler;
  * @author Dante
  *
  */
-public class SensorHandler implements Runnable {
+public class SensorHandler implements DataMessageListener {
 
 	/* Title of the graph */
 	private static final String TITLE = "Temperature Samples";
@@ -48,16 +50,19 @@ public class SensorHandler implements Runnable {
 
 	/* Charts and axis that are relevant for updating */
 	private final LineChart<String, Number> temperatureChart;
-	private final ScatterChart<Number, Number> accelerometerChart;
 	private final XYChart.Series<String, Number> temperatureChartSeries;
-	private final XYChart.Series<Number, Number> accelerometerChartSeries;
 	private final NumberAxis yAxis;
-	private final ProgressBar accelerometerZForce;
+	private final AccelerometerTrail accelerometerTrail;
 
 	/* Concurrent queue for samples which are used for updating the chart */
 	private ConcurrentLinkedQueue<Sample> dataQ = new ConcurrentLinkedQueue<Sample>();
-	/* Are we measuring in Celsius or Fahrenheit, default is Celsius */
-	private MeasurementType measurementType;
+	/*
+	 * Are we showing Celsius or Fahrenheit, default is Celsius. Only changes
+	 * how the axis is labelled, every sample is held in Celsius
+	 */
+	private volatile MeasurementType measurementType;
+	/* Whether to show filtered rather than raw samples, default is raw */
+	private volatile boolean filtered;
 
 	/**
 	 * Create the TemperatureHandler, pass it the chart to update and the axis
@@ -65,13 +70,12 @@ public class SensorHandler implements Runnable {
 	 * 
 	 * @param lineChart
 	 *            The chart we wish to update
-	 * @param xAxis
-	 *            The xAxis of that chart
 	 * @param yAxis
 	 *            The yAxis of that chart
+	 * @param trail
+	 *            Where to show the accelerometer
 	 */
-	public SensorHandler(LineChart<String, Number> lineChart, ScatterChart<Number, Number> scatterChart,
-			NumberAxis yAxis, ProgressBar accelerometerZ) {
+	public SensorHandler(LineChart<String, Number> lineChart, NumberAxis yAxis, AccelerometerTrail trail) {
 		this.temperatureChart = lineChart;
 		/*
 		 * Create a series of data points that we can there add and remove
@@ -82,47 +86,72 @@ public class SensorHandler implements Runnable {
 		this.yAxis = yAxis;
 		this.measurementType = MeasurementType.CELSIUS;
 		this.yAxis.setLabel("Temperature " + this.measurementType.getMeasurementSymbol());
+		this.yAxis.setTickLabelFormatter(this.measurementType.getAxisFormatter());
 
-		this.accelerometerChart = scatterChart;
-		this.accelerometerChartSeries = new XYChart.Series<Number, Number>();
-		this.accelerometerChartSeries.getData().add(new Data<Number, Number>(0, 0));
-		this.accelerometerChart.getData().add(this.accelerometerChartSeries);
+		this.accelerometerTrail = trail;
 
-		this.accelerometerZForce = accelerometerZ;
+		/*
+		 * Only update the title when the device reports a change, rather than
+		 * checking for new settings on every frame
+		 */
+		SerialReader.in.getDeviceState().addListener((state, property) -> {
+			if (property != DeviceState.Property.ACK_STATE) {
+				Platform.runLater(() -> temperatureChart.setTitle(createTitle(state)));
+			}
+		});
 
 	}
 
 	/**
-	 * Thread to handle adding messages to our queue, will try to read in all
-	 * available messages it can find that are flagged as DATA and add them to
-	 * the queue for processing later.
+	 * Create the title of the chart from the refresh rate reported by the
+	 * device and the health of the connection
+	 * 
+	 * @param state
+	 *            the state of the device
+	 * @return the title
 	 */
-	@Override
-	public void run() {
-
-		try {
-
-			Message msg = SerialReader.in.popMessage(MessageHandler.DATA);
-
-			while (msg != null) {
+	private String createTitle(DeviceState state) {
+		String title = TITLE;
+		float rate = state.getTickRate();
 
-				// If the message is not corrupted at all and is 100% good to go
-				if (msg.getPayload() == "" || msg.getPayload().length() == 0 || msg.getName() == MessageHandler.ERR) {
-					msg = SerialReader.in.popMessage(MessageHandler.DATA);
-					continue;
-				}
+		if (!Float.isNaN(rate)) {
+			title += " { Refresh rate: " + Math.round(rate * 1000) + "ms }";
+		}
 
-				dataQ.add(new Sample(msg));
+		if (state.getHealth() == DeviceState.Health.DEGRADED || state.getHealth() == DeviceState.Health.SILENT) {
+			title += " [" + state.getHealth() + "]";
+		}
 
-				msg = SerialReader.in.popMessage(MessageHandler.DATA);
+		return title;
+	}
 
-			}
+	/**
+	 * Called by the SensorPipeline for every valid DataMessage, adds the
+	 * message to the queue for processing later.
+	 */
+	@Override
+	public void dataReceived(DataMessage msg) {
+		dataQ.add(new Sample(msg, filtered));
+	}
 
-		} catch (Exception e) {
-			e.printStackTrace();
-			// ... Stop thread
-		}
+	/**
+	 * Whether filtered rather than raw samples are being shown
+	 * 
+	 * @return true if filtered
+	 */
+	public boolean isFiltered() {
+		return filtered;
+	}
 
+	/**
+	 * Choose between showing filtered or raw samples, applies to samples
+	 * received from now on
+	 * 
+	 * @param filtered
+	 *            true to show filtered samples
+	 */
+	public void setFiltered(boolean filtered) {
+		this.filtered = filtered;
 	}
 
 	public MeasurementType getMeasurementType() {
@@ -130,26 +159,19 @@ public class SensorHandler implements Runnable {
 	}
 
 	/**
+	 * Show temperatures in another unit, only the axis changes so this costs
+	 * the same however many samples are shown. Must be called on the FX
+	 * thread.
 	 * 
-	 * @param string
+	 * @param type
+	 *            the unit to show
 	 */
 	public void switchMeasurementType(MeasurementType type) {
 
-		pause = true;
-
 		measurementType = type;
 
-		yAxis.setLabel("Temperature " + measurementType.getMeasurementSymbol());
-
-		temperatureChartSeries.getData().forEach((val) -> {
-			val.setYValue(MeasurementType.convert(type, val.getYValue().floatValue()));
-		});
-
-		dataQ.forEach((val) -> {
-			val.setTemperatureSample(MeasurementType.convert(type, val.getTemperatureSample()));
-		});
-
-		pause = false;
+		yAxis.setLabel("Temperature " + type.getMeasurementSymbol());
+		yAxis.setTickLabelFormatter(type.getAxisFormatter());
 
 	}
 
@@ -201,18 +223,10 @@ public class SensorHandler implements Runnable {
 	/*
 	 * Whether the animation of the chart updating needs to be stopped
 	 */
-	private boolean stop;
-
-	/*
-	 * Pause updating the graph handler, useful for when needing to convert
-	 * existing values to new temperature format
-	 */
-	private boolean pause;
+	private volatile boolean stop;
 
 	/**
-	 * Update the chart being displayed, will try to update the current refresh
-	 * rate reported by the MBED and display that as well. Will remove all
-	 * elements that exceed the size of the displaySize that are 'old' and add
+	 * Update the chart being displayed. Will remove all elements that exceed the size of the displaySize that are 'old' and add
 	 * all new elements it can. Finally updates the limits on the Y axis so that
 	 * the chart does not shift too far or become to hard to read over varying
 	 * values
@@ -221,46 +235,41 @@ public class SensorHandler implements Runnable {
 	 */
 	public boolean updateGraphHandler() {
 
-		// Setting message
-		Message msg = SerialReader.in.popLatestMessage(MessageHandler.SETTING);
-
-		if (msg != null) {
-
-			String[] payloadSplit = msg.getPayload().split(":");
-
-			if (payloadSplit.length > 1) {
-				temperatureChart.setTitle(TITLE + " { Refresh rate: " + payloadSplit[1] + "ms }");
-			}
-
-		}
 		/* Updating Temperature Chart */
 		{
 
-			if (dataQ.isEmpty() || pause) {
+			if (dataQ.isEmpty()) {
 				return false;
 			}
 
+			ChartUpdateEvent event = new ChartUpdateEvent();
+			event.begin();
+
 			for (int i = 0; i < displaySize; i++) {
 				if (dataQ.isEmpty()) {
 					break;
 				}
 				Sample s = dataQ.remove();
+				event.pointsAdded++;
 				temperatureChartSeries.getData()
 						.add(new Data<String, Number>(s.getTimeStamp(), s.getTemperatureSample()));
+				Metrics.metrics.sampleLatency.recordSince(s.getNanoTime());
 
-				/* Update Accelerometer scatter graph, some calculations
-				 *  performed to make the outlook match up with direction */
-				accelerometerChartSeries.getData().get(0).setXValue(s.getY()*-1);
-				accelerometerChartSeries.getData().get(0).setYValue(s.getX());
-				float z = (float) (((-s.getZ() + 1) /2) + 0.05) ;
-				accelerometerZForce.setProgress(z);
+				/* Add to the accelerometer trail, Y is flipped so the
+				 * outlook matches up with direction */
+				accelerometerTrail.add(-s.getY(), s.getX(), s.getZ());
 
 			}
 
+			/* Drawn once however many samples were added */
+			accelerometerTrail.draw();
+
 			if (temperatureChartSeries.getData().size() > displaySize) {
 				temperatureChartSeries.getData().remove(0, temperatureChartSeries.getData().size() - displaySize);
 			}
 
+			long statsStart = System.nanoTime();
+
 			average = 0;
 			temperatureChartSeries.getData().forEach(e -> average += e.getYValue().intValue());
 			average /= temperatureChartSeries.getData().size();
@@ -268,6 +277,12 @@ public class SensorHandler implements Runnable {
 			yAxis.setLowerBound(average - yAxisBoundaryShift);
 			yAxis.setUpperBound(average + yAxisBoundaryShift);
 
+			event.end();
+			if (event.shouldCommit()) {
+				event.statsTime = System.nanoTime() - statsStart;
+				event.commit();
+			}
+
 		}
 
 		return stop;
@@ -282,7 +297,10 @@ public class SensorHandler implements Runnable {
 		new AnimationTimer() {
 			@Override
 			public void handle(long now) {
-				if (updateGraphHandler()) {
+				long start = System.nanoTime();
+				boolean stop = updateGraphHandler();
+				Metrics.metrics.fxFrameTime.recordSince(start);
+				if (stop) {
 					System.out.println("Stopping");
 					stop();
 				}
@@ -299,29 +317,29 @@ public class SensorHandler implements Runnable {
 
 	/**
 	 * Inner class used to store samples, effectively a wrapper component for
-	 * the Message itself that stores a conversion of the payload to floats and
-	 * then the timestamp it was given.
+	 * the DataMessage itself that stores the temperature in Celsius and then
+	 * the timestamp it was given.
 	 * 
 	 * @author Dante
 	 *
 	 */
 	private class Sample {
 
-		private float tempSample;
-		private float accelX;
-		private float accelY;
-		private float accelZ;
+		private final float tempSample;
+		private final float accelX;
+		private final float accelY;
+		private final float accelZ;
 		private final String timeStamp;
+		private final long nanoTime;
 
-		public Sample(Message msg) {
-
-			String[] split = msg.getPayload().split(":");
+		public Sample(DataMessage msg, boolean filtered) {
 
-			tempSample = Float.parseFloat(split[0]);
-			accelX = Float.parseFloat(split[1]);
-			accelY = Float.parseFloat(split[2]);
-			accelZ = Float.parseFloat(split[3]);
+			tempSample = msg.getTemperature(filtered);
+			accelX = msg.getX(filtered);
+			accelY = msg.getY(filtered);
+			accelZ = msg.getZ(filtered);
 			timeStamp = msg.getTimeReceived();
+			nanoTime = msg.getNanoTime();
 		}
 
 		public float getX() {
@@ -340,17 +358,13 @@ public class SensorHandler implements Runnable {
 			return tempSample;
 		}
 
-		/*
-		 * Needed for handling conversion of fahrenheit to celsius and vice
-		 * versa
-		 */
-		public void setTemperatureSample(float sample) {
-			this.tempSample = sample;
-		}
-
 		public String getTimeStamp() {
 			return timeStamp;
 		}
 
+		public long getNanoTime() {
+			return nanoTime;
+		}
+
 	}
 }